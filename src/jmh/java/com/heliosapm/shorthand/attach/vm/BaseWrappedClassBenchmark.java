@@ -0,0 +1,128 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package com.heliosapm.shorthand.attach.vm;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Title: BaseWrappedClassBenchmark</p>
+ * <p>Description: Compares the precompiled method handle dispatch in {@link BaseWrappedClass#invoke(Object, String, String, Object...)}
+ * against the original reflective path (hierarchy walk, string keyed lookup, static check and varargs {@link Method#invoke(Object, Object...)}).</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.shorthand.attach.vm.BaseWrappedClassBenchmark</code></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+public class BaseWrappedClassBenchmark {
+	/** The wrapped descriptor of this JVM */
+	VirtualMachineDescriptor vmd = null;
+	/** The attach API descriptor delegate */
+	Object delegate = null;
+	
+	/**
+	 * Bootstraps the attach API and picks a descriptor to dispatch against
+	 */
+	@Setup
+	public void setup() {
+		VirtualMachineBootstrap.getInstance();
+		vmd = VirtualMachine.list().get(0);
+		delegate = vmd.delegate;
+	}
+	
+	/**
+	 * The original reflective dispatch path
+	 * @return the display name
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	public Object reflectiveInvoke() throws Exception {
+		Method m = BaseWrappedClass.getMethodMap(delegate.getClass()).get("displayName");
+		return m.invoke(Modifier.isStatic(m.getModifiers()) ? null : delegate, BaseWrappedClassBenchmark.NO_ARGS);
+	}
+	
+	/**
+	 * The method handle dispatch path
+	 * @return the display name
+	 */
+	@Benchmark
+	public Object methodHandleInvoke() {
+		return BaseWrappedClass.invoke(delegate, null, "displayName");
+	}
+	
+	/**
+	 * The full wrapper call, including the context class loader swap
+	 * @return the display name
+	 */
+	@Benchmark
+	public Object wrapperCall() {
+		return vmd.displayName();
+	}
+	
+	/**
+	 * A batch of wrapper calls, each swapping the context class loader
+	 * @return the provider name
+	 */
+	@Benchmark
+	public Object unscopedBatch() {
+		vmd.id();
+		vmd.displayName();
+		return vmd.provider().name();
+	}
+	
+	/**
+	 * A batch of wrapper calls within one {@link AttachContext}
+	 * @return the provider name
+	 */
+	@Benchmark
+	@SuppressWarnings("try") // the context is only opened for its scope, see AttachContext
+	public Object scopedBatch() {
+		try(AttachContext ctx = AttachContext.open()) {
+			vmd.id();
+			vmd.displayName();
+			return vmd.provider().name();
+		}
+	}
+	
+	/** Empty args const */
+	private static final Object[] NO_ARGS = {};
+}
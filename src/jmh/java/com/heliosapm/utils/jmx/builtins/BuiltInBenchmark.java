@@ -0,0 +1,111 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.builtins;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServerConnection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Title: BuiltInBenchmark</p>
+ * <p>Description: Measures the builtin command hot paths: {@link GCBuiltIn#getGCStats(MBeanServerConnection)} against the platform MBeanServer,
+ * {@link DynamicBuiltIn#compile(String, String)} of a one line command, and the {@link Expression} evaluation of the same command.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.builtins.BuiltInBenchmark</code></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+public class BuiltInBenchmark {
+	/** The GC builtin */
+	GCBuiltIn gc = null;
+	/** The platform MBeanServer */
+	MBeanServerConnection platform = null;
+	/** The parsed {@link #COMMAND} */
+	Expression expression = null;
+	/** Serial number for unique dynamic class names */
+	final AtomicLong serial = new AtomicLong();
+	
+	/** The one line command compiled by {@link #dynamicCompile()} */
+	public static final String COMMAND = "conn.getAttribute(on(\"java.lang:type=Runtime\"), \"Uptime\")";
+	
+	/**
+	 * Creates the builtins
+	 */
+	@Setup
+	public void setup() {
+		gc = new GCBuiltIn();
+		platform = ManagementFactory.getPlatformMBeanServer();
+		expression = Expression.parse(COMMAND);
+	}
+	
+	/**
+	 * Collects the GC stats of the platform MBeanServer
+	 * @return the GC stats
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations=3, time=1)
+	@Measurement(iterations=5, time=1)
+	public Object gcStats() throws Exception {
+		return gc.getGCStats(platform);
+	}
+	
+	/**
+	 * Generates and compiles a one line dynamic command
+	 * @return the compiled class
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations=2, time=5)
+	@Measurement(iterations=3, time=5)
+	public Object dynamicCompile() throws Exception {
+		final long id = serial.incrementAndGet();
+		return DynamicBuiltIn.compile(DynamicBuiltIn.buildCode(COMMAND, id), String.format(DynamicBuiltIn.CLASS_NAME, id));
+	}
+	
+	/**
+	 * Evaluates the one line dynamic command with the interpreter
+	 * @return the command's value
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations=3, time=1)
+	@Measurement(iterations=5, time=1)
+	public Object dynamicInterpret() throws Exception {
+		return expression.evaluate(platform);
+	}
+}
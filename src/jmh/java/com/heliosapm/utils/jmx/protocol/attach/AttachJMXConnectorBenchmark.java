@@ -0,0 +1,172 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.attach;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Title: AttachJMXConnectorBenchmark</p>
+ * <p>Description: Measures <b><code>attach:</code></b> connect latency to a forked child JVM: pooled connects (a logical connector over
+ * a pooled physical connection), dedicated connects (attach and RMI connect every time) and display name resolution.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.attach.AttachJMXConnectorBenchmark</code></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations=2, time=2)
+@Measurement(iterations=5, time=2)
+public class AttachJMXConnectorBenchmark {
+	/** The forked child JVM */
+	Process child = null;
+	/** The pid URL of the child JVM */
+	JMXServiceURL pidUrl = null;
+	/** The display name regex URL of the child JVM */
+	JMXServiceURL nameUrl = null;
+	/** The environment for dedicated connections */
+	final Map<String, ?> dedicated = Collections.singletonMap(AttachJMXConnector.POOLED_KEY, "false");
+	
+	/**
+	 * <p>Title: Child</p>
+	 * <p>Description: The forked child JVM's main class. Exits when its stdin is closed.</p> 
+	 */
+	public static class Child {
+		/**
+		 * Reports readiness and waits for stdin to close
+		 * @param args None
+		 * @throws Exception on any error
+		 */
+		public static void main(final String[] args) throws Exception {
+			System.out.println("READY");
+			System.out.flush();
+			while(System.in.read()!=-1) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * Forks the child JVM
+	 * @throws Exception on any error
+	 */
+	@Setup
+	public void setup() throws Exception {
+		final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Child.class.getName()).redirectErrorStream(true).start();
+		final BufferedReader br = new BufferedReader(new InputStreamReader(child.getInputStream()));
+		final String line = br.readLine();
+		if(!"READY".equals(line)) throw new IllegalStateException("Child JVM failed to start: " + line);
+		final String pid = pid(child);
+		pidUrl = new JMXServiceURL("service:jmx:attach:///" + pid);
+		nameUrl = new JMXServiceURL("service:jmx:attach:///[.*" + Child.class.getSimpleName() + "]");
+		// warm the pool and the connector address cache
+		JMXConnectorFactory.connect(pidUrl).close();
+	}
+	
+	/**
+	 * Returns the pid of the passed process, falling back to resolving the child by display name before Java 9
+	 * @param process The process
+	 * @return the pid
+	 */
+	static String pid(final Process process) {
+		try {
+			return Process.class.getMethod("pid").invoke(process).toString();
+		} catch (Exception ex) {
+			return new AttachJMXConnector("[.*" + Child.class.getSimpleName() + "]").resolve();
+		}
+	}
+	
+	/**
+	 * Stops the child JVM
+	 * @throws Exception on any error
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		AttachConnectionPool.getInstance().closeIdle();
+		child.getOutputStream().close();
+		if(!child.waitFor(10, TimeUnit.SECONDS)) child.destroyForcibly();
+	}
+	
+	/**
+	 * Connects and closes a pooled connector by pid
+	 * @return the connection id
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	public Object pooledConnect() throws Exception {
+		final JMXConnector c = JMXConnectorFactory.connect(pidUrl);
+		try {
+			return c.getConnectionId();
+		} finally {
+			c.close();
+		}
+	}
+	
+	/**
+	 * Connects and closes a pooled connector by display name regex
+	 * @return the connection id
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	public Object pooledConnectByName() throws Exception {
+		final JMXConnector c = JMXConnectorFactory.connect(nameUrl);
+		try {
+			return c.getConnectionId();
+		} finally {
+			c.close();
+		}
+	}
+	
+	/**
+	 * Attaches, connects and closes a dedicated connector by pid
+	 * @return the connection id
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object dedicatedConnect() throws Exception {
+		final JMXConnector c = JMXConnectorFactory.connect(pidUrl, dedicated);
+		try {
+			return c.getConnectionId();
+		} finally {
+			c.close();
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.attach;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.heliosapm.utils.jmx.agent.AgentInstaller;
+
+/**
+ * <p>Title: AttachTransportBenchmark</p>
+ * <p>Description: Compares the RMI and Unix domain socket transports of <b><code>attach:</code></b> connections to a forked child JVM
+ * running the jmxlocal agent with <b><code>uds=true</code></b>. Besides the call latency, the {@link Cpu} counters report the CPU time
+ * per call spent in this JVM and in the child JVM.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.attach.AttachTransportBenchmark</code></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations=2, time=2)
+@Measurement(iterations=5, time=2)
+public class AttachTransportBenchmark {
+	/** The transport under test */
+	@Param({"rmi", "uds"})
+	public String transport;
+	/** The forked child JVM */
+	Process child = null;
+	/** The connector to the child JVM */
+	JMXConnector connector = null;
+	/** The connection to the child JVM */
+	MBeanServerConnection conn = null;
+	/** The memory MXBean ObjectName */
+	final ObjectName memory = AttachJMXConnector.objectName(ManagementFactory.MEMORY_MXBEAN_NAME);
+	/** The OS MXBean ObjectName */
+	final ObjectName os = AttachJMXConnector.objectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME);
+	/** The threading MXBean ObjectName */
+	final ObjectName threading = AttachJMXConnector.objectName(ManagementFactory.THREAD_MXBEAN_NAME);
+	/** The attributes read by {@link #getAttributes()} */
+	final String[] threadAttributes = {"ThreadCount", "PeakThreadCount", "DaemonThreadCount", "TotalStartedThreadCount"};
+	
+	/**
+	 * <p>Title: Cpu</p>
+	 * <p>Description: Process CPU time per call in nanoseconds, in this JVM (<b>clientCpu</b>) and the child JVM (<b>targetCpu</b>).
+	 * Process CPU time includes every thread, e.g. the JIT and GC, so it can exceed the call latency.</p> 
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Cpu {
+		/** This JVM's CPU ns. per call in the last iteration */
+		public double clientCpu;
+		/** The child JVM's CPU ns. per call in the last iteration */
+		public double targetCpu;
+		/** The calls made in this iteration */
+		long calls;
+		/** This JVM's CPU time at the iteration start */
+		long clientStart;
+		/** The child JVM's CPU time at the iteration start */
+		long targetStart;
+		
+		/**
+		 * Captures the starting CPU times
+		 * @param b The benchmark state
+		 * @throws Exception on any error
+		 */
+		@Setup(Level.Iteration)
+		public void start(final AttachTransportBenchmark b) throws Exception {
+			calls = 0;
+			clientStart = processCpu();
+			targetStart = b.targetCpu();
+		}
+		
+		/**
+		 * Computes the CPU time per call
+		 * @param b The benchmark state
+		 * @throws Exception on any error
+		 */
+		@TearDown(Level.Iteration)
+		public void stop(final AttachTransportBenchmark b) throws Exception {
+			final long targetEnd = b.targetCpu();
+			final long clientEnd = processCpu();
+			clientCpu = calls==0 ? 0 : (double)(clientEnd - clientStart) / calls;
+			targetCpu = calls==0 ? 0 : (double)(targetEnd - targetStart) / calls;
+		}
+	}
+	
+	/**
+	 * Forks the child JVM, loads the agent and connects over the transport under test
+	 * @throws Exception on any error
+	 */
+	@Setup
+	public void setup() throws Exception {
+		final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), AttachJMXConnectorBenchmark.Child.class.getName()).redirectErrorStream(true).start();
+		final BufferedReader br = new BufferedReader(new InputStreamReader(child.getInputStream()));
+		final String line = br.readLine();
+		if(!"READY".equals(line)) throw new IllegalStateException("Child JVM failed to start: " + line);
+		final String pid = AttachJMXConnectorBenchmark.pid(child);
+		AgentInstaller.install(pid, "uds=true");
+		final Map<String, Object> env = new HashMap<String, Object>();
+		env.put(AttachJMXConnector.POOLED_KEY, "false");
+		env.put(AttachJMXConnector.UDS_KEY, Boolean.toString("uds".equals(transport)));
+		connector = JMXConnectorFactory.connect(new JMXServiceURL("service:jmx:attach:///" + pid), env);
+		if("uds".equals(transport)!=connector.getConnectionId().contains("uds:")) {
+			throw new IllegalStateException("Wrong transport for [" + transport + "]: " + connector.getConnectionId());
+		}
+		conn = connector.getMBeanServerConnection();
+	}
+	
+	/**
+	 * Closes the connector and stops the child JVM
+	 * @throws Exception on any error
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		try { connector.close(); } catch (Exception x) {/* No Op */}
+		child.getOutputStream().close();
+		if(!child.waitFor(10, TimeUnit.SECONDS)) child.destroyForcibly();
+	}
+	
+	/**
+	 * Returns the child JVM's process CPU time
+	 * @return the CPU time in ns.
+	 * @throws Exception on any error
+	 */
+	long targetCpu() throws Exception {
+		return ((Number)conn.getAttribute(os, "ProcessCpuTime")).longValue();
+	}
+	
+	/**
+	 * Returns this JVM's process CPU time
+	 * @return the CPU time in ns.
+	 */
+	static long processCpu() {
+		return ((com.sun.management.OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+	}
+	
+	/**
+	 * Reads a composite attribute
+	 * @param cpu The CPU counters
+	 * @return the heap usage
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	public Object getAttribute(final Cpu cpu) throws Exception {
+		cpu.calls++;
+		return conn.getAttribute(memory, "HeapMemoryUsage");
+	}
+	
+	/**
+	 * Reads several simple attributes in one call
+	 * @param cpu The CPU counters
+	 * @return the attribute list
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	public Object getAttributes(final Cpu cpu) throws Exception {
+		cpu.calls++;
+		return conn.getAttributes(threading, threadAttributes);
+	}
+	
+	/**
+	 * Queries the names in one domain
+	 * @param cpu The CPU counters
+	 * @return the names
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	public Object queryNames(final Cpu cpu) throws Exception {
+		cpu.calls++;
+		return conn.queryNames(AttachJMXConnector.objectName("java.lang:*"), null);
+	}
+}
@@ -0,0 +1,151 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.local;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Title: LocalJMXConnectorBenchmark</p>
+ * <p>Description: Measures <b><code>local:</code></b> connects and attribute reads through a local connector
+ * against reads straight from the platform MBeanServer, and MXBean attribute reads against the typed platform MXBean fast path.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.local.LocalJMXConnectorBenchmark</code></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+public class LocalJMXConnectorBenchmark {
+	/** The local connector URL */
+	JMXServiceURL url = null;
+	/** The attribute read target */
+	ObjectName threading = null;
+	/** The platform MBeanServer */
+	MBeanServer platform = null;
+	/** An open local connector */
+	JMXConnector connector = null;
+	/** The open local connector's connection */
+	MBeanServerConnection connection = null;
+	/** The memory MXBean read target */
+	ObjectName memory = null;
+	/** The memory MXBean from the local connector's typed fast path */
+	MemoryMXBean memoryMXBean = null;
+	
+	/**
+	 * Opens the local connector used by the read benchmarks
+	 * @throws Exception on any error
+	 */
+	@Setup
+	public void setup() throws Exception {
+		url = new JMXServiceURL("service:jmx:local:///");
+		threading = new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME);
+		platform = ManagementFactory.getPlatformMBeanServer();
+		connector = JMXConnectorFactory.connect(url);
+		connection = connector.getMBeanServerConnection();
+		memory = new ObjectName(ManagementFactory.MEMORY_MXBEAN_NAME);
+		memoryMXBean = ((LocalJMXConnector)connector).getPlatformMXBean(MemoryMXBean.class);
+	}
+	
+	/**
+	 * Closes the local connector
+	 * @throws Exception on any error
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		connector.close();
+	}
+	
+	/**
+	 * Connects and closes a <b><code>local:</code></b> connector
+	 * @return the connection
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	public Object localConnect() throws Exception {
+		final JMXConnector c = JMXConnectorFactory.connect(url);
+		try {
+			return c.getMBeanServerConnection();
+		} finally {
+			c.close();
+		}
+	}
+	
+	/**
+	 * Reads an attribute through the open local connector
+	 * @return the attribute value
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	public Object localRead() throws Exception {
+		return connection.getAttribute(threading, "ThreadCount");
+	}
+	
+	/**
+	 * Reads the same attribute directly from the platform MBeanServer
+	 * @return the attribute value
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	public Object platformRead() throws Exception {
+		return platform.getAttribute(threading, "ThreadCount");
+	}
+	
+	/**
+	 * Reads the heap usage through the open local connector (converted to CompositeData)
+	 * @return the heap usage
+	 * @throws Exception on any error
+	 */
+	@Benchmark
+	public Object heapUsageAttribute() throws Exception {
+		return connection.getAttribute(memory, "HeapMemoryUsage");
+	}
+	
+	/**
+	 * Reads the heap usage through the local connector's typed platform MXBean fast path
+	 * @return the heap usage
+	 */
+	@Benchmark
+	public Object heapUsageDirect() {
+		return memoryMXBean.getHeapMemoryUsage();
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package com.heliosapm.shorthand.attach.vm;
+
+import java.io.Closeable;
+
+/**
+ * <p>Title: AttachContext</p>
+ * <p>Description: A scope that swaps the calling thread's context class loader to the Attach API class loader once
+ * for a whole batch of wrapper calls. While the scope is open, the per call {@link BaseWrappedClass#pushCl()} and 
+ * {@link BaseWrappedClass#popCl()} in each wrapper method only adjust the scope depth and do not touch the thread.</p>
+ * <p>Intended to be used with try-with-resources:<pre>
+ * try(AttachContext ctx = AttachContext.open()) {
+ *    for(VirtualMachineDescriptor vmd: VirtualMachine.list()) {
+ *       ... vmd.id() ... vmd.displayName() ...
+ *    }
+ * }
+ * </pre></p>
+ * <p>A context must be closed by the thread that opened it. Contexts may be nested. Since the body does not usually reference the context,
+ * methods opening one this way suppress javac's <code>try</code> lint (an unreferenced resource warning).</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.shorthand.attach.vm.AttachContext</code></p>
+ */
+public class AttachContext implements Closeable {
+	/** The thread that opened this context */
+	private final Thread owner;
+	/** Indicates if this context is the calling thread's outermost context */
+	private final boolean outermost;
+	/** Indicates if this context has been closed */
+	private boolean closed = false;
+	
+	/**
+	 * Opens a new attach context on the calling thread
+	 * @return the opened context which must be closed by the calling thread
+	 */
+	public static AttachContext open() {
+		final boolean outermost = !BaseWrappedClass.isClPushed();
+		BaseWrappedClass.pushCl();
+		return new AttachContext(outermost);
+	}
+	
+	/**
+	 * Indicates if the calling thread is currently within an attach context (or a wrapper call)
+	 * @return true if the Attach API class loader is currently installed for the calling thread
+	 */
+	public static boolean isActive() {
+		return BaseWrappedClass.isClPushed();
+	}
+
+	/**
+	 * Creates a new AttachContext
+	 * @param outermost true if this is the calling thread's outermost context
+	 */
+	private AttachContext(final boolean outermost) {
+		owner = Thread.currentThread();
+		this.outermost = outermost;
+	}
+
+	/**
+	 * Closes this context, restoring the calling thread's original context class loader if this is the outermost context.
+	 * Closing the outermost context also resets the thread's saved state, so a push left unbalanced inside the scope
+	 * (e.g. by a failed Attach API bootstrap on JDK 8) cannot leave the attach or system class loader installed.
+	 * Subsequent calls are ignored.
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		if(closed) return;
+		if(Thread.currentThread()!=owner) throw new IllegalStateException("AttachContext opened by [" + owner + "] cannot be closed by [" + Thread.currentThread() + "]");
+		closed = true;
+		if(outermost) {
+			BaseWrappedClass.resetCl();
+		} else {
+			BaseWrappedClass.popCl();
+		}
+	}
+}
@@ -29,8 +29,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -42,8 +41,15 @@ import java.util.logging.Logger;
  * <p><code>com.heliosapm.shorthand.attach.vm.AttachProvider</code></p>
  */
 public class AttachProvider extends BaseWrappedClass {
-	/** A map of attach provider delegates keyed by their system identity hash codes */
-	private static final Map<Integer, AttachProvider> apInstances = new ConcurrentHashMap<Integer, AttachProvider>();
+	/** A cache of attach provider wrappers keyed by their delegates */
+	private static final WrapperCache<AttachProvider> apInstances = new WrapperCache<AttachProvider>("AttachProvider") {
+		@Override
+		protected AttachProvider create(final Object delegate) {
+			return new AttachProvider(delegate);
+		}
+	};
+	/** The installed attach providers, strongly held since the wrapper cache is weak */
+	private static final List<AttachProvider> installed = new CopyOnWriteArrayList<AttachProvider>();
 	/** Static class logger */
 	private final static Logger log = Logger.getLogger(AttachProvider.class.getName()); 
 	
@@ -52,7 +58,7 @@ public class AttachProvider extends BaseWrappedClass {
 	 * @return a collection of attach providers
 	 */
 	public static Collection<AttachProvider> getAttachProviders() {
-		return Collections.unmodifiableCollection(apInstances.values());
+		return Collections.unmodifiableCollection(installed);
 	}
 	
 	/**
@@ -65,18 +71,15 @@ public class AttachProvider extends BaseWrappedClass {
 		if(!VirtualMachineBootstrap.getInstance().isInstanceOf(delegate, VirtualMachineBootstrap.ATTACH_PROVIDER_CLASS)) {
 			throw new IllegalArgumentException("The passed delegate of type [" + delegate.getClass().getName() + "] was not of the type [" + VirtualMachineBootstrap.ATTACH_PROVIDER_CLASS + "]", new Throwable());
 		}		
-		int id = System.identityHashCode(delegate);
-		AttachProvider ap = apInstances.get(id);
-		if(ap==null) {
-			synchronized(apInstances) {
-				ap = apInstances.get(id);
-				if(ap==null) {
-					ap = new AttachProvider(delegate);
-					apInstances.put(id, ap);
-				}
-			}
-		}
-		return ap;
+		return apInstances.get(delegate);
+	}
+	
+	/**
+	 * Returns the AttachProvider wrapper cache
+	 * @return the AttachProvider wrapper cache
+	 */
+	public static WrapperCache<AttachProvider> getInstanceCache() {
+		return apInstances;
 	}
 	
 	/**
@@ -172,7 +175,9 @@ public class AttachProvider extends BaseWrappedClass {
 			m.setAccessible(true);
 			List<?> aps = (List<?>)m.invoke(null);
 			for(Object del: aps) {
-				getInstance(del);
+				final AttachProvider ap = getInstance(del);
+				if(!installed.contains(ap)) installed.add(ap);
+				getDispatchMap(del.getClass());
 			}			
 		} catch (Exception e) {
 			throw new RuntimeException("Failed to initialize AttachProvider Cache", e);
@@ -24,7 +24,11 @@
  */
 package com.heliosapm.shorthand.attach.vm;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -48,38 +52,88 @@ public abstract class BaseWrappedClass {
 	
 	/** The reflected class methods keyed by the standard method encoding name */
 	protected static final Map<Class<?>, Map<String, Method>> methodMap = new ConcurrentHashMap<Class<?>, Map<String, Method>>();
+	/** The precompiled method handles of the reflected classes keyed by the standard method encoding name */
+	protected static final Map<Class<?>, Map<String, MethodHandle>> handleMap = new ConcurrentHashMap<Class<?>, Map<String, MethodHandle>>();
+	/** The resolved method handle maps keyed by the concrete delegate class so the type hierarchy is only climbed once per class */
+	protected static final Map<Class<?>, Map<String, MethodHandle>> dispatchMap = new ConcurrentHashMap<Class<?>, Map<String, MethodHandle>>();
+	/** The uniform dispatch type all method handles are adapted to: <code>(Object delegate, Object[] args)Object</code> */
+	protected static final MethodType DISPATCH_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
 	
 	/** Thread local to save (and restore) a calling thread's context classloader */
-	protected static final ThreadLocal<ClassLoader> savedState = new ThreadLocal<ClassLoader>();
+	protected static final ThreadLocal<ClScope> savedState = new ThreadLocal<ClScope>() {
+		@Override
+		protected ClScope initialValue() {
+			return new ClScope();
+		}
+	};
 	
 	/** Static class logger */
 	private final Logger log = Logger.getLogger(getClass().getName()); 
 
 	
 	/**
-	 * Saves the calling thread's context class loader and replaces it with the VM class loader if it's thread local saved state is null
+	 * Saves the calling thread's context class loader and replaces it with the VM class loader if this is the outermost push.
+	 * Nested pushes (e.g. wrapper calls made inside an {@link AttachContext}) only increment the scope depth.
 	 */
 	public static void pushCl() {
-		if(savedState.get()==null) {
-			savedState.set(Thread.currentThread().getContextClassLoader());
+		final ClScope scope = savedState.get();
+		if(scope.depth++==0) {
+			final Thread t = Thread.currentThread();
+			scope.saved = t.getContextClassLoader();
 			ClassLoader cl = VirtualMachineBootstrap.attachClassLoader.get();
-			Thread.currentThread().setContextClassLoader(cl==null ? ClassLoader.getSystemClassLoader() : cl);
+			if(cl==null) cl = ClassLoader.getSystemClassLoader();
+			if(scope.saved!=cl) t.setContextClassLoader(cl);
 			//log("Pushed ClassLoader [" + Thread.currentThread().getContextClassLoader() + "]");
 		}
 	}
 	
 	/**
-	 * Restored the calling thread's context class loader if it's thread local saved state is not null.
+	 * Restores the calling thread's context class loader if this pop closes the outermost push.
 	 */
 	public static void popCl() {
-		if(savedState.get()!=null) {
-			Thread.currentThread().setContextClassLoader(savedState.get());
-			savedState.remove();
+		final ClScope scope = savedState.get();
+		if(scope.depth==0) return;
+		if(--scope.depth==0) {
+			final Thread t = Thread.currentThread();
+			if(t.getContextClassLoader()!=scope.saved) t.setContextClassLoader(scope.saved);
+			scope.saved = null;
+		}
+	}
+	
+	/**
+	 * Unconditionally restores the calling thread's context class loader saved by the outermost push
+	 * and clears the thread's saved state, discarding any unbalanced nested pushes.
+	 */
+	public static void resetCl() {
+		final ClScope scope = savedState.get();
+		if(scope.depth > 0) {
+			final Thread t = Thread.currentThread();
+			if(t.getContextClassLoader()!=scope.saved) t.setContextClassLoader(scope.saved);
 		}
+		savedState.remove();
 	}
 	
 	/**
-	 * Reflective invocation
+	 * Indicates if the calling thread currently has the attach class loader pushed
+	 * @return true if the attach class loader is pushed, false otherwise
+	 */
+	public static boolean isClPushed() {
+		return savedState.get().depth > 0;
+	}
+	
+	/**
+	 * <p>Title: ClScope</p>
+	 * <p>Description: The per thread saved context class loader and push depth</p> 
+	 */
+	protected static final class ClScope {
+		/** The calling thread's context class loader saved by the outermost push */
+		ClassLoader saved = null;
+		/** The number of un-popped pushes */
+		int depth = 0;
+	}
+	
+	/**
+	 * Method handle invocation
 	 * @param delegate The target object to invoke against. Ignored if method is static.
 	 * @param delegateType The class of the delegate . Ignored if the actual delegate is passed.
 	 * @param methodEncode The method encode key
@@ -87,7 +141,7 @@ public abstract class BaseWrappedClass {
 	 * @return The return value of the method invocation
 	 */
 	protected static Object invoke(Object delegate, String delegateType, String methodEncode, Object...args) {
-		Method m = null;
+		MethodHandle mh = null;
 		try {
 			if(delegate==null && delegateType==null) throw new IllegalArgumentException("The passed delegate and delegate type was null. One must be provided", new Throwable());
 			if(methodEncode==null) throw new IllegalArgumentException("The passed methodEncode was null", new Throwable());
@@ -99,12 +153,11 @@ public abstract class BaseWrappedClass {
 				delegateClass = VirtualMachineBootstrap.getInstance().classCache.get(delegateType);
 			}
 			if(delegateClass==null) throw new IllegalArgumentException("Could not determine delegate class", new Throwable());
-			Map<String, Method> mMap = getMethodMap(delegateClass);		
-			m = mMap.get(methodEncode);
-			if(m==null) throw new IllegalArgumentException("The passed methodEncode [" + methodEncode + "] does not map to a delegate method", new Throwable());	
-			return m.invoke(java.lang.reflect.Modifier.isStatic(m.getModifiers()) ? null : delegate, args);
-		} catch (Exception e) {
-			throw new VirtualMachineInvocationException("Failed to invoke [" + (m==null ? methodEncode : m.toGenericString()) + "]", e);
+			mh = getDispatchMap(delegateClass).get(methodEncode);
+			if(mh==null) throw new IllegalArgumentException("The passed methodEncode [" + methodEncode + "] does not map to a delegate method", new Throwable());	
+			return (Object)mh.invokeExact(delegate, args);
+		} catch (Throwable e) {
+			throw new VirtualMachineInvocationException("Failed to invoke [" + methodEncode + "]", e);
 		}
 	}
 	
@@ -124,6 +177,44 @@ public abstract class BaseWrappedClass {
 		throw new IllegalArgumentException("No method map for delegate class [" + clazz.getName() + "]", new Throwable());
 	}
 	
+	/**
+	 * Retrieves the method handle map for the passed delegate class. The type hierarchy is climbed 
+	 * on the first call for each concrete class and the result is memoized.
+	 * @param clazz The class to get the method handle map for
+	 * @return The method handle map for the passed class
+	 */
+	protected static Map<String, MethodHandle> getDispatchMap(Class<?> clazz) {
+		Map<String, MethodHandle> hMap = dispatchMap.get(clazz);
+		if(hMap!=null) return hMap;
+		Class<?> target = clazz;
+		while(!target.equals(Object.class)) {
+			hMap = handleMap.get(target);
+			if(hMap!=null) {
+				dispatchMap.put(clazz, hMap);
+				return hMap;
+			}
+			target = target.getSuperclass();
+		}
+		throw new IllegalArgumentException("No method handle map for delegate class [" + clazz.getName() + "]", new Throwable());
+	}
+	
+	/**
+	 * Creates a method handle for the passed method, adapted to the uniform {@link #DISPATCH_TYPE}
+	 * so that every call site can use {@link MethodHandle#invokeExact(Object...)}.
+	 * Static methods ignore the passed delegate.
+	 * @param m The method to create a handle for
+	 * @return the adapted method handle
+	 * @throws IllegalAccessException thrown if the method is not accessible
+	 */
+	protected static MethodHandle toDispatchHandle(Method m) throws IllegalAccessException {
+		MethodHandle mh = MethodHandles.lookup().unreflect(m).asFixedArity();
+		if(Modifier.isStatic(m.getModifiers())) {
+			mh = MethodHandles.dropArguments(mh, 0, Object.class);
+		}
+		mh = mh.asSpreader(Object[].class, m.getParameterTypes().length);
+		return mh.asType(DISPATCH_TYPE);
+	}
+	
 	/**
 	 * Creates a new BaseWrappedClass
 	 * @param delegate The attach API delegate object
@@ -162,21 +253,30 @@ public abstract class BaseWrappedClass {
 				if(mMap==null) {
 					Method[] methods = type.getDeclaredMethods();
 					mMap = new HashMap<String, Method>(methods.length);
-					methodMap.put(type, mMap);
+					Map<String, MethodHandle> hMap = new HashMap<String, MethodHandle>(methods.length);
 					Map<String, Integer> overloads = mapOverloads(methods);
 					for(Method m: methods) {						
 						m.setAccessible(true);
 						String name = m.getName();
+						String key = null;
 						if(overloads.get(name)==1 || m.getParameterTypes().length==0) {
-							mMap.put(name, m);
+							key = name;
 						} else {							
 							StringBuilder b = new StringBuilder(name);
 							for(Class<?> clazz: m.getParameterTypes()) {
 								b.append(clazz.isPrimitive() ? clazz.getName().charAt(0) : clazz.getSimpleName().charAt(0));
 							}
-							mMap.put(b.toString(), m);
-						}						
+							key = b.toString();
+						}
+						mMap.put(key, m);
+						try {
+							hMap.put(key, toDispatchHandle(m));
+						} catch (IllegalAccessException iae) {
+							/* Not accessible, so cannot be dispatched */
+						}
 					}
+					handleMap.put(type, hMap);
+					methodMap.put(type, mMap);
 				}
 			}			
 		}
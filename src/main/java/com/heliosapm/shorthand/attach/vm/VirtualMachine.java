@@ -27,9 +27,7 @@ package com.heliosapm.shorthand.attach.vm;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.management.MBeanServerConnection;
 import javax.management.remote.JMXConnector;
@@ -44,8 +42,13 @@ import javax.management.remote.JMXServiceURL;
  * <p><code>com.heliosapm.shorthand.attach.vm.VirtualMachine</code></p>
  */
 public class VirtualMachine extends BaseWrappedClass {
-	/** A map of virtual machine keyed by their system identity hash codes */
-	private static final Map<Integer, VirtualMachine> vmInstances = new ConcurrentHashMap<Integer, VirtualMachine>();
+	/** A cache of virtual machine wrappers keyed by their delegates */
+	private static final WrapperCache<VirtualMachine> vmInstances = new WrapperCache<VirtualMachine>("VirtualMachine") {
+		@Override
+		protected VirtualMachine create(final Object delegate) {
+			return new VirtualMachine(delegate);
+		}
+	};
 	/** The JMXServiceURL of this VirtualMachine */
 	private volatile JMXServiceURL jmxServiceURL = null;
 	/** The agent property representing the JMXServiceURL of the management agent */
@@ -73,18 +76,15 @@ public class VirtualMachine extends BaseWrappedClass {
 		if(!VirtualMachineBootstrap.getInstance().isInstanceOf(delegate, VirtualMachineBootstrap.VM_CLASS)) {
 			throw new IllegalArgumentException("The passed delegate of type [" + delegate.getClass().getName() + "] is not an instance of [" + VirtualMachineBootstrap.VM_CLASS + "]", new Throwable());
 		}
-		int key = System.identityHashCode(delegate);
-		VirtualMachine vm = vmInstances.get(key);
-		if(vm==null) {
-			synchronized(vmInstances) {
-				vm = vmInstances.get(key);
-				if(vm==null) {
-					vm = new VirtualMachine(delegate);
-					vmInstances.put(key, vm);
-				}
-			}
-		}
-		return vm;
+		return vmInstances.get(delegate);
+	}
+	
+	/**
+	 * Returns the VirtualMachine wrapper cache
+	 * @return the VirtualMachine wrapper cache
+	 */
+	public static WrapperCache<VirtualMachine> getInstanceCache() {
+		return vmInstances;
 	}
 	
 	static {
@@ -363,11 +363,12 @@ public class VirtualMachine extends BaseWrappedClass {
 	 * @return a {@link JMXServiceURL} to connect to this VM instance
 	 * TODO: We need to allow this using authentication.
 	 */
+	@SuppressWarnings("try") // the context is only opened for its scope, see AttachContext
 	public JMXServiceURL getJMXServiceURL() {
 		if(jmxServiceURL==null) {
 			synchronized(this) {
 				if(jmxServiceURL==null) {
-					try {
+					try(AttachContext ctx = AttachContext.open()) {
 						String connAddr = getAgentProperties().getProperty(CONNECTOR_ADDRESS);
 						if(connAddr==null) {
 							Properties sysProps = getSystemProperties();
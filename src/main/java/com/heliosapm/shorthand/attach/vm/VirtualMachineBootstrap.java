@@ -227,7 +227,6 @@ public class VirtualMachineBootstrap extends BaseWrappedClass {
 			log.log(Level.FINER, "Attach API ClassLoader:" + cl);
 			attachClassLoader.set(cl);
 			found.set(true);
-			BaseWrappedClass.savedState.set(null);
 			return;
 		} catch (Throwable e) {
 //			log.info("Not found:" + e);
@@ -251,7 +250,6 @@ public class VirtualMachineBootstrap extends BaseWrappedClass {
 						log.log(Level.FINER, "Attach API Found And Loaded [" + toolsLoc + "]");	
 						
 						attachClassLoader.set(ucl);
-//						BaseWrappedClass.savedState.set(null);						
 						return;
 					}
 				}
@@ -26,8 +26,6 @@ package com.heliosapm.shorthand.attach.vm;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p>Title: VirtualMachineDescriptor</p>
@@ -37,8 +35,13 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p><code>com.heliosapm.shorthand.attach.vm.VirtualMachineDescriptor</code></p>
  */
 public class VirtualMachineDescriptor extends BaseWrappedClass {
-	/** A map of machine descriptors delegates keyed by their system identity hash codes */
-	private static final Map<Integer, VirtualMachineDescriptor> vmdInstances = new ConcurrentHashMap<Integer, VirtualMachineDescriptor>();
+	/** A cache of machine descriptor wrappers keyed by their delegates */
+	private static final WrapperCache<VirtualMachineDescriptor> vmdInstances = new WrapperCache<VirtualMachineDescriptor>("VirtualMachineDescriptor") {
+		@Override
+		protected VirtualMachineDescriptor create(final Object delegate) {
+			return new VirtualMachineDescriptor(delegate);
+		}
+	};
 
 	/**
 	 * Acquires the wrapped VirtualMachineDescriptor for the passed delegate
@@ -50,18 +53,15 @@ public class VirtualMachineDescriptor extends BaseWrappedClass {
 		if(!VirtualMachineBootstrap.getInstance().isInstanceOf(delegate, VirtualMachineBootstrap.VM_DESC_CLASS)) {
 			throw new IllegalArgumentException("The passed delegate of type [" + delegate.getClass().getName() + "] was not of the type [" + VirtualMachineBootstrap.VM_DESC_CLASS + "]", new Throwable());
 		}		
-		int id = System.identityHashCode(delegate);
-		VirtualMachineDescriptor vmd = vmdInstances.get(id);
-		if(vmd==null) {
-			synchronized(vmdInstances) {
-				vmd = vmdInstances.get(id);
-				if(vmd==null) {
-					vmd = new VirtualMachineDescriptor(delegate);
-					vmdInstances.put(id, vmd);
-				}
-			}
-		}
-		return vmd;
+		return vmdInstances.get(delegate);
+	}
+	
+	/**
+	 * Returns the VirtualMachineDescriptor wrapper cache
+	 * @return the VirtualMachineDescriptor wrapper cache
+	 */
+	public static WrapperCache<VirtualMachineDescriptor> getInstanceCache() {
+		return vmdInstances;
 	}
 	
 	/**
@@ -73,18 +73,7 @@ public class VirtualMachineDescriptor extends BaseWrappedClass {
 		try {
 			pushCl();
 			for(AttachProvider ap: AttachProvider.getAttachProviders()) {
-				for(VirtualMachineDescriptor vmd: ap.listVirtualMachines()) {
-					results.add(vmd);
-					int key = System.identityHashCode(vmd.delegate);
-					if(!vmdInstances.containsKey(key)) {
-						synchronized(vmdInstances) {
-							if(!vmdInstances.containsKey(key)) {
-								VirtualMachineDescriptor virtualMachineDescriptor = new VirtualMachineDescriptor(vmd);
-								vmdInstances.put(key, virtualMachineDescriptor);
-							}
-						}
-					}					
-				}
+				results.addAll(ap.listVirtualMachines());
 			}
 			return results;
 		} catch (Exception e) {
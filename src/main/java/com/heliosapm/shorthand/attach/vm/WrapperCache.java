@@ -0,0 +1,305 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package com.heliosapm.shorthand.attach.vm;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Title: WrapperCache</p>
+ * <p>Description: A bounded, weakly referenced, identity keyed cache of Attach API delegate wrappers.</p>
+ * <p>Delegates are matched by reference identity (not by identity hash code, so hash collisions cannot return the wrong wrapper)
+ * and both the delegate and the wrapper are weakly held, so entries for descriptors and virtual machines
+ * that are no longer referenced are expunged once collected. The cache is LRU bounded at {@link #getMaxSize()} entries.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.shorthand.attach.vm.WrapperCache</code></p>
+ * @param <T> The wrapper type
+ */
+public abstract class WrapperCache<T extends BaseWrappedClass> {
+	/** The system property to override the default maximum size of each wrapper cache */
+	public static final String MAX_SIZE_PROP = "jmxlocal.wrappercache.size";
+	/** The default maximum size of each wrapper cache */
+	public static final int DEFAULT_MAX_SIZE = 1024;
+	
+	/** The cache name */
+	private final String name;
+	/** The maximum number of entries */
+	private final int maxSize;
+	/** The reference queue that collected delegates and wrappers are enqueued to */
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+	/** The access ordered cache map */
+	private final Map<Object, WrapperRef<T>> cache;
+	/** The cache hit counter */
+	private final AtomicLong hits = new AtomicLong(0L);
+	/** The cache miss counter */
+	private final AtomicLong misses = new AtomicLong(0L);
+	/** The LRU eviction counter */
+	private final AtomicLong evictions = new AtomicLong(0L);
+	/** The collected entry counter */
+	private final AtomicLong collected = new AtomicLong(0L);
+	
+	/**
+	 * Creates a new WrapperCache with the configured default maximum size
+	 * @param name The cache name
+	 */
+	public WrapperCache(final String name) {
+		this(name, Integer.getInteger(MAX_SIZE_PROP, DEFAULT_MAX_SIZE));
+	}
+	
+	/**
+	 * Creates a new WrapperCache
+	 * @param name The cache name
+	 * @param maxSize The maximum number of entries
+	 */
+	public WrapperCache(final String name, final int maxSize) {
+		if(maxSize<1) throw new IllegalArgumentException("Invalid max size [" + maxSize + "]");
+		this.name = name;
+		this.maxSize = maxSize;
+		cache = new LinkedHashMap<Object, WrapperRef<T>>(Math.min(maxSize, 64), 0.75f, true) {
+			private static final long serialVersionUID = -3581227096744427733L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Object, WrapperRef<T>> eldest) {
+				if(size() > WrapperCache.this.maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	
+	/**
+	 * Creates a new wrapper for the passed delegate
+	 * @param delegate The Attach API delegate
+	 * @return the new wrapper
+	 */
+	protected abstract T create(Object delegate);
+	
+	/**
+	 * Returns the wrapper for the passed delegate, creating it if it is not cached.
+	 * The wrapper is created outside the cache lock, since creating some wrappers calls into the target JVM, 
+	 * so two threads missing on the same delegate may both create one, but only the first one published is returned.
+	 * @param delegate The Attach API delegate
+	 * @return the wrapper
+	 */
+	public T get(final Object delegate) {
+		if(delegate==null) throw new IllegalArgumentException("The passed delegate was null", new Throwable());
+		T wrapper = lookup(delegate);
+		if(wrapper!=null) {
+			hits.incrementAndGet();
+			return wrapper;
+		}
+		misses.incrementAndGet();
+		final T created = create(delegate);
+		synchronized(cache) {
+			wrapper = lookup(delegate);
+			if(wrapper!=null) return wrapper;
+			final DelegateKey key = new DelegateKey(delegate, queue);
+			cache.put(key, new WrapperRef<T>(created, key, queue));
+			return created;
+		}
+	}
+	
+	/**
+	 * Returns the cached wrapper for the passed delegate
+	 * @param delegate The Attach API delegate
+	 * @return the wrapper or null if it is not cached
+	 */
+	private T lookup(final Object delegate) {
+		synchronized(cache) {
+			expunge();
+			final WrapperRef<T> ref = cache.get(new LookupKey(delegate));
+			return ref==null ? null : ref.get();
+		}
+	}
+	
+	/**
+	 * Removes entries whose delegate or wrapper has been collected. Must be called holding the cache lock.
+	 */
+	private void expunge() {
+		Reference<?> ref = null;
+		while((ref = queue.poll())!=null) {
+			final DelegateKey key = ref instanceof DelegateKey ? (DelegateKey)ref : ((WrapperRef<?>)ref).key;
+			final WrapperRef<T> current = cache.get(key);
+			if(current!=null && (ref==key || ref==current)) {
+				cache.remove(key);
+				collected.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Clears the cache
+	 */
+	public void clear() {
+		synchronized(cache) {
+			cache.clear();
+			while(queue.poll()!=null) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * Returns the number of entries in the cache
+	 * @return the number of entries in the cache
+	 */
+	public int size() {
+		synchronized(cache) {
+			expunge();
+			return cache.size();
+		}
+	}
+	
+	/**
+	 * Returns the cache name
+	 * @return the cache name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the maximum number of entries
+	 * @return the maximum number of entries
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Returns the cumulative number of cache hits
+	 * @return the cumulative number of cache hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the cumulative number of cache misses
+	 * @return the cumulative number of cache misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the cumulative number of entries evicted because the cache was full
+	 * @return the cumulative number of LRU evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * Returns the cumulative number of entries removed because the delegate or wrapper was garbage collected
+	 * @return the cumulative number of collected entries
+	 */
+	public long getCollected() {
+		return collected.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("WrapperCache [%s] size:%s/%s, hits:%s, misses:%s, evictions:%s, collected:%s", 
+				name, size(), maxSize, hits.get(), misses.get(), evictions.get(), collected.get());
+	}
+	
+	/**
+	 * <p>Title: DelegateKey</p>
+	 * <p>Description: Weak reference to a delegate that is equal only to keys referencing the identical delegate</p> 
+	 */
+	private static final class DelegateKey extends WeakReference<Object> {
+		/** The delegate's identity hash code */
+		private final int hash;
+		
+		DelegateKey(final Object delegate, final ReferenceQueue<Object> queue) {
+			super(delegate, queue);
+			hash = System.identityHashCode(delegate);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(final Object obj) {
+			if(obj==this) return true;
+			final Object delegate = get();
+			if(delegate==null) return false;
+			if(obj instanceof DelegateKey) return delegate==((DelegateKey)obj).get();
+			if(obj instanceof LookupKey) return delegate==((LookupKey)obj).delegate;
+			return false;
+		}
+	}
+	
+	/**
+	 * <p>Title: LookupKey</p>
+	 * <p>Description: Strong, short lived probe key used to look up a {@link DelegateKey}</p> 
+	 */
+	private static final class LookupKey {
+		/** The delegate */
+		private final Object delegate;
+		
+		LookupKey(final Object delegate) {
+			this.delegate = delegate;
+		}
+		
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(delegate);
+		}
+		
+		@Override
+		public boolean equals(final Object obj) {
+			if(obj instanceof DelegateKey) return delegate==((DelegateKey)obj).get();
+			if(obj instanceof LookupKey) return delegate==((LookupKey)obj).delegate;
+			return false;
+		}
+	}
+	
+	/**
+	 * <p>Title: WrapperRef</p>
+	 * <p>Description: Weak reference to a cached wrapper</p> 
+	 * @param <T> The wrapper type
+	 */
+	private static final class WrapperRef<T> extends WeakReference<T> {
+		/** The key this wrapper is cached under */
+		private final DelegateKey key;
+		
+		WrapperRef(final T wrapper, final DelegateKey key, final ReferenceQueue<Object> queue) {
+			super(wrapper, queue);
+			this.key = key;
+		}
+	}
+}
@@ -53,8 +53,8 @@ public class Command {
 		}
 		try {
 			final Object result = cl.execute();
-			System.out.println((result==null ? "" : result));
-			System.exit(0);
+			if(!cl.isBatch()) System.out.println((result==null ? "" : result));
+			System.exit(cl.getFailures()==0 ? 0 : -1);
 		} catch (Exception ex) {
 			System.err.println("FAILED.:" + ex);
 			if(cl.isPrintStackTrace()) {
@@ -0,0 +1,564 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import com.heliosapm.shorthand.attach.vm.AttachContext;
+import com.heliosapm.shorthand.attach.vm.VirtualMachine;
+import com.heliosapm.utils.jmx.agent.UnixSockets;
+import com.heliosapm.utils.jmx.builtins.BuiltIn;
+
+/**
+ * <p>Title: CommandDaemon</p>
+ * <p>Description: A resident process serving built in commands over a Unix domain socket (Java 16+), so callers skip JVM start up, 
+ * the Attach API bootstrap and connecting. Connections to targets are kept open and reused until no request has run on them for 
+ * <b><code>jmxlocal.daemon.idle</code></b> ms. (default 300000); a connection is never closed while a request is running on it.</p>
+ * <p>The protocol is line based so it can be driven with e.g. <code>nc -U</code>. A request is one UTF-8 line, tokenized like a script line
+ * (see {@link CommandLine#tokenize(String)}): <b><code>&lt;JMXServiceURL&gt; &lt;built in&gt; [&lt;args&gt;...]</code></b>, or <b><code>PING</code></b>, 
+ * or <b><code>SHUTDOWN</code></b>. Each response is a header line, <b><code>OK &lt;n&gt;</code></b> or <b><code>ERR &lt;n&gt;</code></b>, 
+ * followed by the <code>n</code> bytes of the UTF-8 result or error text. A client connection can send any number of requests.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.CommandDaemon</code></p>
+ */
+
+public class CommandDaemon implements Runnable {
+	/** The system property defining the idle time in ms. after which target connections are closed */
+	public static final String IDLE_TIMEOUT_PROP = "jmxlocal.daemon.idle";
+	/** The default target connection idle timeout in ms. */
+	public static final long DEFAULT_IDLE_TIMEOUT = 300000L;
+	/** The default socket file name in the jmxlocal socket directory */
+	public static final String SOCKET_NAME = "daemon.sock";
+	/** The liveness check request */
+	public static final String PING = "PING";
+	/** The request that stops the daemon */
+	public static final String SHUTDOWN = "SHUTDOWN";
+	/** The maximum request line length in bytes */
+	public static final int MAX_REQUEST = 1024 * 1024;
+	/** The protocol charset */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/** The socket path */
+	protected final Path path;
+	/** The server channel */
+	protected final ServerSocketChannel serverChannel;
+	/** The connection environment, e.g. credentials */
+	protected final Map<String, ?> env;
+	/** The open target connections keyed by JMXServiceURL */
+	protected final ConcurrentHashMap<String, Target> targets = new ConcurrentHashMap<String, Target>();
+	/** The per target connection locks, removed with their target */
+	protected final ConcurrentHashMap<String, Object> targetLocks = new ConcurrentHashMap<String, Object>();
+	/** The client connection handler thread pool */
+	protected final ExecutorService handlers;
+	/** The idle connection reaper */
+	protected final ScheduledExecutorService reaper;
+	/** The target connection idle timeout in ms. */
+	protected final long idleTimeout;
+	/** Released when the daemon stops */
+	protected final CountDownLatch stopped = new CountDownLatch(1);
+	/** The number of requests served */
+	protected final AtomicLong requests = new AtomicLong(0L);
+	
+	/**
+	 * Returns the default daemon socket path
+	 * @return the default daemon socket path
+	 */
+	public static Path getDefaultSocketPath() {
+		return UnixSockets.getSocketDirectory().resolve(SOCKET_NAME);
+	}
+	
+	/**
+	 * Creates a new CommandDaemon, binds its socket and starts accepting requests
+	 * @param path The socket path
+	 * @param env The environment used to connect to targets
+	 * @throws IOException thrown if the socket cannot be bound
+	 */
+	public CommandDaemon(final Path path, final Map<String, ?> env) throws IOException {
+		this.path = path;
+		this.env = env;
+		idleTimeout = Long.getLong(IDLE_TIMEOUT_PROP, DEFAULT_IDLE_TIMEOUT);
+		warm();
+		serverChannel = UnixSockets.bind(path);
+		handlers = Executors.newCachedThreadPool(new ThreadFactory() {
+			final AtomicInteger serial = new AtomicInteger(0);
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "DaemonHandler-" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "DaemonReaper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		final long period = Math.max(1000L, idleTimeout / 4);
+		reaper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				closeIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread("DaemonCleanup") {
+			@Override
+			public void run() {
+				try { serverChannel.close(); } catch (Exception x) {/* No Op */}
+				try { Files.deleteIfExists(path); } catch (Exception x) {/* No Op */}
+			}
+		});
+		final Thread acceptor = new Thread(this, "DaemonAcceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+	
+	/**
+	 * Loads the Attach API up front so the first request does not pay for it
+	 */
+	@SuppressWarnings("try") // the context is only opened for its scope, see AttachContext
+	protected void warm() {
+		try(AttachContext ctx = AttachContext.open()) {
+			VirtualMachine.list();
+		} catch (Throwable t) {
+			System.err.println("Attach API not available: " + t);
+		}
+	}
+	
+	/**
+	 * Accepts connections until the daemon is stopped
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		while(serverChannel.isOpen()) {
+			try {
+				final SocketChannel channel = serverChannel.accept();
+				handlers.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(channel);
+					}
+				});
+			} catch (IOException iex) {
+				if(serverChannel.isOpen()) System.err.println("Daemon accept failed: " + iex);
+			}
+		}
+	}
+	
+	/**
+	 * Serves requests on the passed channel until the client closes it
+	 * @param channel The client channel
+	 */
+	protected void serve(final SocketChannel channel) {
+		try {
+			final InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+			final OutputStream out = Channels.newOutputStream(channel);
+			String request = null;
+			while((request = readLine(in))!=null) {
+				request = request.trim();
+				if(request.isEmpty()) continue;
+				requests.incrementAndGet();
+				if(SHUTDOWN.equalsIgnoreCase(request)) {
+					write(out, true, "");
+					stop();
+					return;
+				}
+				try {
+					final Object result = PING.equalsIgnoreCase(request) ? "PONG" : execute(request);
+					write(out, true, result==null ? "" : result.toString());
+				} catch (Exception ex) {
+					write(out, false, String.valueOf(ex));
+				}
+			}
+		} catch (IOException iex) {
+			/* client went away */
+		} finally {
+			try { channel.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * Executes a built in request
+	 * @param request The request line
+	 * @return the built in's result
+	 * @throws Exception thrown on any error executing the built in
+	 */
+	protected Object execute(final String request) throws Exception {
+		final String[] tokens = CommandLine.tokenize(request);
+		if(tokens.length < 2) throw new IllegalArgumentException("Expected <JMXServiceURL> <built in> [<args>...]");
+		final BuiltIn builtIn = BuiltIn.decode(tokens[1]);
+		final String[] args = Arrays.copyOfRange(tokens, 2, tokens.length);
+		final Target target = target(tokens[0]);
+		try {
+			return builtIn.execute(target.conn, args);
+		} catch (Exception ex) {
+			// the connection may have broken while idle: reconnect once. IOExceptions are often wrapped, e.g. by AbstractBuiltIn.invoke
+			if(!ioFailure(ex) || target.isAlive()) throw ex;
+			retire(tokens[0], target);
+		} finally {
+			target.release();
+		}
+		final Target retry = target(tokens[0]);
+		try {
+			return builtIn.execute(retry.conn, args);
+		} finally {
+			retry.release();
+		}
+	}
+	
+	/**
+	 * Determines if an IOException is in the cause chain of the passed exception
+	 * @param t The exception
+	 * @return true if the exception is or was caused by an IOException
+	 */
+	static boolean ioFailure(final Throwable t) {
+		int depth = 0;
+		for(Throwable cause = t; cause!=null && depth < 32; cause = cause.getCause(), depth++) {
+			if(cause instanceof IOException) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the open connection to the passed target, connecting if necessary. The target is marked in use
+	 * and must be {@link Target#release() released} when the request completes.
+	 * @param url The target JMXServiceURL
+	 * @return the target connection
+	 * @throws IOException thrown if the target cannot be connected to
+	 */
+	protected Target target(final String url) throws IOException {
+		while(true) {
+			Target target = targets.get(url);
+			if(target!=null && target.acquire()) return target;
+			final Object lock = lock(url);
+			synchronized(lock) {
+				// the lock was removed with a closed target while we waited for it
+				if(targetLocks.get(url)!=lock) continue;
+				target = targets.get(url);
+				if(target!=null && target.acquire()) return target;
+				final JMXConnector connector = JMXConnectorFactory.connect(new JMXServiceURL(url), env);
+				try {
+					target = new Target(connector, connector.getMBeanServerConnection());
+				} catch (IOException iex) {
+					try { connector.close(); } catch (Exception x) {/* No Op */}
+					throw iex;
+				}
+				target.acquire();
+				targets.put(url, target);
+				return target;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the connection lock for the passed target, creating it if necessary
+	 * @param url The target JMXServiceURL
+	 * @return the lock
+	 */
+	private Object lock(final String url) {
+		Object lock = targetLocks.get(url);
+		if(lock==null) {
+			final Object newLock = new Object();
+			lock = targetLocks.putIfAbsent(url, newLock);
+			if(lock==null) lock = newLock;
+		}
+		return lock;
+	}
+	
+	/**
+	 * Removes a broken target and its lock, unless it was already replaced, and closes it
+	 * @param url The target JMXServiceURL
+	 * @param target The broken target
+	 */
+	protected void retire(final String url, final Target target) {
+		final Object lock = targetLocks.get(url);
+		if(lock!=null) {
+			synchronized(lock) {
+				if(targets.remove(url, target)) targetLocks.remove(url, lock);
+			}
+		}
+		target.retire();
+		target.close();
+	}
+	
+	/**
+	 * Closes target connections that have no request running and have been idle for longer than the idle timeout
+	 */
+	protected void closeIdle() {
+		final long cutoff = System.currentTimeMillis() - idleTimeout;
+		for(Map.Entry<String, Target> entry: targets.entrySet()) {
+			final String url = entry.getKey();
+			final Target target = entry.getValue();
+			final Object lock = targetLocks.get(url);
+			if(lock==null) continue;
+			boolean idle = false;
+			synchronized(lock) {
+				if(targets.get(url)==target && target.retireIfIdle(cutoff)) {
+					targets.remove(url, target);
+					targetLocks.remove(url, lock);
+					idle = true;
+				}
+			}
+			if(idle) target.close();
+		}
+	}
+	
+	/**
+	 * Waits for the daemon to stop
+	 * @throws InterruptedException thrown if the calling thread is interrupted while waiting
+	 */
+	public void await() throws InterruptedException {
+		stopped.await();
+	}
+	
+	/**
+	 * Stops the daemon and closes all target connections
+	 */
+	public void stop() {
+		try { serverChannel.close(); } catch (Exception x) {/* No Op */}
+		try { Files.deleteIfExists(path); } catch (Exception x) {/* No Op */}
+		reaper.shutdownNow();
+		handlers.shutdown();
+		for(Target target: targets.values()) {
+			target.retire();
+			target.close();
+		}
+		targets.clear();
+		targetLocks.clear();
+		stopped.countDown();
+	}
+	
+	/**
+	 * Returns the number of requests served
+	 * @return the number of requests served
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+	
+	/**
+	 * Returns the number of open target connections
+	 * @return the number of open target connections
+	 */
+	public int getTargetCount() {
+		return targets.size();
+	}
+	
+	/**
+	 * Sends one request to the daemon listening on the passed socket
+	 * @param path The daemon socket path
+	 * @param request The request line
+	 * @return the result text
+	 * @throws Exception thrown if the request fails in the daemon, or on any IO error
+	 */
+	public static String send(final Path path, final String request) throws Exception {
+		if(request.indexOf('\n')!=-1 || request.indexOf('\r')!=-1) throw new IllegalArgumentException("Requests cannot contain line breaks");
+		final SocketChannel channel = UnixSockets.connect(path);
+		try {
+			final OutputStream out = Channels.newOutputStream(channel);
+			out.write((request + "\n").getBytes(UTF8));
+			out.flush();
+			final InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+			final String header = readLine(in);
+			if(header==null) throw new EOFException("The daemon closed the connection");
+			final int index = header.indexOf(' ');
+			final int length = Integer.parseInt(header.substring(index + 1).trim());
+			final byte[] payload = new byte[length];
+			for(int offset = 0; offset < length;) {
+				final int read = in.read(payload, offset, length - offset);
+				if(read==-1) throw new EOFException("The daemon closed the connection");
+				offset += read;
+			}
+			final String text = new String(payload, UTF8);
+			if(header.startsWith("OK ")) return text;
+			throw new DaemonException(text);
+		} finally {
+			try { channel.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * Reads one line terminated by <b><code>\n</code></b>
+	 * @param in The stream to read from
+	 * @return the line without its terminator, or null at the end of the stream
+	 * @throws IOException thrown on any IO error or if the line is too long
+	 */
+	static String readLine(final InputStream in) throws IOException {
+		final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+		int b = -1;
+		while((b = in.read())!=-1) {
+			if(b=='\n') break;
+			if(line.size() >= MAX_REQUEST) throw new IOException("Line exceeds " + MAX_REQUEST + " bytes");
+			line.write(b);
+		}
+		if(b==-1 && line.size()==0) return null;
+		return new String(line.toByteArray(), UTF8);
+	}
+	
+	/**
+	 * Writes a response
+	 * @param out The stream to write to
+	 * @param ok true for <b><code>OK</code></b>, false for <b><code>ERR</code></b>
+	 * @param text The result or error text
+	 * @throws IOException thrown on any IO error
+	 */
+	static void write(final OutputStream out, final boolean ok, final String text) throws IOException {
+		final byte[] payload = text.getBytes(UTF8);
+		out.write(((ok ? "OK " : "ERR ") + payload.length + "\n").getBytes(UTF8));
+		out.write(payload);
+		out.flush();
+	}
+	
+	/**
+	 * <p>Title: Target</p>
+	 * <p>Description: An open connection to a target, counting the requests running on it so only idle connections are closed</p> 
+	 */
+	protected static class Target {
+		/** The connector */
+		final JMXConnector connector;
+		/** The connector's MBeanServerConnection */
+		final MBeanServerConnection conn;
+		/** The last time a request on the connection completed, guarded by this target */
+		private long lastUsed = System.currentTimeMillis();
+		/** The number of requests running on the connection, guarded by this target */
+		private int inUse = 0;
+		/** Set once the target is removed, after which it cannot be acquired, guarded by this target */
+		private boolean retired = false;
+		
+		/**
+		 * Creates a new Target
+		 * @param connector The connector
+		 * @param conn The connector's MBeanServerConnection
+		 */
+		Target(final JMXConnector connector, final MBeanServerConnection conn) {
+			this.connector = connector;
+			this.conn = conn;
+		}
+		
+		/**
+		 * Marks a request as running on this target
+		 * @return true if acquired, false if the target has been retired
+		 */
+		synchronized boolean acquire() {
+			if(retired) return false;
+			inUse++;
+			return true;
+		}
+		
+		/**
+		 * Marks a request on this target as complete
+		 */
+		synchronized void release() {
+			inUse--;
+			lastUsed = System.currentTimeMillis();
+		}
+		
+		/**
+		 * Retires this target if no request is running on it and none has completed since the passed cutoff
+		 * @param cutoff The idle cutoff timestamp
+		 * @return true if the target was retired
+		 */
+		synchronized boolean retireIfIdle(final long cutoff) {
+			if(retired || inUse > 0 || lastUsed >= cutoff) return false;
+			retired = true;
+			return true;
+		}
+		
+		/**
+		 * Retires this target so it is not handed out again
+		 */
+		synchronized void retire() {
+			retired = true;
+		}
+		
+		/**
+		 * Determines if the connection still works
+		 * @return true if a call on the connection succeeds
+		 */
+		boolean isAlive() {
+			try {
+				conn.getMBeanCount();
+				return true;
+			} catch (Exception ex) {
+				return false;
+			}
+		}
+		
+		/**
+		 * Closes the connection
+		 */
+		void close() {
+			try { connector.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * <p>Title: DaemonException</p>
+	 * <p>Description: A request that failed in the daemon, carrying the daemon's error text</p> 
+	 */
+	public static class DaemonException extends Exception {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * Creates a new DaemonException
+		 * @param message The daemon's error text
+		 */
+		public DaemonException(final String message) {
+			super(message);
+		}
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Throwable#toString()
+		 */
+		@Override
+		public String toString() {
+			return getMessage();
+		}
+	}
+}
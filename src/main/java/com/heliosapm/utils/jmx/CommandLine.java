@@ -18,12 +18,35 @@ under the License.
  */
 package com.heliosapm.utils.jmx;
 
+import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
@@ -35,6 +58,9 @@ import org.kohsuke.args4j.spi.StopOptionHandler;
 import com.heliosapm.utils.jmx.arghandler.AltEnumOptionHandler;
 import com.heliosapm.utils.jmx.arghandler.JMXServiceURLOptionHandler;
 import com.heliosapm.utils.jmx.builtins.BuiltIn;
+import com.heliosapm.utils.jmx.builtins.Expression;
+import com.heliosapm.utils.jmx.builtins.IDeltaBuiltIn;
+import com.heliosapm.utils.jmx.protocol.attach.AttachJMXConnector;
 
 /**
  * <p>Title: CommandLine</p>
@@ -45,9 +71,9 @@ import com.heliosapm.utils.jmx.builtins.BuiltIn;
  */
 
 public class CommandLine implements Closeable {
-	/** The JMX URL */
-	@Option(name="-jmxurl", handler=JMXServiceURLOptionHandler.class, required=true, usage="The JMXServiceURL to connect with. e.g. -jmxurl service:jmx:attach:///<PID>")
-	private JMXServiceURL jmxUrl = null;
+	/** The JMX URLs */
+	@Option(name="-jmxurl", handler=JMXServiceURLOptionHandler.class, usage="The JMXServiceURL to connect with. Repeat, or use an attach fan-out selector, to run the command against many targets. e.g. -jmxurl service:jmx:attach:///<PID> or -jmxurl service:jmx:attach:///*[.*kafka.*]")
+	private List<JMXServiceURL> jmxUrls = null;
 	/** The print stack trace option */
 	@Option(name="-psx", required=false, usage="If specified, any error will print a stack trace")
 	private boolean psx = false;
@@ -65,9 +91,47 @@ public class CommandLine implements Closeable {
 	/** The command name*/
 	@Option(name="-c", handler=AltEnumOptionHandler.class, usage="The command name and arguments. e.g. -c hdump /tmp/heap.dump true")
 	private BuiltIn builtIn = null;
+	/** The watch interval */
+	@Option(name="-watch", metaVar="<interval>", usage="Keeps the connection open and re-runs the command at a fixed rate, reporting changes where supported. e.g. -watch 5s (units ms, s or m. default ms)")
+	private String watch = null;
+	/** The number of samples to take in watch mode */
+	@Option(name="-count", metaVar="<samples>", depends="-watch", usage="The number of samples to take in watch mode. Defaults to unlimited. e.g. -count 10")
+	private int count = 0;
+	/** The maximum number of targets to run the command against concurrently */
+	@Option(name="-threads", metaVar="<threads>", usage="The maximum number of targets to run the command against concurrently. Defaults to 2 x cores, max 16. e.g. -threads 4")
+	private int threads = 0;
+	/** The per target timeout */
+	@Option(name="-timeout", metaVar="<interval>", usage="The time allowed for each target when running against many targets. Defaults to 60s. e.g. -timeout 30s (units ms, s or m. default ms)")
+	private String timeout = null;
+	/** The script file */
+	@Option(name="-script", metaVar="<file|->", usage="Runs the commands in the file (or stdin for -), one per line, in order over one connection. e.g. -script /tmp/commands.txt")
+	private String script = null;
+	/** The interactive shell option */
+	@Option(name="-shell", usage="Runs an interactive shell over one connection, with cached ObjectName and attribute name completion (end a line with ? or TAB)")
+	private boolean shell = false;
+	/** The daemon mode option */
+	@Option(name="-daemon", usage="Runs a resident daemon serving commands over a Unix domain socket with warm target connections (Java 16+)")
+	private boolean daemon = false;
+	/** The daemon client option */
+	@Option(name="-connect", usage="Sends the command (or script) to the daemon instead of running it in this process")
+	private boolean connect = false;
+	/** The daemon socket path */
+	@Option(name="-socket", metaVar="<path>", usage="The daemon's socket path. Defaults to /tmp/.jmxlocal-${user.name}/daemon.sock")
+	private String socket = null;
+	/** The number of failed script commands or targets */
+	private int failures = 0;
+	/** Indicates if results are printed as they complete instead of being returned */
+	private boolean batch = false;
 
+	/** The maximum number of completions listed */
+	public static final int MAX_COMPLETIONS = 100;
+	/** The default per target timeout in ms. */
+	public static final long DEFAULT_TARGET_TIMEOUT = 60000L;
+	
 	private MBeanServerConnection conn = null;
 	private JMXConnector jmxConnector = null;
+	/** The single target JMXServiceURL */
+	private JMXServiceURL jmxUrl = null;
 	
 	/**
 	 * Creates a new CommandLine
@@ -81,11 +145,634 @@ public class CommandLine implements Closeable {
 	 * @return the result of the command
 	 */
 	public Object execute() throws Exception {
-		if(jmxUrl==null) throw new IllegalStateException("The command line has not been parsed");
+		if(daemon) {
+			if(connect) throw new IllegalArgumentException("-daemon cannot be combined with -connect");
+			batch = true;
+			daemon();
+			return null;
+		}
+		if(jmxUrls==null || jmxUrls.isEmpty()) throw new IllegalArgumentException("No -jmxurl specified");
+		if(connect) {
+			if(jmxUrls.size() > 1 || watch!=null) throw new IllegalArgumentException("-connect cannot be used with multiple targets or -watch");
+			jmxUrl = jmxUrls.get(0);
+			if(script==null) {
+				if(builtIn==null) throw new IllegalArgumentException("No command specified. Use -c or -script");
+				final StringBuilder request = new StringBuilder(quote(jmxUrl.toString())).append(' ').append(builtIn.name());
+				if(commands!=null) {
+					for(String arg: commands) request.append(' ').append(quote(arg));
+				}
+				return CommandDaemon.send(socketPath(), request.toString());
+			}
+		}
+		final List<JMXServiceURL> targets = new ArrayList<JMXServiceURL>();
+		for(JMXServiceURL url: jmxUrls) {
+			if(connect) targets.add(url);
+			else targets.addAll(AttachJMXConnector.expand(url));
+		}
+		if(targets.size() > 1) {
+			if(script!=null || watch!=null) throw new IllegalArgumentException("-script and -watch cannot be used with multiple targets");
+			if(builtIn==null) throw new IllegalArgumentException("No command specified. Use -c");
+			batch = true;
+			executeAll(targets);
+			return null;
+		}
+		jmxUrl = targets.get(0);
+		if(shell) {
+			if(script!=null || watch!=null || builtIn!=null || connect) throw new IllegalArgumentException("-shell cannot be combined with -c, -script, -watch or -connect");
+			batch = true;
+			connect();
+			shell(new BufferedReader(new InputStreamReader(System.in, Charset.forName("UTF-8"))));
+			return null;
+		}
+		if(script!=null) {
+			if(builtIn!=null || watch!=null) throw new IllegalArgumentException("-script cannot be combined with -c or -watch");
+			final Reader reader = "-".equals(script) ? new InputStreamReader(System.in, Charset.forName("UTF-8")) : new InputStreamReader(new FileInputStream(script), Charset.forName("UTF-8"));
+			try {
+				if(!connect) connect();
+				script(new BufferedReader(reader));
+			} finally {
+				try { reader.close(); } catch (Exception x) {/* No Op */}
+			}
+			return null;
+		}
+		if(builtIn==null) throw new IllegalArgumentException("No command specified. Use -c or -script");
 		connect();
+		if(watch!=null) return watch(interval(watch));
 		return builtIn.execute(conn, commands);
 	}
 	
+	/**
+	 * Runs the configured command against each of the passed targets concurrently, at most {@link #threads} at a time.
+	 * Each target gets its own unpooled connection and at most {@link #timeout} to connect and complete. A target that times out is abandoned 
+	 * and its slot given to the next target: its connector is closed (on a separate thread, since closing may itself block) and its thread 
+	 * interrupted. Neither is guaranteed to unblock a call stuck in a hung JVM, so an abandoned thread may linger, outside the limit, 
+	 * until the call returns or the command exits.
+	 * Results are printed in target order as tagged records, each as soon as it and the records before it are complete.
+	 * @param targets The target JMXServiceURLs
+	 * @throws InterruptedException thrown if the calling thread is interrupted while waiting for results
+	 */
+	protected void executeAll(final List<JMXServiceURL> targets) throws InterruptedException {
+		final long timeoutMs = timeout==null ? DEFAULT_TARGET_TIMEOUT : interval(timeout);
+		final int concurrency = threads > 0 ? threads : Math.min(16, Runtime.getRuntime().availableProcessors() * 2);
+		final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "TargetTimer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		final Semaphore slots = new Semaphore(concurrency);
+		final ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory() {
+			final AtomicInteger serial = new AtomicInteger();
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "TargetWorker#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		final List<TargetRecord> records = new ArrayList<TargetRecord>(targets.size());
+		for(JMXServiceURL url: targets) {
+			records.add(new TargetRecord(url, slots));
+		}
+		final Thread launcher = new Thread("TargetLauncher") {
+			@Override
+			public void run() {
+				try {
+					for(final TargetRecord record: records) {
+						slots.acquire();
+						workers.execute(new Runnable() {
+							@Override
+							public void run() {
+								record.start(Thread.currentThread());
+								// the timeout covers connecting too: a hung JVM may not answer the attach or the RMI handshake
+								final ScheduledFuture<?> timeoutTask = timer.schedule(new Runnable() {
+									@Override
+									public void run() {
+										if(record.complete("TIMED OUT after " + timeoutMs + " ms", "")) record.abort();
+									}
+								}, timeoutMs, TimeUnit.MILLISECONDS);
+								try {
+									final JMXConnector connector = connect(record.url, false);
+									if(record.connected(connector)) {
+										final Object result = builtIn.execute(connector.getMBeanServerConnection(), commands);
+										record.complete(null, result==null ? "" : result.toString());
+									}
+								} catch (Exception ex) {
+									record.complete("FAILED", String.valueOf(ex));
+								} finally {
+									timeoutTask.cancel(false);
+									record.finish();
+								}
+							}
+						});
+					}
+				} catch (InterruptedException iex) {
+					/* No Op */
+				}
+			}
+		};
+		launcher.setDaemon(true);
+		launcher.start();
+		try {
+			for(TargetRecord record: records) {
+				record.done.await();
+				if(record.status!=null) failures++;
+				final StringBuilder b = new StringBuilder("--- ").append(record.url);
+				if(record.status!=null) b.append(' ').append(record.status);
+				else b.append(" (").append(TimeUnit.NANOSECONDS.toMillis(record.elapsed)).append(" ms)");
+				b.append(" ---\n").append(record.output);
+				if(b.charAt(b.length()-1)!='\n') b.append('\n');
+				System.out.append(b).flush();
+			}
+		} finally {
+			launcher.interrupt();
+			workers.shutdownNow();
+			timer.shutdownNow();
+		}
+	}
+	
+	/**
+	 * <p>Title: TargetRecord</p>
+	 * <p>Description: The outcome of running the command against one target</p> 
+	 */
+	private static class TargetRecord {
+		/** The target URL */
+		final JMXServiceURL url;
+		/** The concurrency slots, one of which the target holds until it completes, fails or times out */
+		final Semaphore slots;
+		/** Released when the target completes, fails or times out */
+		final CountDownLatch done = new CountDownLatch(1);
+		/** Set by the first completion */
+		final AtomicBoolean completed = new AtomicBoolean(false);
+		/** The start time in nanos */
+		long start = 0L;
+		/** The elapsed time in nanos */
+		volatile long elapsed = 0L;
+		/** The failure status, null on success */
+		volatile String status = null;
+		/** The result or failure text */
+		volatile String output = null;
+		/** The worker thread while it runs this target, guarded by this record */
+		private Thread worker = null;
+		/** The target's connector once connected, guarded by this record */
+		private JMXConnector connector = null;
+		
+		/**
+		 * Creates a new TargetRecord
+		 * @param url The target URL
+		 * @param slots The concurrency slots
+		 */
+		TargetRecord(final JMXServiceURL url, final Semaphore slots) {
+			this.url = url;
+			this.slots = slots;
+		}
+		
+		/**
+		 * Marks the target as started
+		 * @param worker The thread running the target
+		 */
+		synchronized void start(final Thread worker) {
+			start = System.nanoTime();
+			this.worker = worker;
+		}
+		
+		/**
+		 * Hands the target's connector to this record so a timeout can close it
+		 * @param connector The connector
+		 * @return true if the target should run, false if it already timed out, in which case the connector is closed
+		 */
+		synchronized boolean connected(final JMXConnector connector) {
+			this.connector = connector;
+			if(!completed.get()) return true;
+			close();
+			return false;
+		}
+		
+		/**
+		 * Aborts a timed out target: closes its connector so a blocked call may fail, and interrupts its worker if it is still running this target.
+		 * The connector is closed on its own thread since closing an RMI connection to a hung JVM can block too.
+		 */
+		synchronized void abort() {
+			final JMXConnector c = connector;
+			connector = null;
+			if(c!=null) {
+				final Thread closer = new Thread("TargetAbort") {
+					@Override
+					public void run() {
+						try { c.close(); } catch (Exception x) {/* No Op */}
+					}
+				};
+				closer.setDaemon(true);
+				closer.start();
+			}
+			if(worker!=null) worker.interrupt();
+		}
+		
+		/**
+		 * Called by the worker when it is done with the target. Closes the connector and detaches the worker, 
+		 * so a late timeout cannot interrupt the worker's next target.
+		 */
+		synchronized void finish() {
+			close();
+			worker = null;
+			Thread.interrupted();
+		}
+		
+		/**
+		 * Closes the target's connector, if connected
+		 */
+		private void close() {
+			if(connector!=null) {
+				try { connector.close(); } catch (Exception x) {/* No Op */}
+				connector = null;
+			}
+		}
+		
+		/**
+		 * Completes this record, unless it is already complete
+		 * @param status The failure status or null on success
+		 * @param output The result or failure text
+		 * @return true if this call completed the record
+		 */
+		boolean complete(final String status, final String output) {
+			if(!completed.compareAndSet(false, true)) return false;
+			this.elapsed = System.nanoTime() - start;
+			this.status = status;
+			this.output = output;
+			slots.release();
+			done.countDown();
+			return true;
+		}
+	}
+	
+	/**
+	 * Runs each command line read from the passed reader, printing each result as the command completes.
+	 * Blank lines and lines starting with <b><code>#</code></b> are skipped. Failed commands are reported and counted, 
+	 * and the remaining commands are still run.
+	 * @param reader The reader to read command lines from
+	 * @throws IOException thrown on any error reading the script
+	 */
+	protected void script(final BufferedReader reader) throws IOException {
+		String line = null;
+		int lineNumber = 0;
+		while((line = reader.readLine())!=null) {
+			lineNumber++;
+			final String trimmed = line.trim();
+			if(trimmed.isEmpty() || trimmed.charAt(0)=='#') continue;
+			try {
+				final Object result;
+				if(connect) {
+					result = CommandDaemon.send(socketPath(), quote(jmxUrl.toString()) + " " + trimmed);
+				} else {
+					final String[] tokens = tokenize(trimmed);
+					final BuiltIn bi = BuiltIn.decode(tokens[0]);
+					result = bi.execute(conn, Arrays.copyOfRange(tokens, 1, tokens.length));
+				}
+				System.out.println((result==null ? "" : result));
+				System.out.flush();
+			} catch (Exception ex) {
+				failures++;
+				System.out.flush();
+				System.err.println("FAILED.:[line " + lineNumber + "] " + trimmed + " : " + ex);
+				if(psx) {
+					ex.printStackTrace(System.err);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Splits a command line into tokens on whitespace. Single quotes preserve their content as is, double quotes preserve their content
+	 * except for <b><code>\"</code></b> and <b><code>\\</code></b> escapes, and a backslash outside quotes escapes the next character.
+	 * @param line The command line
+	 * @return the tokens
+	 */
+	static String[] tokenize(final String line) {
+		final List<String> tokens = new ArrayList<String>();
+		final StringBuilder token = new StringBuilder();
+		boolean inToken = false;
+		char quote = 0;
+		for(int i = 0; i < line.length(); i++) {
+			final char c = line.charAt(i);
+			if(quote=='\'') {
+				if(c=='\'') quote = 0;
+				else token.append(c);
+			} else if(quote=='"') {
+				if(c=='"') quote = 0;
+				else if(c=='\\' && i+1 < line.length() && (line.charAt(i+1)=='"' || line.charAt(i+1)=='\\')) token.append(line.charAt(++i));
+				else token.append(c);
+			} else if(Character.isWhitespace(c)) {
+				if(inToken) {
+					tokens.add(token.toString());
+					token.setLength(0);
+					inToken = false;
+				}
+			} else {
+				inToken = true;
+				if(c=='\'' || c=='"') quote = c;
+				else if(c=='\\' && i+1 < line.length()) token.append(line.charAt(++i));
+				else token.append(c);
+			}
+		}
+		if(quote!=0) throw new IllegalArgumentException("Unterminated " + quote + " quote");
+		if(inToken) tokens.add(token.toString());
+		return tokens.toArray(new String[tokens.size()]);
+	}
+	
+	/**
+	 * Runs the interactive shell until the input ends or <b><code>quit</code></b> is entered. Lines are built in commands (e.g. <code>GC</code>)
+	 * or shell commands (see {@link #SHELL_HELP}). A line ending with <b><code>?</code></b> or TAB lists the completions of its last token: 
+	 * shell commands, built ins and ObjectNames for the first token, the attribute names of the MBean named by the previous token, or ObjectNames.
+	 * @param reader The reader to read lines from
+	 * @throws IOException thrown on any error reading input or connecting
+	 */
+	protected void shell(final BufferedReader reader) throws IOException {
+		ObjectNameIndex index = new ObjectNameIndex(conn, jmxConnector);
+		try {
+			System.out.println("Connected to " + jmxUrl + " (" + index.size() + " MBeans). Type help for commands.");
+			String line = null;
+			while(true) {
+				System.out.print("jmx> ");
+				System.out.flush();
+				if((line = reader.readLine())==null) break;
+				final String trimmed = line.trim();
+				if(trimmed.isEmpty()) continue;
+				if("quit".equalsIgnoreCase(trimmed) || "exit".equalsIgnoreCase(trimmed)) break;
+				for(int attempt = 0; attempt < 2; attempt++) {
+					try {
+						final Object result = shellCommand(index, line);
+						if(result!=null) System.out.println(result);
+						break;
+					} catch (IOException iex) {
+						if(attempt > 0) throw iex;
+						// the connection may have broken while idle: reconnect once and rebuild the index
+						System.err.println("Connection failed (" + iex + "), reconnecting...");
+						index.close();
+						close();
+						connect();
+						index = new ObjectNameIndex(conn, jmxConnector);
+					} catch (Exception ex) {
+						failures++;
+						System.err.println("FAILED.:" + ex);
+						if(psx) {
+							ex.printStackTrace(System.err);
+						}
+						break;
+					}
+				}
+				System.err.flush();
+			}
+		} finally {
+			index.close();
+		}
+	}
+	
+	/** The shell command help */
+	public static final String SHELL_HELP = "Shell commands:"
+		+ "\n\tls [<ObjectName pattern>] : Lists the registered ObjectNames matching the pattern (from the local index)"
+		+ "\n\tattrs <ObjectName> : Lists the MBean's attribute names"
+		+ "\n\tget <ObjectName> <attribute>[.<path>] : Reads an attribute, optionally navigating into it (see JAVA path())"
+		+ "\n\tstats : Prints the index statistics"
+		+ "\n\t<partial line>? : Lists the completions of the last token (TAB also works)"
+		+ "\n\tquit : Exits the shell"
+		+ "\nQuote ObjectNames containing spaces. Built ins run as in scripts, e.g. GC or JAVA 'conn.getMBeanCount()'\n" + BuiltIn.printHelp();
+	/** The shell command names */
+	private static final String[] SHELL_COMMANDS = {"attrs", "get", "help", "ls", "quit", "stats"};
+	
+	/**
+	 * Runs one shell line
+	 * @param index The ObjectName index
+	 * @param line The line
+	 * @return the output to print, or null
+	 * @throws Exception thrown on any error running the line
+	 */
+	protected Object shellCommand(final ObjectNameIndex index, final String line) throws Exception {
+		final String trimmed = line.trim();
+		final char last = line.isEmpty() ? 0 : line.charAt(line.length()-1);
+		if(last=='\t' || trimmed.endsWith("?")) {
+			return completions(index, last=='\t' ? line.substring(0, line.length()-1) : trimmed.substring(0, trimmed.length()-1));
+		}
+		final String[] tokens = tokenize(trimmed);
+		final String command = tokens[0].toLowerCase();
+		if("help".equals(command)) return SHELL_HELP;
+		if("stats".equals(command)) return index.size() + " MBeans indexed, " + index.getRegistrations() + " registered and " + index.getUnregistrations() + " unregistered since connecting" + (index.getReloads() > 0 ? ", reloaded " + index.getReloads() + " times after lost notifications" : "");
+		if("ls".equals(command)) {
+			final StringBuilder b = new StringBuilder();
+			for(ObjectName on: index.query(tokens.length > 1 ? new ObjectName(tokens[1]) : null)) {
+				b.append(on).append('\n');
+			}
+			return b.length()==0 ? "No matching MBeans" : b.deleteCharAt(b.length()-1);
+		}
+		if("attrs".equals(command)) {
+			if(tokens.length < 2) throw new IllegalArgumentException("Usage: attrs <ObjectName>");
+			final StringBuilder b = new StringBuilder();
+			for(String name: index.getAttributeNames(new ObjectName(tokens[1]))) {
+				b.append(name).append('\n');
+			}
+			return b.length()==0 ? "No attributes" : b.deleteCharAt(b.length()-1);
+		}
+		if("get".equals(command)) {
+			if(tokens.length < 3) throw new IllegalArgumentException("Usage: get <ObjectName> <attribute>[.<path>]");
+			final ObjectName on = new ObjectName(tokens[1]);
+			String attribute = tokens[2];
+			String path = null;
+			final int dot = attribute.indexOf('.');
+			if(dot!=-1 && !index.getAttributeNames(on).contains(attribute)) {
+				path = attribute.substring(dot + 1);
+				attribute = attribute.substring(0, dot);
+			}
+			final Object value = conn.getAttribute(on, attribute);
+			return path==null ? value : Expression.path(value, path);
+		}
+		return BuiltIn.decode(tokens[0]).execute(conn, Arrays.copyOfRange(tokens, 1, tokens.length));
+	}
+	
+	/**
+	 * Lists the completions of the last token of a partial line
+	 * @param index The ObjectName index
+	 * @param partial The partial line
+	 * @return the completions, one per line
+	 * @throws Exception thrown if the attribute names of an MBean cannot be read
+	 */
+	protected String completions(final ObjectNameIndex index, final String partial) throws Exception {
+		String[] tokens = null;
+		for(String close: new String[]{"", "'", "\""}) {
+			try {
+				tokens = tokenize(partial + close);
+				break;
+			} catch (IllegalArgumentException iex) {/* unterminated quote */}
+		}
+		if(tokens==null) tokens = new String[0];
+		final boolean newToken = partial.isEmpty() || Character.isWhitespace(partial.charAt(partial.length()-1));
+		final String prefix = newToken || tokens.length==0 ? "" : tokens[tokens.length-1];
+		final int position = newToken ? tokens.length : tokens.length - 1;
+		final List<String> matches = new ArrayList<String>();
+		if(position==0) {
+			for(String c: SHELL_COMMANDS) {
+				if(c.startsWith(prefix.toLowerCase())) matches.add(c);
+			}
+			for(BuiltIn bi: BuiltIn.values()) {
+				if(bi.name().startsWith(prefix.toUpperCase())) matches.add(bi.name());
+			}
+			if(!prefix.isEmpty()) matches.addAll(index.complete(prefix));
+		} else {
+			final ObjectName previous = index.get(tokens[position-1]);
+			if(previous!=null) matches.addAll(index.completeAttribute(previous, prefix));
+			else matches.addAll(index.complete(prefix));
+		}
+		if(matches.isEmpty()) return "No completions";
+		final StringBuilder b = new StringBuilder();
+		for(int i = 0; i < matches.size() && i < MAX_COMPLETIONS; i++) {
+			b.append(matches.get(i)).append('\n');
+		}
+		if(matches.size() > MAX_COMPLETIONS) b.append("... (").append(matches.size() - MAX_COMPLETIONS).append(" more)\n");
+		return b.deleteCharAt(b.length()-1).toString();
+	}
+	
+	/**
+	 * Quotes a token so that {@link #tokenize(String)} returns it unchanged
+	 * @param token The token
+	 * @return the quoted token, or the token itself if it needs no quoting
+	 */
+	static String quote(final String token) {
+		boolean plain = !token.isEmpty();
+		for(int i = 0; i < token.length() && plain; i++) {
+			final char c = token.charAt(i);
+			plain = !Character.isWhitespace(c) && c!='\'' && c!='"' && c!='\\';
+		}
+		if(plain) return token;
+		if(token.indexOf('\'')==-1) return "'" + token + "'";
+		return "\"" + token.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+	
+	/**
+	 * Runs the command daemon until it is shut down
+	 * @throws Exception thrown if the daemon cannot be started
+	 */
+	protected void daemon() throws Exception {
+		final Path path = socketPath();
+		if(Files.exists(path)) {
+			try {
+				CommandDaemon.send(path, CommandDaemon.PING);
+				throw new IllegalStateException("A daemon is already listening on [" + path + "]");
+			} catch (IOException iex) {
+				/* stale socket file */
+			}
+		}
+		final CommandDaemon commandDaemon = new CommandDaemon(path, environment());
+		System.out.println("jmxlocal daemon listening on " + path);
+		commandDaemon.await();
+	}
+	
+	/**
+	 * Returns the daemon socket path
+	 * @return the configured or default daemon socket path
+	 */
+	protected Path socketPath() {
+		return socket!=null ? Paths.get(socket).toAbsolutePath() : CommandDaemon.getDefaultSocketPath();
+	}
+	
+	/**
+	 * Returns the number of script commands or targets that failed
+	 * @return the number of failures
+	 */
+	public int getFailures() {
+		return failures;
+	}
+	
+	/**
+	 * Indicates if this command line runs a script
+	 * @return true if this command line runs a script, false if it runs a single command
+	 */
+	public boolean isScript() {
+		return script!=null;
+	}
+	
+	/**
+	 * Indicates if results have been printed as they completed (script or multiple targets) instead of being returned
+	 * @return true if results have already been printed
+	 */
+	public boolean isBatch() {
+		return batch || script!=null;
+	}
+	
+	/**
+	 * Samples the configured command at a fixed rate until the configured number of samples has been taken or a sample fails.
+	 * Any failure, including an {@link Error}, ends the watch, since a scheduled task that throws is silently cancelled.
+	 * @param periodMs The sampling period in ms.
+	 * @return null
+	 * @throws Exception thrown if a sample fails. Errors are wrapped in a RuntimeException.
+	 */
+	protected Object watch(final long periodMs) throws Exception {
+		final IDeltaBuiltIn.Watcher watcher = builtIn.watch(conn, commands);
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>(null);
+		final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "WatchSampler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			final StringBuilder out = new StringBuilder(1024);
+			long last = 0L;
+			int samples = 0;
+			@Override
+			public void run() {
+				try {
+					final long now = System.nanoTime();
+					out.setLength(0);
+					out.append("--- #").append(++samples).append(" ---\n");
+					watcher.sample(out, last==0L ? 0L : now - last);
+					last = now;
+					System.out.append(out).flush();
+					if(count > 0 && samples >= count) done.countDown();
+				} catch (Throwable t) {
+					failure.set(t);
+					done.countDown();
+				}
+			}
+		}, 0L, periodMs, TimeUnit.MILLISECONDS);
+		try {
+			done.await();
+		} finally {
+			scheduler.shutdownNow();
+			try {
+				scheduler.awaitTermination(periodMs, TimeUnit.MILLISECONDS);
+			} finally {
+				watcher.close();
+			}
+		}
+		final Throwable t = failure.get();
+		if(t instanceof Exception) throw (Exception)t;
+		if(t!=null) throw new RuntimeException("Watch sample failed: " + t, t);
+		return null;
+	}
+	
+	/**
+	 * Parses an interval with an optional unit (<b><code>ms</code></b>, <b><code>s</code></b> or <b><code>m</code></b>)
+	 * @param interval The interval to parse
+	 * @return the interval in ms.
+	 */
+	static long interval(final String interval) {
+		final String value = interval.trim().toLowerCase();
+		final long ms;
+		try {
+			if(value.endsWith("ms")) ms = Long.parseLong(value.substring(0, value.length()-2).trim());
+			else if(value.endsWith("s")) ms = Long.parseLong(value.substring(0, value.length()-1).trim()) * 1000L;
+			else if(value.endsWith("m")) ms = Long.parseLong(value.substring(0, value.length()-1).trim()) * 60000L;
+			else ms = Long.parseLong(value);
+		} catch (NumberFormatException nex) {
+			throw new IllegalArgumentException("Invalid interval [" + interval + "]");
+		}
+		if(ms < 1) throw new IllegalArgumentException("Invalid interval [" + interval + "]");
+		return ms;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see java.io.Closeable#close()
@@ -96,19 +783,52 @@ public class CommandLine implements Closeable {
 	}
 	
 	private void connect() {
+		jmxConnector = connect(jmxUrl);
 		try {
-			final Map<String, Object> env = new HashMap<String, Object>();
-			if(user!=null) {
-				env.put(JMXConnector.CREDENTIALS, new String[]{user, password});
-			}
-			jmxConnector = JMXConnectorFactory.connect(jmxUrl, env);			
 			conn = jmxConnector.getMBeanServerConnection();
 		} catch (Exception ex) {
-			if(jmxConnector!=null) try { jmxConnector.close(); } catch (Exception x) {/* No Op */}
+			try { jmxConnector.close(); } catch (Exception x) {/* No Op */}
 			throw new RuntimeException("Failed to connect to [" + jmxUrl + "]", ex);
 		}
 	}
 	
+	/**
+	 * Returns the connection environment with the configured credentials
+	 * @return the connection environment
+	 */
+	private Map<String, Object> environment() {
+		final Map<String, Object> env = new HashMap<String, Object>();
+		if(user!=null) {
+			env.put(JMXConnector.CREDENTIALS, new String[]{user, password});
+		}
+		return env;
+	}
+	
+	/**
+	 * Connects to the passed URL with the configured credentials
+	 * @param url The URL to connect to
+	 * @return the connected JMXConnector
+	 */
+	private JMXConnector connect(final JMXServiceURL url) {
+		return connect(url, true);
+	}
+	
+	/**
+	 * Connects to the passed URL with the configured credentials
+	 * @param url The URL to connect to
+	 * @param pooled false to get a dedicated <b>attach</b> connection, which closing really closes
+	 * @return the connected JMXConnector
+	 */
+	private JMXConnector connect(final JMXServiceURL url, final boolean pooled) {
+		try {
+			final Map<String, Object> env = environment();
+			if(!pooled) env.put(AttachJMXConnector.POOLED_KEY, "false");
+			return JMXConnectorFactory.connect(url, env);
+		} catch (Exception ex) {
+			throw new RuntimeException("Failed to connect to [" + url + "]", ex);
+		}
+	}
+	
 	/**
 	 * Indicates if a stack trace should be printed on any exception
 	 * @return true if a stack trace should be printed on any exception, false otherwise
@@ -118,11 +838,11 @@ public class CommandLine implements Closeable {
 	}
 	
 	/**
-	 * Returns the JMXServiceURL
+	 * Returns the JMXServiceURL, the first one if there are several
 	 * @return the jmxUrl
 	 */
 	public JMXServiceURL getJmxUrl() {
-		return jmxUrl;
+		return jmxUrl!=null ? jmxUrl : (jmxUrls==null || jmxUrls.isEmpty()) ? null : jmxUrls.get(0);
 	}
 
 	/**
@@ -143,8 +863,8 @@ public class CommandLine implements Closeable {
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
-		builder.append("CommandLine [jmxUrl=");
-		builder.append(jmxUrl);
+		builder.append("CommandLine [jmxUrls=");
+		builder.append(jmxUrls);
 		builder.append(", psx=");
 		builder.append(psx);
 		
@@ -152,6 +872,16 @@ public class CommandLine implements Closeable {
 		builder.append(user);
 		builder.append(", password=");
 		builder.append(password);
+		builder.append(", watch=");
+		builder.append(watch);
+		builder.append(", script=");
+		builder.append(script);
+		builder.append(", shell=");
+		builder.append(shell);
+		builder.append(", daemon=");
+		builder.append(daemon);
+		builder.append(", connect=");
+		builder.append(connect);
 		builder.append(", command=");
 		builder.append(builtIn);
 		builder.append(", args=");
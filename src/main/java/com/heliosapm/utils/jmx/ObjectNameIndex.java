@@ -0,0 +1,321 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.relation.MBeanServerNotificationFilter;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+
+/**
+ * <p>Title: ObjectNameIndex</p>
+ * <p>Description: A local index of the ObjectNames registered in an MBeanServer, loaded once and then kept current by listening to the
+ * {@link MBeanServerDelegate}'s registration notifications, so names can be completed and matched against patterns without remote calls.
+ * The attribute names of each MBean are fetched the first time they are needed and dropped when the MBean is unregistered.
+ * Notifications received while the names are being loaded are buffered and applied to the loaded snapshot, and the index is reloaded 
+ * when the connector reports lost notifications.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.ObjectNameIndex</code></p>
+ */
+
+public class ObjectNameIndex implements NotificationListener {
+	/** The indexed MBeanServerConnection */
+	protected final MBeanServerConnection conn;
+	/** The registered ObjectNames keyed and sorted by their string form */
+	protected final ConcurrentSkipListMap<String, ObjectName> names = new ConcurrentSkipListMap<String, ObjectName>();
+	/** The attribute names of MBeans keyed by ObjectName */
+	protected final ConcurrentHashMap<ObjectName, List<String>> attributes = new ConcurrentHashMap<ObjectName, List<String>>();
+	/** The number of registration notifications received */
+	protected final AtomicLong registrations = new AtomicLong(0L);
+	/** The number of unregistration notifications received */
+	protected final AtomicLong unregistrations = new AtomicLong(0L);
+	/** The number of reloads after lost notifications */
+	protected final AtomicLong reloads = new AtomicLong(0L);
+	/** The connector the index listens to for lost notifications, null if none */
+	protected final JMXConnector connector;
+	/** Reloads the index when the connector reports lost notifications */
+	protected final NotificationListener lostListener = new NotificationListener() {
+		@Override
+		public void handleNotification(final Notification notification, final Object handback) {
+			if(JMXConnectionNotification.NOTIFS_LOST.equals(notification.getType())) reloadAsync();
+		}
+	};
+	/** Set while an asynchronous reload is pending */
+	protected final AtomicBoolean reloadPending = new AtomicBoolean(false);
+	/** Serializes loads */
+	protected final Object loadLock = new Object();
+	/** Registration notifications received while the names are loaded, applied once loaded. Null when not loading. Guarded by this index. */
+	private List<MBeanServerNotification> buffered = null;
+	
+	/**
+	 * Creates a new ObjectNameIndex, subscribing to registration notifications and then loading the registered names
+	 * @param conn The MBeanServerConnection to index
+	 * @throws IOException thrown on any error communicating with the MBeanServer
+	 */
+	public ObjectNameIndex(final MBeanServerConnection conn) throws IOException {
+		this(conn, null);
+	}
+	
+	/**
+	 * Creates a new ObjectNameIndex, subscribing to registration notifications and then loading the registered names.
+	 * The index is reloaded whenever the passed connector reports lost notifications.
+	 * @param conn The MBeanServerConnection to index
+	 * @param connector The connector of the MBeanServerConnection, or null if there is none
+	 * @throws IOException thrown on any error communicating with the MBeanServer
+	 */
+	public ObjectNameIndex(final MBeanServerConnection conn, final JMXConnector connector) throws IOException {
+		this.conn = conn;
+		this.connector = connector;
+		final MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+		filter.enableAllObjectNames();
+		synchronized(this) {
+			// buffer from the subscription so no registration between the subscription and the query is missed or applied out of order
+			buffered = new ArrayList<MBeanServerNotification>();
+		}
+		try {
+			conn.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, filter, null);
+		} catch (IOException iex) {
+			throw iex;
+		} catch (Exception ex) {
+			throw new IOException("Failed to subscribe to MBean registrations", ex);
+		}
+		if(connector!=null) connector.addConnectionNotificationListener(lostListener, null, null);
+		try {
+			load();
+		} catch (IOException iex) {
+			close();
+			throw iex;
+		}
+	}
+	
+	/**
+	 * Loads the registered names, replacing the indexed ones, then applies the notifications received during the load
+	 * @throws IOException thrown on any error communicating with the MBeanServer
+	 */
+	protected void load() throws IOException {
+		synchronized(loadLock) {
+			synchronized(this) {
+				if(buffered==null) buffered = new ArrayList<MBeanServerNotification>();
+			}
+			Set<ObjectName> snapshot = null;
+			try {
+				snapshot = conn.queryNames(null, null);
+			} finally {
+				synchronized(this) {
+					if(snapshot!=null) {
+						final Set<String> loaded = new HashSet<String>(snapshot.size());
+						for(ObjectName on: snapshot) {
+							loaded.add(on.toString());
+							names.put(on.toString(), on);
+						}
+						for(Iterator<ObjectName> iter = names.values().iterator(); iter.hasNext();) {
+							final ObjectName on = iter.next();
+							if(!loaded.contains(on.toString())) {
+								iter.remove();
+								attributes.remove(on);
+							}
+						}
+					}
+					for(MBeanServerNotification notification: buffered) {
+						apply(notification);
+					}
+					buffered = null;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reloads the index on a background thread, coalescing requests made while a reload is pending
+	 */
+	protected void reloadAsync() {
+		if(!reloadPending.compareAndSet(false, true)) return;
+		final Thread t = new Thread("ObjectNameIndexReload") {
+			@Override
+			public void run() {
+				reloadPending.set(false);
+				try {
+					load();
+					reloads.incrementAndGet();
+				} catch (Exception ex) {
+					System.err.println("Failed to reload the ObjectName index: " + ex);
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.NotificationListener#handleNotification(javax.management.Notification, java.lang.Object)
+	 */
+	@Override
+	public void handleNotification(final Notification notification, final Object handback) {
+		if(!(notification instanceof MBeanServerNotification)) return;
+		synchronized(this) {
+			if(buffered!=null) {
+				buffered.add((MBeanServerNotification)notification);
+				return;
+			}
+			apply((MBeanServerNotification)notification);
+		}
+	}
+	
+	/**
+	 * Applies a registration notification to the index
+	 * @param notification The notification
+	 */
+	private void apply(final MBeanServerNotification notification) {
+		final ObjectName on = notification.getMBeanName();
+		if(MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType())) {
+			registrations.incrementAndGet();
+			names.put(on.toString(), on);
+		} else if(MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+			unregistrations.incrementAndGet();
+			names.remove(on.toString());
+			attributes.remove(on);
+		}
+	}
+	
+	/**
+	 * Returns the indexed ObjectNames matching the passed pattern
+	 * @param pattern The ObjectName pattern, null for all
+	 * @return the matching ObjectNames, sorted
+	 */
+	public List<ObjectName> query(final ObjectName pattern) {
+		final List<ObjectName> matches = new ArrayList<ObjectName>();
+		for(ObjectName on: names.values()) {
+			if(pattern==null || pattern.apply(on)) matches.add(on);
+		}
+		return matches;
+	}
+	
+	/**
+	 * Returns the indexed ObjectNames starting with the passed prefix
+	 * @param prefix The prefix
+	 * @return the matching names, sorted
+	 */
+	public List<String> complete(final String prefix) {
+		return new ArrayList<String>(names.subMap(prefix, true, prefix + Character.MAX_VALUE, false).keySet());
+	}
+	
+	/**
+	 * Returns the attribute names of the MBean starting with the passed prefix
+	 * @param on The MBean's ObjectName
+	 * @param prefix The prefix
+	 * @return the matching attribute names, sorted
+	 * @throws Exception thrown if the MBean's attributes cannot be read
+	 */
+	public List<String> completeAttribute(final ObjectName on, final String prefix) throws Exception {
+		final List<String> matches = new ArrayList<String>();
+		for(String name: getAttributeNames(on)) {
+			if(name.startsWith(prefix)) matches.add(name);
+		}
+		return matches;
+	}
+	
+	/**
+	 * Returns the attribute names of the passed MBean
+	 * @param on The MBean's ObjectName
+	 * @return the sorted attribute names
+	 * @throws Exception thrown if the MBean's info cannot be read
+	 */
+	public List<String> getAttributeNames(final ObjectName on) throws Exception {
+		List<String> attrs = attributes.get(on);
+		if(attrs==null) {
+			final List<String> loaded = new ArrayList<String>();
+			for(MBeanAttributeInfo info: conn.getMBeanInfo(on).getAttributes()) {
+				loaded.add(info.getName());
+			}
+			Collections.sort(loaded);
+			attrs = Collections.unmodifiableList(loaded);
+			if(names.containsKey(on.toString())) attributes.put(on, attrs);
+		}
+		return attrs;
+	}
+	
+	/**
+	 * Returns the indexed ObjectName with the passed string form
+	 * @param name The ObjectName string
+	 * @return the ObjectName or null if it is not registered
+	 */
+	public ObjectName get(final String name) {
+		return names.get(name);
+	}
+	
+	/**
+	 * Returns the number of indexed ObjectNames
+	 * @return the number of indexed ObjectNames
+	 */
+	public int size() {
+		return names.size();
+	}
+	
+	/**
+	 * Returns the number of registration notifications received
+	 * @return the number of registrations
+	 */
+	public long getRegistrations() {
+		return registrations.get();
+	}
+	
+	/**
+	 * Returns the number of unregistration notifications received
+	 * @return the number of unregistrations
+	 */
+	public long getUnregistrations() {
+		return unregistrations.get();
+	}
+	
+	/**
+	 * Returns the number of reloads after lost notifications
+	 * @return the number of reloads
+	 */
+	public long getReloads() {
+		return reloads.get();
+	}
+	
+	/**
+	 * Unsubscribes from registration and connection notifications
+	 */
+	public void close() {
+		try { conn.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this); } catch (Exception x) {/* No Op */}
+		if(connector!=null) try { connector.removeConnectionNotificationListener(lostListener); } catch (Exception x) {/* No Op */}
+	}
+}
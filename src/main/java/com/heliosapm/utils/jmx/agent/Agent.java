@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>Title: Agent</p>
+ * <p>Description: The jmxlocal java agent, loaded into a target JVM by the {@link AgentInstaller}. Registers the {@link BulkReader} 
+ * and {@link RingBufferManager} MBeans in the target's platform MBeanServer. Loading the agent more than once is harmless.</p>
+ * <p>Agent options are a comma separated list of <code>key=value</code> pairs:<ul>
+ * 	<li><b><code>uds=true</code></b>: Serves the platform MBeanServer over a Unix domain socket (see {@link UdsServer})</li>
+ * 	<li><b><code>exec=&lt;request file&gt;</code></b>: Runs the class in the request file, whose path is URL encoded, instead of installing the services (see {@link RemoteExec})</li>
+ * </ul></p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.Agent</code></p>
+ */
+
+public class Agent {
+	/** Static class logger */
+	private static final Logger log = Logger.getLogger(Agent.class.getName());
+	/** The ObjectName of the bulk reader MBean */
+	public static final ObjectName BULK_READER = on("com.heliosapm.jmxlocal:service=BulkReader");
+	/** The ObjectName of the ring buffer manager MBean */
+	public static final ObjectName RING_BUFFERS = on("com.heliosapm.jmxlocal:service=RingBufferManager");
+	/** The agent option to serve the platform MBeanServer over a Unix domain socket (Java 16+) */
+	public static final String UDS_OPTION = "uds";
+	/** The instrumentation instance passed to the agent */
+	private static volatile Instrumentation instrumentation = null;
+	
+	/**
+	 * The agent entry point when loaded on the command line
+	 * @param agentArgs The agent options
+	 * @param inst The instrumentation instance
+	 */
+	public static void premain(final String agentArgs, final Instrumentation inst) {
+		agentmain(agentArgs, inst);
+	}
+	
+	/**
+	 * The agent entry point when loaded through the Attach API
+	 * @param agentArgs The agent options
+	 * @param inst The instrumentation instance
+	 */
+	public static void agentmain(final String agentArgs, final Instrumentation inst) {
+		if(inst!=null) instrumentation = inst;
+		final Map<String, String> options = parseOptions(agentArgs);
+		final String exec = options.get(RemoteExec.EXEC_OPTION);
+		if(exec!=null) {
+			RemoteExec.run(exec);
+			return;
+		}
+		install(ManagementFactory.getPlatformMBeanServer(), options);
+	}
+	
+	/**
+	 * Installs the agent services into the passed MBeanServer
+	 * @param server The MBeanServer
+	 * @param options The agent options
+	 */
+	static synchronized void install(final MBeanServer server, final Map<String, String> options) {
+		if(!server.isRegistered(BULK_READER)) {
+			try {
+				server.registerMBean(new BulkReader(server), BULK_READER);
+			} catch (Exception ex) {
+				log.log(Level.WARNING, "Failed to register BulkReader", ex);
+			}
+		}
+		if(!server.isRegistered(RING_BUFFERS)) {
+			try {
+				server.registerMBean(new RingBufferManager(server), RING_BUFFERS);
+			} catch (Exception ex) {
+				log.log(Level.WARNING, "Failed to register RingBufferManager", ex);
+			}
+		}
+		if("true".equalsIgnoreCase(options.get(UDS_OPTION)) && UnixSockets.isSupported()) {
+			try {
+				UdsServer.start(server);
+			} catch (Exception ex) {
+				log.log(Level.WARNING, "Failed to start the UDS server", ex);
+			}
+		}
+	}
+	
+	/**
+	 * Parses the passed agent options
+	 * @param agentArgs The agent options as a comma separated list of <code>key=value</code> pairs
+	 * @return a map of the options
+	 */
+	public static Map<String, String> parseOptions(final String agentArgs) {
+		final Map<String, String> options = new LinkedHashMap<String, String>();
+		if(agentArgs==null || agentArgs.trim().isEmpty()) return options;
+		for(String pair: agentArgs.split(",")) {
+			final int index = pair.indexOf('=');
+			if(index==-1) {
+				options.put(pair.trim(), "true");
+			} else {
+				options.put(pair.substring(0, index).trim(), pair.substring(index+1).trim());
+			}
+		}
+		return options;
+	}
+	
+	/**
+	 * Returns the instrumentation instance passed to the agent
+	 * @return the instrumentation instance or null if the agent has not been loaded
+	 */
+	public static Instrumentation getInstrumentation() {
+		return instrumentation;
+	}
+	
+	/**
+	 * Creates an ObjectName from the passed string
+	 * @param name The ObjectName string
+	 * @return the ObjectName
+	 */
+	static ObjectName on(final String name) {
+		try {
+			return new ObjectName(name);
+		} catch (Exception ex) {
+			throw new RuntimeException("Invalid ObjectName [" + name + "]", ex);
+		}
+	}
+}
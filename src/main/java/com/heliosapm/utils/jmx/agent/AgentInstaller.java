@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import com.heliosapm.shorthand.attach.vm.AttachContext;
+import com.heliosapm.shorthand.attach.vm.VirtualMachine;
+
+/**
+ * <p>Title: AgentInstaller</p>
+ * <p>Description: Loads the jmxlocal {@link Agent} into a target JVM through the Attach API. When jmxlocal is running from a jar, 
+ * that jar is loaded as the agent. When running from a classes directory, an agent jar is built from it once per process.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.AgentInstaller</code></p>
+ */
+
+public class AgentInstaller {
+	/** The agent jar path */
+	private static volatile String agentJar = null;
+	/** The agent jar creation lock */
+	private static final Object lock = new Object();
+	
+	/**
+	 * Loads the agent into the JVM with the passed id
+	 * @param jvmId The target JVM id
+	 * @param options The agent options, a comma separated list of <code>key=value</code> pairs (can be null)
+	 */
+	@SuppressWarnings("try") // the context is only opened for its scope, see AttachContext
+	public static void install(final String jvmId, final String options) {
+		final String jar = getAgentJar();
+		try(AttachContext ctx = AttachContext.open()) {
+			final VirtualMachine vm = VirtualMachine.attach(jvmId);
+			try {
+				vm.loadAgent(jar, options);
+			} finally {
+				try { vm.detach(); } catch (Exception x) {/* No Op */}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the path of the jar to load as the agent
+	 * @return the agent jar path
+	 */
+	public static String getAgentJar() {
+		if(agentJar==null) {
+			synchronized(lock) {
+				if(agentJar==null) {
+					try {
+						final URL location = Agent.class.getProtectionDomain().getCodeSource().getLocation();
+						final File source = Paths.get(location.toURI()).toFile();
+						agentJar = source.isDirectory() ? buildJar(source.toPath()).getAbsolutePath() : source.getAbsolutePath();
+					} catch (Exception ex) {
+						throw new RuntimeException("Failed to locate the jmxlocal agent jar", ex);
+					}
+				}
+			}
+		}
+		return agentJar;
+	}
+	
+	/**
+	 * Builds a temporary agent jar from the passed classes directory
+	 * @param classes The classes directory
+	 * @return the built jar file
+	 * @throws IOException thrown on any IO error
+	 */
+	protected static File buildJar(final Path classes) throws IOException {
+		final Manifest manifest = new Manifest();
+		final Attributes attrs = manifest.getMainAttributes();
+		attrs.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attrs.put(new Attributes.Name("Agent-Class"), Agent.class.getName());
+		attrs.put(new Attributes.Name("Premain-Class"), Agent.class.getName());
+		final File jar = File.createTempFile("jmxlocal-agent", ".jar");
+		jar.deleteOnExit();
+		final FileOutputStream fos = new FileOutputStream(jar);
+		try {
+			final JarOutputStream jos = new JarOutputStream(fos, manifest);
+			try {
+				Files.walkFileTree(classes, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(final Path file, final BasicFileAttributes fattrs) throws IOException {
+						final String name = classes.relativize(file).toString().replace(File.separatorChar, '/');
+						if(!JarFile.MANIFEST_NAME.equalsIgnoreCase(name)) {
+							jos.putNextEntry(new JarEntry(name));
+							Files.copy(file, jos);
+							jos.closeEntry();
+						}
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} finally {
+				jos.close();
+			}
+		} finally {
+			try { fos.close(); } catch (Exception x) {/* No Op */}
+		}
+		return jar;
+	}
+}
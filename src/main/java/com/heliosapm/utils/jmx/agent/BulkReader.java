@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+/**
+ * <p>Title: BulkReader</p>
+ * <p>Description: The in-target bulk reader MBean, registered by the {@link Agent} as {@link Agent#BULK_READER}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.BulkReader</code></p>
+ */
+
+public class BulkReader implements BulkReaderMBean {
+	/** The MBeanServer to read from */
+	protected final MBeanServer server;
+	/** The number of bulk calls served */
+	protected final AtomicLong calls = new AtomicLong(0L);
+	/** Empty signature const */
+	private static final String[] EMPTY_SIG = {};
+	/** Empty params const */
+	private static final Object[] EMPTY_PARAMS = {};
+	
+	/**
+	 * Creates a new BulkReader
+	 * @param server The MBeanServer to read from
+	 */
+	public BulkReader(final MBeanServer server) {
+		this.server = server;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.utils.jmx.agent.BulkReaderMBean#getAttributes(javax.management.ObjectName[], java.lang.String[][])
+	 */
+	@Override
+	public Map<ObjectName, Object> getAttributes(final ObjectName[] objectNames, final String[][] attributeNames) {
+		calls.incrementAndGet();
+		try {
+			return getAttributes(server, objectNames, attributeNames);
+		} catch (IOException iex) {
+			throw new RuntimeException(iex);  // never happens in-vm
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.utils.jmx.agent.BulkReaderMBean#invoke(javax.management.ObjectName[], java.lang.String[], java.lang.Object[][], java.lang.String[][])
+	 */
+	@Override
+	public Object[] invoke(final ObjectName[] objectNames, final String[] operationNames, final Object[][] params, final String[][] signatures) {
+		calls.incrementAndGet();
+		try {
+			return invoke(server, objectNames, operationNames, params, signatures);
+		} catch (IOException iex) {
+			throw new RuntimeException(iex);  // never happens in-vm
+		}
+	}
+	
+	/**
+	 * Reads attributes from all the MBeans matching each of the passed ObjectNames or patterns through the passed connection.
+	 * @param conn The MBeanServer connection to read through
+	 * @param objectNames The ObjectNames or patterns of the MBeans to read
+	 * @param attributeNames The names of the attributes to read for the ObjectName at the same index. A null or empty array reads all the readable attributes.
+	 * @return the read {@link AttributeList}, or the exception the read threw, keyed by ObjectName
+	 * @throws IOException thrown on any communication error
+	 * @see BulkReaderMBean#getAttributes(ObjectName[], String[][])
+	 */
+	public static Map<ObjectName, Object> getAttributes(final MBeanServerConnection conn, final ObjectName[] objectNames, final String[][] attributeNames) throws IOException {
+		final Map<ObjectName, Object> results = new HashMap<ObjectName, Object>();
+		for(int i = 0; i < objectNames.length; i++) {
+			final ObjectName on = objectNames[i];
+			final String[] attrs = attributeNames==null || i >= attributeNames.length ? null : attributeNames[i];
+			final Set<ObjectName> names = on.isPattern() ? conn.queryNames(on, null) : Collections.singleton(on);
+			for(ObjectName name: names) {
+				try {
+					results.put(name, conn.getAttributes(name, attrs==null || attrs.length==0 ? readableAttributes(conn, name) : attrs));
+				} catch (InstanceNotFoundException iex) {
+					/* No Op */
+				} catch (IOException iex) {
+					throw iex;
+				} catch (Exception ex) {
+					results.put(name, ex);
+				}
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Returns the names of the readable attributes of the passed MBean
+	 * @param conn The MBeanServer connection to read through
+	 * @param objectName The MBean's ObjectName
+	 * @return the readable attribute names
+	 * @throws Exception thrown on any error reading the MBeanInfo
+	 */
+	protected static String[] readableAttributes(final MBeanServerConnection conn, final ObjectName objectName) throws Exception {
+		final MBeanAttributeInfo[] infos = conn.getMBeanInfo(objectName).getAttributes();
+		final String[] names = new String[infos.length];
+		int count = 0;
+		for(MBeanAttributeInfo info: infos) {
+			if(info.isReadable()) names[count++] = info.getName();
+		}
+		if(count==names.length) return names;
+		final String[] readable = new String[count];
+		System.arraycopy(names, 0, readable, 0, count);
+		return readable;
+	}
+
+	/**
+	 * Invokes a batch of operations through the passed connection
+	 * @param conn The MBeanServer connection to invoke through
+	 * @param objectNames The ObjectNames of the MBeans to invoke on
+	 * @param operationNames The operation name for each ObjectName
+	 * @param params The parameters for each invocation (null entries for none)
+	 * @param signatures The signatures for each invocation (null entries for none)
+	 * @return the result of each invocation, or the exception it threw
+	 * @throws IOException thrown on any communication error
+	 * @see BulkReaderMBean#invoke(ObjectName[], String[], Object[][], String[][])
+	 */
+	public static Object[] invoke(final MBeanServerConnection conn, final ObjectName[] objectNames, final String[] operationNames, final Object[][] params, final String[][] signatures) throws IOException {
+		final Object[] results = new Object[objectNames.length];
+		for(int i = 0; i < objectNames.length; i++) {
+			final Object[] p = params==null || params[i]==null ? EMPTY_PARAMS : params[i];
+			final String[] s = signatures==null || signatures[i]==null ? EMPTY_SIG : signatures[i];
+			try {
+				results[i] = conn.invoke(objectNames[i], operationNames[i], p, s);
+			} catch (IOException iex) {
+				throw iex;
+			} catch (Exception ex) {
+				results[i] = ex;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.utils.jmx.agent.BulkReaderMBean#getCallCount()
+	 */
+	@Override
+	public long getCallCount() {
+		return calls.get();
+	}
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+import java.util.Map;
+
+import javax.management.AttributeList;
+import javax.management.ObjectName;
+
+/**
+ * <p>Title: BulkReaderMBean</p>
+ * <p>Description: MBean interface for the in-target bulk reader, which executes a batch of attribute reads or operations against the target's 
+ * platform MBeanServer in one remote call.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.BulkReaderMBean</code></p>
+ */
+
+public interface BulkReaderMBean {
+	/**
+	 * Reads attributes from all the MBeans matching each of the passed ObjectNames or patterns.
+	 * MBeans that cannot be found are omitted from the results.
+	 * @param objectNames The ObjectNames or patterns of the MBeans to read
+	 * @param attributeNames The names of the attributes to read for the ObjectName at the same index. A null or empty array reads all the readable attributes.
+	 * @return the read {@link AttributeList}, or the exception the read threw, keyed by ObjectName
+	 */
+	public Map<ObjectName, Object> getAttributes(ObjectName[] objectNames, String[][] attributeNames);
+	
+	/**
+	 * Invokes a batch of operations
+	 * @param objectNames The ObjectNames of the MBeans to invoke on
+	 * @param operationNames The operation name for each ObjectName
+	 * @param params The parameters for each invocation (null entries for none)
+	 * @param signatures The signatures for each invocation (null entries for none)
+	 * @return the result of each invocation, or the exception it threw
+	 */
+	public Object[] invoke(ObjectName[] objectNames, String[] operationNames, Object[][] params, String[][] signatures);
+	
+	/**
+	 * Returns the number of bulk calls served
+	 * @return the number of bulk calls served
+	 */
+	public long getCallCount();
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServerConnection;
+
+/**
+ * <p>Title: RemoteExec</p>
+ * <p>Description: Runs a compiled class's static <code>execute(MBeanServerConnection)</code> method inside a target JVM, against the target's platform MBeanServer,
+ * so code making many MBeanServer calls costs one attach instead of one remote call per MBeanServer call.</p>
+ * <p>The client writes the class name, timeout and the bytecode of the class and the classes compiled with it to a request file in the owner-only 
+ * jmxlocal directory and loads the {@link Agent} with the <b><code>exec=&lt;request file&gt;</code></b> option, the path URL encoded so it cannot 
+ * break the comma separated agent options. In the target, the classes are defined in a new class loader that is discarded after the call,
+ * run on a daemon thread for at most the timeout, and the serialized result (or exception) is written to <code>&lt;request file&gt;.result</code>,
+ * which the client reads once the agent returns. Results that are not serializable are returned as their <code>toString()</code>.</p> 
+ * <p>The timeout is best effort: when it expires the thread is interrupted and abandoned and a TimeoutException is returned, 
+ * but code that does not respond to interrupts keeps running in the target until it completes.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.RemoteExec</code></p>
+ */
+
+public class RemoteExec {
+	/** Static class logger */
+	private static final Logger log = Logger.getLogger(RemoteExec.class.getName());
+	/** The agent option naming the request file */
+	public static final String EXEC_OPTION = "exec";
+	/** The encoding of the request file path in the agent option */
+	private static final String PATH_ENCODING = "UTF-8";
+	/** The result file suffix */
+	public static final String RESULT_SUFFIX = ".result";
+	/** Serial number for unique request file names */
+	private static final AtomicLong serial = new AtomicLong();
+	
+	/**
+	 * Runs the passed class in the JVM with the passed id. Called in the client.
+	 * @param jvmId The target JVM id
+	 * @param className The name of the class
+	 * @param byteCode The bytecode of the class and the classes compiled with it, keyed by class name
+	 * @param timeoutMs The maximum time in ms. to wait for the class to execute in the target. The class is not stopped if it ignores interrupts.
+	 * @return the deserialized return value of the class's <code>execute</code> method
+	 * @throws Exception the exception thrown by the class in the target, or thrown on any error shipping or running the class
+	 */
+	public static Object execute(final String jvmId, final String className, final Map<String, byte[]> byteCode, final long timeoutMs) throws Exception {
+		final Path dir = UnixSockets.createDirectory(UnixSockets.getSocketDirectory());
+		final Path request = dir.resolve("exec-" + ManagementFactory.getRuntimeMXBean().getName().split("@")[0] + "-" + serial.incrementAndGet()).toAbsolutePath();
+		final Path result = request.resolveSibling(request.getFileName() + RESULT_SUFFIX);
+		try {
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream(4096);
+			final DataOutputStream dos = new DataOutputStream(baos);
+			dos.writeUTF(className);
+			dos.writeLong(timeoutMs);
+			dos.writeInt(byteCode.size());
+			for(Map.Entry<String, byte[]> entry: byteCode.entrySet()) {
+				dos.writeUTF(entry.getKey());
+				dos.writeInt(entry.getValue().length);
+				dos.write(entry.getValue());
+			}
+			dos.flush();
+			Files.write(request, baos.toByteArray());
+			AgentInstaller.install(jvmId, EXEC_OPTION + "=" + URLEncoder.encode(request.toString(), PATH_ENCODING));
+			if(!Files.exists(result)) throw new IOException("The target JVM [" + jvmId + "] did not return a result");
+			final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(Files.readAllBytes(result)));
+			try {
+				final boolean ok = ois.readBoolean();
+				final Object value = ois.readObject();
+				if(ok) return value;
+				if(value instanceof Exception) throw (Exception)value;
+				if(value instanceof Error) throw (Error)value;
+				throw new Exception(String.valueOf(value));
+			} finally {
+				try { ois.close(); } catch (Exception x) {/* No Op */}
+			}
+		} finally {
+			try { Files.deleteIfExists(request); } catch (Exception x) {/* No Op */}
+			try { Files.deleteIfExists(result); } catch (Exception x) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * Runs the request in the passed file and writes the result. Called in the target by the agent.
+	 * @param option The URL encoded path of the request file
+	 */
+	static void run(final String option) {
+		final Path request;
+		try {
+			request = Paths.get(URLDecoder.decode(option, PATH_ENCODING));
+		} catch (Exception ex) {
+			log.log(Level.WARNING, "Invalid exec request [" + option + "]", ex);
+			return;
+		}
+		final Path result = request.resolveSibling(request.getFileName() + RESULT_SUFFIX);
+		boolean ok = false;
+		Object value = null;
+		try {
+			final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(request)));
+			final String className = dis.readUTF();
+			final long timeoutMs = dis.readLong();
+			final int count = dis.readInt();
+			final Map<String, byte[]> byteCode = new LinkedHashMap<String, byte[]>(count);
+			for(int i = 0; i < count; i++) {
+				final String name = dis.readUTF();
+				final byte[] b = new byte[dis.readInt()];
+				dis.readFully(b);
+				byteCode.put(name, b);
+			}
+			value = call(className, byteCode, timeoutMs);
+			ok = true;
+		} catch (Throwable t) {
+			value = t;
+		}
+		try {
+			Files.write(result, serialize(ok, value));
+		} catch (Exception ex) {
+			log.log(Level.WARNING, "Failed to write exec result [" + result + "]", ex);
+		}
+	}
+	
+	/**
+	 * Defines the passed classes in a new class loader and calls the named class's <code>execute</code> method with the platform MBeanServer on a daemon thread.
+	 * If the call does not complete within the timeout, the thread is interrupted and abandoned: it keeps running if the code ignores interrupts,
+	 * but being a daemon thread it does not keep the target JVM from exiting.
+	 * @param className The class name
+	 * @param byteCode The bytecode of the class and the classes compiled with it, keyed by class name
+	 * @param timeoutMs The maximum time to wait for the call in ms.
+	 * @return the call's return value
+	 * @throws Throwable the call's exception, or a TimeoutException
+	 */
+	private static Object call(final String className, final Map<String, byte[]> byteCode, final long timeoutMs) throws Throwable {
+		final Object[] outcome = new Object[2];
+		final Thread t = new Thread("jmxlocal-exec-" + className) {
+			@Override
+			public void run() {
+				try {
+					final ExecClassLoader cl = new ExecClassLoader(Agent.class.getClassLoader(), byteCode);
+					setContextClassLoader(cl);
+					final Method m = cl.loadClass(className).getDeclaredMethod("execute", MBeanServerConnection.class);
+					final Object value = m.invoke(null, ManagementFactory.getPlatformMBeanServer());
+					synchronized(outcome) { outcome[0] = value; }
+				} catch (InvocationTargetException ite) {
+					synchronized(outcome) { outcome[1] = ite.getCause(); }
+				} catch (Throwable e) {
+					synchronized(outcome) { outcome[1] = e; }
+				} finally {
+					setContextClassLoader(null);
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		t.join(timeoutMs);
+		if(t.isAlive()) {
+			t.interrupt();
+			throw new TimeoutException("Execution of [" + className + "] timed out after " + timeoutMs + " ms.");
+		}
+		synchronized(outcome) {
+			if(outcome[1]!=null) throw (Throwable)outcome[1];
+			return outcome[0];
+		}
+	}
+	
+	/**
+	 * Serializes a result, falling back to the value's string form if it cannot be serialized
+	 * @param ok true for a return value, false for an exception
+	 * @param value The return value or exception
+	 * @return the serialized result
+	 * @throws IOException thrown if the fallback cannot be serialized
+	 */
+	private static byte[] serialize(final boolean ok, final Object value) throws IOException {
+		try {
+			return write(ok, value);
+		} catch (IOException iex) {
+			return write(ok, ok ? String.valueOf(value) : new Exception(String.valueOf(value)));
+		}
+	}
+	
+	/**
+	 * Writes a result
+	 * @param ok true for a return value, false for an exception
+	 * @param value The return value or exception
+	 * @return the serialized result
+	 * @throws IOException thrown if the value cannot be serialized
+	 */
+	private static byte[] write(final boolean ok, final Object value) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+		final ObjectOutputStream oos = new ObjectOutputStream(baos);
+		try {
+			oos.writeBoolean(ok);
+			oos.writeObject(value);
+			oos.flush();
+			return baos.toByteArray();
+		} finally {
+			try { oos.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * <p>Title: ExecClassLoader</p>
+	 * <p>Description: A single use class loader for an executed class and the classes compiled with it, so the classes are unloaded once the call completes</p> 
+	 */
+	private static class ExecClassLoader extends ClassLoader {
+		/** The bytecode of the classes not defined yet, keyed by class name */
+		private final Map<String, byte[]> byteCode;
+		
+		/**
+		 * Creates a new ExecClassLoader
+		 * @param parent The parent class loader
+		 * @param byteCode The bytecode of the classes to define keyed by class name
+		 */
+		ExecClassLoader(final ClassLoader parent, final Map<String, byte[]> byteCode) {
+			super(parent);
+			this.byteCode = new HashMap<String, byte[]>(byteCode);
+		}
+		
+		/**
+		 * Defines the named class from the passed bytecode
+		 * @see java.lang.ClassLoader#findClass(java.lang.String)
+		 */
+		@Override
+		protected Class<?> findClass(final String name) throws ClassNotFoundException {
+			final byte[] b;
+			synchronized(byteCode) {
+				b = byteCode.remove(name);
+			}
+			if(b==null) throw new ClassNotFoundException(name);
+			return defineClass(name, b, 0, b.length);
+		}
+	}
+}
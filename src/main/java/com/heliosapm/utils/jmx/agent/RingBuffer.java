@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * <p>Title: RingBuffer</p>
+ * <p>Description: The layout of a jmxlocal sampling ring buffer file, written by a {@link RingBufferSampler} in the target JVM
+ * and read by a {@link RingBufferReader} in any other process on the host. All values are in native byte order.</p>
+ * <p>The file starts with a header:<pre>
+ *  0  int    magic
+ *  4  int    version
+ *  8  int    field count
+ * 12  int    capacity (records)
+ * 16  int    record size (bytes)
+ * 20  int    header size (bytes, including the field names)
+ * 24  long   sample period (ms)
+ * 32  long   write sequence (the number of records written)
+ * 40  long   start time (ms)
+ * 48  long   lease renewal time (ms), written by readers
+ * 56  long   lease duration (ms), 0 for no lease
+ * 64  field names, each a short length and the UTF-8 bytes, padded to 8 bytes
+ * </pre>followed by <b>capacity</b> fixed width records:<pre>
+ *  0  long   stamp
+ *  8  long   timestamp (ms)
+ * 16  double value of each field
+ * </pre>Record <b>n</b> is written to slot <b>n % capacity</b>. Its stamp is <b>2n+1</b> while it is being written and <b>2n+2</b> once complete,
+ * so a reader that sees the same complete stamp before and after reading a record knows it read a consistent record.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.RingBuffer</code></p>
+ */
+
+public class RingBuffer {
+	/** The file magic */
+	public static final int MAGIC = 0x4A585242;  // JXRB
+	/** The layout version */
+	public static final int VERSION = 2;
+	/** The offset of the magic */
+	static final int MAGIC_OFFSET = 0;
+	/** The offset of the version */
+	static final int VERSION_OFFSET = 4;
+	/** The offset of the field count */
+	static final int FIELDS_OFFSET = 8;
+	/** The offset of the capacity */
+	static final int CAPACITY_OFFSET = 12;
+	/** The offset of the record size */
+	static final int RECORD_SIZE_OFFSET = 16;
+	/** The offset of the header size */
+	static final int HEADER_SIZE_OFFSET = 20;
+	/** The offset of the sample period */
+	static final int PERIOD_OFFSET = 24;
+	/** The offset of the write sequence */
+	static final int WRITE_SEQ_OFFSET = 32;
+	/** The offset of the start time */
+	static final int START_OFFSET = 40;
+	/** The offset of the lease renewal time */
+	static final int LEASE_OFFSET = 48;
+	/** The offset of the lease duration */
+	static final int LEASE_DURATION_OFFSET = 56;
+	/** The offset of the field names */
+	static final int NAMES_OFFSET = 64;
+	/** The size of the fixed part of a record */
+	static final int RECORD_PREFIX = 16;
+	
+	/** Acquire fence: orders prior loads before subsequent loads and stores */
+	private static final MethodHandle LOAD_FENCE;
+	/** Release fence: orders prior loads and stores before subsequent stores */
+	private static final MethodHandle STORE_FENCE;
+	
+	static {
+		final MethodHandles.Lookup lookup = MethodHandles.lookup();
+		final MethodType voidType = MethodType.methodType(void.class);
+		MethodHandle load = null, store = null;
+		try {
+			// Java 9+
+			final Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+			load = lookup.findStatic(varHandle, "acquireFence", voidType);
+			store = lookup.findStatic(varHandle, "releaseFence", voidType);
+		} catch (Exception ex) {
+			// Java 8
+			try {
+				final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				final Field f = unsafeClass.getDeclaredField("theUnsafe");
+				f.setAccessible(true);
+				final Object unsafe = f.get(null);
+				load = lookup.findVirtual(unsafeClass, "loadFence", voidType).bindTo(unsafe);
+				store = lookup.findVirtual(unsafeClass, "storeFence", voidType).bindTo(unsafe);
+			} catch (Exception ex2) {
+				throw new RuntimeException("No memory fences available", ex2);
+			}
+		}
+		LOAD_FENCE = load;
+		STORE_FENCE = store;
+	}
+	
+	/**
+	 * Issues an acquire fence
+	 */
+	static void loadFence() {
+		try {
+			LOAD_FENCE.invokeExact();
+		} catch (Throwable t) {
+			throw new RuntimeException(t);
+		}
+	}
+	
+	/**
+	 * Issues a release fence
+	 */
+	static void storeFence() {
+		try {
+			STORE_FENCE.invokeExact();
+		} catch (Throwable t) {
+			throw new RuntimeException(t);
+		}
+	}
+	
+	/**
+	 * Computes the size of a record
+	 * @param fieldCount The number of fields
+	 * @return the record size in bytes
+	 */
+	static int recordSize(final int fieldCount) {
+		return RECORD_PREFIX + (8 * fieldCount);
+	}
+	
+	/**
+	 * Returns the stamp of a complete record
+	 * @param seq The record sequence
+	 * @return the stamp
+	 */
+	static long completeStamp(final long seq) {
+		return (seq << 1) + 2;
+	}
+	
+	private RingBuffer() {}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+
+/**
+ * <p>Title: RingBufferManager</p>
+ * <p>Description: The in-target manager of {@link RingBufferSampler}s, registered by the {@link Agent} as {@link Agent#RING_BUFFERS}.
+ * Ring buffer files are created in the owner-only jmxlocal directory (see {@link UnixSockets#getSocketDirectory()}) and deleted when 
+ * stopped, when their lease expires or when the JVM exits.</p> 
+ * <p>All the samplers share one scheduler thread (see {@link RingBufferSampler}), so the number of concurrent samplers is capped at
+ * <b><code>jmxlocal.ring.max</code></b> (default 16). Samplers started without an explicit lease get a lease of 
+ * <b><code>jmxlocal.ring.lease</code></b> ms. (default 30000).</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.RingBufferManager</code></p>
+ */
+
+public class RingBufferManager implements RingBufferManagerMBean {
+	/** The system property defining the maximum number of concurrent samplers */
+	public static final String MAX_SAMPLERS_PROP = "jmxlocal.ring.max";
+	/** The system property defining the default lease in ms. */
+	public static final String DEFAULT_LEASE_PROP = "jmxlocal.ring.lease";
+	/** The default maximum number of concurrent samplers */
+	public static final int DEFAULT_MAX_SAMPLERS = 16;
+	/** The default lease in ms. */
+	public static final long DEFAULT_LEASE = 30000L;
+	
+	/** The MBeanServer to sample */
+	protected final MBeanServer server;
+	/** The maximum number of concurrent samplers */
+	protected final int maxSamplers = Integer.getInteger(MAX_SAMPLERS_PROP, DEFAULT_MAX_SAMPLERS);
+	/** The lease for samplers started without one */
+	protected final long defaultLease = Long.getLong(DEFAULT_LEASE_PROP, DEFAULT_LEASE);
+	/** The active samplers keyed by file path */
+	protected final Map<String, RingBufferSampler> samplers = new ConcurrentHashMap<String, RingBufferSampler>();
+	/** The ring buffer file serial */
+	protected final AtomicInteger serial = new AtomicInteger(0);
+	/** This JVM's pid */
+	protected final String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+	
+	/**
+	 * Creates a new RingBufferManager
+	 * @param server The MBeanServer to sample
+	 */
+	public RingBufferManager(final MBeanServer server) {
+		this.server = server;
+		Runtime.getRuntime().addShutdownHook(new Thread("jmxlocal-ring-cleanup") {
+			@Override
+			public void run() {
+				for(RingBufferSampler sampler: samplers.values()) {
+					sampler.stop();
+				}
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.utils.jmx.agent.RingBufferManagerMBean#start(java.lang.String[], long, int)
+	 */
+	@Override
+	public String start(final String[] fields, final long periodMs, final int capacity) {
+		return start(fields, periodMs, capacity, Math.max(defaultLease, periodMs * 2));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.utils.jmx.agent.RingBufferManagerMBean#start(java.lang.String[], long, int, long)
+	 */
+	@Override
+	public synchronized String start(final String[] fields, final long periodMs, final int capacity, final long leaseMs) {
+		if(samplers.size() >= maxSamplers) throw new IllegalStateException("Too many ring buffer samplers: " + samplers.size() + " (max " + maxSamplers + ")");
+		final Path path = UnixSockets.getSocketDirectory().resolve(pid + "-" + serial.incrementAndGet() + ".ring").toAbsolutePath();
+		final String key = path.toString();
+		try {
+			final RingBufferSampler sampler = new RingBufferSampler(server, path, fields, periodMs, capacity, leaseMs) {
+				@Override
+				protected void expire() {
+					samplers.remove(key, this);
+					super.expire();
+				}
+			};
+			samplers.put(key, sampler);
+			return key;
+		} catch (IllegalArgumentException iex) {
+			throw iex;
+		} catch (Exception ex) {
+			throw new RuntimeException("Failed to create ring buffer [" + path + "]: " + ex);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.utils.jmx.agent.RingBufferManagerMBean#stop(java.lang.String)
+	 */
+	@Override
+	public boolean stop(final String path) {
+		final RingBufferSampler sampler = samplers.remove(path);
+		if(sampler==null) return false;
+		sampler.stop();
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.utils.jmx.agent.RingBufferManagerMBean#getPaths()
+	 */
+	@Override
+	public String[] getPaths() {
+		return samplers.keySet().toArray(new String[0]);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.utils.jmx.agent.RingBufferManagerMBean#getMaxSamplers()
+	 */
+	@Override
+	public int getMaxSamplers() {
+		return maxSamplers;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+/**
+ * <p>Title: RingBufferManagerMBean</p>
+ * <p>Description: MBean interface for the in-target manager of {@link RingBufferSampler}s</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.RingBufferManagerMBean</code></p>
+ */
+
+public interface RingBufferManagerMBean {
+	/**
+	 * Starts sampling the passed fields into a new ring buffer file with the default lease
+	 * @param fields The field specs (see {@link RingBufferSampler})
+	 * @param periodMs The sampling period in ms.
+	 * @param capacity The number of records in the ring buffer
+	 * @return the absolute path of the ring buffer file
+	 */
+	public String start(String[] fields, long periodMs, int capacity);
+	
+	/**
+	 * Starts sampling the passed fields into a new ring buffer file
+	 * @param fields The field specs (see {@link RingBufferSampler})
+	 * @param periodMs The sampling period in ms.
+	 * @param capacity The number of records in the ring buffer
+	 * @param leaseMs The lease duration in ms. The sampler is stopped if its readers do not renew the lease for this long. 0 for no lease.
+	 * @return the absolute path of the ring buffer file
+	 */
+	public String start(String[] fields, long periodMs, int capacity, long leaseMs);
+	
+	/**
+	 * Stops the sampler writing to the passed file and deletes the file
+	 * @param path The ring buffer file path
+	 * @return true if a sampler was stopped, false if none was writing to the file
+	 */
+	public boolean stop(String path);
+	
+	/**
+	 * Returns the paths of the active ring buffer files
+	 * @return the ring buffer file paths
+	 */
+	public String[] getPaths();
+	
+	/**
+	 * Returns the maximum number of concurrent samplers
+	 * @return the maximum number of samplers
+	 */
+	public int getMaxSamplers();
+}
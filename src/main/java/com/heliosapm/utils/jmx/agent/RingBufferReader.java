@@ -0,0 +1,265 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Title: RingBufferReader</p>
+ * <p>Description: Reads a {@link RingBuffer} file written by a {@link RingBufferSampler} in another JVM. Reads go straight from the mapped
+ * file into the caller's array, take no locks, allocate nothing, and never touch the target JVM. A reader is meant to be used by one thread.</p>
+ * <p>{@link #readLatest(double[])} and {@link #drain(long, double[], RecordHandler)} renew the sampler's lease by writing the current time to
+ * the file. A reader that polls less often than the lease duration (see {@link #getLease()}) must call {@link #renew()} to keep the sampler alive.</p>
+ * <p>Typical use: <pre>
+ * final double[] values = new double[reader.getFieldCount()];
+ * long next = reader.getWriteSequence();
+ * while(running) {
+ *     next = reader.drain(next, values, handler);
+ *     Thread.sleep(reader.getPeriod());
+ * }
+ * </pre></p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.RingBufferReader</code></p>
+ */
+
+public class RingBufferReader {
+	/** The ring buffer file */
+	protected final Path path;
+	/** The mapped file */
+	protected final MappedByteBuffer buffer;
+	/** The field names */
+	protected final String[] fields;
+	/** The number of records */
+	protected final int capacity;
+	/** The record size */
+	protected final int recordSize;
+	/** The header size */
+	protected final int headerSize;
+	/** The sampling period in ms. */
+	protected final long period;
+	/** Indicates if the file is mapped writable so the lease can be renewed */
+	protected final boolean renewable;
+	
+	/**
+	 * <p>Title: RecordHandler</p>
+	 * <p>Description: Receives the records read by {@link RingBufferReader#drain(long, double[], RecordHandler)}</p> 
+	 */
+	public static interface RecordHandler {
+		/**
+		 * Called for each record read
+		 * @param seq The record sequence. Gaps indicate records overwritten before they were read.
+		 * @param timestamp The sample timestamp in ms.
+		 * @param values The sampled values, only valid until this method returns
+		 */
+		public void onRecord(long seq, long timestamp, double[] values);
+	}
+	
+	/**
+	 * Opens a ring buffer file
+	 * @param path The ring buffer file path
+	 * @throws IOException thrown if the file cannot be mapped or is not a ring buffer
+	 */
+	public RingBufferReader(final String path) throws IOException {
+		this(Paths.get(path));
+	}
+	
+	/**
+	 * Opens a ring buffer file
+	 * @param path The ring buffer file
+	 * @throws IOException thrown if the file cannot be mapped or is not a ring buffer
+	 */
+	public RingBufferReader(final Path path) throws IOException {
+		this.path = path;
+		FileChannel fc = null;
+		boolean writable = true;
+		try {
+			fc = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} catch (IOException iex) {
+			// not writable by this user, so the lease cannot be renewed from here
+			fc = FileChannel.open(path, StandardOpenOption.READ);
+			writable = false;
+		}
+		try {
+			buffer = fc.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		} finally {
+			fc.close();
+		}
+		renewable = writable;
+		buffer.order(ByteOrder.nativeOrder());
+		if(buffer.capacity() < RingBuffer.NAMES_OFFSET || buffer.getInt(RingBuffer.MAGIC_OFFSET)!=RingBuffer.MAGIC) throw new IOException("Not a ring buffer file [" + path + "]");
+		RingBuffer.loadFence();
+		final int version = buffer.getInt(RingBuffer.VERSION_OFFSET);
+		if(version!=RingBuffer.VERSION) throw new IOException("Unsupported ring buffer version [" + version + "] in [" + path + "]");
+		capacity = buffer.getInt(RingBuffer.CAPACITY_OFFSET);
+		recordSize = buffer.getInt(RingBuffer.RECORD_SIZE_OFFSET);
+		headerSize = buffer.getInt(RingBuffer.HEADER_SIZE_OFFSET);
+		period = buffer.getLong(RingBuffer.PERIOD_OFFSET);
+		fields = new String[buffer.getInt(RingBuffer.FIELDS_OFFSET)];
+		int offset = RingBuffer.NAMES_OFFSET;
+		for(int i = 0; i < fields.length; i++) {
+			final byte[] b = new byte[buffer.getShort(offset)];
+			offset += 2;
+			for(int x = 0; x < b.length; x++) b[x] = buffer.get(offset++);
+			fields[i] = new String(b, RingBufferSampler.UTF8);
+		}
+	}
+	
+	/**
+	 * Renews the sampler's lease
+	 * @return true if the lease was renewed, false if the file is not writable by this reader
+	 */
+	public boolean renew() {
+		if(!renewable) return false;
+		buffer.putLong(RingBuffer.LEASE_OFFSET, System.currentTimeMillis());
+		return true;
+	}
+	
+	/**
+	 * Returns the number of records written so far, which is the sequence of the next record to be written
+	 * @return the write sequence
+	 */
+	public long getWriteSequence() {
+		final long seq = buffer.getLong(RingBuffer.WRITE_SEQ_OFFSET);
+		RingBuffer.loadFence();
+		return seq;
+	}
+	
+	/**
+	 * Reads one record
+	 * @param seq The sequence of the record to read
+	 * @param values The array to read the field values into
+	 * @return the record's timestamp, or -1 if the record has not been written yet or has been overwritten
+	 */
+	public long read(final long seq, final double[] values) {
+		if(seq < 0) return -1L;
+		final int offset = headerSize + (int)(seq % capacity) * recordSize;
+		final long stamp = RingBuffer.completeStamp(seq);
+		if(buffer.getLong(offset)!=stamp) return -1L;
+		RingBuffer.loadFence();
+		final long timestamp = buffer.getLong(offset + 8);
+		final int n = Math.min(values.length, fields.length);
+		for(int i = 0; i < n; i++) {
+			values[i] = buffer.getDouble(offset + RingBuffer.RECORD_PREFIX + (i * 8));
+		}
+		RingBuffer.loadFence();
+		return buffer.getLong(offset)==stamp ? timestamp : -1L;
+	}
+	
+	/**
+	 * Reads the most recent complete record
+	 * @param values The array to read the field values into
+	 * @return the record's timestamp, or -1 if no record has been written
+	 */
+	public long readLatest(final double[] values) {
+		renew();
+		while(true) {
+			final long seq = getWriteSequence() - 1;
+			if(seq < 0) return -1L;
+			final long timestamp = read(seq, values);
+			if(timestamp!=-1L) return timestamp;
+		}
+	}
+	
+	/**
+	 * Reads all the records written since the passed sequence that have not been overwritten
+	 * @param from The sequence of the first record to read
+	 * @param values The scratch array passed to the handler
+	 * @param handler The record handler
+	 * @return the sequence to pass on the next call
+	 */
+	public long drain(final long from, final double[] values, final RecordHandler handler) {
+		renew();
+		final long end = getWriteSequence();
+		long seq = Math.max(from, end - capacity);
+		for(; seq < end; seq++) {
+			final long timestamp = read(seq, values);
+			if(timestamp!=-1L) handler.onRecord(seq, timestamp, values);
+		}
+		return seq;
+	}
+	
+	/**
+	 * Returns the field names
+	 * @return the field names
+	 */
+	public String[] getFields() {
+		return fields.clone();
+	}
+	
+	/**
+	 * Returns the number of fields in each record
+	 * @return the field count
+	 */
+	public int getFieldCount() {
+		return fields.length;
+	}
+	
+	/**
+	 * Returns the number of records the ring buffer holds
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Returns the sampling period
+	 * @return the sampling period in ms.
+	 */
+	public long getPeriod() {
+		return period;
+	}
+	
+	/**
+	 * Returns the sampler's lease duration
+	 * @return the lease duration in ms., 0 for no lease
+	 */
+	public long getLease() {
+		return buffer.getLong(RingBuffer.LEASE_DURATION_OFFSET);
+	}
+	
+	/**
+	 * Returns the time the sampler was started
+	 * @return the start time in ms.
+	 */
+	public long getStartTime() {
+		return buffer.getLong(RingBuffer.START_OFFSET);
+	}
+	
+	/**
+	 * Returns the ring buffer file
+	 * @return the ring buffer file
+	 */
+	public Path getPath() {
+		return path;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "RingBufferReader [" + path + ", fields:" + fields.length + ", capacity:" + capacity + ", period:" + period + "ms]";
+	}
+}
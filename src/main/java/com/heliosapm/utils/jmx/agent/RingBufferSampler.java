@@ -0,0 +1,321 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * <p>Title: RingBufferSampler</p>
+ * <p>Description: Samples a fixed set of numeric MBean attributes in the target JVM at a fixed rate and writes them to a memory mapped
+ * {@link RingBuffer} file. Fields are specified as <b><code>&lt;ObjectName&gt;|&lt;attribute&gt;</code></b>, or 
+ * <b><code>&lt;ObjectName&gt;|&lt;attribute&gt;|&lt;key&gt;</code></b> for an item of a composite attribute. Numbers are written as doubles,
+ * booleans as 1 or 0, and missing or non-numeric values as NaN. The attributes of each MBean are read in one call.</p> 
+ * <p>A sampler holds a lease which its readers renew through the file (see {@link RingBufferReader#renew()}). If no reader renews it within
+ * the lease duration, e.g. because the client died without stopping the sampler, the sampler expires: it stops and deletes its file.</p>
+ * <p>All the samplers in a JVM run on <b>one</b> shared scheduler thread, so a sampler whose MBeans are slow to read delays the others.
+ * The number of samplers is capped by the {@link RingBufferManager}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.RingBufferSampler</code></p>
+ */
+
+public class RingBufferSampler implements Runnable {
+	/** Static class logger */
+	private static final Logger log = Logger.getLogger(RingBufferSampler.class.getName());
+	/** The shared sampling scheduler */
+	private static volatile ScheduledExecutorService scheduler = null;
+	/** The field name charset */
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/** The MBeanServer to sample */
+	protected final MBeanServer server;
+	/** The ring buffer file */
+	protected final Path path;
+	/** The field specs */
+	protected final String[] fields;
+	/** The MBean ObjectNames to read */
+	protected final ObjectName[] objectNames;
+	/** The attribute names to read for each MBean */
+	protected final String[][] attributeNames;
+	/** The MBean index of each field */
+	protected final int[] fieldMBean;
+	/** The attribute index of each field */
+	protected final int[] fieldAttribute;
+	/** The composite key of each field, null for simple attributes */
+	protected final String[] fieldKey;
+	/** The mapped file */
+	protected final MappedByteBuffer buffer;
+	/** The number of records */
+	protected final int capacity;
+	/** The record size */
+	protected final int recordSize;
+	/** The header size */
+	protected final int headerSize;
+	/** The values read for each MBean in the current sample */
+	protected final Object[][] current;
+	/** The schedule handle */
+	protected final ScheduledFuture<?> handle;
+	/** The lease duration in ms., 0 for no lease */
+	protected final long leaseMs;
+	/** The number of records written */
+	protected long seq = 0;
+	
+	/**
+	 * Creates a new RingBufferSampler and starts sampling
+	 * @param server The MBeanServer to sample
+	 * @param path The ring buffer file to create
+	 * @param fields The field specs
+	 * @param periodMs The sampling period in ms.
+	 * @param capacity The number of records in the ring buffer
+	 * @param leaseMs The lease duration in ms. The sampler expires if no reader renews the lease for this long. 0 for no lease.
+	 * @throws IOException thrown if the file cannot be created
+	 */
+	public RingBufferSampler(final MBeanServer server, final Path path, final String[] fields, final long periodMs, final int capacity, final long leaseMs) throws IOException {
+		if(fields==null || fields.length==0) throw new IllegalArgumentException("No fields");
+		if(periodMs < 1) throw new IllegalArgumentException("Invalid period: " + periodMs);
+		if(capacity < 2) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		if(leaseMs < 0 || (leaseMs > 0 && leaseMs < periodMs)) throw new IllegalArgumentException("Invalid lease: " + leaseMs + " (period: " + periodMs + ")");
+		this.server = server;
+		this.path = path;
+		this.fields = fields.clone();
+		this.capacity = capacity;
+		this.leaseMs = leaseMs;
+		// group the fields by MBean
+		final Map<ObjectName, List<String>> mbeans = new LinkedHashMap<ObjectName, List<String>>();
+		fieldMBean = new int[fields.length];
+		fieldAttribute = new int[fields.length];
+		fieldKey = new String[fields.length];
+		final List<ObjectName> names = new ArrayList<ObjectName>();
+		for(int i = 0; i < fields.length; i++) {
+			final String[] frags = fields[i].split("\\|");
+			if(frags.length < 2 || frags.length > 3) throw new IllegalArgumentException("Invalid field [" + fields[i] + "]");
+			final ObjectName on = Agent.on(frags[0].trim());
+			if(on.isPattern()) throw new IllegalArgumentException("Patterns not supported [" + fields[i] + "]");
+			List<String> attrs = mbeans.get(on);
+			if(attrs==null) {
+				attrs = new ArrayList<String>();
+				mbeans.put(on, attrs);
+				names.add(on);
+			}
+			final String attr = frags[1].trim();
+			if(!attrs.contains(attr)) attrs.add(attr);
+			fieldMBean[i] = names.indexOf(on);
+			fieldAttribute[i] = attrs.indexOf(attr);
+			fieldKey[i] = frags.length==3 ? frags[2].trim() : null;
+		}
+		objectNames = names.toArray(new ObjectName[names.size()]);
+		attributeNames = new String[objectNames.length][];
+		current = new Object[objectNames.length][];
+		for(int i = 0; i < objectNames.length; i++) {
+			final List<String> attrs = mbeans.get(objectNames[i]);
+			attributeNames[i] = attrs.toArray(new String[attrs.size()]);
+			current[i] = new Object[attributeNames[i].length];
+		}
+		// lay out the file
+		int namesSize = 0;
+		final byte[][] encoded = new byte[fields.length][];
+		for(int i = 0; i < fields.length; i++) {
+			encoded[i] = fields[i].getBytes(UTF8);
+			namesSize += 2 + encoded[i].length;
+		}
+		headerSize = (RingBuffer.NAMES_OFFSET + namesSize + 7) & ~7;
+		recordSize = RingBuffer.recordSize(fields.length);
+		final long size = headerSize + ((long)capacity * recordSize);
+		if(size > Integer.MAX_VALUE) throw new IllegalArgumentException("Ring buffer too large: " + size);
+		UnixSockets.createDirectory(path.getParent());
+		final FileChannel fc = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+			buffer = fc.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			fc.close();
+		}
+		buffer.order(ByteOrder.nativeOrder());
+		buffer.putInt(RingBuffer.VERSION_OFFSET, RingBuffer.VERSION);
+		buffer.putInt(RingBuffer.FIELDS_OFFSET, fields.length);
+		buffer.putInt(RingBuffer.CAPACITY_OFFSET, capacity);
+		buffer.putInt(RingBuffer.RECORD_SIZE_OFFSET, recordSize);
+		buffer.putInt(RingBuffer.HEADER_SIZE_OFFSET, headerSize);
+		buffer.putLong(RingBuffer.PERIOD_OFFSET, periodMs);
+		buffer.putLong(RingBuffer.WRITE_SEQ_OFFSET, 0L);
+		buffer.putLong(RingBuffer.START_OFFSET, System.currentTimeMillis());
+		buffer.putLong(RingBuffer.LEASE_OFFSET, System.currentTimeMillis());
+		buffer.putLong(RingBuffer.LEASE_DURATION_OFFSET, leaseMs);
+		int offset = RingBuffer.NAMES_OFFSET;
+		for(byte[] b: encoded) {
+			buffer.putShort(offset, (short)b.length);
+			offset += 2;
+			for(int i = 0; i < b.length; i++) buffer.put(offset++, b[i]);
+		}
+		RingBuffer.storeFence();
+		// the magic goes last so readers never see a partial header
+		buffer.putInt(RingBuffer.MAGIC_OFFSET, RingBuffer.MAGIC);
+		handle = getScheduler().scheduleAtFixedRate(this, 0L, periodMs, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Returns the shared sampling scheduler
+	 * @return the scheduler
+	 */
+	private static ScheduledExecutorService getScheduler() {
+		if(scheduler==null) {
+			synchronized(RingBufferSampler.class) {
+				if(scheduler==null) {
+					scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable r) {
+							final Thread t = new Thread(r, "jmxlocal-ring-sampler");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+				}
+			}
+		}
+		return scheduler;
+	}
+	
+	/**
+	 * Takes one sample and writes it to the next record, or expires this sampler if its lease has not been renewed
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			if(leaseMs > 0 && System.currentTimeMillis() - buffer.getLong(RingBuffer.LEASE_OFFSET) > leaseMs) {
+				log.info("Ring buffer lease expired for [" + path + "]");
+				expire();
+				return;
+			}
+			for(int m = 0; m < objectNames.length; m++) {
+				final Object[] values = current[m];
+				for(int a = 0; a < values.length; a++) values[a] = null;
+				try {
+					final AttributeList list = server.getAttributes(objectNames[m], attributeNames[m]);
+					for(Attribute attr: list.asList()) {
+						final String name = attr.getName();
+						for(int a = 0; a < values.length; a++) {
+							if(attributeNames[m][a].equals(name)) {
+								values[a] = attr.getValue();
+								break;
+							}
+						}
+					}
+				} catch (Exception ex) {
+					/* MBean not there (yet), values stay null */
+				}
+			}
+			final long n = seq;
+			final int offset = headerSize + (int)(n % capacity) * recordSize;
+			buffer.putLong(offset, RingBuffer.completeStamp(n) - 1);
+			RingBuffer.storeFence();
+			buffer.putLong(offset + 8, System.currentTimeMillis());
+			for(int i = 0; i < fieldMBean.length; i++) {
+				buffer.putDouble(offset + RingBuffer.RECORD_PREFIX + (i * 8), toDouble(current[fieldMBean[i]][fieldAttribute[i]], fieldKey[i]));
+			}
+			RingBuffer.storeFence();
+			buffer.putLong(offset, RingBuffer.completeStamp(n));
+			seq = n + 1;
+			RingBuffer.storeFence();
+			buffer.putLong(RingBuffer.WRITE_SEQ_OFFSET, seq);
+		} catch (Throwable t) {
+			log.log(Level.WARNING, "Ring buffer sample failed for [" + path + "]", t);
+		}
+	}
+	
+	/**
+	 * Converts a sampled value to a double
+	 * @param value The value
+	 * @param key The composite key, or null
+	 * @return the double value, or NaN if the value is missing or not numeric
+	 */
+	static double toDouble(final Object value, final String key) {
+		Object v = value;
+		if(key!=null) {
+			if(!(v instanceof CompositeData)) return Double.NaN;
+			final CompositeData cd = (CompositeData)v;
+			if(!cd.containsKey(key)) return Double.NaN;
+			v = cd.get(key);
+		}
+		if(v instanceof Number) return ((Number)v).doubleValue();
+		if(v instanceof Boolean) return ((Boolean)v).booleanValue() ? 1d : 0d;
+		return Double.NaN;
+	}
+	
+	/**
+	 * Called on the scheduler thread when the lease expires. Stops sampling and deletes the ring buffer file.
+	 */
+	protected void expire() {
+		stop();
+	}
+	
+	/**
+	 * Stops sampling and deletes the ring buffer file
+	 */
+	public void stop() {
+		handle.cancel(false);
+		try { Files.deleteIfExists(path); } catch (Exception x) {/* No Op */}
+	}
+	
+	/**
+	 * Returns the ring buffer file
+	 * @return the ring buffer file
+	 */
+	public Path getPath() {
+		return path;
+	}
+	
+	/**
+	 * Returns the lease duration
+	 * @return the lease duration in ms., 0 for no lease
+	 */
+	public long getLease() {
+		return leaseMs;
+	}
+	
+	/**
+	 * Returns the field specs
+	 * @return the field specs
+	 */
+	public String[] getFields() {
+		return fields.clone();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>Title: UdsProtocol</p>
+ * <p>Description: The framing and operation codes of the jmxlocal Unix domain socket transport.</p>
+ * <p>A request frame is <b><code>[int length][byte op][serialized Object[] args]</code></b> and the response frame is
+ * <b><code>[int length][byte status][serialized result or exception]</code></b>, where the length covers the bytes after it.
+ * Each connection carries one request at a time.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.UdsProtocol</code></p>
+ */
+
+public class UdsProtocol {
+	/** MBeanServerConnection#createMBean(String, ObjectName) */
+	public static final byte CREATE_MBEAN = 1;
+	/** MBeanServerConnection#createMBean(String, ObjectName, ObjectName) */
+	public static final byte CREATE_MBEAN_LOADER = 2;
+	/** MBeanServerConnection#createMBean(String, ObjectName, Object[], String[]) */
+	public static final byte CREATE_MBEAN_PARAMS = 3;
+	/** MBeanServerConnection#createMBean(String, ObjectName, ObjectName, Object[], String[]) */
+	public static final byte CREATE_MBEAN_LOADER_PARAMS = 4;
+	/** MBeanServerConnection#unregisterMBean(ObjectName) */
+	public static final byte UNREGISTER_MBEAN = 5;
+	/** MBeanServerConnection#getObjectInstance(ObjectName) */
+	public static final byte GET_OBJECT_INSTANCE = 6;
+	/** MBeanServerConnection#queryMBeans(ObjectName, QueryExp) */
+	public static final byte QUERY_MBEANS = 7;
+	/** MBeanServerConnection#queryNames(ObjectName, QueryExp) */
+	public static final byte QUERY_NAMES = 8;
+	/** MBeanServerConnection#isRegistered(ObjectName) */
+	public static final byte IS_REGISTERED = 9;
+	/** MBeanServerConnection#getMBeanCount() */
+	public static final byte GET_MBEAN_COUNT = 10;
+	/** MBeanServerConnection#getAttribute(ObjectName, String) */
+	public static final byte GET_ATTRIBUTE = 11;
+	/** MBeanServerConnection#getAttributes(ObjectName, String[]) */
+	public static final byte GET_ATTRIBUTES = 12;
+	/** MBeanServerConnection#setAttribute(ObjectName, Attribute) */
+	public static final byte SET_ATTRIBUTE = 13;
+	/** MBeanServerConnection#setAttributes(ObjectName, AttributeList) */
+	public static final byte SET_ATTRIBUTES = 14;
+	/** MBeanServerConnection#invoke(ObjectName, String, Object[], String[]) */
+	public static final byte INVOKE = 15;
+	/** MBeanServerConnection#getDefaultDomain() */
+	public static final byte GET_DEFAULT_DOMAIN = 16;
+	/** MBeanServerConnection#getDomains() */
+	public static final byte GET_DOMAINS = 17;
+	/** MBeanServerConnection#addNotificationListener(ObjectName, ObjectName, NotificationFilter, Object) */
+	public static final byte ADD_LISTENER_MBEAN = 18;
+	/** MBeanServerConnection#removeNotificationListener(ObjectName, ObjectName) */
+	public static final byte REMOVE_LISTENER_MBEAN = 19;
+	/** MBeanServerConnection#removeNotificationListener(ObjectName, ObjectName, NotificationFilter, Object) */
+	public static final byte REMOVE_LISTENER_MBEAN_FILTER = 20;
+	/** MBeanServerConnection#getMBeanInfo(ObjectName) */
+	public static final byte GET_MBEAN_INFO = 21;
+	/** MBeanServerConnection#isInstanceOf(ObjectName, String) */
+	public static final byte IS_INSTANCE_OF = 22;
+	
+	/** Response status for a normal return */
+	public static final byte OK = 0;
+	/** Response status for a thrown exception */
+	public static final byte ERROR = 1;
+	
+	/** The maximum accepted frame length */
+	public static final int MAX_FRAME = 64 * 1024 * 1024;
+	
+	/**
+	 * Writes a frame
+	 * @param channel The channel to write to
+	 * @param code The op or status code
+	 * @param payload The object to serialize into the frame
+	 * @throws IOException thrown on any IO error
+	 */
+	public static void write(final WritableByteChannel channel, final byte code, final Object payload) throws IOException {
+		final Frame frame = new Frame();
+		frame.write(new byte[]{0, 0, 0, 0, code});
+		final ObjectOutputStream oos = new ObjectOutputStream(frame);
+		oos.writeObject(payload);
+		oos.flush();
+		final ByteBuffer buf = frame.buffer();
+		buf.putInt(0, buf.remaining() - 4);
+		while(buf.hasRemaining()) {
+			channel.write(buf);
+		}
+	}
+	
+	/**
+	 * Reads a frame
+	 * @param channel The channel to read from
+	 * @return a two element array containing the op or status code as a Byte and the deserialized payload, or null if the channel was closed before the frame started
+	 * @throws IOException thrown on any IO error
+	 * @throws ClassNotFoundException thrown if the payload contains a class not visible to the reader
+	 */
+	public static Object[] read(final ReadableByteChannel channel) throws IOException, ClassNotFoundException {
+		final ByteBuffer header = ByteBuffer.allocate(4);
+		if(!fill(channel, header, true)) return null;
+		final int length = header.getInt(0);
+		if(length < 1 || length > MAX_FRAME) throw new IOException("Invalid frame length: " + length);
+		final ByteBuffer body = ByteBuffer.allocate(length);
+		fill(channel, body, false);
+		final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(body.array(), 1, length - 1));
+		try {
+			return new Object[]{body.get(0), ois.readObject()};
+		} finally {
+			ois.close();
+		}
+	}
+	
+	/**
+	 * Reads from the channel until the buffer is full
+	 * @param channel The channel to read from
+	 * @param buf The buffer to fill
+	 * @param eofOk true if the channel may be closed before anything is read
+	 * @return true if the buffer was filled, false if the channel was closed before anything was read and eofOk is true
+	 * @throws IOException thrown on any IO error
+	 */
+	private static boolean fill(final ReadableByteChannel channel, final ByteBuffer buf, final boolean eofOk) throws IOException {
+		while(buf.hasRemaining()) {
+			if(channel.read(buf)==-1) {
+				if(eofOk && buf.position()==0) return false;
+				throw new EOFException("Channel closed mid-frame");
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * <p>Title: Frame</p>
+	 * <p>Description: A byte array output stream exposing its buffer without a copy</p> 
+	 */
+	private static class Frame extends ByteArrayOutputStream {
+		Frame() {
+			super(512);
+		}
+		ByteBuffer buffer() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+	
+	private UdsProtocol() {}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.NotificationFilter;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+/**
+ * <p>Title: UdsServer</p>
+ * <p>Description: Serves an MBeanServer over a Unix domain socket using the {@link UdsProtocol}. Started by the {@link Agent} 
+ * when loaded with the <b><code>uds=true</code></b> option, on Java 16+.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.UdsServer</code></p>
+ */
+
+public class UdsServer implements Runnable {
+	/** Static class logger */
+	private static final Logger log = Logger.getLogger(UdsServer.class.getName());
+	/** The started server, null if not started */
+	private static UdsServer instance = null;
+	
+	/** The served MBeanServer */
+	protected final MBeanServer server;
+	/** The socket path */
+	protected final Path path;
+	/** The server channel */
+	protected final ServerSocketChannel serverChannel;
+	/** The connection handler thread pool */
+	protected final ExecutorService handlers;
+	/** The number of requests served */
+	protected final AtomicInteger requests = new AtomicInteger(0);
+	
+	/**
+	 * Starts the server for this JVM's socket path if it is not already started
+	 * @param server The MBeanServer to serve
+	 * @return the server
+	 * @throws IOException thrown if the socket cannot be bound
+	 */
+	public static synchronized UdsServer start(final MBeanServer server) throws IOException {
+		if(instance==null) {
+			final String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+			instance = new UdsServer(server, UnixSockets.getSocketPath(pid));
+		}
+		return instance;
+	}
+	
+	/**
+	 * Indicates if the server has been started in this JVM
+	 * @return true if started
+	 */
+	public static synchronized boolean isStarted() {
+		return instance!=null;
+	}
+	
+	/**
+	 * Creates a new UdsServer and starts accepting connections
+	 * @param server The MBeanServer to serve
+	 * @param path The socket path
+	 * @throws IOException thrown if the socket cannot be bound
+	 */
+	private UdsServer(final MBeanServer server, final Path path) throws IOException {
+		this.server = server;
+		this.path = path;
+		serverChannel = UnixSockets.bind(path);
+		handlers = Executors.newCachedThreadPool(new ThreadFactory() {
+			final AtomicInteger serial = new AtomicInteger(0);
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "jmxlocal-uds-" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		Runtime.getRuntime().addShutdownHook(new Thread("jmxlocal-uds-cleanup") {
+			@Override
+			public void run() {
+				try { serverChannel.close(); } catch (Exception x) {/* No Op */}
+				try { Files.deleteIfExists(path); } catch (Exception x) {/* No Op */}
+			}
+		});
+		final Thread acceptor = new Thread(this, "jmxlocal-uds-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+	
+	/**
+	 * Accepts connections until the server channel is closed
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		while(serverChannel.isOpen()) {
+			try {
+				final SocketChannel channel = serverChannel.accept();
+				handlers.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(channel);
+					}
+				});
+			} catch (IOException iex) {
+				if(serverChannel.isOpen()) log.log(Level.WARNING, "UDS accept failed", iex);
+			}
+		}
+	}
+	
+	/**
+	 * Serves requests on the passed channel until the client closes it
+	 * @param channel The client channel
+	 */
+	protected void serve(final SocketChannel channel) {
+		try {
+			while(true) {
+				final Object[] request = UdsProtocol.read(channel);
+				if(request==null) break;
+				requests.incrementAndGet();
+				Object result;
+				byte status = UdsProtocol.OK;
+				try {
+					result = dispatch((Byte)request[0], (Object[])request[1]);
+				} catch (Throwable t) {
+					result = t;
+					status = UdsProtocol.ERROR;
+				}
+				try {
+					UdsProtocol.write(channel, status, result);
+				} catch (NotSerializableException nex) {
+					UdsProtocol.write(channel, UdsProtocol.ERROR, new IOException("Result not serializable: " + nex.getMessage()));
+				}
+			}
+		} catch (Exception ex) {
+			/* Client went away or sent garbage */
+		} finally {
+			try { channel.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * Executes one request against the MBeanServer
+	 * @param op The op code
+	 * @param a The arguments
+	 * @return the result
+	 * @throws Exception thrown by the MBeanServer
+	 */
+	protected Object dispatch(final byte op, final Object[] a) throws Exception {
+		switch(op) {
+			case UdsProtocol.CREATE_MBEAN:
+				return server.createMBean((String)a[0], (ObjectName)a[1]);
+			case UdsProtocol.CREATE_MBEAN_LOADER:
+				return server.createMBean((String)a[0], (ObjectName)a[1], (ObjectName)a[2]);
+			case UdsProtocol.CREATE_MBEAN_PARAMS:
+				return server.createMBean((String)a[0], (ObjectName)a[1], (Object[])a[2], (String[])a[3]);
+			case UdsProtocol.CREATE_MBEAN_LOADER_PARAMS:
+				return server.createMBean((String)a[0], (ObjectName)a[1], (ObjectName)a[2], (Object[])a[3], (String[])a[4]);
+			case UdsProtocol.UNREGISTER_MBEAN:
+				server.unregisterMBean((ObjectName)a[0]);
+				return null;
+			case UdsProtocol.GET_OBJECT_INSTANCE:
+				return server.getObjectInstance((ObjectName)a[0]);
+			case UdsProtocol.QUERY_MBEANS:
+				return server.queryMBeans((ObjectName)a[0], (QueryExp)a[1]);
+			case UdsProtocol.QUERY_NAMES:
+				return server.queryNames((ObjectName)a[0], (QueryExp)a[1]);
+			case UdsProtocol.IS_REGISTERED:
+				return server.isRegistered((ObjectName)a[0]);
+			case UdsProtocol.GET_MBEAN_COUNT:
+				return server.getMBeanCount();
+			case UdsProtocol.GET_ATTRIBUTE:
+				return server.getAttribute((ObjectName)a[0], (String)a[1]);
+			case UdsProtocol.GET_ATTRIBUTES:
+				return server.getAttributes((ObjectName)a[0], (String[])a[1]);
+			case UdsProtocol.SET_ATTRIBUTE:
+				server.setAttribute((ObjectName)a[0], (Attribute)a[1]);
+				return null;
+			case UdsProtocol.SET_ATTRIBUTES:
+				return server.setAttributes((ObjectName)a[0], (AttributeList)a[1]);
+			case UdsProtocol.INVOKE:
+				return server.invoke((ObjectName)a[0], (String)a[1], (Object[])a[2], (String[])a[3]);
+			case UdsProtocol.GET_DEFAULT_DOMAIN:
+				return server.getDefaultDomain();
+			case UdsProtocol.GET_DOMAINS:
+				return server.getDomains();
+			case UdsProtocol.ADD_LISTENER_MBEAN:
+				server.addNotificationListener((ObjectName)a[0], (ObjectName)a[1], (NotificationFilter)a[2], a[3]);
+				return null;
+			case UdsProtocol.REMOVE_LISTENER_MBEAN:
+				server.removeNotificationListener((ObjectName)a[0], (ObjectName)a[1]);
+				return null;
+			case UdsProtocol.REMOVE_LISTENER_MBEAN_FILTER:
+				server.removeNotificationListener((ObjectName)a[0], (ObjectName)a[1], (NotificationFilter)a[2], a[3]);
+				return null;
+			case UdsProtocol.GET_MBEAN_INFO:
+				return server.getMBeanInfo((ObjectName)a[0]);
+			case UdsProtocol.IS_INSTANCE_OF:
+				return server.isInstanceOf((ObjectName)a[0], (String)a[1]);
+			default:
+				throw new UnsupportedOperationException("Unknown op: " + op);
+		}
+	}
+	
+	/**
+	 * Returns the socket path
+	 * @return the socket path
+	 */
+	public Path getPath() {
+		return path;
+	}
+	
+	/**
+	 * Returns the number of requests served
+	 * @return the number of requests served
+	 */
+	public int getRequestCount() {
+		return requests.get();
+	}
+}
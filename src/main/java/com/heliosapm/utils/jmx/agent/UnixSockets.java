@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.agent;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * <p>Title: UnixSockets</p>
+ * <p>Description: Reflective access to the Unix domain socket channels added in Java 16, so jmxlocal still builds and runs on older JVMs 
+ * where {@link #isSupported()} returns false.</p>
+ * <p>The socket of the JVM with pid <b><code>&lt;pid&gt;</code></b> is <b><code>/tmp/.jmxlocal-${user.name}/&lt;pid&gt;.sock</code></b>.
+ * The directory is only accessible by its owner. Sockets bound elsewhere (e.g. a daemon's <code>-socket</code> path) must be in an existing 
+ * directory owned by the user or by root, whose permissions are left alone; the socket file itself is owner-only.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.agent.UnixSockets</code></p>
+ */
+
+public class UnixSockets {
+	/** The UNIX protocol family, null if not supported */
+	private static final ProtocolFamily UNIX;
+	/** <code>UnixDomainSocketAddress.of(Path)</code> */
+	private static final MethodHandle ADDRESS_OF;
+	/** <code>SocketChannel.open(ProtocolFamily)</code> */
+	private static final MethodHandle OPEN_CHANNEL;
+	/** <code>ServerSocketChannel.open(ProtocolFamily)</code> */
+	private static final MethodHandle OPEN_SERVER;
+	
+	static {
+		ProtocolFamily unix = null;
+		MethodHandle addressOf = null, openChannel = null, openServer = null;
+		try {
+			unix = StandardProtocolFamily.valueOf("UNIX");
+			final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			final Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+			addressOf = lookup.findStatic(addressClass, "of", MethodType.methodType(addressClass, Path.class));
+			openChannel = lookup.findStatic(SocketChannel.class, "open", MethodType.methodType(SocketChannel.class, ProtocolFamily.class));
+			openServer = lookup.findStatic(ServerSocketChannel.class, "open", MethodType.methodType(ServerSocketChannel.class, ProtocolFamily.class));
+		} catch (Throwable t) {
+			unix = null;
+		}
+		UNIX = unix;
+		ADDRESS_OF = addressOf;
+		OPEN_CHANNEL = openChannel;
+		OPEN_SERVER = openServer;
+	}
+	
+	/**
+	 * Indicates if this JVM supports Unix domain socket channels
+	 * @return true if supported, false otherwise
+	 */
+	public static boolean isSupported() {
+		return UNIX!=null;
+	}
+	
+	/**
+	 * Returns the directory containing this user's jmxlocal sockets. Like HotSpot's attach files, it is always under <b><code>/tmp</code></b>
+	 * (except on Windows) rather than <b><code>java.io.tmpdir</code></b>, so a client and a target with different temp directories agree on it.
+	 * @return the socket directory
+	 */
+	public static Path getSocketDirectory() {
+		final String tmp = System.getProperty("os.name", "").toLowerCase().startsWith("windows") ? System.getProperty("java.io.tmpdir") : "/tmp";
+		return Paths.get(tmp, ".jmxlocal-" + System.getProperty("user.name"));
+	}
+	
+	/**
+	 * Creates the passed directory if it does not exist and makes it owner-only
+	 * @param dir The directory
+	 * @return the directory
+	 * @throws IOException thrown if the directory cannot be created or its permissions set
+	 */
+	public static Path createDirectory(final Path dir) throws IOException {
+		if(!Files.isDirectory(dir)) Files.createDirectories(dir);
+		Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+		return dir;
+	}
+	
+	/**
+	 * Returns the socket path of the JVM with the passed pid
+	 * @param pid The JVM's pid
+	 * @return the socket path
+	 */
+	public static Path getSocketPath(final String pid) {
+		return getSocketDirectory().resolve(pid + ".sock");
+	}
+	
+	/**
+	 * Checks that the directory of a socket outside the jmxlocal socket directory exists and is owned by the user or root.
+	 * Unlike the jmxlocal directory, it is neither created nor are its permissions changed.
+	 * @param dir The directory
+	 * @throws IOException thrown if the directory does not exist or is owned by another user
+	 */
+	static void checkDirectory(final Path dir) throws IOException {
+		if(!Files.isDirectory(dir)) throw new IOException("Socket directory [" + dir + "] does not exist");
+		final String owner = Files.getOwner(dir).getName();
+		if(!owner.equals(System.getProperty("user.name")) && !"root".equals(owner)) throw new IOException("Socket directory [" + dir + "] is owned by [" + owner + "]");
+	}
+	
+	/**
+	 * Determines if the passed socket path is in the jmxlocal socket directory
+	 * @param path The socket path
+	 * @return true if the socket is in the jmxlocal directory
+	 */
+	static boolean isDefaultDirectory(final Path path) {
+		final Path parent = path.toAbsolutePath().getParent();
+		return parent!=null && parent.equals(getSocketDirectory().toAbsolutePath());
+	}
+	
+	/**
+	 * Opens a server channel bound to the passed path, replacing any stale socket file. The jmxlocal socket directory is created 
+	 * and made owner-only; any other directory must already exist (see {@link #checkDirectory(Path)}). The socket file is made owner-only.
+	 * @param path The socket path
+	 * @return the bound server channel
+	 * @throws IOException thrown on any IO error
+	 */
+	public static ServerSocketChannel bind(final Path path) throws IOException {
+		checkSupported();
+		if(isDefaultDirectory(path)) createDirectory(path.getParent());
+		else checkDirectory(path.toAbsolutePath().getParent());
+		Files.deleteIfExists(path);
+		final ServerSocketChannel server = (ServerSocketChannel)invoke(OPEN_SERVER, UNIX);
+		try {
+			server.bind(address(path));
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+		} catch (IOException iex) {
+			try { server.close(); } catch (Exception x) {/* No Op */}
+			throw iex;
+		}
+		return server;
+	}
+	
+	/**
+	 * Connects a channel to the passed socket path. The jmxlocal socket directory must be owned by the user; a socket elsewhere
+	 * must be in a directory owned by the user or root, and be owned by the user itself.
+	 * @param path The socket path
+	 * @return the connected channel
+	 * @throws IOException thrown on any IO error
+	 */
+	public static SocketChannel connect(final Path path) throws IOException {
+		checkSupported();
+		final String user = System.getProperty("user.name");
+		if(isDefaultDirectory(path)) {
+			final String owner = Files.getOwner(path.getParent()).getName();
+			if(!owner.equals(user)) throw new IOException("Socket directory [" + path.getParent() + "] is owned by [" + owner + "]");
+		} else {
+			checkDirectory(path.toAbsolutePath().getParent());
+			final String owner = Files.getOwner(path).getName();
+			if(!owner.equals(user)) throw new IOException("Socket [" + path + "] is owned by [" + owner + "]");
+		}
+		final SocketChannel channel = (SocketChannel)invoke(OPEN_CHANNEL, UNIX);
+		try {
+			channel.connect(address(path));
+		} catch (IOException iex) {
+			try { channel.close(); } catch (Exception x) {/* No Op */}
+			throw iex;
+		}
+		return channel;
+	}
+	
+	/**
+	 * Creates the socket address for the passed path
+	 * @param path The socket path
+	 * @return the socket address
+	 * @throws IOException thrown if the address cannot be created
+	 */
+	private static SocketAddress address(final Path path) throws IOException {
+		return (SocketAddress)invoke(ADDRESS_OF, path);
+	}
+	
+	/**
+	 * Invokes one of the reflective handles
+	 * @param handle The handle to invoke
+	 * @param arg The handle's argument
+	 * @return the return value
+	 * @throws IOException thrown if the handle throws an IOException
+	 */
+	private static Object invoke(final MethodHandle handle, final Object arg) throws IOException {
+		try {
+			return handle.invoke(arg);
+		} catch (IOException iex) {
+			throw iex;
+		} catch (Throwable t) {
+			throw new IOException("Unix domain socket call failed", t);
+		}
+	}
+	
+	/**
+	 * Throws an exception if Unix domain sockets are not supported
+	 */
+	private static void checkSupported() {
+		if(UNIX==null) throw new UnsupportedOperationException("Unix domain sockets require Java 16+ [" + System.getProperty("java.version") + "]");
+	}
+	
+	private UnixSockets() {}
+}
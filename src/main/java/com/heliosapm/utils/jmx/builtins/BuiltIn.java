@@ -15,6 +15,8 @@
  */
 package com.heliosapm.utils.jmx.builtins;
 
+import java.util.Arrays;
+
 import javax.management.MBeanServerConnection;
 
 /**
@@ -27,8 +29,8 @@ import javax.management.MBeanServerConnection;
 
 public enum BuiltIn implements IBuiltIn {
 	HDUMP("Executes a heap dump. Args: <file name> [<include live refs(true/false)>]", new HeapDumpBuiltIn()),
-	JAVA("Compiles the passed code and executes, passing in the MBeanServerConnection. Args: <code>", new DynamicBuiltIn()),
-	GC("Lists GC Stats or invokes GC on the JVM. Args: -invoke to invoke. Otherwise lists stats", new GCBuiltIn());
+	JAVA("Compiles the passed code, or the class in the passed source file, and executes, passing in the MBeanServerConnection. Args: [remote] <code|file>", new DynamicBuiltIn()),
+	GC("Lists GC Stats or invokes GC on the JVM. Args: -invoke to invoke, listen [<secs>] to report pause percentiles from GC notifications. Otherwise lists stats (per interval with -watch)", new GCBuiltIn());
 	
 	private BuiltIn(final String help, final IBuiltIn builtIn) {
 		this.help = help;
@@ -46,6 +48,45 @@ public enum BuiltIn implements IBuiltIn {
 		return builtIn.execute(conn, args);
 	}
 	
+	/**
+	 * Creates a watcher for this built in. Built ins implementing {@link IDeltaBuiltIn} report changes between samples,
+	 * others are simply re-executed on every sample.
+	 * @param conn The MBeanServerConnection to sample
+	 * @param args The arguments to this built in
+	 * @return the watcher
+	 * @throws Exception thrown on any error
+	 */
+	public IDeltaBuiltIn.Watcher watch(final MBeanServerConnection conn, final String... args) throws Exception {
+		if(builtIn instanceof IDeltaBuiltIn) return ((IDeltaBuiltIn)builtIn).watch(conn, args);
+		return new IDeltaBuiltIn.Watcher() {
+			@Override
+			public void sample(final StringBuilder out, final long elapsedNanos) throws Exception {
+				final Object result = builtIn.execute(conn, args);
+				if(result!=null) out.append(result);
+				if(out.length()==0 || out.charAt(out.length()-1)!='\n') out.append('\n');
+			}
+			
+			@Override
+			public void close() {
+				/* No Op */
+			}
+		};
+	}
+	
+	/**
+	 * Decodes a built in name, ignoring case
+	 * @param name The built in name
+	 * @return the built in
+	 */
+	public static BuiltIn decode(final String name) {
+		if(name!=null) {
+			for(BuiltIn bi: values()) {
+				if(bi.name().equalsIgnoreCase(name.trim())) return bi;
+			}
+		}
+		throw new IllegalArgumentException("Unknown built in [" + name + "]. Valid built ins are " + Arrays.toString(values()));
+	}
+	
 	public static final String printHelp() {
 		final StringBuilder b = new StringBuilder("BuiltIns:");
 		for(BuiltIn bi: values()) {
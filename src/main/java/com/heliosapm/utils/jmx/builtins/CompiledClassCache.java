@@ -0,0 +1,298 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.builtins;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.heliosapm.utils.jmx.protocol.attach.ConnectorAddressCache;
+
+/**
+ * <p>Title: CompiledClassCache</p>
+ * <p>Description: Caches the classes compiled by the {@link DynamicBuiltIn}, keyed by the SHA-256 of the generated source and the JDK version,
+ * so repeated commands skip compilation. Classes are kept in an LRU of at most <b><code>jmxlocal.dynamic.cache.size</code></b> (default 64) entries,
+ * each defined with the nested, anonymous and lambda helper classes compiled with it in its own class loader, so evicted classes and their loaders 
+ * can be unloaded and Metaspace stays bounded in long running processes. The bytecode of all of a source's classes is also written to 
+ * <b><code>&lt;jmxlocal.home&gt;/classes/&lt;key&gt;.classes</code></b> (owner-only) so later processes skip compilation too,
+ * unless <b><code>jmxlocal.dynamic.diskcache</code></b> is <code>false</code>.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.builtins.CompiledClassCache</code></p>
+ */
+
+public class CompiledClassCache {
+	/** The singleton instance */
+	private static volatile CompiledClassCache instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	/** Static class logger */
+	private static final Logger log = Logger.getLogger(CompiledClassCache.class.getName());
+	
+	/** The system property defining the maximum number of cached classes */
+	public static final String SIZE_PROP = "jmxlocal.dynamic.cache.size";
+	/** The default maximum number of cached classes */
+	public static final int DEFAULT_SIZE = 64;
+	/** The system property to enable or disable the disk cache. Defaults to true */
+	public static final String DISK_PROP = "jmxlocal.dynamic.diskcache";
+	/** The JDK version the cache keys include */
+	public static final String JDK_VERSION = System.getProperty("java.vm.vendor") + ":" + System.getProperty("java.version");
+	/** The source charset */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Hex digits */
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	/** The cached classes keyed by source key, in access order */
+	private final Map<String, Entry> classes;
+	/** The disk cache directory, null if disabled */
+	private final Path directory;
+	/** The number of cache hits */
+	private long hits = 0;
+	/** The number of compilations */
+	private long misses = 0;
+	
+	/**
+	 * Returns the CompiledClassCache singleton
+	 * @return the CompiledClassCache singleton
+	 */
+	public static CompiledClassCache getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new CompiledClassCache();
+				}
+			}
+		}
+		return instance;
+	}
+	
+	/**
+	 * Creates a new CompiledClassCache
+	 */
+	private CompiledClassCache() {
+		final int size = Math.max(1, Integer.getInteger(SIZE_PROP, DEFAULT_SIZE));
+		classes = new LinkedHashMap<String, Entry>(size * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+				return size() > size;
+			}
+		};
+		directory = "false".equalsIgnoreCase(System.getProperty(DISK_PROP, "true").trim()) ? null : new File(ConnectorAddressCache.getHome(), "classes").toPath();
+	}
+	
+	/**
+	 * Computes the cache key of a source
+	 * @param source The generated source
+	 * @return the hex SHA-256 of the source and the JDK version
+	 */
+	public static String key(final String source) {
+		try {
+			final MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(JDK_VERSION.getBytes(UTF8));
+			md.update((byte)0);
+			final byte[] digest = md.digest(source.getBytes(UTF8));
+			final char[] hex = new char[digest.length * 2];
+			for(int i = 0; i < digest.length; i++) {
+				hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+				hex[(i * 2) + 1] = HEX[digest[i] & 0xF];
+			}
+			return new String(hex);
+		} catch (Exception ex) {
+			throw new RuntimeException("SHA-256 not available", ex);
+		}
+	}
+	
+	/**
+	 * Returns the class compiled from the passed source, from the memory cache, the disk cache or by compiling it
+	 * @param key The source's cache key (see {@link #key(String)})
+	 * @param className The name of the class the source defines
+	 * @param source The source
+	 * @return the class
+	 * @throws Exception thrown if the source fails to compile
+	 */
+	public Class<?> get(final String key, final String className, final String source) throws Exception {
+		return entry(key, className, source).clazz;
+	}
+	
+	/**
+	 * Returns the bytecode of all the classes compiled from the passed source, from the memory cache, the disk cache or by compiling it
+	 * @param key The source's cache key (see {@link #key(String)})
+	 * @param className The name of the class the source defines
+	 * @param source The source
+	 * @return the read only bytecode keyed by class name, the named class first
+	 * @throws Exception thrown if the source fails to compile
+	 */
+	public Map<String, byte[]> getClassFiles(final String key, final String className, final String source) throws Exception {
+		return entry(key, className, source).byteCode;
+	}
+	
+	/**
+	 * Returns the cache entry for the passed source, loading or compiling it if it is not in the memory cache
+	 * @param key The source's cache key
+	 * @param className The name of the class the source defines
+	 * @param source The source
+	 * @return the entry
+	 * @throws Exception thrown if the source fails to compile
+	 */
+	private Entry entry(final String key, final String className, final String source) throws Exception {
+		synchronized(classes) {
+			final Entry entry = classes.get(key);
+			if(entry!=null) {
+				hits++;
+				return entry;
+			}
+		}
+		Map<String, byte[]> byteCode = read(key);
+		if(byteCode==null || !byteCode.containsKey(className)) {
+			byteCode = DynamicBuiltIn.compileClasses(source, className);
+			write(key, byteCode);
+			synchronized(classes) { misses++; }
+		} else {
+			synchronized(classes) { hits++; }
+		}
+		final Class<?> clazz = new DynamicBuiltIn.DefiningClassLoader(DynamicBuiltIn.class.getClassLoader(), byteCode).loadClass(className);
+		synchronized(classes) {
+			final Entry existing = classes.get(key);
+			if(existing!=null) return existing;
+			final Entry entry = new Entry(clazz, byteCode);
+			classes.put(key, entry);
+			return entry;
+		}
+	}
+	
+	/**
+	 * Reads cached bytecode from disk. The file holds the number of classes followed by each class name, bytecode length and bytecode.
+	 * @param key The cache key
+	 * @return the bytecode keyed by class name, or null if not cached
+	 */
+	private Map<String, byte[]> read(final String key) {
+		if(directory==null) return null;
+		final Path file = directory.resolve(key + ".classes");
+		try {
+			if(!Files.exists(file)) return null;
+			final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)));
+			final int count = dis.readInt();
+			final Map<String, byte[]> byteCode = new LinkedHashMap<String, byte[]>(count);
+			for(int i = 0; i < count; i++) {
+				final String name = dis.readUTF();
+				final byte[] b = new byte[dis.readInt()];
+				dis.readFully(b);
+				byteCode.put(name, b);
+			}
+			return byteCode;
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Writes bytecode to the disk cache
+	 * @param key The cache key
+	 * @param byteCode The bytecode keyed by class name
+	 */
+	private void write(final String key, final Map<String, byte[]> byteCode) {
+		if(directory==null) return;
+		try {
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream(4096);
+			final DataOutputStream dos = new DataOutputStream(baos);
+			dos.writeInt(byteCode.size());
+			for(Map.Entry<String, byte[]> entry: byteCode.entrySet()) {
+				dos.writeUTF(entry.getKey());
+				dos.writeInt(entry.getValue().length);
+				dos.write(entry.getValue());
+			}
+			dos.flush();
+			ConnectorAddressCache.ensureDirectory(directory);
+			ConnectorAddressCache.writeOwnerOnly(directory.resolve(key + ".classes"), baos.toByteArray());
+		} catch (Exception ex) {
+			log.log(Level.FINE, "Failed to write compiled class cache entry [" + key + "]", ex);
+		}
+	}
+	
+	/**
+	 * Clears the memory cache
+	 */
+	public void clear() {
+		synchronized(classes) {
+			classes.clear();
+		}
+	}
+	
+	/**
+	 * Returns the number of classes in the memory cache
+	 * @return the number of cached classes
+	 */
+	public int getSize() {
+		synchronized(classes) {
+			return classes.size();
+		}
+	}
+	
+	/**
+	 * Returns the number of cache hits (memory or disk)
+	 * @return the number of cache hits
+	 */
+	public long getHits() {
+		synchronized(classes) {
+			return hits;
+		}
+	}
+	
+	/**
+	 * Returns the number of compilations
+	 * @return the number of compilations
+	 */
+	public long getMisses() {
+		synchronized(classes) {
+			return misses;
+		}
+	}
+	
+	/**
+	 * <p>Title: Entry</p>
+	 * <p>Description: A cached class and the bytecode of all the classes compiled with it</p> 
+	 */
+	private static class Entry {
+		/** The class */
+		final Class<?> clazz;
+		/** The read only bytecode keyed by class name */
+		final Map<String, byte[]> byteCode;
+		/**
+		 * Creates a new Entry
+		 * @param clazz The class
+		 * @param byteCode The bytecode keyed by class name
+		 */
+		Entry(final Class<?> clazz, final Map<String, byte[]> byteCode) {
+			this.clazz = clazz;
+			this.byteCode = Collections.unmodifiableMap(byteCode);
+		}
+	}
+}
@@ -24,14 +24,20 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.management.MBeanServerConnection;
 import javax.tools.DiagnosticCollector;
@@ -47,24 +53,58 @@ import javax.tools.JavaFileObject.Kind;
 
 import com.heliosapm.shorthand.attach.vm.VirtualMachineBootstrap;
 import com.heliosapm.utils.jmx.Command;
+import com.heliosapm.utils.jmx.agent.RemoteExec;
+import com.heliosapm.utils.jmx.protocol.attach.AttachJMXConnector;
 
 
 
 
 /**
  * <p>Title: DynamicBuiltIn</p>
- * <p>Description: </p> 
+ * <p>Description: Runs java code against an MBeanServerConnection. The code is either a file containing a class with a static 
+ * <code>execute(MBeanServerConnection)</code> method, or an in line expression which is interpreted by {@link Expression} when it fits 
+ * its grammar, and otherwise compiled into such a class through the {@link CompiledClassCache}. With the leading <b><code>remote</code></b>
+ * option, the compiled class is run inside the target JVM (see {@link RemoteExec}), which requires a connection to a single JVM made by an 
+ * {@link AttachJMXConnector}.</p> 
+ * <p>In line code is compiled into a class named <code>Dynamic_&lt;source hash&gt;</code>. File sources keep the package and class name they declare,
+ * or may use the <code>###id###</code> placeholder in the class name to get the hash derived name.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.utils.jmx.builtins.DynamicBuiltIn</code></p>
  */
 
 public class DynamicBuiltIn extends AbstractBuiltIn {
-	private static final AtomicLong serial = new AtomicLong();
-	
 	public static final String PACKAGE_NAME = "com.heliosapm.utils.jmx.builtins.dynamic";
 	public static final String SIMPLE_CLASS_NAME = "Dynamic_%s";
 	public static final String CLASS_NAME = PACKAGE_NAME + "." + SIMPLE_CLASS_NAME; 
+	/** The class id placeholder in generated and file sources */
+	public static final String ID_PLACEHOLDER = "###id###";
+	/** The number of source key characters used as the class id */
+	public static final int ID_LENGTH = 16;
+	/** Matches comments and string and character literals, which are blanked before looking for declarations */
+	private static final Pattern NOISE = Pattern.compile("//[^\\n]*|/\\*.*?\\*/|\"(?:\\\\.|[^\"\\\\])*\"|'(?:\\\\.|[^'\\\\])*'", Pattern.DOTALL);
+	/** Matches the package declaration of a compilation unit */
+	private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+	/** Matches the first class declaration of a compilation unit */
+	private static final Pattern CLASS = Pattern.compile("\\bclass\\s+([A-Za-z_$][\\w$]*)");
+	/** The system property to disable the {@link Expression} interpreter for in line code. Defaults to true */
+	public static final String INTERPRET_PROP = "jmxlocal.dynamic.interpret";
+	/** Indicates if in line code that fits the {@link Expression} grammar is interpreted instead of compiled */
+	private static final boolean INTERPRET = !"false".equalsIgnoreCase(System.getProperty(INTERPRET_PROP, "true").trim());
+	
+	/** The option that runs the code inside the target JVM (see {@link RemoteExec}) */
+	public static final String REMOTE_OPTION = "remote";
+	/** The system property defining the timeout in ms. of code run inside the target JVM. Code that ignores interrupts is not stopped by the timeout. */
+	public static final String REMOTE_TIMEOUT_PROP = "jmxlocal.dynamic.remote.timeout";
+	/** The default timeout in ms. of code run inside the target JVM */
+	public static final long DEFAULT_REMOTE_TIMEOUT = 30000L;
+	
+	/** Serializes compilations, which share the compiler and file manager */
+	private static final Object compilerLock = new Object();
+	/** The system compiler, created on first compilation */
+	private static JavaCompiler compiler = null;
+	/** The compiler's standard file manager, reused across compilations */
+	private static StandardJavaFileManager standardFileManager = null;
 	/**
 	 * Creates a new DynamicBuiltIn
 	 */
@@ -79,45 +119,89 @@ public class DynamicBuiltIn extends AbstractBuiltIn {
 	@Override
 	protected Object doExecute(final MBeanServerConnection conn, final String... args) throws Exception {
 		if(args==null || args.length==0) throw new IllegalArgumentException("No code supplied");
-		final long id = serial.incrementAndGet();
-		String code = null;
-		File f = new File(args[0]);
+		final boolean remote = REMOTE_OPTION.equals(args[0]) || ("-" + REMOTE_OPTION).equals(args[0]);
+		if(remote && args.length==1) throw new IllegalArgumentException("No code supplied");
+		final String text = remote ? args[1] : args[0];
+		// the connection's RuntimeMXBean may be in a JVM on another host, so only an attach connector's own JVM id is trusted
+		final String jvmId = remote ? AttachJMXConnector.getJvmId(conn) : null;
+		if(remote && jvmId==null) throw new IllegalArgumentException("JAVA " + REMOTE_OPTION + " requires a connection to a single JVM through a service:jmx:attach URL");
+		String source = null;
+		File f = new File(text);
 		if(f.exists()) {
 			// full class file
-			code = getFileText(f.getAbsolutePath());
+			source = getFileText(f.getAbsolutePath());
 		} else {
-			// in line java 
-			code = buildCode(args[0], id);
+			// in line java, interpreted if it is a simple expression
+			if(INTERPRET && !remote) {
+				final Expression expr = Expression.parse(text);
+				if(expr!=null) return expr.evaluate(conn);
+			}
+			source = buildCode(text);
 		}
-		try {			
-			final ClassLoader cl = VirtualMachineBootstrap.getToolsClassLoader();
-			final ClassLoader current = Thread.currentThread().getContextClassLoader();
-			Class<?> clazz = null;
+		// the class name is derived from the source so identical commands resolve to the same cached class
+		final String key = CompiledClassCache.key(source);
+		final String id = key.substring(0, ID_LENGTH);
+		final String code = source.replace(ID_PLACEHOLDER, id);
+		String className = declaredClassName(code);
+		if(className==null) className = String.format(CLASS_NAME, id);
+		final ClassLoader cl = VirtualMachineBootstrap.getToolsClassLoader();
+		final ClassLoader current = Thread.currentThread().getContextClassLoader();
+		try {
+			Thread.currentThread().setContextClassLoader(cl);
+			if(remote) {
+				final Map<String, byte[]> classFiles = CompiledClassCache.getInstance().getClassFiles(key, className, code);
+				return RemoteExec.execute(jvmId, className, classFiles, Long.getLong(REMOTE_TIMEOUT_PROP, DEFAULT_REMOTE_TIMEOUT));
+			}
+			final Class<?> clazz = CompiledClassCache.getInstance().get(key, className, code);
+			final Method m = clazz.getDeclaredMethod("execute", MBeanServerConnection.class);
 			try {
-				Thread.currentThread().setContextClassLoader(cl);
-				
-//				System.out.println("\n" + code + "\n");
-				clazz = compile(code, String.format(CLASS_NAME, id));
-				Method m = clazz.getDeclaredMethod("execute", MBeanServerConnection.class);
 				return m.invoke(null, conn);
-			} finally {
-				Thread.currentThread().setContextClassLoader(current);
-				File delFile = new File(String.format(SIMPLE_CLASS_NAME, id) + ".class");
-				if(delFile.exists()) {
-					if(!delFile.delete()) {
-						delFile.deleteOnExit();
-					}
-				}
+			} catch (InvocationTargetException ite) {
+				final Throwable cause = ite.getCause();
+				if(cause instanceof Exception) throw (Exception)cause;
+				throw ite;
 			}
-		} catch (Exception ex) {
-			ex.printStackTrace(System.err);
-			System.exit(-1);
+		} finally {
+			Thread.currentThread().setContextClassLoader(current);
 		}
-
-		return null;
 	}
 	
+	/**
+	 * Returns the fully qualified name of the first class declared in the passed compilation unit
+	 * @param source The source of the compilation unit
+	 * @return the class name or null if no class declaration was found
+	 */
+	static String declaredClassName(final String source) {
+		final Matcher noise = NOISE.matcher(source);
+		final StringBuffer b = new StringBuffer(source.length());
+		while(noise.find()) {
+			noise.appendReplacement(b, " ");
+		}
+		noise.appendTail(b);
+		final Matcher cm = CLASS.matcher(b);
+		if(!cm.find()) return null;
+		final Matcher pm = PACKAGE.matcher(b);
+		return pm.find() && pm.start() < cm.start() ? pm.group(1) + "." + cm.group(1) : cm.group(1);
+	}
+	
+	/**
+	 * Generates the source for a one line command with the passed class id
+	 * @param command The command expression
+	 * @param id The id of the generated class
+	 * @return the source
+	 * @throws Exception thrown if the template cannot be read
+	 */
 	public static String buildCode(final String command, final long id) throws Exception {
+		return buildCode(command).replace(ID_PLACEHOLDER, "" + id);
+	}
+	
+	/**
+	 * Generates the source for a one line command, leaving the class id placeholder in place
+	 * @param command The command expression
+	 * @return the source
+	 * @throws Exception thrown if the template cannot be read
+	 */
+	public static String buildCode(final String command) throws Exception {
 		InputStream is = null;
 		InputStreamReader isr = null;
 		BufferedReader br = null;
@@ -142,63 +226,140 @@ public class DynamicBuiltIn extends AbstractBuiltIn {
 			if(isr!=null) try { isr.close(); } catch (Exception x) {/* No Op */}
 			if(is!=null) try { is.close(); } catch (Exception x) {/* No Op */}
 		}
-		return template.replace("###c###", command).replace("###id###", "" + id);	
+		return template.replace("###c###", command);	
 	}
 
+	/**
+	 * Compiles the passed source and defines the named class, and the nested, anonymous and lambda helper classes
+	 * compiled with it, in a new class loader
+	 * @param code The source
+	 * @param className The name of the class the source defines
+	 * @return the named class
+	 * @throws Exception thrown if the source fails to compile
+	 */
 	public static Class<?> compile(final String code, final String className) throws Exception {
-		StandardJavaFileManager fileManager = null;
-		try {
-			final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-			if(compiler==null) throw new Exception("No compiler available. Suggestion: Use JDK if you are using JRE.");
+		return new DefiningClassLoader(DynamicBuiltIn.class.getClassLoader(), compileClasses(code, className)).loadClass(className);
+	}
+	
+	/**
+	 * Compiles the passed source and returns the bytecode of every class javac emitted for it: the named class
+	 * and any nested, anonymous or lambda helper classes. The class files are captured in memory and the compiler and 
+	 * its standard file manager are reused, so compilations are serialized.
+	 * @param code The source
+	 * @param className The name of the class the source defines
+	 * @return the bytecode keyed by class name, the named class first
+	 * @throws Exception thrown if the source fails to compile
+	 */
+	public static Map<String, byte[]> compileClasses(final String code, final String className) throws Exception {
+		synchronized(compilerLock) {
+			if(compiler==null) {
+				final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+				if(javac==null) throw new Exception("No compiler available. Suggestion: Use JDK if you are using JRE.");
+				standardFileManager = javac.getStandardFileManager(null, null, Charset.forName("UTF8"));
+				compiler = javac;
+			}
 			final Iterable<? extends JavaFileObject> compilationUnits  = getJavaSourceFromString(code, className);
-			
 			final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
-			
-			fileManager = compiler.getStandardFileManager(diagnostics, null, Charset.forName("UTF8"));
-			final JavaFileManager.Location[] loc = new JavaFileManager.Location[1];
-			final JavaFileObject[] jfo = new JavaFileObject[1];
-			JavaFileManager fFileManager = new ForwardingJavaFileManager<JavaFileManager>(fileManager) {
+			final Map<String, ClassFileObject> classFiles = new HashMap<String, ClassFileObject>();
+			final JavaFileManager fFileManager = new ForwardingJavaFileManager<JavaFileManager>(standardFileManager) {
 		        @Override
-		        public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className, Kind kind, FileObject sibling) throws IOException {
-		        	loc[0] = location;
-		        	jfo[0] = super.getJavaFileForOutput(location, className, kind, sibling);		        	
-		        	return jfo[0];
+		        public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String name, Kind kind, FileObject sibling) throws IOException {
+		        	if(kind!=Kind.CLASS) return super.getJavaFileForOutput(location, name, kind, sibling);
+		        	final ClassFileObject cfo = new ClassFileObject(name);
+		        	classFiles.put(name, cfo);
+		        	return cfo;
 		        }		           
 		       };							    
 			final StringWriter sw = new StringWriter();
 			final boolean success = compiler.getTask(sw, fFileManager, diagnostics, null, null, compilationUnits).call();
-			System.out.println(sw.toString());
+			if(sw.getBuffer().length() > 0) System.out.println(sw.toString());
 			if(!success) throw new Exception("Failed to compile code:" + diagnostics.getDiagnostics() + "\n" + sw.toString());
-			
-			final DefiningClassLoader cc = new DefiningClassLoader(compiler.getClass().getClassLoader());
-			return cc.gitEm(className, jfo[0].openInputStream());
-			
+			final ClassFileObject cfo = classFiles.get(className);
+			if(cfo==null) throw new Exception("The compiled code did not define the class [" + className + "]. Classes:" + classFiles.keySet());
+			final Map<String, byte[]> byteCode = new LinkedHashMap<String, byte[]>(classFiles.size());
+			byteCode.put(className, cfo.getBytes());
+			for(Map.Entry<String, ClassFileObject> entry: classFiles.entrySet()) {
+				if(!className.equals(entry.getKey())) byteCode.put(entry.getKey(), entry.getValue().getBytes());
+			}
+			return byteCode;
+		}
+	}
+	
+	/**
+	 * Reads and closes the passed stream
+	 * @param is The stream to read
+	 * @return the bytes read
+	 * @throws IOException thrown on any IO error
+	 */
+	static byte[] readFully(final InputStream is) throws IOException {
+		final byte[] buff = new byte[1024];
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+		int bytesRead = -1;
+		try {
+			while((bytesRead = is.read(buff))!=-1) {
+				baos.write(buff, 0, bytesRead);
+			}
+			return baos.toByteArray();
 		} finally {
-			if(fileManager!=null) try { fileManager.close(); } catch (Exception x) {/* No Op */}
+			try { is.close(); } catch (Exception x) {/* No Op */}
 		}
 	}
 	
+	/**
+	 * <p>Title: DefiningClassLoader</p>
+	 * <p>Description: Defines compiled classes. Classes passed to the constructor are defined when first loaded,
+	 * so a class and the classes compiled with it resolve each other in the same loader.</p> 
+	 */
 	public static class DefiningClassLoader extends ClassLoader {
+		/** The bytecode of the classes this loader defines on demand, keyed by class name */
+		private final Map<String, byte[]> byteCode;
 		
 		public DefiningClassLoader(final ClassLoader parent) {
+			this(parent, new HashMap<String, byte[]>());
+		}
+		
+		/**
+		 * Creates a new DefiningClassLoader for a set of compiled classes
+		 * @param parent The parent class loader
+		 * @param byteCode The bytecode of the classes keyed by class name
+		 */
+		public DefiningClassLoader(final ClassLoader parent, final Map<String, byte[]> byteCode) {
 			super(parent);
+			this.byteCode = new HashMap<String, byte[]>(byteCode);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.ClassLoader#findClass(java.lang.String)
+		 */
+		@Override
+		protected Class<?> findClass(final String name) throws ClassNotFoundException {
+			final byte[] b;
+			synchronized(byteCode) {
+				b = byteCode.remove(name);
+			}
+			if(b==null) throw new ClassNotFoundException(name);
+			return defineClass(name, b, 0, b.length);
 		}
 		
 		public Class<?> gitEm(final String name, final InputStream is) {
-			final byte[] buff = new byte[1024];
-			final ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
-			int bytesRead = -1;
 			try {
-				while((bytesRead = is.read(buff))!=-1) {
-					baos.write(buff, 0, bytesRead);
-				}
-				byte[] byteCode = baos.toByteArray();
-				return super.defineClass(name, byteCode, 0, byteCode.length);
-			} catch (Exception ex) {
+				return define(name, readFully(is));
+			} catch (IOException ex) {
 				throw new RuntimeException(ex);
 			}
 		}
 		
+		/**
+		 * Defines a class from the passed bytecode
+		 * @param name The class name
+		 * @param byteCode The class bytecode
+		 * @return the defined class
+		 */
+		public Class<?> define(final String name, final byte[] byteCode) {
+			return super.defineClass(name, byteCode, 0, byteCode.length);
+		}
+		
 	}
 
 	static Iterable<JavaSourceFromString> getJavaSourceFromString(String code, final String className) {
@@ -239,7 +400,19 @@ class JavaSourceFromString extends SimpleJavaFileObject {
 	public CharSequence getCharContent(boolean ignoreEncodingErrors) {
 		return code;
 	}
-}	
-	
+}
+class ClassFileObject extends SimpleJavaFileObject {
+	final ByteArrayOutputStream baos = new ByteArrayOutputStream(2048);
+
+	ClassFileObject(String name) {
+		super(URI.create("bytes:///" + name.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+	}
 
+	public OutputStream openOutputStream() {
+		return baos;
+	}
 
+	byte[] getBytes() {
+		return baos.toByteArray();
+	}
+}	
@@ -0,0 +1,1040 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.builtins;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+/**
+ * <p>Title: Expression</p>
+ * <p>Description: An interpreter for the simple one line commands passed to the {@link DynamicBuiltIn}, so they run without compiling.
+ * Supports the subset of Java made of string, number, boolean and <code>null</code> literals, <code>conn</code>, the <code>on(String)</code>
+ * and <code>path(Object, String)</code> template functions, public method calls (e.g. <code>conn.getAttribute(on("java.lang:type=Memory"), "HeapMemoryUsage")</code>
+ * or <code>conn.queryNames(on("java.lang:type=GarbageCollector,*"), null)</code>), casts, and <b><code>+ - * / %</code></b> with Java's numeric promotion and string concatenation.
+ * Expressions are parsed once into an evaluation tree, typed the way javac types them: every node has a static type, methods are resolved 
+ * at parse time against the static type of their target with javac's fixed arity overload resolution, and casts and operators are checked 
+ * and applied with Java's conversions. Text outside the grammar, or that the interpreter cannot type exactly as javac would (e.g. variable arity 
+ * calls, methods with type variable parameters, or calls on an <code>Object</code> returned by <code>getAttribute</code>), is left to the compiler.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.builtins.Expression</code></p>
+ */
+
+public class Expression {
+	/** The maximum number of cached parse results */
+	public static final int MAX_CACHED = 256;
+	/** The packages simple type names in casts are resolved in, matching the command template's imports */
+	private static final String[] TYPE_PACKAGES = {"java.lang.", "javax.management.", "javax.management.openmbean."};
+	/** Primitive types by name */
+	private static final Map<String, Class<?>> PRIMITIVES = new HashMap<String, Class<?>>();
+	/** The widening rank of the numeric primitives and their wrappers */
+	private static final Map<Class<?>, Integer> RANKS = new HashMap<Class<?>, Integer>();
+	/** The wrapper types by primitive type */
+	private static final Map<Class<?>, Class<?>> BOXED = new HashMap<Class<?>, Class<?>>();
+	/** The primitive types by wrapper type */
+	private static final Map<Class<?>, Class<?>> UNBOXED = new HashMap<Class<?>, Class<?>>();
+	/** The static type of the <code>null</code> literal */
+	static final Class<?> NULL_TYPE = NullType.class;
+	/** Marks a key that is not present in a navigated value */
+	private static final Object MISSING = new Object();
+	/** Placeholder cached for text that is not an expression */
+	private static final Expression NOT_AN_EXPRESSION = new Expression(null, null);
+	/** Parse results keyed by expression text, in access order */
+	private static final Map<String, Expression> parsed = new LinkedHashMap<String, Expression>(MAX_CACHED, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Expression> eldest) {
+			return size() > MAX_CACHED;
+		}
+	};
+	
+	static {
+		final Class<?>[][] numerics = {
+			{byte.class, Byte.class}, {short.class, Short.class}, {int.class, Integer.class}, 
+			{long.class, Long.class}, {float.class, Float.class}, {double.class, Double.class}
+		};
+		for(int i = 0; i < numerics.length; i++) {
+			PRIMITIVES.put(numerics[i][0].getName(), numerics[i][0]);
+			RANKS.put(numerics[i][0], i);
+			RANKS.put(numerics[i][1], i);
+			BOXED.put(numerics[i][0], numerics[i][1]);
+			UNBOXED.put(numerics[i][1], numerics[i][0]);
+		}
+		PRIMITIVES.put("boolean", boolean.class);
+		BOXED.put(boolean.class, Boolean.class);
+		UNBOXED.put(Boolean.class, boolean.class);
+	}
+	
+	/** The expression text */
+	private final String text;
+	/** The root of the evaluation tree */
+	private final Node root;
+	
+	/**
+	 * Parses the passed text
+	 * @param text The expression text
+	 * @return the parsed expression, or null if the text is not within the grammar
+	 */
+	public static Expression parse(final String text) {
+		if(text==null) return null;
+		Expression expr = null;
+		synchronized(parsed) {
+			expr = parsed.get(text);
+		}
+		if(expr==null) {
+			try {
+				expr = new Expression(text, new Parser(text).parse());
+			} catch (Unparseable ex) {
+				expr = NOT_AN_EXPRESSION;
+			}
+			synchronized(parsed) {
+				parsed.put(text, expr);
+			}
+		}
+		return expr==NOT_AN_EXPRESSION ? null : expr;
+	}
+	
+	/**
+	 * Creates a new Expression
+	 * @param text The expression text
+	 * @param root The root of the evaluation tree
+	 */
+	private Expression(final String text, final Node root) {
+		this.text = text;
+		this.root = root;
+	}
+	
+	/**
+	 * Evaluates this expression
+	 * @param conn The MBeanServerConnection bound to <code>conn</code>
+	 * @return the value of the expression
+	 * @throws Exception thrown on any error evaluating the expression
+	 */
+	public Object evaluate(final MBeanServerConnection conn) throws Exception {
+		return root.eval(conn);
+	}
+	
+	/**
+	 * Returns the static type of this expression
+	 * @return the type, a primitive type for primitive expressions or {@link #NULL_TYPE} for <code>null</code>
+	 */
+	public Class<?> getType() {
+		return root.type;
+	}
+	
+	/**
+	 * Navigates a path of dot separated keys into an open type value.
+	 * Each key selects an item of a {@link CompositeData}, the row of a {@link TabularData} with the key as its (comma separated) index, 
+	 * the entry of a {@link Map} or the element of a list or array. Keys may contain dots (e.g. system property names): the longest
+	 * key that is present is used. Rows with only a <code>key</code> and a <code>value</code> item, which is how MXBeans map {@link Map}s, 
+	 * resolve to the value.
+	 * @param value The value to navigate
+	 * @param path The dot separated keys
+	 * @return the value at the end of the path, or null if a value on the path is null
+	 */
+	public static Object path(final Object value, final String path) {
+		final String[] keys = path.split("\\.");
+		Object current = value;
+		int index = 0;
+		while(index < keys.length) {
+			if(current==null) return null;
+			Object next = MISSING;
+			int end = keys.length;
+			for(; end > index && next==MISSING; end--) {
+				final StringBuilder key = new StringBuilder(keys[index]);
+				for(int i = index + 1; i < end; i++) key.append('.').append(keys[i]);
+				next = lookup(current, key.toString());
+			}
+			if(next==MISSING) {
+				if(current instanceof CompositeData) throw new IllegalArgumentException("No item [" + keys[index] + "] in " + ((CompositeData)current).getCompositeType().keySet());
+				throw new IllegalArgumentException("No [" + keys[index] + "] in " + current.getClass().getName());
+			}
+			current = next;
+			index = end + 1;
+		}
+		return current;
+	}
+	
+	/**
+	 * Looks up one key in a navigable value
+	 * @param container The value to look the key up in
+	 * @param key The key
+	 * @return the value, or {@link #MISSING} if the container does not have the key
+	 */
+	private static Object lookup(final Object container, final String key) {
+		if(container instanceof CompositeData) {
+			final CompositeData cd = (CompositeData)container;
+			return cd.containsKey(key) ? cd.get(key) : MISSING;
+		} else if(container instanceof TabularData) {
+			return row((TabularData)container, key);
+		} else if(container instanceof Map) {
+			final Map<?, ?> map = (Map<?, ?>)container;
+			return map.containsKey(key) ? map.get(key) : MISSING;
+		}
+		final int size = container instanceof List ? ((List<?>)container).size() : container.getClass().isArray() ? Array.getLength(container) : -1;
+		if(size==-1) throw new IllegalArgumentException("Cannot navigate [" + key + "] in a " + container.getClass().getName());
+		final int i;
+		try {
+			i = Integer.parseInt(key);
+		} catch (NumberFormatException nex) {
+			return MISSING;
+		}
+		if(i < 0 || i >= size) return MISSING;
+		return container instanceof List ? ((List<?>)container).get(i) : Array.get(container, i);
+	}
+	
+	/**
+	 * Finds the row of a TabularData by its index
+	 * @param td The TabularData
+	 * @param key The index values, comma separated
+	 * @return the row, the row's <code>value</code> item for a key/value row, or {@link #MISSING} if there is no such row
+	 */
+	private static Object row(final TabularData td, final String key) {
+		final List<String> indexNames = td.getTabularType().getIndexNames();
+		final String[] keys = key.split(",");
+		if(keys.length!=indexNames.size()) return MISSING;
+		for(Object o: td.values()) {
+			final CompositeData row = (CompositeData)o;
+			boolean match = true;
+			for(int i = 0; i < keys.length && match; i++) {
+				match = keys[i].trim().equals(String.valueOf(row.get(indexNames.get(i))));
+			}
+			if(match) {
+				final Collection<String> items = row.getCompositeType().keySet();
+				return (items.size()==2 && items.contains("key") && items.contains("value")) ? row.get("value") : row;
+			}
+		}
+		return MISSING;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Expression [" + text + "]";
+	}
+	
+	/**
+	 * <p>Title: NullType</p>
+	 * <p>Description: Stands for the type of the <code>null</code> literal</p> 
+	 */
+	private static final class NullType {
+		private NullType() {}
+	}
+	
+	/**
+	 * <p>Title: Unparseable</p>
+	 * <p>Description: Thrown when text is not within the grammar</p> 
+	 */
+	private static class Unparseable extends Exception {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * Creates a new Unparseable
+		 */
+		Unparseable() {
+			super(null, null, false, false);
+		}
+	}
+	
+	/**
+	 * <p>Title: Parser</p>
+	 * <p>Description: Recursive descent parser building the evaluation tree</p> 
+	 */
+	private static class Parser {
+		/** The text being parsed */
+		private final String text;
+		/** The current position */
+		private int pos = 0;
+		
+		/**
+		 * Creates a new Parser
+		 * @param text The text to parse
+		 */
+		Parser(final String text) {
+			this.text = text;
+		}
+		
+		/**
+		 * Parses the whole text
+		 * @return the root node
+		 * @throws Unparseable thrown if the text is not within the grammar
+		 */
+		Node parse() throws Unparseable {
+			final Node root = additive();
+			skip();
+			if(pos < text.length()) throw new Unparseable();
+			return root;
+		}
+		
+		/** additive := multiplicative (('+'|'-') multiplicative)* */
+		private Node additive() throws Unparseable {
+			Node left = multiplicative();
+			while(true) {
+				if(accept('+')) left = new Binary('+', left, multiplicative());
+				else if(accept('-')) left = new Binary('-', left, multiplicative());
+				else return left;
+			}
+		}
+		
+		/** multiplicative := unary (('*'|'/'|'%') unary)* */
+		private Node multiplicative() throws Unparseable {
+			Node left = unary();
+			while(true) {
+				if(accept('*')) left = new Binary('*', left, unary());
+				else if(accept('/')) left = new Binary('/', left, unary());
+				else if(accept('%')) left = new Binary('%', left, unary());
+				else return left;
+			}
+		}
+		
+		/** unary := ('-'|'+') unary | '(' type ')' unary | postfix */
+		private Node unary() throws Unparseable {
+			if(accept('-')) return new Negate(unary());
+			if(accept('+')) {
+				// unary plus only applies numeric promotion
+				final Node operand = unary();
+				if(!isNumeric(operand.type)) throw new Unparseable();
+				return new Cast(promote(operand.type, operand.type), operand);
+			}
+			final Class<?> castType = castType();
+			if(castType!=null) return new Cast(castType, unary());
+			return postfix();
+		}
+		
+		/**
+		 * Reads a cast's parenthesized type if the text at the current position is a cast
+		 * @return the cast type, or null if the text is not a cast
+		 * @throws Unparseable thrown if the cast type cannot be resolved
+		 */
+		private Class<?> castType() throws Unparseable {
+			final int start = pos;
+			if(!accept('(')) return null;
+			final String name = qualifiedName();
+			if(name==null || "conn".equals(name) || name.startsWith("conn.") || !accept(')')) {
+				pos = start;
+				return null;
+			}
+			final Class<?> primitive = PRIMITIVES.get(name);
+			if(primitive!=null) return primitive;
+			// as in Java, a parenthesized name followed by + or - is not a reference type cast
+			skip();
+			if(pos >= text.length() || "+-*/%),".indexOf(text.charAt(pos))!=-1) {
+				pos = start;
+				return null;
+			}
+			return resolve(name);
+		}
+		
+		/** postfix := primary ('.' identifier '(' arguments ')')* */
+		private Node postfix() throws Unparseable {
+			Node node = primary();
+			while(accept('.')) {
+				final String name = identifier();
+				if(name==null || !accept('(')) throw new Unparseable();
+				node = Call.create(node, name, arguments());
+			}
+			return node;
+		}
+		
+		/** primary := literal | '(' additive ')' | 'conn' | function '(' arguments ')' */
+		private Node primary() throws Unparseable {
+			skip();
+			if(pos >= text.length()) throw new Unparseable();
+			final char c = text.charAt(pos);
+			if(accept('(')) {
+				final Node node = additive();
+				if(!accept(')')) throw new Unparseable();
+				return node;
+			}
+			if(c=='"') return new Literal(string());
+			if(Character.isDigit(c) || (c=='.' && pos+1 < text.length() && Character.isDigit(text.charAt(pos+1)))) return new Literal(number());
+			final String name = identifier();
+			if(name==null) throw new Unparseable();
+			if("conn".equals(name)) return new Conn();
+			if("true".equals(name)) return new Literal(Boolean.TRUE);
+			if("false".equals(name)) return new Literal(Boolean.FALSE);
+			if("null".equals(name)) return new Literal(null);
+			if(!accept('(')) throw new Unparseable();
+			final Node[] args = arguments();
+			if("on".equals(name) && args.length==1 && isString(args[0].type)) return new Function(name, ObjectName.class, args);
+			if("path".equals(name) && args.length==2 && isString(args[1].type)) return new Function(name, Object.class, args);
+			throw new Unparseable();
+		}
+		
+		/** arguments := (additive (',' additive)*)? ')' */
+		private Node[] arguments() throws Unparseable {
+			final List<Node> args = new ArrayList<Node>();
+			if(accept(')')) return new Node[0];
+			do {
+				args.add(additive());
+			} while(accept(','));
+			if(!accept(')')) throw new Unparseable();
+			return args.toArray(new Node[args.size()]);
+		}
+		
+		/**
+		 * Reads a string literal
+		 * @return the string
+		 * @throws Unparseable thrown on an unterminated string or unsupported escape
+		 */
+		private String string() throws Unparseable {
+			final StringBuilder b = new StringBuilder();
+			pos++;
+			while(pos < text.length()) {
+				final char c = text.charAt(pos++);
+				if(c=='"') return b.toString();
+				if(c!='\\') {
+					b.append(c);
+					continue;
+				}
+				if(pos >= text.length()) throw new Unparseable();
+				final char e = text.charAt(pos++);
+				switch(e) {
+					case 'n': b.append('\n'); break;
+					case 't': b.append('\t'); break;
+					case 'r': b.append('\r'); break;
+					case '"': case '\\': case '\'': b.append(e); break;
+					case 'u':
+						if(pos + 4 > text.length()) throw new Unparseable();
+						try {
+							b.append((char)Integer.parseInt(text.substring(pos, pos + 4), 16));
+						} catch (NumberFormatException nex) {
+							throw new Unparseable();
+						}
+						pos += 4;
+						break;
+					default: throw new Unparseable();
+				}
+			}
+			throw new Unparseable();
+		}
+		
+		/**
+		 * Reads a decimal number literal
+		 * @return the Integer, Long, Float or Double
+		 * @throws Unparseable thrown if the literal is malformed or out of range
+		 */
+		private Number number() throws Unparseable {
+			final int start = pos;
+			boolean decimal = false;
+			while(pos < text.length()) {
+				final char c = text.charAt(pos);
+				if(Character.isDigit(c) || c=='_') pos++;
+				else if(c=='.' || c=='e' || c=='E') { decimal = true; pos++; }
+				else if((c=='+' || c=='-') && (text.charAt(pos-1)=='e' || text.charAt(pos-1)=='E')) pos++;
+				else break;
+			}
+			final String digits = text.substring(start, pos).replace("_", "");
+			final char suffix = pos < text.length() ? Character.toLowerCase(text.charAt(pos)) : ' ';
+			Number n = null;
+			try {
+				if(suffix=='l' && !decimal) { pos++; n = Long.parseLong(digits); }
+				else if(suffix=='f') { pos++; n = Float.parseFloat(digits); }
+				else if(suffix=='d') { pos++; n = Double.parseDouble(digits); }
+				else if(decimal) n = Double.parseDouble(digits);
+				else if(digits.length() > 1 && digits.charAt(0)=='0') throw new Unparseable(); // octal
+				else n = Integer.parseInt(digits);
+			} catch (NumberFormatException nex) {
+				throw new Unparseable();
+			}
+			// hex, binary and malformed literals are left to the compiler
+			if(pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) throw new Unparseable();
+			return n;
+		}
+		
+		/**
+		 * Reads a qualified name
+		 * @return the name, or null if there is no identifier at the current position
+		 */
+		private String qualifiedName() {
+			String name = identifier();
+			if(name==null) return null;
+			while(true) {
+				final int start = pos;
+				if(!accept('.')) return name;
+				final String part = identifier();
+				if(part==null) {
+					pos = start;
+					return name;
+				}
+				name = name + "." + part;
+			}
+		}
+		
+		/**
+		 * Reads an identifier
+		 * @return the identifier, or null if there is none at the current position
+		 */
+		private String identifier() {
+			skip();
+			if(pos >= text.length() || !Character.isJavaIdentifierStart(text.charAt(pos))) return null;
+			final int start = pos;
+			while(pos < text.length() && Character.isJavaIdentifierPart(text.charAt(pos))) pos++;
+			return text.substring(start, pos);
+		}
+		
+		/**
+		 * Consumes the passed character if it is next
+		 * @param c The character
+		 * @return true if it was consumed
+		 */
+		private boolean accept(final char c) {
+			skip();
+			if(pos < text.length() && text.charAt(pos)==c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+		
+		/**
+		 * Skips whitespace
+		 */
+		private void skip() {
+			while(pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+		}
+		
+		/**
+		 * Resolves a cast type name
+		 * @param name The simple or qualified name
+		 * @return the type
+		 * @throws Unparseable thrown if the type cannot be resolved to a public type
+		 */
+		private static Class<?> resolve(final String name) throws Unparseable {
+			final ClassLoader cl = Expression.class.getClassLoader();
+			Class<?> type = null;
+			if(name.indexOf('.')!=-1) {
+				try {
+					type = Class.forName(name, false, cl);
+				} catch (Throwable t) {/* No Op */}
+			} else {
+				for(int i = 0; i < TYPE_PACKAGES.length && type==null; i++) {
+					try {
+						type = Class.forName(TYPE_PACKAGES[i] + name, false, cl);
+					} catch (Throwable t) {/* No Op */}
+				}
+			}
+			if(type==null || !Modifier.isPublic(type.getModifiers())) throw new Unparseable();
+			return type;
+		}
+	}
+	
+	/**
+	 * <p>Title: Node</p>
+	 * <p>Description: A node in the evaluation tree</p> 
+	 */
+	private abstract static class Node {
+		/** The static type of the node, as javac types it */
+		final Class<?> type;
+		/**
+		 * Creates a new Node
+		 * @param type The static type of the node
+		 */
+		Node(final Class<?> type) {
+			this.type = type;
+		}
+		/**
+		 * Evaluates this node
+		 * @param conn The MBeanServerConnection bound to <code>conn</code>
+		 * @return the node's value
+		 * @throws Exception thrown on any error
+		 */
+		abstract Object eval(MBeanServerConnection conn) throws Exception;
+	}
+	
+	/**
+	 * <p>Title: Literal</p>
+	 * <p>Description: A constant</p> 
+	 */
+	private static class Literal extends Node {
+		/** The constant value */
+		private final Object value;
+		Literal(final Object value) {
+			super(value==null ? NULL_TYPE : UNBOXED.containsKey(value.getClass()) ? UNBOXED.get(value.getClass()) : value.getClass());
+			this.value = value;
+		}
+		@Override
+		Object eval(final MBeanServerConnection conn) {
+			return value;
+		}
+	}
+	
+	/**
+	 * <p>Title: Conn</p>
+	 * <p>Description: The <code>conn</code> variable</p> 
+	 */
+	private static class Conn extends Node {
+		Conn() {
+			super(MBeanServerConnection.class);
+		}
+		@Override
+		Object eval(final MBeanServerConnection conn) {
+			return conn;
+		}
+	}
+	
+	/**
+	 * <p>Title: Function</p>
+	 * <p>Description: A call to one of the command template's static functions</p> 
+	 */
+	private static class Function extends Node {
+		/** The function name */
+		private final String name;
+		/** The argument nodes */
+		private final Node[] args;
+		Function(final String name, final Class<?> type, final Node[] args) {
+			super(type);
+			this.name = name;
+			this.args = args;
+		}
+		@Override
+		Object eval(final MBeanServerConnection conn) throws Exception {
+			if("on".equals(name)) return AbstractBuiltIn.on(string(args[0].eval(conn)));
+			return path(args[0].eval(conn), string(args[1].eval(conn)));
+		}
+		private String string(final Object value) {
+			if(value!=null && !(value instanceof String)) throw new ClassCastException("Argument to " + name + "() is a " + value.getClass().getName() + ", not a String");
+			return (String)value;
+		}
+	}
+	
+	/**
+	 * <p>Title: Call</p>
+	 * <p>Description: A public method call. The method is resolved once, when the expression is parsed, against the static type of the target 
+	 * and the arguments, and is invoked virtually on the target's value.</p> 
+	 */
+	private static class Call extends Node {
+		/** The target node */
+		private final Node target;
+		/** The resolved method */
+		private final Method method;
+		/** The argument nodes */
+		private final Node[] args;
+		
+		Call(final Node target, final Method method, final Node[] args) {
+			super(method.getReturnType());
+			this.target = target;
+			this.method = method;
+			this.args = args;
+		}
+		
+		/**
+		 * Resolves a method call the way javac does
+		 * @param target The target node
+		 * @param name The method name
+		 * @param args The argument nodes
+		 * @return the call node
+		 * @throws Unparseable thrown if javac would reject the call, or might resolve it or type its result differently
+		 */
+		static Call create(final Node target, final String name, final Node[] args) throws Unparseable {
+			final Class<?> type = target.type;
+			if(type==NULL_TYPE || type.isPrimitive() || !Modifier.isPublic(type.getModifiers())) throw new Unparseable();
+			final Method m = resolve(type, name, args);
+			for(Type param: m.getGenericParameterTypes()) {
+				// the interpreter only knows erased types, so it cannot check arguments for type variable or parameterized parameters as javac does
+				if(!(param instanceof Class)) throw new Unparseable();
+			}
+			final Class<?> r = m.getReturnType();
+			if(r==void.class || r==char.class || r==Character.class) throw new Unparseable();
+			return new Call(target, accessible(m, type), args);
+		}
+		
+		@Override
+		Object eval(final MBeanServerConnection conn) throws Exception {
+			final Object t = target.eval(conn);
+			if(t==null) throw new NullPointerException("Cannot call " + method.getName() + "() on null");
+			final Object[] values = new Object[args.length];
+			for(int i = 0; i < args.length; i++) {
+				values[i] = args[i].eval(conn);
+			}
+			try {
+				return method.invoke(t, values);
+			} catch (InvocationTargetException ite) {
+				final Throwable cause = ite.getCause();
+				if(cause instanceof Exception) throw (Exception)cause;
+				if(cause instanceof Error) throw (Error)cause;
+				throw ite;
+			}
+		}
+		
+		/**
+		 * Finds the most specific public method applicable to the passed arguments by javac's strict invocation 
+		 * phase, or failing that its loose invocation phase. Variable arity invocation is not supported.
+		 * @param type The static type of the target
+		 * @param name The method name
+		 * @param args The argument nodes
+		 * @return the method
+		 * @throws Unparseable thrown if there is no applicable method or the call is ambiguous
+		 */
+		private static Method resolve(final Class<?> type, final String name, final Node[] args) throws Unparseable {
+			final List<Method> candidates = new ArrayList<Method>();
+			final List<Method> methods = new ArrayList<Method>(Arrays.asList(type.getMethods()));
+			// interfaces inherit the public methods of Object
+			if(type.isInterface()) methods.addAll(Arrays.asList(Object.class.getMethods()));
+			for(Method m: methods) {
+				if(m.getName().equals(name) && !m.isBridge() && m.getParameterTypes().length==args.length) candidates.add(m);
+			}
+			for(int phase = 0; phase < 2; phase++) {
+				final List<Method> applicable = new ArrayList<Method>();
+				for(Method m: candidates) {
+					if(applicable(m.getParameterTypes(), args, phase==1)) applicable.add(m);
+				}
+				if(!applicable.isEmpty()) return mostSpecific(applicable);
+			}
+			throw new Unparseable();
+		}
+		
+		/**
+		 * Determines if a method with the passed parameter types accepts the passed arguments
+		 * @param params The parameter types
+		 * @param args The argument nodes
+		 * @param loose true to allow boxing and unboxing, false for strict invocation
+		 * @return true if the arguments are applicable
+		 */
+		private static boolean applicable(final Class<?>[] params, final Node[] args, final boolean loose) {
+			for(int i = 0; i < params.length; i++) {
+				if(!(loose ? looselyConvertible(args[i].type, params[i]) : strictlyConvertible(args[i].type, params[i]))) return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * Selects the most specific of the passed applicable methods. Where several have the same parameter types (e.g. declared by more 
+		 * than one interface), the one with the most specific return type is selected. 
+		 * @param applicable The applicable methods
+		 * @return the most specific method
+		 * @throws Unparseable thrown if the call is ambiguous
+		 */
+		private static Method mostSpecific(final List<Method> applicable) throws Unparseable {
+			Method best = null;
+			for(Method m: applicable) {
+				boolean maximal = true;
+				for(Method other: applicable) {
+					if(other!=m && !moreSpecific(m.getParameterTypes(), other.getParameterTypes())) {
+						maximal = false;
+						break;
+					}
+				}
+				if(!maximal) continue;
+				if(best==null || best.getReturnType().isAssignableFrom(m.getReturnType())) best = m;
+				else if(!m.getReturnType().isAssignableFrom(best.getReturnType())) throw new Unparseable();
+			}
+			if(best==null) throw new Unparseable();
+			return best;
+		}
+		
+		/**
+		 * Returns the passed method as declared by a public type, so it can be invoked on instances of non public classes
+		 * @param m The method
+		 * @param type The type the method was found in
+		 * @return the invocable method
+		 */
+		private static Method accessible(final Method m, final Class<?> type) {
+			if(Modifier.isPublic(m.getDeclaringClass().getModifiers())) return m;
+			for(Class<?> c = type; c!=null; c = c.getSuperclass()) {
+				final Method pm = publicMethod(c, m);
+				if(pm!=null) return pm;
+			}
+			return m;
+		}
+		
+		/**
+		 * Searches the passed class and its interfaces for a public declaration of the passed method
+		 * @param c The class to search
+		 * @param m The method
+		 * @return the public declaration or null if one was not found
+		 */
+		private static Method publicMethod(final Class<?> c, final Method m) {
+			if(Modifier.isPublic(c.getModifiers())) {
+				try {
+					return c.getMethod(m.getName(), m.getParameterTypes());
+				} catch (NoSuchMethodException nex) {/* No Op */}
+			}
+			for(Class<?> iface: c.getInterfaces()) {
+				final Method pm = publicMethod(iface, m);
+				if(pm!=null) return pm;
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * <p>Title: Cast</p>
+	 * <p>Description: A checked reference cast or a primitive conversion, allowed and applied as in Java: a reference typed operand 
+	 * cast to a primitive type is checked against the primitive's wrapper and unboxed, so <code>(long)</code> of an <code>Integer</code> 
+	 * held in an <code>Object</code> throws a ClassCastException.</p> 
+	 */
+	private static class Cast extends Node {
+		/** The cast operand */
+		private final Node operand;
+		Cast(final Class<?> type, final Node operand) throws Unparseable {
+			super(type);
+			if(!castable(operand.type, type)) throw new Unparseable();
+			this.operand = operand;
+		}
+		@Override
+		Object eval(final MBeanServerConnection conn) throws Exception {
+			final Object v = operand.eval(conn);
+			if(!type.isPrimitive()) return type.cast(v);
+			if(v==null) throw new NullPointerException("Cannot cast null to " + type.getName());
+			if(!operand.type.isPrimitive() && !UNBOXED.containsKey(operand.type)) BOXED.get(type).cast(v);
+			if(type==boolean.class) return (Boolean)v;
+			final Number n = number(v, "(" + type.getName() + ")");
+			if(type==int.class) return n.intValue();
+			if(type==long.class) return n.longValue();
+			if(type==double.class) return n.doubleValue();
+			if(type==float.class) return n.floatValue();
+			if(type==short.class) return n.shortValue();
+			return n.byteValue();
+		}
+	}
+	
+	/**
+	 * <p>Title: Negate</p>
+	 * <p>Description: Unary minus</p> 
+	 */
+	private static class Negate extends Node {
+		/** The operand */
+		private final Node operand;
+		Negate(final Node operand) throws Unparseable {
+			super(isNumeric(operand.type) ? promote(operand.type, operand.type) : null);
+			if(type==null) throw new Unparseable();
+			this.operand = operand;
+		}
+		@Override
+		Object eval(final MBeanServerConnection conn) throws Exception {
+			final Number n = number(operand.eval(conn), "-");
+			switch(kind(n, n)) {
+				case 'D': return -n.doubleValue();
+				case 'F': return -n.floatValue();
+				case 'J': return -n.longValue();
+				default: return -n.intValue();
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: Binary</p>
+	 * <p>Description: Arithmetic and string concatenation</p> 
+	 */
+	private static class Binary extends Node {
+		/** The operator */
+		private final char op;
+		/** The left operand */
+		private final Node left;
+		/** The right operand */
+		private final Node right;
+		Binary(final char op, final Node left, final Node right) throws Unparseable {
+			super(type(op, left.type, right.type));
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+		/**
+		 * Types a binary operation as javac does
+		 * @param op The operator
+		 * @param l The static type of the left operand
+		 * @param r The static type of the right operand
+		 * @return String for a concatenation, otherwise the promoted numeric type
+		 * @throws Unparseable thrown if the operator cannot be applied to the operands
+		 */
+		private static Class<?> type(final char op, final Class<?> l, final Class<?> r) throws Unparseable {
+			if(op=='+' && (l==String.class || r==String.class)) return String.class;
+			if(!isNumeric(l) || !isNumeric(r)) throw new Unparseable();
+			return promote(l, r);
+		}
+		@Override
+		Object eval(final MBeanServerConnection conn) throws Exception {
+			final Object l = left.eval(conn);
+			final Object r = right.eval(conn);
+			if(type==String.class) return String.valueOf(l) + String.valueOf(r);
+			final Number a = number(l, String.valueOf(op));
+			final Number b = number(r, String.valueOf(op));
+			switch(kind(a, b)) {
+				case 'D': {
+					final double x = a.doubleValue(), y = b.doubleValue();
+					switch(op) { case '+': return x + y; case '-': return x - y; case '*': return x * y; case '/': return x / y; default: return x % y; }
+				}
+				case 'F': {
+					final float x = a.floatValue(), y = b.floatValue();
+					switch(op) { case '+': return x + y; case '-': return x - y; case '*': return x * y; case '/': return x / y; default: return x % y; }
+				}
+				case 'J': {
+					final long x = a.longValue(), y = b.longValue();
+					switch(op) { case '+': return x + y; case '-': return x - y; case '*': return x * y; case '/': return x / y; default: return x % y; }
+				}
+				default: {
+					final int x = a.intValue(), y = b.intValue();
+					switch(op) { case '+': return x + y; case '-': return x - y; case '*': return x * y; case '/': return x / y; default: return x % y; }
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Checks that an operand is a number
+	 * @param v The operand value
+	 * @param op The operator, for the error message
+	 * @return the number
+	 */
+	static Number number(final Object v, final String op) {
+		if(v instanceof Number) return (Number)v;
+		// operands are typed numeric when parsed, so a null is a null wrapper being unboxed
+		if(v==null) throw new NullPointerException("Cannot unbox null for operator " + op);
+		throw new IllegalArgumentException("Operator " + op + " cannot be applied to a " + v.getClass().getName());
+	}
+	
+	/**
+	 * Returns the binary numeric promotion of two operands: D(ouble), F(loat), J (long) or I(nt).
+	 * Numbers other than the primitive wrappers are promoted to double.
+	 * @param a The first operand
+	 * @param b The second operand
+	 * @return the promoted type's descriptor character
+	 */
+	static char kind(final Number a, final Number b) {
+		final Integer ra = RANKS.get(a.getClass()), rb = RANKS.get(b.getClass());
+		if(ra==null || rb==null) return 'D';
+		final int rank = Math.max(ra, rb);
+		return rank==5 ? 'D' : rank==4 ? 'F' : rank==3 ? 'J' : 'I';
+	}
+	
+	/**
+	 * Determines if a static type is <code>String</code> or the null type
+	 * @param type The static type
+	 * @return true if a value of the type can be passed as a String
+	 */
+	static boolean isString(final Class<?> type) {
+		return type==String.class || type==NULL_TYPE;
+	}
+	
+	/**
+	 * Determines if a static type is convertible to a numeric primitive type
+	 * @param type The static type
+	 * @return true for the numeric primitive types and their wrappers
+	 */
+	static boolean isNumeric(final Class<?> type) {
+		return RANKS.containsKey(type);
+	}
+	
+	/**
+	 * Returns the binary numeric promotion of two numeric static types
+	 * @param a The first type
+	 * @param b The second type
+	 * @return int, long, float or double
+	 */
+	static Class<?> promote(final Class<?> a, final Class<?> b) {
+		final int rank = Math.max(RANKS.get(a), RANKS.get(b));
+		return rank==5 ? double.class : rank==4 ? float.class : rank==3 ? long.class : int.class;
+	}
+	
+	/**
+	 * Determines if a primitive type is converted to another by identity or widening primitive conversion
+	 * @param from The primitive type converted from
+	 * @param to The primitive type converted to
+	 * @return true if the conversion is allowed
+	 */
+	static boolean widens(final Class<?> from, final Class<?> to) {
+		if(from==to) return true;
+		final Integer f = RANKS.get(from), t = RANKS.get(to);
+		return f!=null && t!=null && from.isPrimitive() && to.isPrimitive() && f <= t;
+	}
+	
+	/**
+	 * Determines if a value of one static type can be passed to a parameter of another in a strict invocation context
+	 * @param arg The argument's static type
+	 * @param param The parameter type
+	 * @return true if allowed without boxing or unboxing
+	 */
+	static boolean strictlyConvertible(final Class<?> arg, final Class<?> param) {
+		if(arg==NULL_TYPE) return !param.isPrimitive();
+		if(arg.isPrimitive()!=param.isPrimitive()) return false;
+		return arg.isPrimitive() ? widens(arg, param) : param.isAssignableFrom(arg);
+	}
+	
+	/**
+	 * Determines if a value of one static type can be passed to a parameter of another in a loose invocation context
+	 * @param arg The argument's static type
+	 * @param param The parameter type
+	 * @return true if allowed, boxing or unboxing if necessary
+	 */
+	static boolean looselyConvertible(final Class<?> arg, final Class<?> param) {
+		if(strictlyConvertible(arg, param)) return true;
+		if(arg==NULL_TYPE) return false;
+		if(arg.isPrimitive()) return param.isAssignableFrom(BOXED.get(arg));
+		final Class<?> primitive = UNBOXED.get(arg);
+		return primitive!=null && param.isPrimitive() && widens(primitive, param);
+	}
+	
+	/**
+	 * Determines if javac allows a cast from one static type to another
+	 * @param from The operand's static type
+	 * @param to The cast type
+	 * @return true if the cast compiles
+	 */
+	static boolean castable(final Class<?> from, final Class<?> to) {
+		if(to.isPrimitive()) {
+			if(from==NULL_TYPE) return false;
+			if(from.isPrimitive()) return from==to || (from!=boolean.class && to!=boolean.class);
+			final Class<?> primitive = UNBOXED.get(from);
+			// unboxing may only be followed by a widening conversion
+			if(primitive!=null) return widens(primitive, to) || primitive==to;
+			// otherwise a checked cast to the wrapper followed by unboxing
+			return from.getTypeParameters().length==0 && from.isAssignableFrom(BOXED.get(to));
+		}
+		if(from==NULL_TYPE) return true;
+		if(from.isPrimitive()) return to.isAssignableFrom(BOXED.get(from));
+		if(to.isAssignableFrom(from) || from.isAssignableFrom(to)) return true;
+		if(from.isArray() || to.isArray()) return false;
+		if(from.isInterface() && to.isInterface()) return true;
+		if(from.isInterface()) return !Modifier.isFinal(to.getModifiers());
+		if(to.isInterface()) return !Modifier.isFinal(from.getModifiers());
+		return false;
+	}
+	
+	/**
+	 * Determines if the first parameter list is more specific than the second
+	 * @param a The first parameter types
+	 * @param b The second parameter types
+	 * @return true if every type in <code>a</code> is a subtype of the corresponding type in <code>b</code>
+	 */
+	static boolean moreSpecific(final Class<?>[] a, final Class<?>[] b) {
+		for(int i = 0; i < a.length; i++) {
+			if(a[i].isPrimitive()!=b[i].isPrimitive()) return false;
+			if(a[i].isPrimitive() ? !widens(a[i], b[i]) : !b[i].isAssignableFrom(a[i])) return false;
+		}
+		return true;
+	}
+}
@@ -22,6 +22,8 @@ import java.lang.management.ManagementFactory;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.Attribute;
 import javax.management.AttributeList;
@@ -30,19 +32,23 @@ import javax.management.ObjectName;
 
 /**
  * <p>Title: GCBuiltIn</p>
- * <p>Description: Triggers GC or queries GC stats</p> 
+ * <p>Description: Triggers GC or queries GC stats. When watched, reports the collections and collection time of each collector per interval.
+ * With <b><code>listen [&lt;seconds&gt;]</code></b>, records every collection from the collectors' notifications and reports pause percentiles,
+ * causes and actions (per interval when watched).</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.utils.jmx.builtins.GCBuiltIn</code></p>
  */
 
-public class GCBuiltIn extends AbstractBuiltIn {
+public class GCBuiltIn extends AbstractBuiltIn implements IDeltaBuiltIn {
 	/** GC MXBean ObjectName filter */
 	public static final ObjectName GC_PATTERN = on(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",name=*");
 	/** The Memory MXBean object name to call gc() on */
 	public static final ObjectName MEM_MXBEAN = on("java.lang:type=Memory");
 	/** The GC Attribute Names */
 	private static final String[] ATTR_NAMES = {"CollectionCount", "CollectionTime"};
+	/** The default number of seconds to listen for collections */
+	public static final long DEFAULT_LISTEN_SECS = 10L;
 	/**
 	 * Creates a new GCBuiltIn
 	 */
@@ -58,15 +64,139 @@ public class GCBuiltIn extends AbstractBuiltIn {
 	protected Object doExecute(final MBeanServerConnection conn, final String... args) throws Exception {
 		if(args==null || args.length==0) {
 			return getGCStats(conn);			
-		} else {
-			if(!"-invoke".equals(args[0])) {
-				throw new IllegalArgumentException("Unrecognized parameter: [" + args[0] + "]");
-			}
+		} else if(isOption(args[0], "invoke")) {
 			conn.invoke(MEM_MXBEAN, "gc", EMPTY_PARAMS, EMPTY_SIG);
+		} else if(isOption(args[0], "listen")) {
+			final long seconds = args.length > 1 ? Long.parseLong(args[1].trim()) : DEFAULT_LISTEN_SECS;
+			final GCPauseRecorder recorder = GCPauseRecorder.subscribe(conn);
+			try {
+				Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+				return recorder.report(new StringBuilder(), false).toString();
+			} finally {
+				recorder.close();
+			}
+		} else {
+			throw new IllegalArgumentException("Unrecognized parameter: [" + args[0] + "]");
 		}
 		return null;
 	}
 	
+	/**
+	 * Tests an argument against an option name, with or without a leading dash
+	 * @param arg The argument
+	 * @param option The option name
+	 * @return true if the argument is the option
+	 */
+	static boolean isOption(final String arg, final String option) {
+		return arg.equals(option) || arg.equals("-" + option);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see com.heliosapm.utils.jmx.builtins.IDeltaBuiltIn#watch(javax.management.MBeanServerConnection, java.lang.String[])
+	 */
+	@Override
+	public Watcher watch(final MBeanServerConnection conn, final String... args) throws Exception {
+		if(args==null || args.length==0) return new GCWatcher(conn);
+		if(!isOption(args[0], "listen")) throw new IllegalArgumentException("GC " + args[0] + " cannot be watched");
+		final GCPauseRecorder recorder = GCPauseRecorder.subscribe(conn);
+		return new Watcher() {
+			@Override
+			public void sample(final StringBuilder out, final long elapsedNanos) throws Exception {
+				recorder.report(out, true);
+			}
+			
+			@Override
+			public void close() {
+				recorder.close();
+			}
+		};
+	}
+	
+	/**
+	 * <p>Title: GCWatcher</p>
+	 * <p>Description: Reports the collections and collection time of each collector since the previous sample.
+	 * The collector ObjectNames are resolved once and the previous values kept in primitive arrays.</p> 
+	 */
+	static class GCWatcher implements Watcher {
+		/** The MBeanServerConnection to sample */
+		final MBeanServerConnection conn;
+		/** The collector MXBean ObjectNames */
+		final ObjectName[] collectors;
+		/** The collector labels */
+		final String[] labels;
+		/** The previous collection counts */
+		final long[] counts;
+		/** The previous collection times */
+		final long[] times;
+		/** Indicates if a sample has been taken */
+		boolean sampled = false;
+		
+		/**
+		 * Creates a new GCWatcher
+		 * @param conn The MBeanServerConnection to sample
+		 * @throws Exception thrown on any error resolving the collectors
+		 */
+		GCWatcher(final MBeanServerConnection conn) throws Exception {
+			this.conn = conn;
+			final Set<ObjectName> gcMXBeans = new TreeSet<ObjectName>(conn.queryNames(GC_PATTERN, null));
+			collectors = gcMXBeans.toArray(new ObjectName[gcMXBeans.size()]);
+			labels = new String[collectors.length];
+			for(int i = 0; i < collectors.length; i++) {
+				labels[i] = "\t[" + collectors[i].getKeyProperty("name") + "] ";
+			}
+			counts = new long[collectors.length];
+			times = new long[collectors.length];
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see com.heliosapm.utils.jmx.builtins.IDeltaBuiltIn.Watcher#sample(java.lang.StringBuilder, long)
+		 */
+		@Override
+		public void sample(final StringBuilder out, final long elapsedNanos) throws Exception {
+			for(int i = 0; i < collectors.length; i++) {
+				long count = 0, time = 0;
+				for(Attribute a: conn.getAttributes(collectors[i], ATTR_NAMES).asList()) {
+					final long value = ((Number)a.getValue()).longValue();
+					if(ATTR_NAMES[0].equals(a.getName())) count = value;
+					else time = value;
+				}
+				out.append(labels[i]);
+				if(!sampled || elapsedNanos < 1) {
+					out.append("Count:").append(count).append(" Time:").append(time).append("ms\n");
+				} else {
+					final long dc = count - counts[i], dt = time - times[i];
+					out.append("Count:+").append(dc).append(" (");
+					tenths(out, Math.round(dc * 1e10 / elapsedNanos)).append("/s) Time:+").append(dt).append("ms (");
+					tenths(out, Math.round(dt * 1e9 / elapsedNanos)).append("%)\n");
+				}
+				counts[i] = count;
+				times[i] = time;
+			}
+			sampled = true;
+		}
+		
+		/**
+		 * No Op. Nothing is held in the connection.
+		 * @see com.heliosapm.utils.jmx.builtins.IDeltaBuiltIn.Watcher#close()
+		 */
+		@Override
+		public void close() {
+			/* No Op */
+		}
+		
+		/**
+		 * Appends a value in tenths with one decimal place
+		 * @param out The buffer to append to
+		 * @param tenths The value in tenths
+		 * @return the buffer
+		 */
+		static StringBuilder tenths(final StringBuilder out, final long tenths) {
+			return out.append(tenths / 10).append('.').append(tenths % 10);
+		}
+	}
+	
 	protected String getGCStats(final MBeanServerConnection conn) throws Exception {
 		
 		final StringBuilder b = new StringBuilder();
@@ -0,0 +1,327 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.builtins;
+
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationFilterSupport;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+/**
+ * <p>Title: GCPauseRecorder</p>
+ * <p>Description: Subscribes to the garbage collection notifications of every collector over an MBeanServerConnection and records
+ * each collection into a per collector pause histogram, with the collection causes and actions and the heap reclaimed.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.builtins.GCPauseRecorder</code></p>
+ */
+
+public class GCPauseRecorder implements NotificationListener {
+	/** The MBeanServerConnection the listeners are registered through */
+	protected final MBeanServerConnection conn;
+	/** The collector MXBean ObjectNames */
+	protected final List<ObjectName> collectors = new ArrayList<ObjectName>();
+	/** The per collector stats keyed by collector name */
+	protected final Map<String, CollectorStats> stats = new TreeMap<String, CollectorStats>();
+	
+	/**
+	 * Subscribes to the garbage collection notifications of all the collectors
+	 * @param conn The MBeanServerConnection to subscribe through
+	 * @return the recorder
+	 * @throws Exception thrown on any error subscribing
+	 */
+	public static GCPauseRecorder subscribe(final MBeanServerConnection conn) throws Exception {
+		final GCPauseRecorder recorder = new GCPauseRecorder(conn);
+		final NotificationFilterSupport filter = new NotificationFilterSupport();
+		filter.enableType(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION);
+		try {
+			for(ObjectName on: conn.queryNames(GCBuiltIn.GC_PATTERN, null)) {
+				conn.addNotificationListener(on, recorder, filter, null);
+				recorder.collectors.add(on);
+				recorder.stats.put(on.getKeyProperty("name"), new CollectorStats());
+			}
+		} catch (Exception ex) {
+			recorder.close();
+			throw ex;
+		}
+		return recorder;
+	}
+	
+	/**
+	 * Creates a new GCPauseRecorder
+	 * @param conn The MBeanServerConnection the listeners are registered through
+	 */
+	private GCPauseRecorder(final MBeanServerConnection conn) {
+		this.conn = conn;
+	}
+
+	/**
+	 * Records one garbage collection
+	 * @see javax.management.NotificationListener#handleNotification(javax.management.Notification, java.lang.Object)
+	 */
+	@Override
+	public void handleNotification(final Notification notification, final Object handback) {
+		if(!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) return;
+		final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+		final GcInfo gcInfo = info.getGcInfo();
+		long before = 0, after = 0;
+		for(MemoryUsage mu: gcInfo.getMemoryUsageBeforeGc().values()) before += mu.getUsed();
+		for(MemoryUsage mu: gcInfo.getMemoryUsageAfterGc().values()) after += mu.getUsed();
+		synchronized(stats) {
+			CollectorStats cs = stats.get(info.getGcName());
+			if(cs==null) {
+				cs = new CollectorStats();
+				stats.put(info.getGcName(), cs);
+			}
+			cs.record(gcInfo.getDuration(), info.getGcCause(), info.getGcAction(), before - after);
+		}
+	}
+	
+	/**
+	 * Appends a summary of the recorded collections to the passed buffer
+	 * @param out The buffer to append to
+	 * @param reset true to reset the recorded stats after reporting
+	 * @return the buffer
+	 */
+	public StringBuilder report(final StringBuilder out, final boolean reset) {
+		synchronized(stats) {
+			for(Map.Entry<String, CollectorStats> entry: stats.entrySet()) {
+				out.append("\t[").append(entry.getKey()).append("] ");
+				entry.getValue().report(out);
+				if(reset) entry.getValue().reset();
+			}
+		}
+		return out;
+	}
+	
+	/**
+	 * Removes the notification listeners
+	 */
+	public void close() {
+		for(ObjectName on: collectors) {
+			try { conn.removeNotificationListener(on, this); } catch (Exception x) {/* No Op */}
+		}
+		collectors.clear();
+	}
+	
+	/**
+	 * <p>Title: CollectorStats</p>
+	 * <p>Description: The recorded collections of one collector</p> 
+	 */
+	static class CollectorStats {
+		/** The pause histogram */
+		final PauseHistogram pauses = new PauseHistogram();
+		/** The collection counts by cause */
+		final Map<String, int[]> causes = new TreeMap<String, int[]>();
+		/** The collection counts by action */
+		final Map<String, int[]> actions = new TreeMap<String, int[]>();
+		/** The bytes reclaimed */
+		long reclaimed = 0;
+		
+		/**
+		 * Records one collection
+		 * @param durationMs The collection duration in ms.
+		 * @param cause The collection cause
+		 * @param action The collection action
+		 * @param reclaimedBytes The bytes reclaimed by the collection
+		 */
+		void record(final long durationMs, final String cause, final String action, final long reclaimedBytes) {
+			pauses.record(durationMs);
+			increment(causes, cause);
+			increment(actions, action);
+			reclaimed += reclaimedBytes;
+		}
+		
+		/**
+		 * Increments the count of a key
+		 * @param counts The counts
+		 * @param key The key
+		 */
+		private static void increment(final Map<String, int[]> counts, final String key) {
+			final int[] count = counts.get(key);
+			if(count==null) counts.put(key, new int[]{1});
+			else count[0]++;
+		}
+		
+		/**
+		 * Appends the summary of this collector's collections
+		 * @param out The buffer to append to
+		 */
+		void report(final StringBuilder out) {
+			final long count = pauses.getCount();
+			out.append("pauses:").append(count);
+			if(count > 0) {
+				out.append(" p50:").append(pauses.percentile(50)).append("ms")
+					.append(" p90:").append(pauses.percentile(90)).append("ms")
+					.append(" p99:").append(pauses.percentile(99)).append("ms")
+					.append(" max:").append(pauses.getMax()).append("ms")
+					.append(" total:").append(pauses.getTotal()).append("ms")
+					.append(" reclaimed:").append(reclaimed / 1024).append("KB\n");
+				appendCounts(out.append("\t\tcauses: "), causes).append('\n');
+				appendCounts(out.append("\t\tactions: "), actions);
+			}
+			out.append('\n');
+		}
+		
+		/**
+		 * Appends a count map
+		 * @param out The buffer to append to
+		 * @param counts The counts
+		 * @return the buffer
+		 */
+		private static StringBuilder appendCounts(final StringBuilder out, final Map<String, int[]> counts) {
+			boolean first = true;
+			for(Map.Entry<String, int[]> e: counts.entrySet()) {
+				if(!first) out.append(", ");
+				out.append(e.getKey()).append('=').append(e.getValue()[0]);
+				first = false;
+			}
+			return out;
+		}
+		
+		/**
+		 * Resets the recorded stats
+		 */
+		void reset() {
+			pauses.reset();
+			causes.clear();
+			actions.clear();
+			reclaimed = 0;
+		}
+	}
+	
+	/**
+	 * <p>Title: PauseHistogram</p>
+	 * <p>Description: A fixed size log-linear histogram of pause durations in ms. Durations under 64ms are counted exactly, 
+	 * larger durations in 16 sub-buckets per power of two, so percentiles are within 1/16th of the true value.</p> 
+	 */
+	static class PauseHistogram {
+		/** The number of exactly counted values */
+		static final int LINEAR = 64;
+		/** The sub-buckets per power of two */
+		static final int SUB = 16;
+		/** The bucket counts */
+		final long[] buckets = new long[LINEAR + (63 - 6) * SUB];
+		/** The number of recorded values */
+		long count = 0;
+		/** The sum of the recorded values */
+		long total = 0;
+		/** The largest recorded value */
+		long max = 0;
+		
+		/**
+		 * Records a value
+		 * @param value The value in ms.
+		 */
+		void record(final long value) {
+			final long v = Math.max(0L, value);
+			buckets[index(v)]++;
+			count++;
+			total += v;
+			if(v > max) max = v;
+		}
+		
+		/**
+		 * Returns the bucket index of a value
+		 * @param v The value
+		 * @return the bucket index
+		 */
+		static int index(final long v) {
+			if(v < LINEAR) return (int)v;
+			final int exp = 63 - Long.numberOfLeadingZeros(v);
+			final int sub = (int)((v >>> (exp - 4)) & (SUB - 1));
+			return LINEAR + ((exp - 6) * SUB) + sub;
+		}
+		
+		/**
+		 * Returns the largest value counted in a bucket
+		 * @param index The bucket index
+		 * @return the bucket's upper bound
+		 */
+		static long upperBound(final int index) {
+			if(index < LINEAR) return index;
+			final int exp = ((index - LINEAR) / SUB) + 6;
+			final int sub = (index - LINEAR) % SUB;
+			final long lower = ((long)(SUB + sub)) << (exp - 4);
+			return lower + (1L << (exp - 4)) - 1;
+		}
+		
+		/**
+		 * Returns the value at the passed percentile
+		 * @param percentile The percentile (0-100)
+		 * @return the value, or 0 if nothing was recorded
+		 */
+		long percentile(final double percentile) {
+			if(count==0) return 0L;
+			final long rank = Math.max(1L, (long)Math.ceil(percentile / 100d * count));
+			long seen = 0;
+			for(int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if(seen >= rank) return Math.min(upperBound(i), max);
+			}
+			return max;
+		}
+		
+		/**
+		 * Returns the number of recorded values
+		 * @return the count
+		 */
+		long getCount() {
+			return count;
+		}
+		
+		/**
+		 * Returns the sum of the recorded values
+		 * @return the total
+		 */
+		long getTotal() {
+			return total;
+		}
+		
+		/**
+		 * Returns the largest recorded value
+		 * @return the max
+		 */
+		long getMax() {
+			return max;
+		}
+		
+		/**
+		 * Resets the histogram
+		 */
+		void reset() {
+			Arrays.fill(buckets, 0L);
+			count = 0;
+			total = 0;
+			max = 0;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.builtins;
+
+import javax.management.MBeanServerConnection;
+
+/**
+ * <p>Title: IDeltaBuiltIn</p>
+ * <p>Description: A built in that can be watched, reporting the changes between repeated samples over one connection</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.builtins.IDeltaBuiltIn</code></p>
+ */
+
+public interface IDeltaBuiltIn extends IBuiltIn {
+	/**
+	 * Creates a watcher for this built in. Anything that does not change between samples (ObjectNames, attribute names)
+	 * should be resolved here so sampling allocates as little as possible.
+	 * @param conn The MBeanServerConnection to sample
+	 * @param args The arguments to this built in
+	 * @return the watcher
+	 * @throws Exception thrown on any error
+	 */
+	public Watcher watch(final MBeanServerConnection conn, final String...args) throws Exception;
+	
+	/**
+	 * <p>Title: Watcher</p>
+	 * <p>Description: Takes repeated samples for a watched built in. Watchers must be closed when the watch ends,
+	 * since the connection they sample may outlive them.</p> 
+	 */
+	public static interface Watcher {
+		/**
+		 * Takes a sample and appends the report to the passed buffer
+		 * @param out The buffer to append the report to
+		 * @param elapsedNanos The nanoseconds elapsed since the previous sample, or 0 for the first sample
+		 * @throws Exception thrown on any error
+		 */
+		public void sample(final StringBuilder out, final long elapsedNanos) throws Exception;
+		
+		/**
+		 * Releases anything this watcher holds in the sampled connection, such as notification listeners. Subsequent calls are ignored.
+		 */
+		public void close();
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.perfdata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Title: PerfCounter</p>
+ * <p>Description: A single counter in a {@link PerfDataFile}. The value is read from the shared mapping on every call.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.perfdata.PerfCounter</code></p>
+ */
+
+public class PerfCounter {
+	/** The long counter data type */
+	public static final char TYPE_LONG = 'J';
+	/** The byte (vector) counter data type */
+	public static final char TYPE_BYTE = 'B';
+	
+	/** Unit: none */
+	public static final int UNITS_NONE = 1;
+	/** Unit: bytes */
+	public static final int UNITS_BYTES = 2;
+	/** Unit: high resolution ticks */
+	public static final int UNITS_TICKS = 3;
+	/** Unit: events */
+	public static final int UNITS_EVENTS = 4;
+	/** Unit: string */
+	public static final int UNITS_STRING = 5;
+	/** Unit: hertz */
+	public static final int UNITS_HERTZ = 6;
+	
+	/** Variability: constant */
+	public static final int VARIABILITY_CONSTANT = 1;
+	/** Variability: monotonically increasing */
+	public static final int VARIABILITY_MONOTONIC = 2;
+	/** Variability: variable */
+	public static final int VARIABILITY_VARIABLE = 3;
+	
+	/** The shared mapping */
+	private final ByteBuffer buffer;
+	/** The counter name */
+	private final String name;
+	/** The counter data type */
+	private final char type;
+	/** The counter units */
+	private final int units;
+	/** The counter variability */
+	private final int variability;
+	/** The vector length, 0 for scalars */
+	private final int vectorLength;
+	/** The absolute offset of the counter data in the mapping */
+	private final int dataOffset;
+	
+	/**
+	 * Creates a new PerfCounter
+	 * @param buffer The shared mapping
+	 * @param name The counter name
+	 * @param type The counter data type
+	 * @param units The counter units
+	 * @param variability The counter variability
+	 * @param vectorLength The vector length
+	 * @param dataOffset The absolute offset of the counter data in the mapping
+	 */
+	PerfCounter(final ByteBuffer buffer, final String name, final char type, final int units, final int variability, final int vectorLength, final int dataOffset) {
+		this.buffer = buffer;
+		this.name = name;
+		this.type = type;
+		this.units = units;
+		this.variability = variability;
+		this.vectorLength = vectorLength;
+		this.dataOffset = dataOffset;
+	}
+	
+	/**
+	 * Indicates if this is a string counter
+	 * @return true if this is a string counter
+	 */
+	public boolean isString() {
+		return type==TYPE_BYTE && vectorLength > 0;
+	}
+	
+	/**
+	 * Indicates if this is a long counter
+	 * @return true if this is a long counter
+	 */
+	public boolean isLong() {
+		return type==TYPE_LONG && vectorLength==0;
+	}
+	
+	/**
+	 * Returns the current value of a long counter
+	 * @return the current value or 0 if this is not a long counter
+	 */
+	public long longValue() {
+		return type==TYPE_LONG ? buffer.getLong(dataOffset) : 0L;
+	}
+	
+	/**
+	 * Returns the current value of a string counter
+	 * @return the current value, or the string value of a long counter
+	 */
+	public String stringValue() {
+		if(type==TYPE_BYTE) return PerfDataFile.readString(buffer, dataOffset, vectorLength);
+		return Long.toString(longValue());
+	}
+	
+	/**
+	 * Returns the current value as a {@link Long} or a {@link String}
+	 * @return the current value
+	 */
+	public Object getValue() {
+		if(isLong()) return longValue();
+		if(isString()) return stringValue();
+		return null;
+	}
+
+	/**
+	 * Returns the counter name
+	 * @return the counter name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the counter data type
+	 * @return the counter data type
+	 */
+	public char getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the counter units
+	 * @return the counter units
+	 */
+	public int getUnits() {
+		return units;
+	}
+
+	/**
+	 * Returns the counter variability
+	 * @return the counter variability
+	 */
+	public int getVariability() {
+		return variability;
+	}
+
+	/**
+	 * Returns the vector length
+	 * @return the vector length, 0 for scalars
+	 */
+	public int getVectorLength() {
+		return vectorLength;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return name + "=" + getValue();
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.heliosapm.utils.jmx.perfdata;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Title: PerfDataFile</p>
+ * <p>Description: Read only, memory mapped view of a HotSpot <b><code>hsperfdata</code></b> file.
+ * The counter directory is parsed once when the file is opened and each {@link PerfCounter} reads its
+ * value directly from the shared mapping, so reads always reflect the target JVM's current values.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.perfdata.PerfDataFile</code></p>
+ */
+
+public class PerfDataFile implements Closeable {
+	/** The perf data magic number (always stored big endian) */
+	public static final int MAGIC = 0xcafec0c0;
+	/** The UTF8 character set */
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+	/** The counter holding the JVM's command line (the attach API display name) */
+	public static final String JAVA_COMMAND = "sun.rt.javaCommand";
+	/** The counter holding the JVM's start time in ms. since the epoch */
+	public static final String VM_START_TIME = "sun.rt.createVmBeginTime";
+	/** The counter holding the high resolution tick frequency */
+	public static final String HRT_FREQUENCY = "sun.os.hrt.frequency";
+	
+	/** The prologue offset of the byte order */
+	private static final int BYTE_ORDER_OFFSET = 4;
+	/** The prologue offset of the major version */
+	private static final int MAJOR_VERSION_OFFSET = 5;
+	/** The prologue offset of the minor version */
+	private static final int MINOR_VERSION_OFFSET = 6;
+	/** The prologue offset of the accessible flag */
+	private static final int ACCESSIBLE_OFFSET = 7;
+	/** The prologue offset of the modification time stamp */
+	private static final int MOD_TIMESTAMP_OFFSET = 16;
+	/** The prologue offset of the first entry offset */
+	private static final int ENTRY_OFFSET_OFFSET = 24;
+	/** The prologue offset of the number of entries */
+	private static final int NUM_ENTRIES_OFFSET = 28;
+	
+	/** The perf data file */
+	private final File file;
+	/** The read only mapping of the file */
+	private final ByteBuffer buffer;
+	/** The parsed counters keyed by name */
+	private final Map<String, PerfCounter> counters;
+	
+	/**
+	 * Returns the hsperfdata directory of the current user. HotSpot creates it under <b><code>/tmp</code></b> whatever the JVM's
+	 * <b><code>java.io.tmpdir</code></b>, which is only used on Windows.
+	 * @return the hsperfdata directory
+	 */
+	public static File getPerfDataDir() {
+		final String tmp = System.getProperty("os.name", "").toLowerCase().startsWith("windows") ? System.getProperty("java.io.tmpdir") : "/tmp";
+		return new File(tmp, "hsperfdata_" + System.getProperty("user.name"));
+	}
+	
+	/**
+	 * Returns the hsperfdata file for the JVM with the passed pid
+	 * @param pid The pid of the JVM
+	 * @return the hsperfdata file, which may not exist
+	 */
+	public static File getPerfDataFile(final String pid) {
+		return new File(getPerfDataDir(), pid);
+	}
+	
+	/**
+	 * Opens the hsperfdata file of the JVM with the passed pid
+	 * @param pid The pid of the JVM
+	 * @return the opened perf data file
+	 * @throws IOException thrown if the file cannot be read or is not a valid hsperfdata file
+	 */
+	public static PerfDataFile open(final String pid) throws IOException {
+		return new PerfDataFile(getPerfDataFile(pid));
+	}
+	
+	/**
+	 * Creates a new PerfDataFile
+	 * @param file The hsperfdata file to map
+	 * @throws IOException thrown if the file cannot be read or is not a valid hsperfdata file
+	 */
+	public PerfDataFile(final File file) throws IOException {
+		this.file = file;
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		final MappedByteBuffer mbb;
+		try {
+			final FileChannel fc = raf.getChannel();
+			mbb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		} finally {
+			try { raf.close(); } catch (Exception x) {/* No Op */}
+		}
+		if(mbb.capacity() < NUM_ENTRIES_OFFSET + 4) throw new IOException("File [" + file + "] is too short to be an hsperfdata file");
+		mbb.order(ByteOrder.BIG_ENDIAN);
+		if(mbb.getInt(0)!=MAGIC) throw new IOException("File [" + file + "] is not an hsperfdata file");
+		mbb.order(mbb.get(BYTE_ORDER_OFFSET)==0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		buffer = mbb;
+		counters = Collections.unmodifiableMap(parse());
+	}
+	
+	/**
+	 * Parses the counter directory
+	 * @return a map of counters keyed by name
+	 */
+	private Map<String, PerfCounter> parse() {
+		final int numEntries = buffer.getInt(NUM_ENTRIES_OFFSET);
+		final Map<String, PerfCounter> map = new LinkedHashMap<String, PerfCounter>(numEntries * 2);
+		int entryStart = buffer.getInt(ENTRY_OFFSET_OFFSET);
+		final int limit = buffer.capacity();
+		for(int i = 0; i < numEntries; i++) {
+			if(entryStart + 20 > limit) break;
+			final int entryLength = buffer.getInt(entryStart);
+			if(entryLength <= 0 || entryStart + entryLength > limit) break;
+			final int nameOffset = buffer.getInt(entryStart + 4);
+			final int vectorLength = buffer.getInt(entryStart + 8);
+			final char type = (char)buffer.get(entryStart + 12);
+			final int units = buffer.get(entryStart + 14);
+			final int variability = buffer.get(entryStart + 15);
+			final int dataOffset = buffer.getInt(entryStart + 16);
+			final String name = readString(buffer, entryStart + nameOffset, entryLength - nameOffset);
+			map.put(name, new PerfCounter(buffer, name, type, units, variability, vectorLength, entryStart + dataOffset));
+			entryStart += entryLength;
+		}
+		return map;
+	}
+	
+	/**
+	 * Reads a NUL terminated UTF8 string from the passed buffer
+	 * @param buff The buffer to read from
+	 * @param offset The offset of the first byte
+	 * @param maxLength The maximum number of bytes to read
+	 * @return the read string
+	 */
+	static String readString(final ByteBuffer buff, final int offset, final int maxLength) {
+		int len = 0;
+		while(len < maxLength && buff.get(offset + len)!=0) len++;
+		final byte[] bytes = new byte[len];
+		for(int i = 0; i < len; i++) bytes[i] = buff.get(offset + i);
+		return new String(bytes, UTF8);
+	}
+	
+	/**
+	 * Returns the parsed counters keyed by name
+	 * @return the parsed counters
+	 */
+	public Map<String, PerfCounter> getCounters() {
+		return counters;
+	}
+	
+	/**
+	 * Returns the named counter
+	 * @param name The counter name
+	 * @return the counter or null if the counter does not exist
+	 */
+	public PerfCounter getCounter(final String name) {
+		return counters.get(name);
+	}
+	
+	/**
+	 * Returns the current value of the named string counter
+	 * @param name The counter name
+	 * @return the value or null if the counter does not exist
+	 */
+	public String getString(final String name) {
+		final PerfCounter pc = counters.get(name);
+		return pc==null ? null : pc.stringValue();
+	}
+	
+	/**
+	 * Returns the current value of the named long counter
+	 * @param name The counter name
+	 * @param defaultValue The value to return if the counter does not exist
+	 * @return the value
+	 */
+	public long getLong(final String name, final long defaultValue) {
+		final PerfCounter pc = counters.get(name);
+		return pc==null ? defaultValue : pc.longValue();
+	}
+	
+	/**
+	 * Indicates if the owning JVM has marked the perf data as accessible (i.e. fully initialized)
+	 * @return true if accessible
+	 */
+	public boolean isAccessible() {
+		return buffer.get(ACCESSIBLE_OFFSET)!=0;
+	}
+	
+	/**
+	 * Returns the perf data major version
+	 * @return the major version
+	 */
+	public int getMajorVersion() {
+		return buffer.get(MAJOR_VERSION_OFFSET);
+	}
+	
+	/**
+	 * Returns the perf data minor version
+	 * @return the minor version
+	 */
+	public int getMinorVersion() {
+		return buffer.get(MINOR_VERSION_OFFSET);
+	}
+	
+	/**
+	 * Returns the owning JVM's last modification time stamp in ticks
+	 * @return the last modification time stamp
+	 */
+	public long getModTimestamp() {
+		return buffer.getLong(MOD_TIMESTAMP_OFFSET);
+	}
+	
+	/**
+	 * Returns the mapped file
+	 * @return the mapped file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * The mapping is released when this object is collected. The file channel is closed as soon as the file is mapped.
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		/* No Op */
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PerfDataFile [" + file + ", counters:" + counters.size() + "]";
+	}
+}
@@ -0,0 +1,345 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.attach;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import com.heliosapm.shorthand.attach.vm.AttachContext;
+import com.heliosapm.shorthand.attach.vm.VirtualMachine;
+
+/**
+ * <p>Title: AttachConnectionPool</p>
+ * <p>Description: Pool of physical JMX connections to attached JVMs, keyed by JVM id.
+ * Each {@link AttachJMXConnector} is a logical connection that holds a reference to the shared physical connection for its target.
+ * Unreferenced connections are closed once they have been idle for <b><code>jmxlocal.attach.pool.idle</code></b> ms. (default 60000) 
+ * and every connection is health checked every <b><code>jmxlocal.attach.pool.check</code></b> ms. (default 15000).
+ * The health checks run on their own threads, and a connection whose check has not completed within 
+ * <b><code>jmxlocal.attach.pool.probe.timeout</code></b> ms. (default 5000) is dropped as broken, so one hung target does not hold up the others.</p> 
+ * <p>Connections made with the Unix domain socket transport disabled (see {@link AttachJMXConnector#UDS_KEY}) are pooled separately
+ * from the default connections to the same JVM, so each connector gets the transport its environment asked for.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.attach.AttachConnectionPool</code></p>
+ */
+
+public class AttachConnectionPool {
+	/** The singleton instance */
+	private static volatile AttachConnectionPool instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	/** Static class logger */
+	private static final Logger log = Logger.getLogger(AttachConnectionPool.class.getName());
+	
+	/** The system property defining the idle time in ms. after which unreferenced connections are closed */
+	public static final String IDLE_TIMEOUT_PROP = "jmxlocal.attach.pool.idle";
+	/** The system property defining the period in ms. of the eviction and health check */
+	public static final String CHECK_PERIOD_PROP = "jmxlocal.attach.pool.check";
+	/** The system property defining the time in ms. a health check may take before its connection is dropped as broken */
+	public static final String PROBE_TIMEOUT_PROP = "jmxlocal.attach.pool.probe.timeout";
+	/** The default idle timeout in ms. */
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000L;
+	/** The default eviction and health check period in ms. */
+	public static final long DEFAULT_CHECK_PERIOD = 15000L;
+	/** The default health check timeout in ms. */
+	public static final long DEFAULT_PROBE_TIMEOUT = 5000L;
+	
+	/** The pooled physical connections keyed by pool key (see {@link #poolKey(String, boolean)}) */
+	private final ConcurrentHashMap<String, PooledConnection> connections = new ConcurrentHashMap<String, PooledConnection>();
+	/** The number of connection creation lock stripes */
+	private static final int LOCK_STRIPES = 64;
+	/** The striped connection creation locks, indexed by JVM id hash so the lock set stays bounded */
+	private final Object[] createLocks = new Object[LOCK_STRIPES];
+	/** The idle timeout in ms. */
+	private final long idleTimeout;
+	/** The health check timeout in ms. */
+	private final long probeTimeout;
+	/** The eviction and health check scheduler */
+	private final ScheduledExecutorService scheduler;
+	/** The executor running the health check probes and the closing of broken connections, which may block on a hung target */
+	private final ExecutorService prober;
+	
+	/**
+	 * Returns the AttachConnectionPool singleton
+	 * @return the AttachConnectionPool singleton
+	 */
+	public static AttachConnectionPool getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new AttachConnectionPool();
+				}
+			}
+		}
+		return instance;
+	}
+	
+	/**
+	 * Creates a new AttachConnectionPool
+	 */
+	private AttachConnectionPool() {
+		idleTimeout = Long.getLong(IDLE_TIMEOUT_PROP, DEFAULT_IDLE_TIMEOUT);
+		for(int i = 0; i < LOCK_STRIPES; i++) {
+			createLocks[i] = new Object();
+		}
+		probeTimeout = Long.getLong(PROBE_TIMEOUT_PROP, DEFAULT_PROBE_TIMEOUT);
+		final long checkPeriod = Long.getLong(CHECK_PERIOD_PROP, DEFAULT_CHECK_PERIOD);
+		prober = Executors.newCachedThreadPool(new ThreadFactory() {
+			final AtomicInteger serial = new AtomicInteger();
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "AttachConnectionPoolProbe#" + serial.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "AttachConnectionPoolReaper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					check();
+				} catch (Throwable t) {
+					log.log(Level.WARNING, "Attach connection pool check failed", t);
+				}
+			}
+		}, checkPeriod, checkPeriod, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Returns the key a connection to the passed JVM is pooled under
+	 * @param jvmId The target JVM id
+	 * @param uds true if the connection may use the Unix domain socket transport
+	 * @return the pool key
+	 */
+	static String poolKey(final String jvmId, final boolean uds) {
+		return uds ? jvmId : jvmId + "/rmi";
+	}
+	
+	/**
+	 * Acquires a reference to the pooled physical connection to the JVM with the passed id, 
+	 * attaching and connecting if there is no usable pooled connection.
+	 * The caller must {@link PooledConnection#release() release} the connection when done.
+	 * @param jvmId The target JVM id
+	 * @param env The connection environment (may be null). {@link AttachJMXConnector#UDS_KEY} is read from it, falling back to the system property.
+	 * @return the retained pooled connection
+	 * @throws IOException thrown if a new physical connection cannot be established
+	 */
+	PooledConnection acquire(final String jvmId, final Map<String, ?> env) throws IOException {
+		final boolean uds = AttachJMXConnector.isEnabled(env, AttachJMXConnector.UDS_KEY, true);
+		final String key = poolKey(jvmId, uds);
+		PooledConnection pc = connections.get(key);
+		if(pc!=null && pc.retain()) return pc;
+		synchronized(createLock(key)) {
+			pc = connections.get(key);
+			if(pc!=null) {
+				if(pc.retain()) return pc;
+				remove(pc);
+			}
+			pc = open(jvmId, uds);
+			pc.retain();
+			connections.put(key, pc);
+			return pc;
+		}
+	}
+	
+	/**
+	 * Opens a new physical connection to the JVM with the passed id. If the target serves the jmxlocal agent's Unix domain socket
+	 * transport and the passed flag allows it, the socket is connected to. Otherwise see {@link #connectLocal(String)}.
+	 * In both cases the VM's properties are loaded when first requested.
+	 * @param jvmId The target JVM id
+	 * @param uds true if the Unix domain socket transport may be used
+	 * @return the new pooled connection
+	 * @throws IOException thrown if the connection cannot be established
+	 */
+	protected PooledConnection open(final String jvmId, final boolean uds) throws IOException {
+		final String key = poolKey(jvmId, uds);
+		if(uds) {
+			final JMXConnector udsConnector = UdsJMXConnector.connectIfAvailable(jvmId);
+			if(udsConnector!=null) return new PooledConnection(jvmId, key, udsConnector, null, null);
+		}
+		return new PooledConnection(jvmId, key, connectLocal(jvmId), null, null);
+	}
+	
+	/**
+	 * Connects to the local connector address of the JVM with the passed id. If the address
+	 * is in the {@link ConnectorAddressCache}, it is connected to directly without attaching.
+	 * Otherwise, the JVM is attached to and the address is cached.
+	 * @param jvmId The target JVM id
+	 * @return the connected JMXConnector
+	 * @throws IOException thrown if the connection cannot be established
+	 */
+	@SuppressWarnings("try") // the context is only opened for its scope, see AttachContext
+	static JMXConnector connectLocal(final String jvmId) throws IOException {
+		final ConnectorAddressCache addressCache = ConnectorAddressCache.getInstance();
+		final JMXServiceURL cached = addressCache.get(jvmId);
+		if(cached!=null) {
+			try {
+				return JMXConnectorFactory.connect(cached);
+			} catch (Exception ex) {
+				log.fine("Cached connector address [" + cached + "] for JVM [" + jvmId + "] is stale: " + ex);
+				addressCache.invalidate(jvmId);
+			}
+		}
+		try(AttachContext ctx = AttachContext.open()) {
+			final VirtualMachine vm = VirtualMachine.attach(jvmId);
+			try {
+				final JMXConnector jmxConnector = vm.getJMXConnector();
+				addressCache.put(jvmId, vm.getJMXServiceURL());
+				return jmxConnector;
+			} finally {
+				try { vm.detach(); } catch (Exception x) {/* No Op */}
+			}
+		} catch (RuntimeException rex) {
+			throw new IOException("Failed to connect to JVM [" + jvmId + "]", rex);
+		}
+	}
+	
+	/**
+	 * Returns the connection creation lock stripe for the passed pool key
+	 * @param key The pool key
+	 * @return the lock
+	 */
+	private Object createLock(final String key) {
+		final int h = key.hashCode();
+		return createLocks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+	}
+	
+	/**
+	 * Removes the passed connection from the pool if it is still the pooled connection for its key
+	 * @param pc The connection to remove
+	 */
+	private void remove(final PooledConnection pc) {
+		connections.remove(pc.poolKey, pc);
+	}
+	
+	/**
+	 * Closes idle connections and drops broken connections.
+	 * All connections are probed concurrently and each probe gets what is left of {@link #probeTimeout}, 
+	 * so the check takes at most that long however many targets are hung.
+	 */
+	protected void check() {
+		final Map<PooledConnection, Future<Boolean>> probes = new LinkedHashMap<PooledConnection, Future<Boolean>>();
+		for(final PooledConnection pc: connections.values()) {
+			probes.put(pc, prober.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return pc.isHealthy();
+				}
+			}));
+		}
+		final long deadline = System.currentTimeMillis() + probeTimeout;
+		for(Map.Entry<PooledConnection, Future<Boolean>> entry: probes.entrySet()) {
+			final PooledConnection pc = entry.getKey();
+			boolean healthy;
+			try {
+				healthy = entry.getValue().get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException tex) {
+				log.warning("Health check of pooled connection [" + pc.jvmId + "] timed out after " + probeTimeout + " ms.");
+				healthy = false;
+			} catch (ExecutionException eex) {
+				healthy = false;
+			} catch (InterruptedException iex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if(!healthy || pc.getIdleTime() > idleTimeout) {
+				if(!healthy) {
+					// no new logical connections, existing ones will see their own failures
+					remove(pc);
+					// closing a broken connection may block as long as the probe did
+					prober.execute(new Runnable() {
+						@Override
+						public void run() {
+							if(pc.retire()) log.log(Level.FINE, "Closed broken pooled connection [{0}]", pc.jvmId);
+						}
+					});
+				} else if(pc.retire()) {
+					remove(pc);
+					log.log(Level.FINE, "Closed idle pooled connection [{0}]", pc.jvmId);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Closes all unreferenced connections immediately
+	 */
+	public void closeIdle() {
+		for(PooledConnection pc: connections.values()) {
+			if(pc.retire()) remove(pc);
+		}
+	}
+	
+	/**
+	 * Returns the number of pooled physical connections
+	 * @return the number of pooled physical connections
+	 */
+	public int getSize() {
+		return connections.size();
+	}
+	
+	/**
+	 * Returns the number of logical connectors currently holding pooled connections to the passed JVM
+	 * @param jvmId The JVM id
+	 * @return the reference count, or 0 if there is no pooled connection
+	 */
+	public int getRefCount(final String jvmId) {
+		int count = 0;
+		for(boolean uds: new boolean[]{true, false}) {
+			final PooledConnection pc = connections.get(poolKey(jvmId, uds));
+			if(pc!=null) count += Math.max(0, pc.getRefCount());
+		}
+		return count;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "AttachConnectionPool " + connections.values();
+	}
+}
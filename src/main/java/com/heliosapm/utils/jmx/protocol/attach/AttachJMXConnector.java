@@ -20,22 +20,39 @@ package com.heliosapm.utils.jmx.protocol.attach;
 
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.regex.Matcher;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
+import javax.management.AttributeList;
+import javax.management.JMX;
 import javax.management.ListenerNotFoundException;
 import javax.management.MBeanServerConnection;
 import javax.management.NotificationFilter;
 import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import javax.management.remote.JMXAddressable;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXServiceURL;
 import javax.security.auth.Subject;
 
+import com.heliosapm.shorthand.attach.vm.AttachContext;
 import com.heliosapm.shorthand.attach.vm.VirtualMachine;
 import com.heliosapm.shorthand.attach.vm.VirtualMachineDescriptor;
+import com.heliosapm.utils.jmx.agent.Agent;
+import com.heliosapm.utils.jmx.agent.AgentInstaller;
+import com.heliosapm.utils.jmx.agent.BulkReader;
+import com.heliosapm.utils.jmx.agent.BulkReaderMBean;
+import com.heliosapm.utils.jmx.agent.RingBufferManagerMBean;
+import com.heliosapm.utils.jmx.agent.RingBufferReader;
 
 
 /**
@@ -46,16 +63,28 @@ import com.heliosapm.shorthand.attach.vm.VirtualMachineDescriptor;
  * 	<li><b><code>service:jmx:attach://&lt;PID&gt;</code></b> where the PID is the Java virtual machine ID or usually, the OS process ID.</li>
  *  <li><b><code>service:jmx:attach:///&lt;DISPLAY NAME&gt;</code></b> where the DISPLAY NAME is an expression matching the Java virtual machine's display name. or a single display name matching regex.</li>
  *  <li><b><code>service:jmx:attach:///&lt;[REGEX]&gt;</code></b> where the REGEX is a regular expression that will match one and only one JVM's display name</li>
+ *  <li><b><code>service:jmx:attach:///*&lt;[REGEX]&gt;</code></b> connects to <b>every</b> JVM whose display name matches the REGEX (fan-out mode). 
+ *  <b><code>service:jmx:attach:///*</code></b> connects to every JVM.</li>
  * </ul></p>
- * <p><b>NOTE:</b> Note that the second two examples above have <b>3</b> slashes after the <b>attach</b>.</p> 
+ * <p><b>NOTE:</b> Note that the last three examples above have <b>3</b> slashes after the <b>attach</b>.</p> 
+ * <p>In fan-out mode (the <b><code>*</code></b> prefix, or the environment key {@link #FANOUT_KEY} set to <code>true</code>), all the matching JVMs
+ * are connected to concurrently and the connector's MBeanServerConnection is a {@link FanOutMBeanServerConnection} combining them all.</p>
+ * <p>By default, connectors are logical connections sharing one pooled physical connection per target JVM (see {@link AttachConnectionPool}).
+ * Closing a connector releases its reference to the physical connection. Pooling can be disabled per connection by setting
+ * the environment key {@link #POOLED_KEY} to <code>false</code>, or globally with the system property of the same name.</p>
+ * <p>When the target JVM serves the jmxlocal agent's Unix domain socket transport, connections are made over the socket instead of RMI
+ * (see {@link UdsJMXConnector}) unless the environment key {@link #UDS_KEY} is set to <code>false</code>. The agent serves the socket when it is
+ * loaded with the <code>uds=true</code> option, which a connector passes when it loads the agent itself (see {@link #AGENT_KEY}).</p>
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.utils.jmx.protocol.attach.AttachJMXConnector</code></p>
  */
 
-public class AttachJMXConnector implements JMXConnector {
+public class AttachJMXConnector implements JMXConnector, JMXAddressable {
 	/** The target JVM id */
 	protected String jvmId = null;
+	/** The ids of the JVMs the MBeanServerConnections handed out by attach connectors are connected to */
+	private static final Map<MBeanServerConnection, String> connectionJvmIds = Collections.synchronizedMap(new WeakHashMap<MBeanServerConnection, String>());
 	/** The target JVM display name  */
 	protected String jvmDisplayName = null;
 	/** The target JVM display name matching pattern */
@@ -66,13 +95,42 @@ public class AttachJMXConnector implements JMXConnector {
 	protected VirtualMachine vm = null;
 	/** The JMXConnector to the attached JVM */
 	protected JMXConnector jmxConnector = null;
-	/** The attached VM's system properties */
-	protected Properties vmSystemProperties = null;
-	/** The attached VM's agent properties */
-	protected Properties vmAgentProperties = null;
+	/** The attached VM's system properties, null until requested */
+	protected volatile Properties vmSystemProperties = null;
+	/** The attached VM's agent properties, null until requested */
+	protected volatile Properties vmAgentProperties = null;
+	/** The JMXServiceURL this connector was created from */
+	protected JMXServiceURL address = null;
+	/** The pooled physical connection this logical connector references, null if not pooled */
+	protected PooledConnection pooledConnection = null;
+	/** The connection listeners registered through this connector */
+	protected final List<Object[]> listeners = new ArrayList<Object[]>();
+	/** Indicates if this connector has been closed */
+	protected final AtomicBoolean closed = new AtomicBoolean(false);
+	/** Overrides the {@link #FANOUT_KEY} environment option when not null */
+	protected Boolean fanOut = null;
+	/** Indicates if the jmxlocal agent may be loaded into the target to serve bulk calls */
+	protected boolean agentEnabled = false;
+	/** Indicates if the Unix domain socket transport may be used, and so requested when loading the jmxlocal agent */
+	protected boolean udsEnabled = true;
+	/** Indicates if the jmxlocal agent is known to be loaded in the target */
+	protected volatile boolean agentReady = false;
 	
 	/** The PID of this JVM */
 	public static final String PID = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+	/** The environment key (and system property) to enable or disable connection pooling. Defaults to true */
+	public static final String POOLED_KEY = "jmxlocal.attach.pooled";
+	/** The environment key (and system property) to connect to all the matching JVMs instead of the first. Defaults to false */
+	public static final String FANOUT_KEY = "jmxlocal.attach.fanout";
+	/** The environment key (and system property) to fetch the VM's system and agent properties when connecting. Defaults to false */
+	public static final String PROPERTIES_KEY = "jmxlocal.attach.properties";
+	/** The environment key (and system property) to allow loading the jmxlocal agent into the target for bulk and ring buffer calls. Defaults to false */
+	public static final String AGENT_KEY = "jmxlocal.attach.agent";
+	/** The environment key (and system property) to connect over the jmxlocal agent's Unix domain socket when the target serves it, and to have the agent serve it when this connector loads the agent. Defaults to true */
+	public static final String UDS_KEY = "jmxlocal.attach.uds";
+	/** The RuntimeMXBean ObjectName */
+	static final ObjectName RUNTIME_MXBEAN = objectName(ManagementFactory.RUNTIME_MXBEAN_NAME);
+	
 	/**
 	 * Creates a new AttachJMXConnector
 	 * @param jvmIdentifier The target JVM identifier or display name match expression
@@ -81,6 +139,11 @@ public class AttachJMXConnector implements JMXConnector {
 		if(jvmIdentifier==null || jvmIdentifier.trim().isEmpty()) throw new IllegalArgumentException("The passed JVM identifier was null or empty");
 		urlPath = jvmIdentifier.trim();
 		if(urlPath.startsWith("/")) urlPath = new StringBuilder(urlPath).deleteCharAt(0).toString();
+		if(urlPath.startsWith("*")) {
+			fanOut = Boolean.TRUE;
+			urlPath = urlPath.substring(1).trim();
+			if(urlPath.isEmpty()) urlPath = "[.*]";
+		}
 		if(isNumber(urlPath)) {
 			jvmId = urlPath;
 		} else {			 
@@ -97,47 +160,96 @@ public class AttachJMXConnector implements JMXConnector {
 	
 	
 	/**
-	 * Returns a list of JVMs that can be attached to
-	 * @return a list of JVMs that can be attached to
+	 * Resolves the id of the target virtual machine without attaching to it
+	 * @return the target JVM id
 	 */
-	protected String getAvailableJVMs() {
-		StringBuilder b = new StringBuilder("\n");
-		for(VirtualMachineDescriptor vmd :VirtualMachineDescriptor.getVirtualMachineDescriptors()) {
-			b.append("\n\t").append(vmd.id()).append(" : ").append(vmd.displayName());
+	protected String resolve() {
+		if(jvmId!=null) {
+			return jvmId;
 		}
-		return b.toString();
+		return resolve(false).get(0);
 	}
+	
 	/**
-	 * Connects to the target virtual machine
+	 * Resolves the ids of all the matching virtual machines without attaching to them
+	 * @return the matching JVM ids
 	 */
-	protected void attach() {
+	protected List<String> resolveAll() {
 		if(jvmId!=null) {
-			vm = VirtualMachine.attach(jvmId);
-			return;
+			return Collections.singletonList(jvmId);
 		}
-		List<VirtualMachineDescriptor> machines = VirtualMachine.list();
-		for(VirtualMachineDescriptor vmd: machines) {
-			if(PID.equals(vmd.id())) {
-//				System.err.println("Skipped PID:" + vmd.id() + " with display [" + vmd.displayName() + "]");
-				continue;  // this avoids connecting to self
+		return resolve(true);
+	}
+	
+	/**
+	 * Resolves the ids of the matching virtual machines, excluding this one.
+	 * Display name selectors are first resolved against the {@link JVMDiscoveryIndex}, falling back to
+	 * listing the virtual machines through the Attach API if the index has no match.
+	 * @param all true to resolve all the matching JVMs, false to stop at the first 
+	 * @return the matching JVM ids
+	 */
+	@SuppressWarnings("try") // the context is only opened for its scope, see AttachContext
+	private List<String> resolve(final boolean all) {
+		final List<String> ids = new ArrayList<String>();
+		final JVMDiscoveryIndex index = JVMDiscoveryIndex.getInstance();
+		if(index.isActive()) {
+			if(jvmDisplayName!=null && !all) {
+				final JVMDiscoveryIndex.JVMEntry entry = index.findByDisplayName(jvmDisplayName);
+				if(entry!=null && !PID.equals(entry.getPid())) return Collections.singletonList(entry.getPid());
+			} else {
+				final Pattern p = displayNamePattern!=null ? displayNamePattern : Pattern.compile(Pattern.quote(jvmDisplayName));
+				for(JVMDiscoveryIndex.JVMEntry entry: index.find(p)) {
+					if(PID.equals(entry.getPid())) continue;
+					ids.add(entry.getPid());
+					if(!all) return ids;
+				}
+				if(!ids.isEmpty()) return ids;
 			}
-			String displayName = vmd.displayName();
-			if(jvmDisplayName!=null) {
-				if(jvmDisplayName.equals(displayName)) {
-//					System.err.println("Exact Match: Attaching to JVM:" + vmd.id() + " with display [" + vmd.displayName() + "]");
-					vm = VirtualMachine.attach(vmd.id());
-					return;
+		}
+		final StringBuilder available = new StringBuilder("\n");
+		try(AttachContext ctx = AttachContext.open()) {
+			List<VirtualMachineDescriptor> machines = VirtualMachine.list();
+			for(VirtualMachineDescriptor vmd: machines) {
+				final String id = vmd.id();
+				String displayName = vmd.displayName();
+				available.append("\n\t").append(id).append(" : ").append(displayName);
+				if(PID.equals(id)) {
+					continue;  // this avoids connecting to self
 				}
-			} else {
-				Matcher m = displayNamePattern.matcher(displayName);
-				if(m.matches()) {
-//					System.err.println("Pattern Match: Attaching to JVM:" + vmd.id() + " with display [" + vmd.displayName() + "]");
-					vm = VirtualMachine.attach(vmd.id());
-					return;
+				final boolean match = jvmDisplayName!=null ? jvmDisplayName.equals(displayName) : displayNamePattern.matcher(displayName).matches(); 
+				if(match) {
+					ids.add(id);
+					if(!all) return ids;
 				}
 			}
 		}
-		throw new RuntimeException("Failed to find any matching JVMs for [" + urlPath + "]. Available JVMs to connect to are:" + getAvailableJVMs());
+		if(ids.isEmpty()) throw new RuntimeException("Failed to find any matching JVMs for [" + urlPath + "]. Available JVMs to connect to are:" + available);
+		return ids;
+	}
+	
+	/**
+	 * Expands a fan-out <b>attach</b> URL (<b><code>service:jmx:attach:///*[&lt;REGEX&gt;]</code></b>) into one URL per matching JVM.
+	 * Any other URL is returned as is.
+	 * @param url The URL to expand
+	 * @return the expanded URLs
+	 * @throws IOException thrown if an expanded URL is invalid
+	 */
+	public static List<JMXServiceURL> expand(final JMXServiceURL url) throws IOException {
+		if(!"attach".equals(url.getProtocol())) return Collections.singletonList(url);
+		final AttachJMXConnector selector = new AttachJMXConnector(url.getURLPath());
+		if(!Boolean.TRUE.equals(selector.fanOut)) return Collections.singletonList(url);
+		final List<JMXServiceURL> urls = new ArrayList<JMXServiceURL>();
+		for(String id: selector.resolveAll()) {
+			urls.add(new JMXServiceURL("service:jmx:attach:///" + id));
+		}
+		return urls;
+	}
+	
+	/**
+	 * Connects to the target virtual machine
+	 */
+	protected void attach() {
+		vm = VirtualMachine.attach(resolve());
 	}
 	
 	
@@ -156,6 +268,20 @@ public class AttachJMXConnector implements JMXConnector {
 		
 	}
 	
+	/**
+	 * Reads a boolean option from the passed environment, falling back to the system property of the same name
+	 * @param env The connection environment (may be null)
+	 * @param key The option key
+	 * @param defaultValue The default value if neither the environment or the system properties define the option
+	 * @return the option value
+	 */
+	protected static boolean isEnabled(final Map<String, ?> env, final String key, final boolean defaultValue) {
+		Object value = env==null ? null : env.get(key);
+		if(value==null) value = System.getProperty(key);
+		if(value==null) return defaultValue;
+		return value instanceof Boolean ? ((Boolean)value).booleanValue() : Boolean.parseBoolean(value.toString().trim());
+	}
+	
 
 	/**
 	 * {@inheritDoc}
@@ -163,12 +289,7 @@ public class AttachJMXConnector implements JMXConnector {
 	 */
 	@Override
 	public void connect() throws IOException {
-		attach();
-		jmxConnector = vm.getJMXConnector();
-		jvmId = vm.id();
-		vmSystemProperties = vm.getSystemProperties();
-		vmAgentProperties = vm.getAgentProperties();
-		try { vm.detach(); } catch (Exception x) {/* No Op */}		
+		connect(null);
 	}
 
 	/**
@@ -176,8 +297,101 @@ public class AttachJMXConnector implements JMXConnector {
 	 * @see javax.management.remote.JMXConnector#connect(java.util.Map)
 	 */
 	@Override
+	@SuppressWarnings("try") // the context is only opened for its scope, see AttachContext
 	public void connect(Map<String, ?> env) throws IOException {
-		connect();
+		if(jmxConnector!=null) return;
+		agentEnabled = isEnabled(env, AGENT_KEY, false);
+		udsEnabled = isEnabled(env, UDS_KEY, true);
+		if(fanOut!=null ? fanOut.booleanValue() : isEnabled(env, FANOUT_KEY, false)) {
+			jmxConnector = FanOutJMXConnector.connect(resolveAll(), env);
+			return;
+		}
+		if(isEnabled(env, POOLED_KEY, true)) {
+			final String id = resolve();
+			pooledConnection = AttachConnectionPool.getInstance().acquire(id, env);
+			jvmId = id;
+			jmxConnector = pooledConnection.jmxConnector;
+			if(isEnabled(env, PROPERTIES_KEY, false)) {
+				getVmSystemProperties();
+				getVmAgentProperties();
+			}
+			return;
+		}
+		if(udsEnabled) {
+			final String id = resolve();
+			final JMXConnector uds = UdsJMXConnector.connectIfAvailable(id);
+			if(uds!=null) {
+				jvmId = id;
+				jmxConnector = uds;
+				if(isEnabled(env, PROPERTIES_KEY, false)) {
+					getVmSystemProperties();
+					getVmAgentProperties();
+				}
+				return;
+			}
+		}
+		try(AttachContext ctx = AttachContext.open()) {
+			attach();
+			jmxConnector = vm.getJMXConnector();
+			jvmId = vm.id();
+			if(isEnabled(env, PROPERTIES_KEY, false)) {
+				vmSystemProperties = vm.getSystemProperties();
+				vmAgentProperties = vm.getAgentProperties();
+			}
+			try { vm.detach(); } catch (Exception x) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * Reads a JVM's system properties through the RuntimeMXBean of an open connection to it, 
+	 * falling back to attaching if the RuntimeMXBean cannot be read
+	 * @param connector The open connector to the JVM
+	 * @param jvmId The JVM's id
+	 * @return the JVM's system properties
+	 */
+	static Properties readSystemProperties(final JMXConnector connector, final String jvmId) {
+		try {
+			final TabularData td = (TabularData)connector.getMBeanServerConnection().getAttribute(RUNTIME_MXBEAN, "SystemProperties");
+			final Properties p = new Properties();
+			for(Object row: td.values()) {
+				final CompositeData cd = (CompositeData)row;
+				p.setProperty((String)cd.get("key"), (String)cd.get("value"));
+			}
+			return p;
+		} catch (Exception ex) {
+			return attachProperties(jvmId, false);
+		}
+	}
+	
+	/**
+	 * Attaches to a JVM to read its system or agent properties
+	 * @param jvmId The JVM's id
+	 * @param agent true for the agent properties, false for the system properties
+	 * @return the read properties
+	 */
+	@SuppressWarnings("try") // the context is only opened for its scope, see AttachContext
+	static Properties attachProperties(final String jvmId, final boolean agent) {
+		try(AttachContext ctx = AttachContext.open()) {
+			final VirtualMachine vm = VirtualMachine.attach(jvmId);
+			try {
+				return agent ? vm.getAgentProperties() : vm.getSystemProperties();
+			} finally {
+				try { vm.detach(); } catch (Exception x) {/* No Op */}
+			}
+		}
+	}
+	
+	/**
+	 * Creates an ObjectName from the passed string
+	 * @param name The ObjectName string
+	 * @return the ObjectName
+	 */
+	static ObjectName objectName(final String name) {
+		try {
+			return new ObjectName(name);
+		} catch (Exception ex) {
+			throw new RuntimeException("Invalid ObjectName [" + name + "]", ex);
+		}
 	}
 
 
@@ -187,20 +401,68 @@ public class AttachJMXConnector implements JMXConnector {
 	 */
 	@Override
 	public String getConnectionId() throws IOException {		
+		if(jmxConnector instanceof FanOutJMXConnector) return jmxConnector.getConnectionId();
 		return String.format("[Attached:%s] %s", jvmId, jmxConnector.getConnectionId());
 	}
 
 	public MBeanServerConnection getMBeanServerConnection() throws IOException {
-		return jmxConnector.getMBeanServerConnection();
+		if(closed.get()) throw new IOException("Connector closed");
+		return register(jmxConnector.getMBeanServerConnection());
 	}
 
 	public MBeanServerConnection getMBeanServerConnection(
 			Subject delegationSubject) throws IOException {
-		return jmxConnector.getMBeanServerConnection(delegationSubject);
+		if(closed.get()) throw new IOException("Connector closed");
+		return register(jmxConnector.getMBeanServerConnection(delegationSubject));
+	}
+	
+	/**
+	 * Records the id of the JVM the passed connection is connected to
+	 * @param conn The connection handed out by this connector
+	 * @return the connection
+	 */
+	private MBeanServerConnection register(final MBeanServerConnection conn) {
+		if(conn!=null && jvmId!=null) connectionJvmIds.put(conn, jvmId);
+		return conn;
+	}
+	
+	/**
+	 * Returns the id of the JVM this connector is attached to
+	 * @return the JVM id, or null if not connected yet
+	 */
+	public String getJvmId() {
+		return jvmId;
+	}
+	
+	/**
+	 * Returns the id of the JVM that an MBeanServerConnection handed out by an attach connector is connected to.
+	 * Use this rather than the connection's RuntimeMXBean to identify a local JVM, since a connection from any other connector
+	 * may reach a JVM on another host.
+	 * @param conn The MBeanServerConnection
+	 * @return the JVM id, or null if the connection was not handed out by an attach connector
+	 */
+	public static String getJvmId(final MBeanServerConnection conn) {
+		return conn==null ? null : connectionJvmIds.get(conn);
 	}
 
+	/**
+	 * Closes this connector. A pooled connector releases its reference to the shared physical connection
+	 * and removes any connection listeners it registered.
+	 * @see javax.management.remote.JMXConnector#close()
+	 */
 	public void close() throws IOException {
-		jmxConnector.close();
+		if(!closed.compareAndSet(false, true)) return;
+		if(pooledConnection!=null) {
+			synchronized(listeners) {
+				for(Object[] l: listeners) {
+					try { jmxConnector.removeConnectionNotificationListener((NotificationListener)l[0], (NotificationFilter)l[1], l[2]); } catch (Exception x) {/* No Op */}
+				}
+				listeners.clear();
+			}
+			pooledConnection.release();
+		} else if(jmxConnector!=null) {
+			jmxConnector.close();
+		}
 	}
 
 	public void addConnectionNotificationListener(
@@ -208,25 +470,234 @@ public class AttachJMXConnector implements JMXConnector {
 			Object handback) {
 		jmxConnector.addConnectionNotificationListener(listener, filter,
 				handback);
+		synchronized(listeners) {
+			listeners.add(new Object[]{listener, filter, handback});
+		}
 	}
 
 	public void removeConnectionNotificationListener(
 			NotificationListener listener) throws ListenerNotFoundException {
 		jmxConnector.removeConnectionNotificationListener(listener);
+		synchronized(listeners) {
+			for(Iterator<Object[]> iter = listeners.iterator(); iter.hasNext();) {
+				if(iter.next()[0]==listener) iter.remove();
+			}
+		}
 	}
 
 	public void removeConnectionNotificationListener(NotificationListener l,
 			NotificationFilter f, Object handback)
 			throws ListenerNotFoundException {
 		jmxConnector.removeConnectionNotificationListener(l, f, handback);
+		synchronized(listeners) {
+			for(Iterator<Object[]> iter = listeners.iterator(); iter.hasNext();) {
+				final Object[] e = iter.next();
+				if(e[0]==l && e[1]==f && e[2]==handback) {
+					iter.remove();
+					break;
+				}
+			}
+		}
 	}
 
+	/**
+	 * Returns a snapshot of the attached VM's system properties. Unless {@link #PROPERTIES_KEY} was enabled when connecting,
+	 * the snapshot is read through the RuntimeMXBean when first requested.
+	 * @return the attached VM's system properties
+	 */
 	public Properties getVmSystemProperties() {
+		if(vmSystemProperties==null) {
+			synchronized(this) {
+				if(vmSystemProperties==null) {
+					if(jmxConnector==null) throw new IllegalStateException("Not connected");
+					vmSystemProperties = pooledConnection!=null ? pooledConnection.getVmSystemProperties() : readSystemProperties(jmxConnector, jvmId);
+				}
+			}
+		}
 		return vmSystemProperties;
 	}
+	
+	/**
+	 * Returns the attached VM's system properties with the passed keys
+	 * @param keys The keys of the properties to return
+	 * @return the requested properties that are defined in the VM
+	 */
+	public Properties getVmSystemProperties(final String...keys) {
+		final Properties all = getVmSystemProperties();
+		final Properties p = new Properties();
+		for(String key: keys) {
+			final String value = all.getProperty(key);
+			if(value!=null) p.setProperty(key, value);
+		}
+		return p;
+	}
 
+	/**
+	 * Returns a snapshot of the attached VM's agent properties. Unless {@link #PROPERTIES_KEY} was enabled when connecting,
+	 * the VM is attached to when they are first requested.
+	 * @return the attached VM's agent properties
+	 */
 	public Properties getVmAgentProperties() {
+		if(vmAgentProperties==null) {
+			synchronized(this) {
+				if(vmAgentProperties==null) {
+					if(jmxConnector==null) throw new IllegalStateException("Not connected");
+					vmAgentProperties = pooledConnection!=null ? pooledConnection.getVmAgentProperties() : attachProperties(jvmId, true);
+				}
+			}
+		}
 		return vmAgentProperties;
 	}
+	
+	/**
+	 * Reads attributes from many MBeans in the target VM in one remote call. ObjectName patterns are expanded in the target and 
+	 * a null or empty attribute name array reads all the readable attributes. MBeans that cannot be found are omitted from the results,
+	 * and an MBean whose read failed maps to the exception it threw instead of an {@link AttributeList}.
+	 * <p>The call is served by the jmxlocal agent's bulk reader MBean when the agent is already loaded in the target, or is loaded into the
+	 * target when first needed if {@link #AGENT_KEY} was enabled when connecting. Otherwise the MBeans are read one call at a time.</p>
+	 * @param request The attribute names to read keyed by ObjectName or pattern
+	 * @return the read {@link AttributeList}, or the exception the read threw, keyed by ObjectName
+	 * @throws IOException thrown on any communication error
+	 */
+	public Map<ObjectName, Object> bulkGetAttributes(final Map<ObjectName, String[]> request) throws IOException {
+		final ObjectName[] objectNames = request.keySet().toArray(new ObjectName[request.size()]);
+		final String[][] attributeNames = new String[objectNames.length][];
+		for(int i = 0; i < objectNames.length; i++) {
+			attributeNames[i] = request.get(objectNames[i]);
+		}
+		final BulkReaderMBean reader = bulkReader();
+		if(reader!=null) return reader.getAttributes(objectNames, attributeNames);
+		return BulkReader.getAttributes(getMBeanServerConnection(), objectNames, attributeNames);
+	}
+	
+	/**
+	 * Invokes a batch of operations on MBeans in the target VM in one remote call. See {@link #bulkGetAttributes(Map)} for how the call is served.
+	 * @param objectNames The ObjectNames of the MBeans to invoke on
+	 * @param operationNames The operation name for each ObjectName
+	 * @param params The parameters for each invocation (null, or null entries for none)
+	 * @param signatures The signatures for each invocation (null, or null entries for none)
+	 * @return the result of each invocation, or the exception it threw
+	 * @throws IOException thrown on any communication error
+	 */
+	public Object[] bulkInvoke(final ObjectName[] objectNames, final String[] operationNames, final Object[][] params, final String[][] signatures) throws IOException {
+		final BulkReaderMBean reader = bulkReader();
+		if(reader!=null) return reader.invoke(objectNames, operationNames, params, signatures);
+		return BulkReader.invoke(getMBeanServerConnection(), objectNames, operationNames, params, signatures);
+	}
+	
+	/**
+	 * Starts sampling the passed numeric attributes in the target VM into a shared memory ring buffer and opens a reader on it.
+	 * Once started, the samples are read from the ring buffer without any calls to the target. Fields are specified as 
+	 * <b><code>&lt;ObjectName&gt;|&lt;attribute&gt;</code></b> or <b><code>&lt;ObjectName&gt;|&lt;attribute&gt;|&lt;composite key&gt;</code></b>.
+	 * The sampler gets the target's default lease (see {@link RingBufferReader#renew()}).
+	 * The jmxlocal agent must already be loaded in the target, or {@link #AGENT_KEY} must have been enabled when connecting so it can be loaded.
+	 * @param fields The fields to sample
+	 * @param periodMs The sampling period in ms.
+	 * @param capacity The number of records the ring buffer holds
+	 * @return the ring buffer reader
+	 * @throws IOException thrown on any communication error or if the agent is not loaded and may not be loaded
+	 * @see #stopRingBuffer(RingBufferReader)
+	 */
+	public RingBufferReader openRingBuffer(final String[] fields, final long periodMs, final int capacity) throws IOException {
+		return openRingBuffer(fields, periodMs, capacity, -1L);
+	}
+	
+	/**
+	 * Starts sampling the passed numeric attributes in the target VM into a shared memory ring buffer and opens a reader on it.
+	 * See {@link #openRingBuffer(String[], long, int)}. The sampler stops and deletes the ring buffer if the reader does not renew 
+	 * its lease, by reading or by calling {@link RingBufferReader#renew()}, for the passed lease duration.
+	 * @param fields The fields to sample
+	 * @param periodMs The sampling period in ms.
+	 * @param capacity The number of records the ring buffer holds
+	 * @param leaseMs The lease duration in ms., 0 for no lease (the sampler runs until stopped), or -1 for the target's default lease
+	 * @return the ring buffer reader
+	 * @throws IOException thrown on any communication error or if the agent is not loaded and may not be loaded
+	 * @see #stopRingBuffer(RingBufferReader)
+	 */
+	public RingBufferReader openRingBuffer(final String[] fields, final long periodMs, final int capacity, final long leaseMs) throws IOException {
+		if(!ensureAgent()) throw new IOException("The jmxlocal agent is not loaded in JVM [" + jvmId + "] and " + AGENT_KEY + " is not enabled");
+		final String path = leaseMs < 0 ? ringBuffers().start(fields, periodMs, capacity) : ringBuffers().start(fields, periodMs, capacity, leaseMs);
+		try {
+			return new RingBufferReader(path);
+		} catch (IOException iex) {
+			try { ringBuffers().stop(path); } catch (Exception x) {/* No Op */}
+			throw iex;
+		}
+	}
+	
+	/**
+	 * Stops the sampler writing the passed reader's ring buffer in the target VM and deletes the ring buffer file
+	 * @param reader The reader returned by {@link #openRingBuffer(String[], long, int)}
+	 * @return true if the sampler was stopped, false if it was not running
+	 * @throws IOException thrown on any communication error
+	 */
+	public boolean stopRingBuffer(final RingBufferReader reader) throws IOException {
+		return ringBuffers().stop(reader.getPath().toString());
+	}
+	
+	/**
+	 * Returns a proxy to the target's ring buffer manager MBean
+	 * @return the ring buffer manager proxy
+	 * @throws IOException thrown on any communication error
+	 */
+	protected RingBufferManagerMBean ringBuffers() throws IOException {
+		return JMX.newMBeanProxy(singleConnection(), Agent.RING_BUFFERS, RingBufferManagerMBean.class);
+	}
+	
+	/**
+	 * Returns a proxy to the target's bulk reader MBean, loading the jmxlocal agent into the target if it is not registered and {@link #AGENT_KEY} was enabled
+	 * @return the bulk reader proxy, or null if the agent is not registered and may not be loaded
+	 * @throws IOException thrown on any communication error
+	 */
+	protected BulkReaderMBean bulkReader() throws IOException {
+		if(!ensureAgent()) return null;
+		return JMX.newMBeanProxy(singleConnection(), Agent.BULK_READER, BulkReaderMBean.class);
+	}
+	
+	/**
+	 * Loads the jmxlocal agent into the target if it is not already loaded and {@link #AGENT_KEY} was enabled when connecting.
+	 * Unless {@link #UDS_KEY} was disabled, the agent is asked to serve the Unix domain socket transport, which later connections to the target then use.
+	 * @return true if the agent is loaded, false if it is not loaded and may not be loaded
+	 * @throws IOException thrown on any communication error or if the agent fails to load
+	 */
+	protected boolean ensureAgent() throws IOException {
+		if(!agentReady) {
+			synchronized(this) {
+				if(!agentReady) {
+					final MBeanServerConnection conn = singleConnection();
+					if(!conn.isRegistered(Agent.BULK_READER) || !conn.isRegistered(Agent.RING_BUFFERS)) {
+						if(!agentEnabled) return false;
+						try {
+							AgentInstaller.install(jvmId, udsEnabled ? Agent.UDS_OPTION + "=true" : null);
+						} catch (RuntimeException rex) {
+							throw new IOException("Failed to load the jmxlocal agent into JVM [" + jvmId + "]", rex);
+						}
+					}
+					agentReady = true;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the connection to the single target VM
+	 * @return the MBeanServerConnection
+	 * @throws IOException thrown on any communication error
+	 */
+	protected MBeanServerConnection singleConnection() throws IOException {
+		if(jmxConnector==null) throw new IllegalStateException("Not connected");
+		if(jmxConnector instanceof FanOutJMXConnector) throw new UnsupportedOperationException("Agent calls are not supported in fan-out mode");
+		return jmxConnector.getMBeanServerConnection();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXAddressable#getAddress()
+	 */
+	@Override
+	public JMXServiceURL getAddress() {
+		return address;
+	}
 
 }
@@ -62,7 +62,9 @@ public class ClientProvider implements JMXConnectorProvider  {
 		}
 		String s = serviceURL.toString();
 		int index = s.indexOf(URL_PREFIX);
-		return WrappedJMXConnector.addressable(new AttachJMXConnector(s.substring(index + URL_PREFIX.length())), serviceURL);
+		AttachJMXConnector connector = new AttachJMXConnector(s.substring(index + URL_PREFIX.length()));
+		connector.address = serviceURL;
+		return WrappedJMXConnector.addressable(connector, serviceURL);
     }
 
 
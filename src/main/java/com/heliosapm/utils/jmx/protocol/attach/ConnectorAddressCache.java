@@ -0,0 +1,265 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.attach;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.remote.JMXServiceURL;
+
+import com.heliosapm.utils.jmx.perfdata.PerfDataFile;
+
+/**
+ * <p>Title: ConnectorAddressCache</p>
+ * <p>Description: A persistent cache of the local connector addresses (<code>com.sun.management.jmxremote.localConnectorAddress</code>)
+ * of attached JVMs, so a new process connecting to a JVM that has already been attached to can skip the Attach API and connect straight to the address.</p>
+ * <p>Entries are stored one file per pid in <b><code>~/.jmxlocal/addresses</code></b>, readable only by the owner. Each entry records the JVM's start time
+ * (from <code>/proc/&lt;pid&gt;/stat</code> where there is a <code>/proc</code> file system, otherwise from its hsperfdata), so an entry for a reused pid 
+ * is never returned. Entries of JVMs that have exited are pruned when the cache is loaded and whenever an entry is written. Callers should
+ * {@link #invalidate(String) invalidate} an entry whose address can no longer be connected to.</p>
+ * <p>The cache is disabled by setting the system property {@link #ENABLED_PROP} to <code>false</code>.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.attach.ConnectorAddressCache</code></p>
+ */
+
+public class ConnectorAddressCache {
+	/** The singleton instance */
+	private static volatile ConnectorAddressCache instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	/** Static class logger */
+	private static final Logger log = Logger.getLogger(ConnectorAddressCache.class.getName());
+	/** The entry file character set */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Indicates if the default file system supports posix permissions */
+	private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+	/** Indicates if process start times are read from <code>/proc</code>. Decided once, so every entry is keyed from the same source */
+	private static final boolean PROC = new File("/proc/self/stat").canRead();
+	
+	/** The system property defining the jmxlocal home directory */
+	public static final String HOME_PROP = "jmxlocal.home";
+	/** The system property to enable or disable the cache. Defaults to true */
+	public static final String ENABLED_PROP = "jmxlocal.attach.addresscache";
+	/** The default jmxlocal home directory */
+	public static final String DEFAULT_HOME = System.getProperty("user.home") + File.separator + ".jmxlocal";
+	
+	/** The cache directory */
+	private final Path dir;
+	/** Indicates if the cache is enabled */
+	private final boolean enabled;
+	
+	/**
+	 * Returns the ConnectorAddressCache singleton
+	 * @return the ConnectorAddressCache singleton
+	 */
+	public static ConnectorAddressCache getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new ConnectorAddressCache();
+				}
+			}
+		}
+		return instance;
+	}
+	
+	/**
+	 * Returns the jmxlocal home directory
+	 * @return the jmxlocal home directory
+	 */
+	public static File getHome() {
+		return new File(System.getProperty(HOME_PROP, DEFAULT_HOME));
+	}
+	
+	/**
+	 * Creates the passed directory (and its parents) if it does not exist, readable only by the owner
+	 * @param dir The directory to create
+	 * @return the directory
+	 * @throws IOException thrown on any IO error
+	 */
+	public static Path ensureDirectory(final Path dir) throws IOException {
+		if(Files.isDirectory(dir)) return dir;
+		if(POSIX) {
+			return Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		}
+		return Files.createDirectories(dir);
+	}
+	
+	/**
+	 * Atomically writes the passed content to the passed file, readable only by the owner
+	 * @param file The file to write
+	 * @param content The content to write
+	 * @throws IOException thrown on any IO error
+	 */
+	public static void writeOwnerOnly(final Path file, final byte[] content) throws IOException {
+		final Path parent = ensureDirectory(file.getParent());
+		final Path tmp;
+		if(POSIX) {
+			final FileAttribute<Set<PosixFilePermission>> perms = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+			tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp", perms);
+		} else {
+			tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		}
+		try {
+			Files.write(tmp, content);
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+	
+	/**
+	 * Creates a new ConnectorAddressCache
+	 */
+	private ConnectorAddressCache() {
+		dir = getHome().toPath().resolve("addresses");
+		enabled = Boolean.parseBoolean(System.getProperty(ENABLED_PROP, "true").trim());
+		if(enabled) prune();
+	}
+	
+	/**
+	 * Returns a key identifying the current incarnation of the passed pid
+	 * @param pid The pid
+	 * @return the start key or null if the process is not running or its start time cannot be determined
+	 */
+	protected String startKey(final String pid) {
+		if(PROC) {
+			try {
+				final String s = new String(Files.readAllBytes(new File("/proc/" + pid + "/stat").toPath()), UTF8);
+				// the command may contain spaces, so fields are counted from after the closing paren. starttime is field 22.
+				final String[] fields = s.substring(s.lastIndexOf(')') + 2).split(" ");
+				return "proc:" + fields[19];
+			} catch (Exception ex) {
+				return null;
+			}
+		}
+		try(PerfDataFile pdf = PerfDataFile.open(pid)) {
+			final long startTime = pdf.getLong(PerfDataFile.VM_START_TIME, -1L);
+			return startTime > 0 ? "perf:" + startTime : null;
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Deletes the entries of JVMs that are no longer running (or whose pid has been reused) 
+	 */
+	protected void prune() {
+		if(!Files.isDirectory(dir)) return;
+		try(DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+			for(Path file: entries) {
+				final String pid = file.getFileName().toString();
+				if(!pid.matches("\\d+")) continue;
+				try {
+					final List<String> lines = Files.readAllLines(file, UTF8);
+					final String key = startKey(pid);
+					if(lines.isEmpty() || key==null || !key.equals(lines.get(0))) invalidate(pid);
+				} catch (Exception ex) {
+					invalidate(pid);
+				}
+			}
+		} catch (Exception ex) {
+			log.log(Level.FINE, "Failed to prune the connector address cache", ex);
+		}
+	}
+	
+	/**
+	 * Returns the cached local connector address for the passed pid
+	 * @param pid The pid of the target JVM
+	 * @return the cached address, or null if there is no valid entry
+	 */
+	public JMXServiceURL get(final String pid) {
+		if(!enabled) return null;
+		final Path file = dir.resolve(pid);
+		if(!Files.isReadable(file)) return null;
+		try {
+			final List<String> lines = Files.readAllLines(file, UTF8);
+			final String key = startKey(pid);
+			if(lines.size() < 2 || key==null || !key.equals(lines.get(0))) {
+				invalidate(pid);
+				return null;
+			}
+			return new JMXServiceURL(lines.get(1));
+		} catch (Exception ex) {
+			invalidate(pid);
+			return null;
+		}
+	}
+	
+	/**
+	 * Caches the local connector address for the passed pid
+	 * @param pid The pid of the target JVM
+	 * @param address The JVM's local connector address
+	 */
+	public void put(final String pid, final JMXServiceURL address) {
+		if(!enabled || address==null) return;
+		final String key = startKey(pid);
+		if(key==null) return;
+		try {
+			writeOwnerOnly(dir.resolve(pid), (key + "\n" + address + "\n").getBytes(UTF8));
+		} catch (Exception ex) {
+			log.log(Level.FINE, "Failed to cache connector address for [" + pid + "]", ex);
+		}
+		prune();
+	}
+	
+	/**
+	 * Removes the cached local connector address for the passed pid
+	 * @param pid The pid of the target JVM
+	 */
+	public void invalidate(final String pid) {
+		try {
+			Files.deleteIfExists(dir.resolve(pid));
+		} catch (Exception ex) {
+			/* No Op */
+		}
+	}
+	
+	/**
+	 * Indicates if the cache is enabled
+	 * @return true if the cache is enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ConnectorAddressCache [" + dir + ", enabled:" + enabled + ", entries:" + Arrays.toString(dir.toFile().list()) + "]";
+	}
+}
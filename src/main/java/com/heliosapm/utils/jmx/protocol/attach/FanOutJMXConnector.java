@@ -0,0 +1,301 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.attach;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXServiceURL;
+import javax.security.auth.Subject;
+
+/**
+ * <p>Title: FanOutJMXConnector</p>
+ * <p>Description: A JMXConnector combining connectors to several attached JVMs, created by {@link AttachJMXConnector} in fan-out mode.
+ * The target JVMs are connected to concurrently on a bounded daemon executor, and the combined
+ * {@link FanOutMBeanServerConnection} scatters and gathers calls across them on the same executor.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.attach.FanOutJMXConnector</code></p>
+ */
+
+public class FanOutJMXConnector implements JMXConnector {
+	/** The connectors to each target keyed by pid */
+	protected final Map<String, AttachJMXConnector> connectors;
+	/** The combined connection */
+	protected final FanOutMBeanServerConnection connection;
+	/** The connection id */
+	protected final String connectionId;
+	
+	/** Static class logger */
+	private static final Logger log = Logger.getLogger(FanOutJMXConnector.class.getName());
+	/** The fan-out executor */
+	private static volatile ExecutorService executor = null;
+	/** The executor ctor lock */
+	private static final Object lock = new Object();
+	/** A connection ID serial number generator */
+	private static final AtomicInteger serial = new AtomicInteger(0);
+	
+	/** The system property defining the maximum number of fan-out threads */
+	public static final String THREADS_PROP = "jmxlocal.attach.fanout.threads";
+	/** The system property defining the fan-out connect and call timeout in ms. */
+	public static final String TIMEOUT_PROP = "jmxlocal.attach.fanout.timeout";
+	/** The default maximum number of fan-out threads */
+	public static final int DEFAULT_THREADS = Math.min(16, Runtime.getRuntime().availableProcessors() * 2);
+	/** The default fan-out connect and call timeout in ms. */
+	public static final long DEFAULT_TIMEOUT = 30000L;
+	
+	/**
+	 * Returns the fan-out executor, creating it on first call
+	 * @return the fan-out executor
+	 */
+	static ExecutorService getExecutor() {
+		if(executor==null) {
+			synchronized(lock) {
+				if(executor==null) {
+					final int threads = Integer.getInteger(THREADS_PROP, DEFAULT_THREADS);
+					final AtomicInteger threadSerial = new AtomicInteger(0);
+					final ThreadPoolExecutor tpe = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable r) {
+							final Thread t = new Thread(r, "AttachFanOutThread#" + threadSerial.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+					tpe.allowCoreThreadTimeOut(true);
+					executor = tpe;
+				}
+			}
+		}
+		return executor;
+	}
+	
+	/**
+	 * Concurrently connects to each of the passed JVMs. JVMs that cannot be connected to within the timeout are logged and skipped.
+	 * Connected connectors are handed over under a single lock: once the gather has closed, a late connector is closed by the task that created it,
+	 * so a connector is always either returned in the fan-out or closed, never both and never neither.
+	 * @param jvmIds The ids of the JVMs to connect to
+	 * @param env The connection environment passed to each target's connector
+	 * @return the connected fan-out connector
+	 * @throws IOException thrown if none of the JVMs could be connected to
+	 */
+	public static FanOutJMXConnector connect(final List<String> jvmIds, final Map<String, ?> env) throws IOException {
+		final long timeout = Long.getLong(TIMEOUT_PROP, DEFAULT_TIMEOUT);
+		// the connectors handed over by the tasks, guarded by itself along with the gathered flag
+		final Map<String, AttachJMXConnector> handedOver = new HashMap<String, AttachJMXConnector>();
+		final boolean[] gathered = new boolean[]{false};
+		final Map<String, Future<AttachJMXConnector>> futures = new LinkedHashMap<String, Future<AttachJMXConnector>>();
+		for(final String id: jvmIds) {
+			futures.put(id, getExecutor().submit(new Callable<AttachJMXConnector>() {
+				@Override
+				public AttachJMXConnector call() throws Exception {
+					final AttachJMXConnector connector = new AttachJMXConnector(id);
+					connector.fanOut = Boolean.FALSE;
+					connector.address = new JMXServiceURL("service:jmx:attach:///" + id);
+					connector.connect(env);
+					synchronized(handedOver) {
+						if(!gathered[0]) {
+							handedOver.put(id, connector);
+							return connector;
+						}
+					}
+					// the gather gave up on this target, so nobody else will close it
+					try { connector.close(); } catch (Exception x) {/* No Op */}
+					return null;
+				}
+			}));
+		}
+		final long deadline = System.currentTimeMillis() + timeout;
+		Throwable failure = null;
+		boolean interrupted = false;
+		try {
+			for(Map.Entry<String, Future<AttachJMXConnector>> entry: futures.entrySet()) {
+				try {
+					entry.getValue().get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				} catch (ExecutionException eex) {
+					failure = eex.getCause();
+					log.log(Level.WARNING, "Fan-out connect to JVM [" + entry.getKey() + "] failed", failure);
+				} catch (TimeoutException tex) {
+					failure = tex;
+					log.warning("Fan-out connect to JVM [" + entry.getKey() + "] timed out after [" + timeout + "] ms.");
+				}
+			}
+		} catch (InterruptedException iex) {
+			interrupted = true;
+			Thread.currentThread().interrupt();
+		} finally {
+			synchronized(handedOver) {
+				gathered[0] = true;
+			}
+			for(Future<AttachJMXConnector> f: futures.values()) {
+				// tasks still queued never run, running tasks close their own connector
+				if(!f.isDone()) f.cancel(false);
+			}
+		}
+		final Map<String, AttachJMXConnector> connected = new LinkedHashMap<String, AttachJMXConnector>();
+		for(String id: jvmIds) {
+			final AttachJMXConnector c = handedOver.get(id);
+			if(c!=null) connected.put(id, c);
+		}
+		if(interrupted) {
+			for(AttachJMXConnector c: connected.values()) {
+				try { c.close(); } catch (Exception x) {/* No Op */}
+			}
+			throw new InterruptedIOException("Interrupted connecting to " + jvmIds);
+		}
+		if(connected.isEmpty()) throw new IOException("Failed to connect to any of the JVMs " + jvmIds, failure);
+		return new FanOutJMXConnector(connected, timeout);
+	}
+	
+	/**
+	 * Creates a new FanOutJMXConnector
+	 * @param connectors The connected connectors keyed by pid
+	 * @param timeout The scatter timeout in ms.
+	 * @throws IOException thrown if a connector's MBeanServerConnection cannot be acquired
+	 */
+	protected FanOutJMXConnector(final Map<String, AttachJMXConnector> connectors, final long timeout) throws IOException {
+		this.connectors = Collections.unmodifiableMap(connectors);
+		final Map<String, MBeanServerConnection> connections = new LinkedHashMap<String, MBeanServerConnection>(connectors.size());
+		for(Map.Entry<String, AttachJMXConnector> entry: connectors.entrySet()) {
+			connections.put(entry.getKey(), entry.getValue().getMBeanServerConnection());
+		}
+		connection = new FanOutMBeanServerConnection(connections, timeout);
+		connectionId = "fanout:" + connectors.keySet() + ":" + serial.incrementAndGet();
+	}
+	
+	/**
+	 * Returns the connectors to each target keyed by pid
+	 * @return the connectors to each target
+	 */
+	public Map<String, AttachJMXConnector> getConnectors() {
+		return connectors;
+	}
+
+	/**
+	 * No Op. Fan-out connectors are connected when created.
+	 * @see javax.management.remote.JMXConnector#connect()
+	 */
+	@Override
+	public void connect() throws IOException {
+		/* No Op */
+	}
+
+	/**
+	 * No Op. Fan-out connectors are connected when created.
+	 * @see javax.management.remote.JMXConnector#connect(java.util.Map)
+	 */
+	@Override
+	public void connect(final Map<String, ?> env) throws IOException {
+		/* No Op */
+	}
+
+	/**
+	 * Returns the combined {@link FanOutMBeanServerConnection}
+	 * @see javax.management.remote.JMXConnector#getMBeanServerConnection()
+	 */
+	@Override
+	public MBeanServerConnection getMBeanServerConnection() throws IOException {
+		return connection;
+	}
+
+	/**
+	 * Returns the combined {@link FanOutMBeanServerConnection}. Delegation subjects are not supported.
+	 * @see javax.management.remote.JMXConnector#getMBeanServerConnection(javax.security.auth.Subject)
+	 */
+	@Override
+	public MBeanServerConnection getMBeanServerConnection(final Subject delegationSubject) throws IOException {
+		return connection;
+	}
+
+	/**
+	 * Closes the connectors to each target
+	 * @see javax.management.remote.JMXConnector#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		for(AttachJMXConnector c: connectors.values()) {
+			try { c.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+
+	/**
+	 * Adds the listener to the connector of each target
+	 * @see javax.management.remote.JMXConnector#addConnectionNotificationListener(javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void addConnectionNotificationListener(final NotificationListener listener, final NotificationFilter filter, final Object handback) {
+		for(AttachJMXConnector c: connectors.values()) {
+			c.addConnectionNotificationListener(listener, filter, handback);
+		}
+	}
+
+	/**
+	 * Removes the listener from the connector of each target
+	 * @see javax.management.remote.JMXConnector#removeConnectionNotificationListener(javax.management.NotificationListener)
+	 */
+	@Override
+	public void removeConnectionNotificationListener(final NotificationListener listener) throws ListenerNotFoundException {
+		for(AttachJMXConnector c: connectors.values()) {
+			c.removeConnectionNotificationListener(listener);
+		}
+	}
+
+	/**
+	 * Removes the listener from the connector of each target
+	 * @see javax.management.remote.JMXConnector#removeConnectionNotificationListener(javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void removeConnectionNotificationListener(final NotificationListener l, final NotificationFilter f, final Object handback) throws ListenerNotFoundException {
+		for(AttachJMXConnector c: connectors.values()) {
+			c.removeConnectionNotificationListener(l, f, handback);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#getConnectionId()
+	 */
+	@Override
+	public String getConnectionId() throws IOException {
+		return connectionId;
+	}
+
+}
@@ -0,0 +1,627 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.attach;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+import javax.management.RuntimeOperationsException;
+
+/**
+ * <p>Title: FanOutMBeanServerConnection</p>
+ * <p>Description: A combined MBeanServerConnection over the MBeanServers of several attached JVMs.</p>
+ * <p>Every ObjectName seen through this connection carries a {@link #TARGET_KEY} key property holding the pid of the JVM
+ * the MBean lives in, e.g. <code>java.lang:type=Runtime,jmxlocal.target=4231</code>. Operations on a single MBean
+ * are routed to the JVM named by the key (the key may be omitted when there is only one target). 
+ * Queries, MBean counts, domains and the bulk {@link #getAttributes(Set, String...)} are scattered to all the targets (or only
+ * the targets matching a {@link #TARGET_KEY} in the query name) in parallel on the fan-out executor and the results gathered.
+ * Targets that fail or time out during a scatter are logged and left out of the results.</p>
+ * <p>Notifications are delivered as emitted by the target JVM, so their sources do not carry the target key. Use the
+ * handback to tell targets apart.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.attach.FanOutMBeanServerConnection</code></p>
+ */
+
+public class FanOutMBeanServerConnection implements MBeanServerConnection {
+	/** The target connections keyed by pid */
+	protected final Map<String, MBeanServerConnection> connections;
+	/** The scatter timeout in ms. */
+	protected final long timeout;
+	
+	/** Static class logger */
+	private static final Logger log = Logger.getLogger(FanOutMBeanServerConnection.class.getName());
+	
+	/** The ObjectName key property identifying the target JVM */
+	public static final String TARGET_KEY = "jmxlocal.target";
+	
+	/**
+	 * <p>Title: TargetCall</p>
+	 * <p>Description: An operation executed against one target's connection</p> 
+	 * @param <T> The operation's return type
+	 */
+	protected static interface TargetCall<T> {
+		/**
+		 * Executes the operation
+		 * @param target The target pid
+		 * @param connection The target's connection
+		 * @return the operation result
+		 * @throws Exception thrown on any error
+		 */
+		public T call(String target, MBeanServerConnection connection) throws Exception;
+	}
+	
+	/**
+	 * Creates a new FanOutMBeanServerConnection
+	 * @param connections The target connections keyed by pid
+	 * @param timeout The scatter timeout in ms.
+	 */
+	public FanOutMBeanServerConnection(final Map<String, MBeanServerConnection> connections, final long timeout) {
+		this.connections = Collections.unmodifiableMap(new LinkedHashMap<String, MBeanServerConnection>(connections));
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Returns the pids of the target JVMs
+	 * @return the pids of the target JVMs
+	 */
+	public Set<String> getTargets() {
+		return connections.keySet();
+	}
+	
+	/**
+	 * Returns the connection to the passed target JVM
+	 * @param target The target pid
+	 * @return the connection or null if the pid is not a target
+	 */
+	public MBeanServerConnection getConnection(final String target) {
+		return connections.get(target);
+	}
+	
+	/**
+	 * Returns the passed ObjectName with the target key property added
+	 * @param objectName The ObjectName as known by the target
+	 * @param target The target pid
+	 * @return the tagged ObjectName
+	 */
+	public static ObjectName tag(final ObjectName objectName, final String target) {
+		try {
+			return ObjectName.getInstance(objectName.getDomain() + ":" + objectName.getKeyPropertyListString() + "," + TARGET_KEY + "=" + target);
+		} catch (MalformedObjectNameException mex) {
+			throw new RuntimeOperationsException(new IllegalArgumentException("Failed to tag [" + objectName + "]", mex));
+		}
+	}
+	
+	/**
+	 * Indicates if the passed ObjectName has no key properties other than the {@link #TARGET_KEY} and is not a property list pattern.
+	 * No tagged MBean name has that form, so such a name matches nothing and cannot be stripped to a name known by a target.
+	 * @param objectName The ObjectName to test (may be null)
+	 * @return true if the name only carries the target key
+	 */
+	public static boolean isTargetOnly(final ObjectName objectName) {
+		return objectName!=null && !objectName.isPropertyListPattern() 
+			&& objectName.getKeyProperty(TARGET_KEY)!=null && objectName.getKeyPropertyList().size()==1;
+	}
+	
+	/**
+	 * Returns the passed ObjectName with the target key property removed
+	 * @param objectName The tagged ObjectName (or pattern)
+	 * @return the ObjectName as known by the target
+	 * @throws RuntimeOperationsException thrown if the name only carries the target key (see {@link #isTargetOnly(ObjectName)})
+	 */
+	public static ObjectName strip(final ObjectName objectName) {
+		if(objectName==null || objectName.getKeyProperty(TARGET_KEY)==null) return objectName;
+		if(isTargetOnly(objectName)) {
+			throw new RuntimeOperationsException(new IllegalArgumentException("The ObjectName [" + objectName + "] has no key properties other than [" + TARGET_KEY + "]"));
+		}
+		final StringBuilder b = new StringBuilder(objectName.getDomain()).append(':');
+		boolean first = true;
+		for(Map.Entry<String, String> entry: objectName.getKeyPropertyList().entrySet()) {
+			if(TARGET_KEY.equals(entry.getKey())) continue;
+			if(!first) b.append(',');
+			b.append(entry.getKey()).append('=').append(entry.getValue());
+			first = false;
+		}
+		if(objectName.isPropertyListPattern()) {
+			b.append(first ? "*" : ",*");
+		}
+		try {
+			return ObjectName.getInstance(b.toString());
+		} catch (MalformedObjectNameException mex) {
+			throw new RuntimeOperationsException(new IllegalArgumentException("Failed to strip [" + objectName + "]", mex));
+		}
+	}
+	
+	/**
+	 * Returns the targets addressed by the passed ObjectName or pattern
+	 * @param objectName The ObjectName or pattern (may be null)
+	 * @return the addressed targets
+	 */
+	protected Collection<String> targetsFor(final ObjectName objectName) {
+		final String target = objectName==null ? null : objectName.getKeyProperty(TARGET_KEY);
+		if(target==null) return connections.keySet();
+		if(target.indexOf('*')==-1 && target.indexOf('?')==-1) {
+			return connections.containsKey(target) ? Collections.singleton(target) : Collections.<String>emptySet();
+		}
+		final Pattern p = Pattern.compile(target.replace("?", ".").replace("*", ".*"));
+		final List<String> matches = new ArrayList<String>();
+		for(String t: connections.keySet()) {
+			if(p.matcher(t).matches()) matches.add(t);
+		}
+		return matches;
+	}
+	
+	/**
+	 * Returns the target a single MBean ObjectName is routed to
+	 * @param objectName The ObjectName
+	 * @return the target pid or null if the ObjectName does not address a target
+	 */
+	protected String targetOf(final ObjectName objectName) {
+		final String target = objectName.getKeyProperty(TARGET_KEY);
+		if(target==null) {
+			return connections.size()==1 ? connections.keySet().iterator().next() : null;
+		}
+		return connections.containsKey(target) ? target : null;
+	}
+	
+	/**
+	 * Returns the connection an operation on the passed MBean is routed to
+	 * @param objectName The MBean's ObjectName
+	 * @return the target connection
+	 * @throws InstanceNotFoundException thrown if the ObjectName does not address a target
+	 */
+	protected MBeanServerConnection route(final ObjectName objectName) throws InstanceNotFoundException {
+		final String target = targetOf(objectName);
+		if(target==null) throw new InstanceNotFoundException("[" + objectName + "] does not address a target with a [" + TARGET_KEY + "] key. Targets are " + connections.keySet());
+		return connections.get(target);
+	}
+	
+	/**
+	 * Returns the connection a new MBean is created in
+	 * @param objectName The new MBean's ObjectName
+	 * @return the target connection
+	 */
+	protected MBeanServerConnection routeCreate(final ObjectName objectName) {
+		final String target = objectName==null ? null : targetOf(objectName);
+		if(target==null) throw new RuntimeOperationsException(new IllegalArgumentException("[" + objectName + "] does not address a target with a [" + TARGET_KEY + "] key. Targets are " + connections.keySet()));
+		return connections.get(target);
+	}
+	
+	/**
+	 * Executes the passed operation against each of the passed targets in parallel and gathers the results.
+	 * Targets that fail or do not complete within the timeout are logged and omitted from the results.
+	 * @param targets The targets to execute against
+	 * @param op The operation
+	 * @return the results keyed by target, in target order
+	 * @throws IOException thrown if every target failed
+	 */
+	protected <T> Map<String, T> scatter(final Collection<String> targets, final TargetCall<T> op) throws IOException {
+		final Map<String, T> results = new LinkedHashMap<String, T>();
+		if(targets.isEmpty()) return results;
+		if(targets.size()==1) {
+			final String target = targets.iterator().next();
+			try {
+				results.put(target, op.call(target, connections.get(target)));
+				return results;
+			} catch (IOException iox) {
+				throw iox;
+			} catch (Exception ex) {
+				throw new IOException("Fan-out call to [" + target + "] failed", ex);
+			}
+		}
+		final Map<String, Future<T>> futures = new LinkedHashMap<String, Future<T>>();
+		for(final String target: targets) {
+			final MBeanServerConnection conn = connections.get(target);
+			futures.put(target, FanOutJMXConnector.getExecutor().submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					return op.call(target, conn);
+				}
+			}));
+		}
+		final long deadline = System.currentTimeMillis() + timeout;
+		Throwable failure = null;
+		for(Map.Entry<String, Future<T>> entry: futures.entrySet()) {
+			try {
+				results.put(entry.getKey(), entry.getValue().get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+			} catch (ExecutionException eex) {
+				failure = eex.getCause();
+				log.log(Level.FINE, "Fan-out call to [" + entry.getKey() + "] failed", failure);
+			} catch (TimeoutException tex) {
+				failure = tex;
+				entry.getValue().cancel(true);
+				log.fine("Fan-out call to [" + entry.getKey() + "] timed out after [" + timeout + "] ms.");
+			} catch (InterruptedException iex) {
+				for(Future<T> f: futures.values()) f.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for fan-out calls");
+			}
+		}
+		if(results.isEmpty() && failure!=null) {
+			throw new IOException("Fan-out call failed on all targets " + targets, failure);
+		}
+		return results;
+	}
+	
+	/**
+	 * Retrieves the passed attributes from the passed MBeans in one parallel scatter/gather. ObjectNames may be
+	 * patterns, which are expanded in each addressed target. ObjectNames without a {@link #TARGET_KEY} address every target.
+	 * MBeans that cannot be found, and targets that fail, are omitted from the results.
+	 * @param objectNames The ObjectNames or patterns of the MBeans to read
+	 * @param attributes The names of the attributes to read
+	 * @return a map of the retrieved attributes keyed by tagged ObjectName
+	 * @throws IOException thrown if every target failed
+	 */
+	public Map<ObjectName, AttributeList> getAttributes(final Set<ObjectName> objectNames, final String... attributes) throws IOException {
+		final Map<String, List<ObjectName>> byTarget = new LinkedHashMap<String, List<ObjectName>>();
+		for(ObjectName on: objectNames) {
+			if(isTargetOnly(on)) continue;
+			final ObjectName stripped = strip(on);
+			for(String target: targetsFor(on)) {
+				List<ObjectName> names = byTarget.get(target);
+				if(names==null) {
+					names = new ArrayList<ObjectName>();
+					byTarget.put(target, names);
+				}
+				names.add(stripped);
+			}
+		}
+		final Map<String, Map<ObjectName, AttributeList>> gathered = scatter(byTarget.keySet(), new TargetCall<Map<ObjectName, AttributeList>>() {
+			@Override
+			public Map<ObjectName, AttributeList> call(final String target, final MBeanServerConnection connection) throws Exception {
+				final Map<ObjectName, AttributeList> values = new LinkedHashMap<ObjectName, AttributeList>();
+				for(ObjectName on: byTarget.get(target)) {
+					final Set<ObjectName> names = on.isPattern() ? connection.queryNames(on, null) : Collections.singleton(on);
+					for(ObjectName name: names) {
+						try {
+							values.put(tag(name, target), connection.getAttributes(name, attributes));
+						} catch (InstanceNotFoundException iex) {
+							/* No Op */
+						}
+					}
+				}
+				return values;
+			}
+		});
+		final Map<ObjectName, AttributeList> results = new LinkedHashMap<ObjectName, AttributeList>();
+		for(Map<ObjectName, AttributeList> values: gathered.values()) {
+			results.putAll(values);
+		}
+		return results;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#queryNames(javax.management.ObjectName, javax.management.QueryExp)
+	 */
+	@Override
+	public Set<ObjectName> queryNames(final ObjectName name, final QueryExp query) throws IOException {
+		if(isTargetOnly(name)) return new HashSet<ObjectName>();
+		final ObjectName stripped = strip(name);
+		final Map<String, Set<ObjectName>> gathered = scatter(targetsFor(name), new TargetCall<Set<ObjectName>>() {
+			@Override
+			public Set<ObjectName> call(final String target, final MBeanServerConnection connection) throws Exception {
+				final Set<ObjectName> names = new HashSet<ObjectName>();
+				for(ObjectName on: connection.queryNames(stripped, query)) {
+					names.add(tag(on, target));
+				}
+				return names;
+			}
+		});
+		final Set<ObjectName> results = new HashSet<ObjectName>();
+		for(Set<ObjectName> names: gathered.values()) {
+			results.addAll(names);
+		}
+		return results;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#queryMBeans(javax.management.ObjectName, javax.management.QueryExp)
+	 */
+	@Override
+	public Set<ObjectInstance> queryMBeans(final ObjectName name, final QueryExp query) throws IOException {
+		if(isTargetOnly(name)) return new HashSet<ObjectInstance>();
+		final ObjectName stripped = strip(name);
+		final Map<String, Set<ObjectInstance>> gathered = scatter(targetsFor(name), new TargetCall<Set<ObjectInstance>>() {
+			@Override
+			public Set<ObjectInstance> call(final String target, final MBeanServerConnection connection) throws Exception {
+				final Set<ObjectInstance> instances = new HashSet<ObjectInstance>();
+				for(ObjectInstance oi: connection.queryMBeans(stripped, query)) {
+					instances.add(new ObjectInstance(tag(oi.getObjectName(), target), oi.getClassName()));
+				}
+				return instances;
+			}
+		});
+		final Set<ObjectInstance> results = new HashSet<ObjectInstance>();
+		for(Set<ObjectInstance> instances: gathered.values()) {
+			results.addAll(instances);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the total MBean count of all the targets
+	 * @see javax.management.MBeanServerConnection#getMBeanCount()
+	 */
+	@Override
+	public Integer getMBeanCount() throws IOException {
+		int count = 0;
+		for(Integer c: scatter(connections.keySet(), new TargetCall<Integer>() {
+			@Override
+			public Integer call(final String target, final MBeanServerConnection connection) throws Exception {
+				return connection.getMBeanCount();
+			}
+		}).values()) {
+			count += c;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the union of all the targets' domains
+	 * @see javax.management.MBeanServerConnection#getDomains()
+	 */
+	@Override
+	public String[] getDomains() throws IOException {
+		final Set<String> domains = new HashSet<String>();
+		for(String[] d: scatter(connections.keySet(), new TargetCall<String[]>() {
+			@Override
+			public String[] call(final String target, final MBeanServerConnection connection) throws Exception {
+				return connection.getDomains();
+			}
+		}).values()) {
+			Collections.addAll(domains, d);
+		}
+		return domains.toArray(new String[domains.size()]);
+	}
+
+	/**
+	 * Returns the default domain of the first target
+	 * @see javax.management.MBeanServerConnection#getDefaultDomain()
+	 */
+	@Override
+	public String getDefaultDomain() throws IOException {
+		return connections.values().iterator().next().getDefaultDomain();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#isRegistered(javax.management.ObjectName)
+	 */
+	@Override
+	public boolean isRegistered(final ObjectName name) throws IOException {
+		final String target = targetOf(name);
+		return target!=null && !isTargetOnly(name) && connections.get(target).isRegistered(strip(name));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getObjectInstance(javax.management.ObjectName)
+	 */
+	@Override
+	public ObjectInstance getObjectInstance(final ObjectName name) throws InstanceNotFoundException, IOException {
+		final String target = targetOf(name);
+		final ObjectInstance oi = route(name).getObjectInstance(strip(name));
+		return new ObjectInstance(tag(oi.getObjectName(), target), oi.getClassName());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getAttribute(javax.management.ObjectName, java.lang.String)
+	 */
+	@Override
+	public Object getAttribute(final ObjectName name, final String attribute) throws MBeanException, AttributeNotFoundException, InstanceNotFoundException, ReflectionException, IOException {
+		return route(name).getAttribute(strip(name), attribute);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getAttributes(javax.management.ObjectName, java.lang.String[])
+	 */
+	@Override
+	public AttributeList getAttributes(final ObjectName name, final String[] attributes) throws InstanceNotFoundException, ReflectionException, IOException {
+		return route(name).getAttributes(strip(name), attributes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#setAttribute(javax.management.ObjectName, javax.management.Attribute)
+	 */
+	@Override
+	public void setAttribute(final ObjectName name, final Attribute attribute) throws InstanceNotFoundException, AttributeNotFoundException, InvalidAttributeValueException, MBeanException, ReflectionException, IOException {
+		route(name).setAttribute(strip(name), attribute);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#setAttributes(javax.management.ObjectName, javax.management.AttributeList)
+	 */
+	@Override
+	public AttributeList setAttributes(final ObjectName name, final AttributeList attributes) throws InstanceNotFoundException, ReflectionException, IOException {
+		return route(name).setAttributes(strip(name), attributes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#invoke(javax.management.ObjectName, java.lang.String, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public Object invoke(final ObjectName name, final String operationName, final Object[] params, final String[] signature) throws InstanceNotFoundException, MBeanException, ReflectionException, IOException {
+		return route(name).invoke(strip(name), operationName, params, signature);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getMBeanInfo(javax.management.ObjectName)
+	 */
+	@Override
+	public MBeanInfo getMBeanInfo(final ObjectName name) throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
+		return route(name).getMBeanInfo(strip(name));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#isInstanceOf(javax.management.ObjectName, java.lang.String)
+	 */
+	@Override
+	public boolean isInstanceOf(final ObjectName name, final String className) throws InstanceNotFoundException, IOException {
+		return route(name).isInstanceOf(strip(name), className);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName)
+	 */
+	@Override
+	public ObjectInstance createMBean(final String className, final ObjectName name) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, IOException {
+		final ObjectInstance oi = routeCreate(name).createMBean(className, strip(name));
+		return new ObjectInstance(tag(oi.getObjectName(), targetOf(name)), oi.getClassName());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, javax.management.ObjectName)
+	 */
+	@Override
+	public ObjectInstance createMBean(final String className, final ObjectName name, final ObjectName loaderName) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
+		final ObjectInstance oi = routeCreate(name).createMBean(className, strip(name), strip(loaderName));
+		return new ObjectInstance(tag(oi.getObjectName(), targetOf(name)), oi.getClassName());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public ObjectInstance createMBean(final String className, final ObjectName name, final Object[] params, final String[] signature) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, IOException {
+		final ObjectInstance oi = routeCreate(name).createMBean(className, strip(name), params, signature);
+		return new ObjectInstance(tag(oi.getObjectName(), targetOf(name)), oi.getClassName());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, javax.management.ObjectName, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public ObjectInstance createMBean(final String className, final ObjectName name, final ObjectName loaderName, final Object[] params, final String[] signature) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
+		final ObjectInstance oi = routeCreate(name).createMBean(className, strip(name), strip(loaderName), params, signature);
+		return new ObjectInstance(tag(oi.getObjectName(), targetOf(name)), oi.getClassName());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#unregisterMBean(javax.management.ObjectName)
+	 */
+	@Override
+	public void unregisterMBean(final ObjectName name) throws InstanceNotFoundException, MBeanRegistrationException, IOException {
+		route(name).unregisterMBean(strip(name));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#addNotificationListener(javax.management.ObjectName, javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void addNotificationListener(final ObjectName name, final NotificationListener listener, final NotificationFilter filter, final Object handback) throws InstanceNotFoundException, IOException {
+		route(name).addNotificationListener(strip(name), listener, filter, handback);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#addNotificationListener(javax.management.ObjectName, javax.management.ObjectName, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void addNotificationListener(final ObjectName name, final ObjectName listener, final NotificationFilter filter, final Object handback) throws InstanceNotFoundException, IOException {
+		route(name).addNotificationListener(strip(name), strip(listener), filter, handback);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.ObjectName)
+	 */
+	@Override
+	public void removeNotificationListener(final ObjectName name, final ObjectName listener) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+		route(name).removeNotificationListener(strip(name), strip(listener));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.ObjectName, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void removeNotificationListener(final ObjectName name, final ObjectName listener, final NotificationFilter filter, final Object handback) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+		route(name).removeNotificationListener(strip(name), strip(listener), filter, handback);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.NotificationListener)
+	 */
+	@Override
+	public void removeNotificationListener(final ObjectName name, final NotificationListener listener) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+		route(name).removeNotificationListener(strip(name), listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void removeNotificationListener(final ObjectName name, final NotificationListener listener, final NotificationFilter filter, final Object handback) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+		route(name).removeNotificationListener(strip(name), listener, filter, handback);
+	}
+
+}
@@ -0,0 +1,377 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.attach;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.heliosapm.utils.jmx.perfdata.PerfDataFile;
+
+/**
+ * <p>Title: JVMDiscoveryIndex</p>
+ * <p>Description: An index of the JVMs running as the current user, built from the <b><code>hsperfdata</code></b> directory
+ * and kept current by a background {@link WatchService}. Lets the attach protocol resolve display name selectors 
+ * without listing (and reflectively querying) every virtual machine through the Attach API.</p>
+ * <p>JVMs that do not publish shared perf data (e.g. started with <code>-XX:-UsePerfData</code>) are not indexed,
+ * so callers should fall back to the Attach API when a lookup misses.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.attach.JVMDiscoveryIndex</code></p>
+ */
+
+public class JVMDiscoveryIndex implements Runnable {
+	/** The singleton instance */
+	private static volatile JVMDiscoveryIndex instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	/** Static class logger */
+	private static final Logger log = Logger.getLogger(JVMDiscoveryIndex.class.getName());
+	/** The /proc directory used to check if an indexed pid is still alive, where supported */
+	private static final File PROC = new File("/proc");
+	/** Indicates if /proc can be used for liveness checks */
+	private static final boolean HAS_PROC = new File(PROC, "self").exists();
+	
+	/** The hsperfdata directory */
+	private final File perfDataDir;
+	/** The indexed JVMs keyed by pid */
+	private final ConcurrentHashMap<String, JVMEntry> byPid = new ConcurrentHashMap<String, JVMEntry>();
+	/** The indexed JVMs keyed by display name */
+	private final ConcurrentHashMap<String, JVMEntry> byDisplayName = new ConcurrentHashMap<String, JVMEntry>();
+	/** The pids of JVMs whose perf data was not yet initialized when they were last seen */
+	private final ConcurrentHashMap<String, Boolean> pending = new ConcurrentHashMap<String, Boolean>();
+	/** The directory watcher, null if the index is inactive */
+	private final WatchService watcher;
+	
+	/**
+	 * Returns the JVMDiscoveryIndex singleton, starting it on first call
+	 * @return the JVMDiscoveryIndex singleton
+	 */
+	public static JVMDiscoveryIndex getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new JVMDiscoveryIndex(PerfDataFile.getPerfDataDir());
+				}
+			}
+		}
+		return instance;
+	}
+	
+	/**
+	 * Creates a new JVMDiscoveryIndex
+	 * @param perfDataDir The hsperfdata directory to index
+	 */
+	private JVMDiscoveryIndex(final File perfDataDir) {
+		this.perfDataDir = perfDataDir;
+		WatchService ws = null;
+		if(perfDataDir.isDirectory()) {
+			try {
+				final Path dir = perfDataDir.toPath();
+				ws = FileSystems.getDefault().newWatchService();
+				dir.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				final File[] files = perfDataDir.listFiles();
+				if(files!=null) {
+					for(File f: files) {
+						index(f.getName());
+					}
+				}
+			} catch (Exception ex) {
+				log.log(Level.WARNING, "Failed to start JVM discovery index on [" + perfDataDir + "]", ex);
+				if(ws!=null) try { ws.close(); } catch (Exception x) {/* No Op */}
+				ws = null;
+			}
+		}
+		watcher = ws;
+		if(watcher!=null) {
+			final Thread t = new Thread(this, "JVMDiscoveryIndexWatcher");
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+	
+	/**
+	 * Processes directory events until the watch service is closed
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		while(true) {
+			final WatchKey key;
+			try {
+				key = watcher.take();
+			} catch (InterruptedException iex) {
+				Thread.interrupted();
+				continue;
+			} catch (ClosedWatchServiceException cex) {
+				return;
+			}
+			for(WatchEvent<?> event: key.pollEvents()) {
+				if(event.kind()==StandardWatchEventKinds.OVERFLOW) {
+					rescan();
+					continue;
+				}
+				final String pid = ((Path)event.context()).getFileName().toString();
+				if(event.kind()==StandardWatchEventKinds.ENTRY_DELETE) {
+					remove(pid);
+				} else {
+					index(pid);
+				}
+			}
+			if(!key.reset()) {
+				log.warning("JVM discovery index directory [" + perfDataDir + "] is no longer accessible");
+				byPid.clear();
+				byDisplayName.clear();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Indexes the JVM with the passed pid from its hsperfdata file
+	 * @param pid The pid, i.e. the hsperfdata file name
+	 */
+	protected void index(final String pid) {
+		if(!AttachJMXConnector.isNumber(pid)) return;
+		try {
+			final PerfDataFile pdf = new PerfDataFile(new File(perfDataDir, pid));
+			final String command = pdf.getString(PerfDataFile.JAVA_COMMAND);
+			if(command==null || !pdf.isAccessible()) {
+				pending.put(pid, Boolean.TRUE);
+				return;
+			}
+			pending.remove(pid);
+			final JVMEntry entry = new JVMEntry(pid, command, pdf.getLong(PerfDataFile.VM_START_TIME, -1L));
+			final JVMEntry prior = byPid.put(pid, entry);
+			if(prior!=null && !prior.getDisplayName().equals(entry.getDisplayName())) {
+				byDisplayName.remove(prior.getDisplayName(), prior);
+			}
+			byDisplayName.put(entry.getDisplayName(), entry);
+		} catch (IOException iex) {
+			// file is still being created, or was not a perf data file
+			pending.put(pid, Boolean.TRUE);
+		}
+	}
+	
+	/**
+	 * Removes the JVM with the passed pid from the index
+	 * @param pid The pid to remove
+	 */
+	protected void remove(final String pid) {
+		pending.remove(pid);
+		final JVMEntry entry = byPid.remove(pid);
+		if(entry!=null && byDisplayName.remove(entry.getDisplayName(), entry)) {
+			// another JVM may have the same display name
+			for(JVMEntry e: byPid.values()) {
+				if(e.getDisplayName().equals(entry.getDisplayName())) {
+					byDisplayName.putIfAbsent(e.getDisplayName(), e);
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Rebuilds the index from the directory contents
+	 */
+	protected void rescan() {
+		final File[] files = perfDataDir.listFiles();
+		final List<String> present = new ArrayList<String>();
+		if(files!=null) {
+			for(File f: files) {
+				present.add(f.getName());
+				index(f.getName());
+			}
+		}
+		for(String pid: byPid.keySet()) {
+			if(!present.contains(pid)) remove(pid);
+		}
+	}
+	
+	/**
+	 * Retries indexing JVMs whose perf data was not initialized when last seen.
+	 * Writes through the shared mapping do not raise directory events, so this is done on demand.
+	 */
+	protected void resolvePending() {
+		if(pending.isEmpty()) return;
+		for(String pid: pending.keySet()) {
+			index(pid);
+		}
+	}
+	
+	/**
+	 * Checks that the passed entry's JVM is still alive, removing it from the index if not
+	 * @param entry The entry to check
+	 * @return the entry, or null if the JVM is no longer alive
+	 */
+	protected JVMEntry checkAlive(final JVMEntry entry) {
+		if(entry==null) return null;
+		if(HAS_PROC && !new File(PROC, entry.getPid()).exists()) {
+			remove(entry.getPid());
+			return null;
+		}
+		return entry;
+	}
+	
+	/**
+	 * Indicates if the index is active. If not, all lookups will miss.
+	 * @return true if the hsperfdata directory is being watched
+	 */
+	public boolean isActive() {
+		return watcher!=null;
+	}
+	
+	/**
+	 * Finds the JVM with the passed pid
+	 * @param pid The pid
+	 * @return the matching entry or null if one was not found
+	 */
+	public JVMEntry findByPid(final String pid) {
+		JVMEntry entry = byPid.get(pid);
+		if(entry==null && pending.containsKey(pid)) {
+			index(pid);
+			entry = byPid.get(pid);
+		}
+		return checkAlive(entry);
+	}
+	
+	/**
+	 * Finds a JVM whose display name is equal to the passed display name
+	 * @param displayName The display name to match
+	 * @return the matching entry or null if one was not found
+	 */
+	public JVMEntry findByDisplayName(final String displayName) {
+		JVMEntry entry = checkAlive(byDisplayName.get(displayName));
+		if(entry==null) {
+			resolvePending();
+			entry = checkAlive(byDisplayName.get(displayName));
+		}
+		return entry;
+	}
+	
+	/**
+	 * Finds all JVMs whose display name matches the passed pattern
+	 * @param displayNamePattern The display name pattern
+	 * @return a (possibly empty) list of matching entries
+	 */
+	public List<JVMEntry> find(final Pattern displayNamePattern) {
+		resolvePending();
+		final List<JVMEntry> matches = new ArrayList<JVMEntry>();
+		for(JVMEntry entry: byPid.values()) {
+			if(displayNamePattern.matcher(entry.getDisplayName()).matches() && checkAlive(entry)!=null) {
+				matches.add(entry);
+			}
+		}
+		return matches;
+	}
+	
+	/**
+	 * Returns all the indexed JVMs
+	 * @return the indexed JVMs
+	 */
+	public Collection<JVMEntry> getEntries() {
+		resolvePending();
+		return Collections.unmodifiableCollection(byPid.values());
+	}
+	
+	/**
+	 * <p>Title: JVMEntry</p>
+	 * <p>Description: An indexed JVM</p> 
+	 */
+	public static class JVMEntry {
+		/** The JVM's pid */
+		private final String pid;
+		/** The JVM's display name */
+		private final String displayName;
+		/** The JVM's main class, or jar for <code>-jar</code> launches */
+		private final String mainClass;
+		/** The JVM's start time in ms. since the epoch, or -1 if not known */
+		private final long startTime;
+		
+		/**
+		 * Creates a new JVMEntry
+		 * @param pid The JVM's pid
+		 * @param displayName The JVM's display name
+		 * @param startTime The JVM's start time
+		 */
+		JVMEntry(final String pid, final String displayName, final long startTime) {
+			this.pid = pid;
+			this.displayName = displayName;
+			final String trimmed = displayName.trim();
+			final int index = trimmed.indexOf(' ');
+			this.mainClass = index==-1 ? trimmed : trimmed.substring(0, index);
+			this.startTime = startTime;
+		}
+
+		/**
+		 * Returns the JVM's pid
+		 * @return the pid
+		 */
+		public String getPid() {
+			return pid;
+		}
+
+		/**
+		 * Returns the JVM's display name (the same display name reported by the Attach API)
+		 * @return the display name
+		 */
+		public String getDisplayName() {
+			return displayName;
+		}
+
+		/**
+		 * Returns the JVM's main class, or jar for <code>-jar</code> launches
+		 * @return the main class
+		 */
+		public String getMainClass() {
+			return mainClass;
+		}
+
+		/**
+		 * Returns the JVM's start time
+		 * @return the start time in ms. since the epoch, or -1 if not known
+		 */
+		public long getStartTime() {
+			return startTime;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return pid + " : " + displayName;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.attach;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+
+/**
+ * <p>Title: PooledConnection</p>
+ * <p>Description: A reference counted physical connection to an attached JVM, shared by all the logical
+ * {@link AttachJMXConnector}s connected to the same target.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.attach.PooledConnection</code></p>
+ */
+
+class PooledConnection implements NotificationListener {
+	/** The target JVM id */
+	final String jvmId;
+	/** The key this connection is pooled under */
+	final String poolKey;
+	/** The physical JMXConnector */
+	final JMXConnector jmxConnector;
+	/** The attached VM's system properties, null until loaded */
+	private volatile Properties vmSystemProperties;
+	/** The attached VM's agent properties, null until loaded */
+	private volatile Properties vmAgentProperties;
+	/** The number of logical connectors holding this connection, or -1 once retired */
+	private final AtomicInteger refs = new AtomicInteger(0);
+	/** The timestamp of the last release */
+	private volatile long lastReleased = System.currentTimeMillis();
+	/** Indicates if the physical connection has failed or been closed */
+	private volatile boolean broken = false;
+	
+	/**
+	 * Creates a new PooledConnection
+	 * @param jvmId The target JVM id
+	 * @param poolKey The key this connection is pooled under
+	 * @param jmxConnector The physical JMXConnector
+	 * @param vmSystemProperties The attached VM's system properties, or null to load them on demand
+	 * @param vmAgentProperties The attached VM's agent properties, or null to load them on demand
+	 */
+	PooledConnection(final String jvmId, final String poolKey, final JMXConnector jmxConnector, final Properties vmSystemProperties, final Properties vmAgentProperties) {
+		this.jvmId = jvmId;
+		this.poolKey = poolKey;
+		this.jmxConnector = jmxConnector;
+		this.vmSystemProperties = vmSystemProperties;
+		this.vmAgentProperties = vmAgentProperties;
+		jmxConnector.addConnectionNotificationListener(this, null, null);
+	}
+	
+	/**
+	 * Returns the attached VM's system properties, reading them through the RuntimeMXBean on first call
+	 * @return the attached VM's system properties
+	 */
+	Properties getVmSystemProperties() {
+		if(vmSystemProperties==null) {
+			synchronized(this) {
+				if(vmSystemProperties==null) vmSystemProperties = AttachJMXConnector.readSystemProperties(jmxConnector, jvmId);
+			}
+		}
+		return vmSystemProperties;
+	}
+	
+	/**
+	 * Returns the attached VM's agent properties, attaching to load them on first call
+	 * @return the attached VM's agent properties
+	 */
+	Properties getVmAgentProperties() {
+		if(vmAgentProperties==null) {
+			synchronized(this) {
+				if(vmAgentProperties==null) vmAgentProperties = AttachJMXConnector.attachProperties(jvmId, true);
+			}
+		}
+		return vmAgentProperties;
+	}
+	
+	/**
+	 * Adds a reference to this connection unless it has been retired or is broken
+	 * @return true if the reference was added, false if this connection can no longer be used
+	 */
+	boolean retain() {
+		if(broken) return false;
+		while(true) {
+			final int current = refs.get();
+			if(current < 0) return false;
+			if(refs.compareAndSet(current, current+1)) return true;
+		}
+	}
+	
+	/**
+	 * Removes a reference to this connection. A broken connection is closed when the last reference is removed.
+	 */
+	void release() {
+		lastReleased = System.currentTimeMillis();
+		if(refs.decrementAndGet()==0 && broken) {
+			retire();
+		}
+	}
+	
+	/**
+	 * Retires this connection if it is not referenced and closes the physical connector
+	 * @return true if the connection was retired, false if it is still referenced
+	 */
+	boolean retire() {
+		if(!refs.compareAndSet(0, -1)) return false;
+		try { jmxConnector.removeConnectionNotificationListener(this); } catch (Exception x) {/* No Op */}
+		try { jmxConnector.close(); } catch (Exception x) {/* No Op */}
+		return true;
+	}
+	
+	/**
+	 * Checks the physical connection by issuing a cheap remote call
+	 * @return true if the connection is healthy, false otherwise
+	 */
+	boolean isHealthy() {
+		if(broken) return false;
+		try {
+			jmxConnector.getMBeanServerConnection().getMBeanCount();
+			return true;
+		} catch (IOException iex) {
+			broken = true;
+			return false;
+		}
+	}
+	
+	/**
+	 * Indicates if the physical connection is known to have failed
+	 * @return true if the connection is broken
+	 */
+	boolean isBroken() {
+		return broken;
+	}
+	
+	/**
+	 * Returns the number of logical connectors holding this connection
+	 * @return the reference count, or -1 if retired
+	 */
+	int getRefCount() {
+		return refs.get();
+	}
+	
+	/**
+	 * Returns the number of ms. this connection has been idle
+	 * @return the idle time in ms. or 0 if the connection is referenced
+	 */
+	long getIdleTime() {
+		return refs.get()==0 ? System.currentTimeMillis() - lastReleased : 0L;
+	}
+
+	/**
+	 * Marks this connection as broken when the physical connector fails or is closed
+	 * @see javax.management.NotificationListener#handleNotification(javax.management.Notification, java.lang.Object)
+	 */
+	@Override
+	public void handleNotification(final Notification notification, final Object handback) {
+		final String type = notification.getType();
+		if(JMXConnectionNotification.FAILED.equals(type) || JMXConnectionNotification.CLOSED.equals(type)) {
+			broken = true;
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "PooledConnection [jvmId=" + jvmId + ", key=" + poolKey + ", refs=" + refs.get() + ", broken=" + broken + "]";
+	}
+}
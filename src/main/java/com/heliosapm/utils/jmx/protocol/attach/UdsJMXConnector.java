@@ -0,0 +1,258 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.attach;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXAddressable;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXServiceURL;
+import javax.security.auth.Subject;
+
+import com.heliosapm.utils.jmx.agent.UnixSockets;
+
+/**
+ * <p>Title: UdsJMXConnector</p>
+ * <p>Description: A JMXConnector to a JVM serving its platform MBeanServer over the jmxlocal agent's Unix domain socket 
+ * (see {@link com.heliosapm.utils.jmx.agent.UdsServer}). Calls that need remote notification delivery or a delegation subject 
+ * are made over an RMI connection to the JVM's local connector address, opened when first needed.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.attach.UdsJMXConnector</code></p>
+ */
+
+public class UdsJMXConnector implements JMXConnector, JMXAddressable {
+	/** Static class logger */
+	private static final Logger log = Logger.getLogger(UdsJMXConnector.class.getName());
+	/** The connection id serial */
+	private static final AtomicLong serial = new AtomicLong(0L);
+	
+	/** The target JVM id */
+	protected final String jvmId;
+	/** The target's socket path */
+	protected final Path path;
+	/** The socket MBeanServerConnection */
+	protected final UdsMBeanServerConnection connection;
+	/** The connection id */
+	protected final String connectionId;
+	/** The connection notification broadcaster */
+	protected final NotificationBroadcasterSupport broadcaster = new NotificationBroadcasterSupport();
+	/** The connection notification sequence */
+	protected final AtomicLong sequence = new AtomicLong(0L);
+	/** Indicates if this connector has been closed or has failed */
+	protected final AtomicBoolean done = new AtomicBoolean(false);
+	/** The RMI connector for notifications and delegation subjects, null until needed */
+	protected volatile JMXConnector rmiConnector = null;
+	
+	/**
+	 * Connects to the socket of the JVM with the passed id if it exists
+	 * @param jvmId The target JVM id
+	 * @return the connected connector, or null if the socket transport is not available
+	 */
+	public static JMXConnector connectIfAvailable(final String jvmId) {
+		if(!isAvailable(jvmId)) return null;
+		final UdsJMXConnector connector = new UdsJMXConnector(jvmId);
+		try {
+			connector.connect();
+			return connector;
+		} catch (Exception ex) {
+			log.fine("UDS transport for JVM [" + jvmId + "] not available: " + ex);
+			return null;
+		}
+	}
+	
+	/**
+	 * Indicates if the JVM with the passed id appears to serve the socket transport
+	 * @param jvmId The target JVM id
+	 * @return true if this JVM supports Unix domain sockets and the target's socket exists
+	 */
+	public static boolean isAvailable(final String jvmId) {
+		return UnixSockets.isSupported() && Files.exists(UnixSockets.getSocketPath(jvmId));
+	}
+	
+	/**
+	 * Creates a new UdsJMXConnector
+	 * @param jvmId The target JVM id
+	 */
+	public UdsJMXConnector(final String jvmId) {
+		this.jvmId = jvmId;
+		path = UnixSockets.getSocketPath(jvmId);
+		connection = new UdsMBeanServerConnection(this);
+		connectionId = "uds://" + path + " " + serial.incrementAndGet();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#connect()
+	 */
+	@Override
+	public void connect() throws IOException {
+		connection.ping();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#connect(java.util.Map)
+	 */
+	@Override
+	public void connect(final Map<String, ?> env) throws IOException {
+		connect();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#getMBeanServerConnection()
+	 */
+	@Override
+	public MBeanServerConnection getMBeanServerConnection() throws IOException {
+		if(done.get()) throw new IOException("Connector closed");
+		return connection;
+	}
+
+	/**
+	 * Returns the MBeanServerConnection. Connections with a delegation subject are made over RMI.
+	 * @see javax.management.remote.JMXConnector#getMBeanServerConnection(javax.security.auth.Subject)
+	 */
+	@Override
+	public MBeanServerConnection getMBeanServerConnection(final Subject delegationSubject) throws IOException {
+		if(delegationSubject==null) return getMBeanServerConnection();
+		return rmi().getMBeanServerConnection(delegationSubject);
+	}
+	
+	/**
+	 * Returns the RMI connector to the target, connecting it on first call
+	 * @return the RMI connector
+	 * @throws IOException thrown if the connector cannot be connected
+	 */
+	JMXConnector rmi() throws IOException {
+		if(rmiConnector==null) {
+			synchronized(this) {
+				if(rmiConnector==null) {
+					if(done.get()) throw new IOException("Connector closed");
+					rmiConnector = AttachConnectionPool.connectLocal(jvmId);
+				}
+			}
+		}
+		return rmiConnector;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if(done.compareAndSet(false, true)) {
+			connection.close();
+			synchronized(this) {
+				if(rmiConnector!=null) try { rmiConnector.close(); } catch (Exception x) {/* No Op */}
+			}
+			notify(JMXConnectionNotification.CLOSED, "Closed");
+		}
+	}
+	
+	/**
+	 * Called when a socket call fails with an IO error
+	 * @param cause The IO error
+	 */
+	void failed(final IOException cause) {
+		if(done.compareAndSet(false, true)) {
+			connection.close();
+			notify(JMXConnectionNotification.FAILED, cause.toString());
+		}
+	}
+	
+	/**
+	 * Sends a connection notification
+	 * @param type The notification type
+	 * @param message The notification message
+	 */
+	protected void notify(final String type, final String message) {
+		broadcaster.sendNotification(new JMXConnectionNotification(type, this, connectionId, sequence.incrementAndGet(), message, null));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#addConnectionNotificationListener(javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void addConnectionNotificationListener(final NotificationListener listener, final NotificationFilter filter, final Object handback) {
+		broadcaster.addNotificationListener(listener, filter, handback);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#removeConnectionNotificationListener(javax.management.NotificationListener)
+	 */
+	@Override
+	public void removeConnectionNotificationListener(final NotificationListener listener) throws ListenerNotFoundException {
+		broadcaster.removeNotificationListener(listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#removeConnectionNotificationListener(javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void removeConnectionNotificationListener(final NotificationListener l, final NotificationFilter f, final Object handback) throws ListenerNotFoundException {
+		broadcaster.removeNotificationListener(l, f, handback);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#getConnectionId()
+	 */
+	@Override
+	public String getConnectionId() throws IOException {
+		return connectionId;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXAddressable#getAddress()
+	 */
+	@Override
+	public JMXServiceURL getAddress() {
+		try {
+			return new JMXServiceURL("service:jmx:attach:///" + jvmId);
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+	
+	/**
+	 * Returns the target's socket path
+	 * @return the socket path
+	 */
+	public Path getPath() {
+		return path;
+	}
+}
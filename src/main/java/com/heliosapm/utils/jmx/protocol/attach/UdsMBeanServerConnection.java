@@ -0,0 +1,395 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.attach;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotCompliantMBeanException;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+
+import com.heliosapm.utils.jmx.agent.UdsProtocol;
+import com.heliosapm.utils.jmx.agent.UnixSockets;
+
+/**
+ * <p>Title: UdsMBeanServerConnection</p>
+ * <p>Description: An MBeanServerConnection over the jmxlocal agent's Unix domain socket. Each call borrows an idle socket channel
+ * (or opens a new one), so concurrent callers do not queue behind each other. Up to <b><code>jmxlocal.attach.uds.idle</code></b> (default 4) 
+ * idle channels are kept open. Listener calls taking {@link NotificationListener} instances are made over the connector's RMI connection.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.attach.UdsMBeanServerConnection</code></p>
+ */
+
+public class UdsMBeanServerConnection implements MBeanServerConnection {
+	/** The system property defining the maximum number of idle channels kept open per connection */
+	public static final String MAX_IDLE_PROP = "jmxlocal.attach.uds.idle";
+	/** The default maximum number of idle channels */
+	public static final int DEFAULT_MAX_IDLE = 4;
+	
+	/** The owning connector */
+	protected final UdsJMXConnector connector;
+	/** The idle channels */
+	protected final ConcurrentLinkedQueue<SocketChannel> idle = new ConcurrentLinkedQueue<SocketChannel>();
+	/** The number of idle channels */
+	protected final AtomicInteger idleCount = new AtomicInteger(0);
+	/** The maximum number of idle channels */
+	protected final int maxIdle = Integer.getInteger(MAX_IDLE_PROP, DEFAULT_MAX_IDLE);
+	/** Indicates if this connection has been closed */
+	protected volatile boolean closed = false;
+	
+	/**
+	 * Creates a new UdsMBeanServerConnection
+	 * @param connector The owning connector
+	 */
+	UdsMBeanServerConnection(final UdsJMXConnector connector) {
+		this.connector = connector;
+	}
+	
+	/**
+	 * Opens a channel and makes a cheap call to verify the server
+	 * @throws IOException thrown if the server cannot be reached
+	 */
+	void ping() throws IOException {
+		call(UdsProtocol.GET_MBEAN_COUNT);
+	}
+	
+	/**
+	 * Closes all the idle channels. Channels in use are closed when returned.
+	 */
+	void close() {
+		closed = true;
+		SocketChannel channel = null;
+		while((channel = idle.poll())!=null) {
+			idleCount.decrementAndGet();
+			try { channel.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * Executes one request
+	 * @param op The op code
+	 * @param args The request arguments
+	 * @return the result
+	 * @throws IOException thrown on any IO error
+	 */
+	protected Object call(final byte op, final Object...args) throws IOException {
+		if(closed) throw new IOException("Connection closed");
+		SocketChannel channel = idle.poll();
+		if(channel!=null) {
+			idleCount.decrementAndGet();
+		} else {
+			try {
+				channel = UnixSockets.connect(connector.path);
+			} catch (IOException iex) {
+				connector.failed(iex);
+				throw iex;
+			}
+		}
+		final Object[] response;
+		try {
+			UdsProtocol.write(channel, op, args);
+			response = UdsProtocol.read(channel);
+			if(response==null) throw new IOException("Server closed the connection");
+		} catch (IOException iex) {
+			try { channel.close(); } catch (Exception x) {/* No Op */}
+			connector.failed(iex);
+			throw iex;
+		} catch (ClassNotFoundException cex) {
+			giveBack(channel);
+			throw new IOException("Failed to deserialize response", cex);
+		}
+		giveBack(channel);
+		if((Byte)response[0]==UdsProtocol.ERROR) {
+			UdsMBeanServerConnection.<RuntimeException>rethrow((Throwable)response[1]);
+		}
+		return response[1];
+	}
+	
+	/**
+	 * Returns a channel to the idle queue, or closes it if the queue is full or this connection is closed
+	 * @param channel The channel to return
+	 */
+	private void giveBack(final SocketChannel channel) {
+		if(!closed && idleCount.incrementAndGet() <= maxIdle) {
+			idle.offer(channel);
+		} else {
+			idleCount.decrementAndGet();
+			try { channel.close(); } catch (Exception x) {/* No Op */}
+		}
+	}
+	
+	/**
+	 * Rethrows an exception thrown by the target MBeanServer as is. The server only returns exceptions
+	 * declared by (or unchecked in) the method that was called, so they match the caller's throws clause.
+	 * @param t The exception to throw
+	 * @throws T always
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends Throwable> void rethrow(final Throwable t) throws T {
+		throw (T)t;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName)
+	 */
+	@Override
+	public ObjectInstance createMBean(final String className, final ObjectName name) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, IOException {
+		return (ObjectInstance)call(UdsProtocol.CREATE_MBEAN, className, name);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, javax.management.ObjectName)
+	 */
+	@Override
+	public ObjectInstance createMBean(final String className, final ObjectName name, final ObjectName loaderName) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
+		return (ObjectInstance)call(UdsProtocol.CREATE_MBEAN_LOADER, className, name, loaderName);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public ObjectInstance createMBean(final String className, final ObjectName name, final Object[] params, final String[] signature) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, IOException {
+		return (ObjectInstance)call(UdsProtocol.CREATE_MBEAN_PARAMS, className, name, params, signature);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#createMBean(java.lang.String, javax.management.ObjectName, javax.management.ObjectName, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public ObjectInstance createMBean(final String className, final ObjectName name, final ObjectName loaderName, final Object[] params, final String[] signature) throws ReflectionException, InstanceAlreadyExistsException, MBeanRegistrationException, MBeanException, NotCompliantMBeanException, InstanceNotFoundException, IOException {
+		return (ObjectInstance)call(UdsProtocol.CREATE_MBEAN_LOADER_PARAMS, className, name, loaderName, params, signature);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#unregisterMBean(javax.management.ObjectName)
+	 */
+	@Override
+	public void unregisterMBean(final ObjectName name) throws InstanceNotFoundException, MBeanRegistrationException, IOException {
+		call(UdsProtocol.UNREGISTER_MBEAN, name);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getObjectInstance(javax.management.ObjectName)
+	 */
+	@Override
+	public ObjectInstance getObjectInstance(final ObjectName name) throws InstanceNotFoundException, IOException {
+		return (ObjectInstance)call(UdsProtocol.GET_OBJECT_INSTANCE, name);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#queryMBeans(javax.management.ObjectName, javax.management.QueryExp)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public Set<ObjectInstance> queryMBeans(final ObjectName name, final QueryExp query) throws IOException {
+		return (Set<ObjectInstance>)call(UdsProtocol.QUERY_MBEANS, name, query);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#queryNames(javax.management.ObjectName, javax.management.QueryExp)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public Set<ObjectName> queryNames(final ObjectName name, final QueryExp query) throws IOException {
+		return (Set<ObjectName>)call(UdsProtocol.QUERY_NAMES, name, query);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#isRegistered(javax.management.ObjectName)
+	 */
+	@Override
+	public boolean isRegistered(final ObjectName name) throws IOException {
+		return (Boolean)call(UdsProtocol.IS_REGISTERED, name);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getMBeanCount()
+	 */
+	@Override
+	public Integer getMBeanCount() throws IOException {
+		return (Integer)call(UdsProtocol.GET_MBEAN_COUNT);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getAttribute(javax.management.ObjectName, java.lang.String)
+	 */
+	@Override
+	public Object getAttribute(final ObjectName name, final String attribute) throws MBeanException, AttributeNotFoundException, InstanceNotFoundException, ReflectionException, IOException {
+		return call(UdsProtocol.GET_ATTRIBUTE, name, attribute);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getAttributes(javax.management.ObjectName, java.lang.String[])
+	 */
+	@Override
+	public AttributeList getAttributes(final ObjectName name, final String[] attributes) throws InstanceNotFoundException, ReflectionException, IOException {
+		return (AttributeList)call(UdsProtocol.GET_ATTRIBUTES, name, attributes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#setAttribute(javax.management.ObjectName, javax.management.Attribute)
+	 */
+	@Override
+	public void setAttribute(final ObjectName name, final Attribute attribute) throws InstanceNotFoundException, AttributeNotFoundException, InvalidAttributeValueException, MBeanException, ReflectionException, IOException {
+		call(UdsProtocol.SET_ATTRIBUTE, name, attribute);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#setAttributes(javax.management.ObjectName, javax.management.AttributeList)
+	 */
+	@Override
+	public AttributeList setAttributes(final ObjectName name, final AttributeList attributes) throws InstanceNotFoundException, ReflectionException, IOException {
+		return (AttributeList)call(UdsProtocol.SET_ATTRIBUTES, name, attributes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#invoke(javax.management.ObjectName, java.lang.String, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public Object invoke(final ObjectName name, final String operationName, final Object[] params, final String[] signature) throws InstanceNotFoundException, MBeanException, ReflectionException, IOException {
+		return call(UdsProtocol.INVOKE, name, operationName, params, signature);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getDefaultDomain()
+	 */
+	@Override
+	public String getDefaultDomain() throws IOException {
+		return (String)call(UdsProtocol.GET_DEFAULT_DOMAIN);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getDomains()
+	 */
+	@Override
+	public String[] getDomains() throws IOException {
+		return (String[])call(UdsProtocol.GET_DOMAINS);
+	}
+
+	/**
+	 * Adds the listener over the connector's RMI connection
+	 * @see javax.management.MBeanServerConnection#addNotificationListener(javax.management.ObjectName, javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void addNotificationListener(final ObjectName name, final NotificationListener listener, final NotificationFilter filter, final Object handback) throws InstanceNotFoundException, IOException {
+		connector.rmi().getMBeanServerConnection().addNotificationListener(name, listener, filter, handback);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#addNotificationListener(javax.management.ObjectName, javax.management.ObjectName, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void addNotificationListener(final ObjectName name, final ObjectName listener, final NotificationFilter filter, final Object handback) throws InstanceNotFoundException, IOException {
+		call(UdsProtocol.ADD_LISTENER_MBEAN, name, listener, filter, handback);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.ObjectName)
+	 */
+	@Override
+	public void removeNotificationListener(final ObjectName name, final ObjectName listener) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+		call(UdsProtocol.REMOVE_LISTENER_MBEAN, name, listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.ObjectName, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void removeNotificationListener(final ObjectName name, final ObjectName listener, final NotificationFilter filter, final Object handback) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+		call(UdsProtocol.REMOVE_LISTENER_MBEAN_FILTER, name, listener, filter, handback);
+	}
+
+	/**
+	 * Removes the listener over the connector's RMI connection
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.NotificationListener)
+	 */
+	@Override
+	public void removeNotificationListener(final ObjectName name, final NotificationListener listener) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+		connector.rmi().getMBeanServerConnection().removeNotificationListener(name, listener);
+	}
+
+	/**
+	 * Removes the listener over the connector's RMI connection
+	 * @see javax.management.MBeanServerConnection#removeNotificationListener(javax.management.ObjectName, javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void removeNotificationListener(final ObjectName name, final NotificationListener listener, final NotificationFilter filter, final Object handback) throws InstanceNotFoundException, ListenerNotFoundException, IOException {
+		connector.rmi().getMBeanServerConnection().removeNotificationListener(name, listener, filter, handback);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#getMBeanInfo(javax.management.ObjectName)
+	 */
+	@Override
+	public MBeanInfo getMBeanInfo(final ObjectName name) throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
+		return (MBeanInfo)call(UdsProtocol.GET_MBEAN_INFO, name);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.MBeanServerConnection#isInstanceOf(javax.management.ObjectName, java.lang.String)
+	 */
+	@Override
+	public boolean isInstanceOf(final ObjectName name, final String className) throws InstanceNotFoundException, IOException {
+		return (Boolean)call(UdsProtocol.IS_INSTANCE_OF, name, className);
+	}
+}
@@ -20,16 +20,20 @@ package com.heliosapm.utils.jmx.protocol.local;
 
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.lang.management.PlatformManagedObject;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.ListenerNotFoundException;
 import javax.management.MBeanServer;
 import javax.management.MBeanServerConnection;
-import javax.management.MBeanServerFactory;
 import javax.management.NotificationFilter;
 import javax.management.NotificationListener;
+import javax.management.ObjectName;
 import javax.management.remote.JMXAddressable;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXServiceURL;
@@ -38,6 +42,11 @@ import javax.security.auth.Subject;
 /**
  * <p>Title: LocalJMXConnector</p>
  * <p>Description: A JMXConnector implementation that support attaching to a local MBeanServer via a standard JMXConnector and JMXServiceURL</p> 
+ * <p>Connectors hold no resources and are cheap to create. Each connect resolves the MBeanServer through 
+ * the {@link LocalMBeanServerRegistry}, which caches the servers by domain, and is assigned a new connection id.</p>
+ * <p>{@link #getPlatformMXBean(Class)} and {@link #getPlatformMXBeans(Class)} give typed access to the platform MXBeans. When the connected
+ * MBeanServer is the platform MBeanServer, the <code>java.lang.management</code> objects are returned directly, so reads skip the 
+ * MXBean open type conversion both ways. For any other MBeanServer, MXBean proxies (with the standard conversion) are returned.</p>
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>com.heliosapm.utils.jmx.protocol.local.LocalJMXConnector</code></p>
@@ -45,15 +54,19 @@ import javax.security.auth.Subject;
 
 public class LocalJMXConnector implements JMXConnector, JMXAddressable {
 	/** The MBeanServer the connector connects to */
-	protected MBeanServer mbeanServer = null;
+	protected volatile MBeanServer mbeanServer = null;
 	/** The provided JMXServiceURL */
 	protected JMXServiceURL localURL = null;
 	/** The JMXServiceURL provided default domain name */
-	protected String domain = null;
+	protected volatile String domain = null;
 	/** The faux connection ID assigned to this imaginary connection */
-	protected String connectionId = null;
+	protected volatile String connectionId = null;
 	/** A connection ID serial number generator */
 	protected static final AtomicLong serial = new AtomicLong(0);
+	/** The platform MXBeans (or proxies) keyed by interface, for the MBeanServer in {@link #mxBeanServer} */
+	protected final Map<Class<?>, List<?>> mxBeans = new ConcurrentHashMap<Class<?>, List<?>>();
+	/** The MBeanServer the cached platform MXBeans were acquired from */
+	protected volatile MBeanServer mxBeanServer = null;
 	
 	/**
 	 * {@inheritDoc}
@@ -65,12 +78,12 @@ public class LocalJMXConnector implements JMXConnector, JMXAddressable {
 		if(urlPath.startsWith("/")) {
 			urlPath = urlPath.substring(1);			
 		}
-		domain = urlPath;
-		if(domain==null || domain.trim().isEmpty()) {
+		String d = urlPath;
+		if(d==null || d.trim().isEmpty()) {
 			//throw new IOException("Invalid domain. Was empty or null", new Throwable());
-			domain = "DefaultDomain";
+			d = "DefaultDomain";
 		}
-		domain = domain.trim();
+		domain = d.trim();
 		mbeanServer = getLocalMBeanServer(domain, false);
 		connectionId = "local:" + domain + ":" + serial.incrementAndGet();
 	}
@@ -82,13 +95,8 @@ public class LocalJMXConnector implements JMXConnector, JMXAddressable {
 	 * @return The located MBeanServerConnection or null if one cannot be found and returnNullIfNotFound is true. 
 	 */
 	public static MBeanServer getLocalMBeanServer(String domain, boolean returnNullIfNotFound) {
-		if(domain==null || domain.equals("") || domain.equalsIgnoreCase("DefaultDomain") || domain.equalsIgnoreCase("Default")) {
-			return ManagementFactory.getPlatformMBeanServer();
-		}
-		List<MBeanServer> servers = MBeanServerFactory.findMBeanServer(null);
-		for(MBeanServer server: servers) {
-			if(server.getDefaultDomain().equals(domain)) return server;
-		}
+		final MBeanServer server = LocalMBeanServerRegistry.getInstance().get(domain);
+		if(server!=null) return server;
 		if(returnNullIfNotFound) {
 			return null;
 		}
@@ -113,6 +121,65 @@ public class LocalJMXConnector implements JMXConnector, JMXAddressable {
 		return mbeanServer;
 	}
 
+	/**
+	 * Returns the platform MXBean implementing the passed interface.
+	 * This is the <code>java.lang.management</code> object itself if this connector is connected to the platform MBeanServer, otherwise an MXBean proxy.
+	 * @param mxbeanInterface The MXBean interface, which must have a single instance
+	 * @return the platform MXBean, or null if the MBeanServer does not have one
+	 * @throws IOException thrown if this connector is not connected
+	 */
+	public <T extends PlatformManagedObject> T getPlatformMXBean(final Class<T> mxbeanInterface) throws IOException {
+		final List<T> list = getPlatformMXBeans(mxbeanInterface);
+		if(list.size() > 1) throw new IllegalArgumentException("[" + mxbeanInterface.getName() + "] has more than one instance");
+		return list.isEmpty() ? null : list.get(0);
+	}
+	
+	/**
+	 * Returns the platform MXBean implementing the passed interface with the passed ObjectName
+	 * @param mxbeanInterface The MXBean interface
+	 * @param objectName The ObjectName of the MXBean
+	 * @return the platform MXBean, or null if the MBeanServer does not have one
+	 * @throws IOException thrown if this connector is not connected
+	 */
+	public <T extends PlatformManagedObject> T getPlatformMXBean(final Class<T> mxbeanInterface, final ObjectName objectName) throws IOException {
+		for(T t: getPlatformMXBeans(mxbeanInterface)) {
+			if(objectName.equals(t.getObjectName())) return t;
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the platform MXBeans implementing the passed interface.
+	 * These are the <code>java.lang.management</code> objects themselves if this connector is connected to the platform MBeanServer, otherwise MXBean proxies.
+	 * @param mxbeanInterface The MXBean interface
+	 * @return a (possibly empty) list of the platform MXBeans
+	 * @throws IOException thrown if this connector is not connected
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends PlatformManagedObject> List<T> getPlatformMXBeans(final Class<T> mxbeanInterface) throws IOException {
+		final MBeanServer server = mbeanServer;
+		if(server==null) throw new IOException("Not connected");
+		if(server!=mxBeanServer) {
+			synchronized(mxBeans) {
+				if(server!=mxBeanServer) {
+					mxBeans.clear();
+					mxBeanServer = server;
+				}
+			}
+		}
+		List<T> list = (List<T>)mxBeans.get(mxbeanInterface);
+		if(list==null) {
+			if(server==ManagementFactory.getPlatformMBeanServer()) {
+				list = ManagementFactory.getPlatformMXBeans(mxbeanInterface);
+			} else {
+				list = ManagementFactory.getPlatformMXBeans(server, mxbeanInterface);
+			}
+			list = Collections.unmodifiableList(new ArrayList<T>(list));
+			mxBeans.put(mxbeanInterface, list);
+		}
+		return list;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * @see javax.management.remote.JMXConnector#getMBeanServerConnection(javax.security.auth.Subject)
@@ -0,0 +1,180 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.local;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+
+/**
+ * <p>Title: LocalMBeanServerRegistry</p>
+ * <p>Description: An index of the in-vm MBeanServers keyed by default domain, so repeated <b><code>local:</code></b> connects
+ * resolve their MBeanServer without scanning {@link MBeanServerFactory#findMBeanServer(String)}.</p>
+ * <p>The index is rebuilt from {@link MBeanServerFactory#findMBeanServer(String)} on a miss, and an entry that has not been verified for
+ * <b><code>jmxlocal.local.registry.ttl</code></b> ms. (default 5000) is re-verified the same way, so servers created or released 
+ * directly through the {@link MBeanServerFactory} are picked up. Servers created and released through {@link #create(String)} and {@link #release(MBeanServer)} 
+ * are indexed immediately. Entries are weakly referenced.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.local.LocalMBeanServerRegistry</code></p>
+ */
+
+public class LocalMBeanServerRegistry {
+	/** The singleton instance */
+	private static volatile LocalMBeanServerRegistry instance = null;
+	/** The singleton instance ctor lock */
+	private static final Object lock = new Object();
+	
+	/** The system property defining the ms. after which an index entry is re-verified */
+	public static final String TTL_PROP = "jmxlocal.local.registry.ttl";
+	/** The default index entry ttl in ms. */
+	public static final long DEFAULT_TTL = 5000L;
+	/** The domain name that always resolves to the platform MBeanServer */
+	public static final String DEFAULT_DOMAIN = "DefaultDomain";
+	
+	/** The indexed MBeanServers keyed by default domain */
+	private final ConcurrentHashMap<String, ServerRef> servers = new ConcurrentHashMap<String, ServerRef>();
+	/** The entry ttl in ms. */
+	private final long ttl;
+	
+	/**
+	 * <p>Title: ServerRef</p>
+	 * <p>Description: A weak reference to an indexed MBeanServer with the time it was last verified</p> 
+	 */
+	private static class ServerRef extends WeakReference<MBeanServer> {
+		/** The time the server was last verified as registered */
+		final long verified;
+		
+		/**
+		 * Creates a new ServerRef
+		 * @param server The MBeanServer
+		 * @param verified The time the server was last verified as registered
+		 */
+		ServerRef(final MBeanServer server, final long verified) {
+			super(server);
+			this.verified = verified;
+		}
+	}
+	
+	/**
+	 * Returns the LocalMBeanServerRegistry singleton
+	 * @return the LocalMBeanServerRegistry singleton
+	 */
+	public static LocalMBeanServerRegistry getInstance() {
+		if(instance==null) {
+			synchronized(lock) {
+				if(instance==null) {
+					instance = new LocalMBeanServerRegistry();
+				}
+			}
+		}
+		return instance;
+	}
+	
+	/**
+	 * Creates a new LocalMBeanServerRegistry
+	 */
+	private LocalMBeanServerRegistry() {
+		ttl = Long.getLong(TTL_PROP, DEFAULT_TTL);
+		refresh();
+	}
+	
+	/**
+	 * Determines if the passed domain addresses the platform MBeanServer
+	 * @param domain The domain
+	 * @return true for the platform MBeanServer
+	 */
+	public static boolean isDefault(final String domain) {
+		return domain==null || domain.equals("") || domain.equalsIgnoreCase(DEFAULT_DOMAIN) || domain.equalsIgnoreCase("Default");
+	}
+	
+	/**
+	 * Returns the in-vm MBeanServer with the passed default domain
+	 * @param domain The default domain
+	 * @return the MBeanServer or null if one is not registered
+	 */
+	public MBeanServer get(final String domain) {
+		if(isDefault(domain)) return ManagementFactory.getPlatformMBeanServer();
+		ServerRef ref = servers.get(domain);
+		if(ref!=null) {
+			final MBeanServer server = ref.get();
+			if(server!=null && System.currentTimeMillis() - ref.verified < ttl) return server;
+		}
+		refresh();
+		ref = servers.get(domain);
+		return ref==null ? null : ref.get();
+	}
+	
+	/**
+	 * Rebuilds the index from the MBeanServerFactory. Where more than one server has the same default domain, the first found is indexed.
+	 */
+	public synchronized void refresh() {
+		final long now = System.currentTimeMillis();
+		final Map<String, ServerRef> found = new HashMap<String, ServerRef>();
+		for(MBeanServer server: MBeanServerFactory.findMBeanServer(null)) {
+			final String domain = server.getDefaultDomain();
+			if(!found.containsKey(domain)) found.put(domain, new ServerRef(server, now));
+		}
+		servers.keySet().retainAll(found.keySet());
+		servers.putAll(found);
+	}
+	
+	/**
+	 * Creates and registers a new MBeanServer with the passed default domain, and indexes it
+	 * @param domain The default domain
+	 * @return the new MBeanServer
+	 * @see MBeanServerFactory#createMBeanServer(String)
+	 */
+	public MBeanServer create(final String domain) {
+		final MBeanServer server = MBeanServerFactory.createMBeanServer(domain);
+		servers.putIfAbsent(server.getDefaultDomain(), new ServerRef(server, System.currentTimeMillis()));
+		return server;
+	}
+	
+	/**
+	 * Releases the passed MBeanServer and removes it from the index
+	 * @param server The MBeanServer to release
+	 * @see MBeanServerFactory#releaseMBeanServer(MBeanServer)
+	 */
+	public void release(final MBeanServer server) {
+		MBeanServerFactory.releaseMBeanServer(server);
+		final String domain = server.getDefaultDomain();
+		final ServerRef ref = servers.get(domain);
+		if(ref!=null && ref.get()==server) {
+			servers.remove(domain, ref);
+			// another registered server may have the same domain
+			refresh();
+		}
+	}
+	
+	/**
+	 * Returns the default domains of the indexed MBeanServers
+	 * @return the indexed default domains
+	 */
+	public Set<String> getDomains() {
+		return Collections.unmodifiableSet(servers.keySet());
+	}
+}
@@ -0,0 +1,172 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.perfdata;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.ImmutableDescriptor;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+import com.heliosapm.utils.jmx.perfdata.PerfCounter;
+
+/**
+ * <p>Title: PerfCounterGroup</p>
+ * <p>Description: A read-only DynamicMBean exposing a group of hsperfdata counters sharing the same name prefix.
+ * Each attribute is the last segment of a counter's name, and every read goes straight to the shared mapping.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.perfdata.PerfCounterGroup</code></p>
+ */
+
+public class PerfCounterGroup implements DynamicMBean {
+	/** The group's counters keyed by attribute name */
+	protected final Map<String, PerfCounter> counters = new LinkedHashMap<String, PerfCounter>();
+	/** The group name (the shared counter name prefix) */
+	protected final String group;
+	/** The MBeanInfo, built lazily */
+	protected volatile MBeanInfo info = null;
+	
+	/** The counter unit names indexed by unit code */
+	private static final String[] UNIT_NAMES = {"invalid", "none", "bytes", "ticks", "events", "string", "hertz"};
+	/** The counter variability names indexed by variability code */
+	private static final String[] VARIABILITY_NAMES = {"invalid", "constant", "monotonic", "variable"};
+	
+	/**
+	 * Creates a new PerfCounterGroup
+	 * @param group The group name
+	 */
+	public PerfCounterGroup(final String group) {
+		this.group = group;
+	}
+	
+	/**
+	 * Adds a counter to this group
+	 * @param attributeName The attribute name to expose the counter as
+	 * @param counter The counter
+	 */
+	void add(final String attributeName, final PerfCounter counter) {
+		counters.put(attributeName, counter);
+	}
+	
+	/**
+	 * Returns the group name
+	 * @return the group name
+	 */
+	public String getGroup() {
+		return group;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#getAttribute(java.lang.String)
+	 */
+	@Override
+	public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+		final PerfCounter counter = counters.get(attribute);
+		if(counter==null) throw new AttributeNotFoundException("No counter [" + attribute + "] in group [" + group + "]");
+		return counter.getValue();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#setAttribute(javax.management.Attribute)
+	 */
+	@Override
+	public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Counter [" + attribute.getName() + "] in group [" + group + "] is read-only");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#getAttributes(java.lang.String[])
+	 */
+	@Override
+	public AttributeList getAttributes(final String[] attributes) {
+		final AttributeList list = new AttributeList(attributes.length);
+		for(String name: attributes) {
+			final PerfCounter counter = counters.get(name);
+			if(counter!=null) list.add(new Attribute(name, counter.getValue()));
+		}
+		return list;
+	}
+
+	/**
+	 * Always returns an empty list since all counters are read-only
+	 * @see javax.management.DynamicMBean#setAttributes(javax.management.AttributeList)
+	 */
+	@Override
+	public AttributeList setAttributes(final AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#invoke(java.lang.String, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public Object invoke(final String actionName, final Object[] params, final String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName), "PerfCounterGroup [" + group + "] has no operations");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.DynamicMBean#getMBeanInfo()
+	 */
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		if(info==null) {
+			final MBeanAttributeInfo[] attrs = new MBeanAttributeInfo[counters.size()];
+			int i = 0;
+			for(Map.Entry<String, PerfCounter> entry: counters.entrySet()) {
+				final PerfCounter counter = entry.getValue();
+				final String type = counter.isLong() ? Long.class.getName() : counter.isString() ? String.class.getName() : Object.class.getName();
+				final ImmutableDescriptor descriptor = new ImmutableDescriptor(
+						"counter=" + counter.getName(), 
+						"units=" + name(UNIT_NAMES, counter.getUnits()), 
+						"variability=" + name(VARIABILITY_NAMES, counter.getVariability())
+				);
+				attrs[i++] = new MBeanAttributeInfo(entry.getKey(), type, counter.getName(), true, false, false, descriptor);
+			}
+			info = new MBeanInfo(getClass().getName(), "hsperfdata counters [" + group + "]", attrs, 
+					new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+		}
+		return info;
+	}
+	
+	/**
+	 * Returns the name for the passed code
+	 * @param names The names indexed by code
+	 * @param code The code
+	 * @return the name
+	 */
+	private static String name(final String[] names, final int code) {
+		return code > 0 && code < names.length ? names[code] : names[0];
+	}
+
+}
@@ -0,0 +1,276 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.protocol.perfdata;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerFactory;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.remote.JMXAddressable;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXServiceURL;
+import javax.security.auth.Subject;
+
+import com.heliosapm.utils.jmx.perfdata.PerfCounter;
+import com.heliosapm.utils.jmx.perfdata.PerfDataFile;
+import com.heliosapm.utils.jmx.protocol.attach.JVMDiscoveryIndex;
+
+/**
+ * <p>Title: PerfDataJMXConnector</p>
+ * <p>Description: A JMXConnector that memory-maps a local JVM's hsperfdata file and serves its counters
+ * from a private MBeanServer. Counters are grouped by name prefix into read-only {@link PerfCounterGroup} MBeans
+ * named <b><code>hsperfdata:group=&lt;prefix&gt;</code></b> (e.g. <code>hsperfdata:group=sun.gc.collector.0</code>),
+ * with the last segment of each counter's name as the attribute name. Nothing is started in the target JVM.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.protocol.perfdata.PerfDataJMXConnector</code></p>
+ */
+
+public class PerfDataJMXConnector implements JMXConnector, JMXAddressable {
+	/** The provided JMXServiceURL */
+	protected final JMXServiceURL serviceURL;
+	/** The target JVM identifier from the URL path */
+	protected final String jvmIdentifier;
+	/** The target JVM's pid */
+	protected String pid = null;
+	/** The mapped perf data file */
+	protected PerfDataFile perfData = null;
+	/** The private MBeanServer the counter MBeans are registered in */
+	protected MBeanServer mbeanServer = null;
+	/** The connection ID */
+	protected String connectionId = null;
+	/** A connection ID serial number generator */
+	protected static final AtomicLong serial = new AtomicLong(0);
+	
+	/** The JMX domain of the counter MBeans */
+	public static final String DOMAIN = "hsperfdata";
+	
+	/**
+	 * Creates a new PerfDataJMXConnector
+	 * @param serviceURL The JMXServiceURL
+	 */
+	public PerfDataJMXConnector(final JMXServiceURL serviceURL) {
+		this.serviceURL = serviceURL;
+		String urlPath = serviceURL.getURLPath().trim();
+		if(urlPath.startsWith("/")) urlPath = urlPath.substring(1);
+		if(urlPath.isEmpty()) throw new IllegalArgumentException("No JVM identifier in [" + serviceURL + "]");
+		jvmIdentifier = urlPath;
+	}
+	
+	/**
+	 * Resolves the pid of the target JVM
+	 * @return the pid
+	 * @throws IOException thrown if no matching JVM can be found
+	 */
+	protected String resolve() throws IOException {
+		if(isNumber(jvmIdentifier)) return jvmIdentifier;
+		final JVMDiscoveryIndex index = JVMDiscoveryIndex.getInstance();
+		if(jvmIdentifier.startsWith("[") && jvmIdentifier.endsWith("]")) {
+			final List<JVMDiscoveryIndex.JVMEntry> matches = index.find(Pattern.compile(jvmIdentifier.substring(1, jvmIdentifier.length()-1)));
+			if(!matches.isEmpty()) return matches.get(0).getPid();
+		} else {
+			final JVMDiscoveryIndex.JVMEntry entry = index.findByDisplayName(jvmIdentifier);
+			if(entry!=null) return entry.getPid();
+		}
+		throw new IOException("Failed to find any JVMs publishing perf data matching [" + jvmIdentifier + "]");
+	}
+	
+	/**
+	 * Determines if the passed value is a number
+	 * @param value The value to test
+	 * @return true for a number, false otherwise
+	 */
+	protected static boolean isNumber(final String value) {
+		try {
+			Long.parseLong(value);
+			return true;
+		} catch (Exception ex) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Creates a private MBeanServer and registers the passed perf data file's counters in it
+	 * @param perfData The perf data file
+	 * @return the populated MBeanServer
+	 */
+	public static MBeanServer newMBeanServer(final PerfDataFile perfData) {
+		final Map<String, PerfCounterGroup> groups = new LinkedHashMap<String, PerfCounterGroup>();
+		for(PerfCounter counter: perfData.getCounters().values()) {
+			final String name = counter.getName();
+			final int index = name.lastIndexOf('.');
+			final String groupName = index==-1 ? name : name.substring(0, index);
+			final String attributeName = index==-1 ? "value" : name.substring(index + 1);
+			PerfCounterGroup group = groups.get(groupName);
+			if(group==null) {
+				group = new PerfCounterGroup(groupName);
+				groups.put(groupName, group);
+			}
+			group.add(attributeName, counter);
+		}
+		final MBeanServer server = MBeanServerFactory.newMBeanServer(DOMAIN);
+		for(PerfCounterGroup group: groups.values()) {
+			try {
+				server.registerMBean(group, objectName(group.getGroup()));
+			} catch (Exception ex) {
+				throw new RuntimeException("Failed to register perf counter group [" + group.getGroup() + "]", ex);
+			}
+		}
+		return server;
+	}
+	
+	/**
+	 * Builds the ObjectName for the passed counter group, quoting the group if necessary
+	 * @param group The counter group name
+	 * @return the ObjectName
+	 */
+	protected static ObjectName objectName(final String group) {
+		try {
+			return new ObjectName(DOMAIN, "group", group);
+		} catch (MalformedObjectNameException mex) {
+			try {
+				return new ObjectName(DOMAIN, "group", ObjectName.quote(group));
+			} catch (MalformedObjectNameException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#connect()
+	 */
+	@Override
+	public void connect() throws IOException {
+		if(mbeanServer!=null) return;
+		pid = resolve();
+		final File file = PerfDataFile.getPerfDataFile(pid);
+		if(!file.canRead()) throw new IOException("No readable perf data file for JVM [" + pid + "] at [" + file + "]");
+		perfData = new PerfDataFile(file);
+		mbeanServer = newMBeanServer(perfData);
+		connectionId = "perfdata:" + pid + ":" + serial.incrementAndGet();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#connect(java.util.Map)
+	 */
+	@Override
+	public void connect(final Map<String, ?> env) throws IOException {
+		connect();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#getMBeanServerConnection()
+	 */
+	@Override
+	public MBeanServerConnection getMBeanServerConnection() throws IOException {
+		if(mbeanServer==null) throw new IOException("Not connected");
+		return mbeanServer;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#getMBeanServerConnection(javax.security.auth.Subject)
+	 */
+	@Override
+	public MBeanServerConnection getMBeanServerConnection(final Subject delegationSubject) throws IOException {
+		return getMBeanServerConnection();
+	}
+	
+	/**
+	 * Returns the mapped perf data file
+	 * @return the mapped perf data file or null if not connected
+	 */
+	public PerfDataFile getPerfData() {
+		return perfData;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		mbeanServer = null;
+		if(perfData!=null) {
+			perfData.close();
+			perfData = null;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#addConnectionNotificationListener(javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void addConnectionNotificationListener(final NotificationListener listener, final NotificationFilter filter, final Object handback) {
+		// No Op
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#removeConnectionNotificationListener(javax.management.NotificationListener)
+	 */
+	@Override
+	public void removeConnectionNotificationListener(final NotificationListener listener) throws ListenerNotFoundException {
+		// No Op
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#removeConnectionNotificationListener(javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
+	 */
+	@Override
+	public void removeConnectionNotificationListener(final NotificationListener l, final NotificationFilter f, final Object handback) throws ListenerNotFoundException {
+		// No Op
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXConnector#getConnectionId()
+	 */
+	@Override
+	public String getConnectionId() throws IOException {
+		return connectionId;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see javax.management.remote.JMXAddressable#getAddress()
+	 */
+	@Override
+	public JMXServiceURL getAddress() {
+		return serviceURL;
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.heliosapm.utils.jmx.builtins.dynamic;
 
 import javax.management.*;
+import javax.management.openmbean.*;
 
 public class Dynamic_###id### {
 	
@@ -16,4 +17,8 @@ public class Dynamic_###id### {
 		}
 	}
 	
+	public static Object path(final Object value, final String path) {
+		return com.heliosapm.utils.jmx.builtins.Expression.path(value, path);
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,226 @@
+/**
+Licensed to the Apache Software Foundation (ASF) under one
+or more contributor license agreements.  See the NOTICE file
+distributed with this work for additional information
+regarding copyright ownership.  The ASF licenses this file
+to you under the Apache License, Version 2.0 (the
+"License"); you may not use this file except in compliance
+with the License.  You may obtain a copy of the License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License.
+ */
+package com.heliosapm.utils.jmx.builtins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServerConnection;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * <p>Title: ExpressionTest</p>
+ * <p>Description: Tests that the {@link Expression} interpreter types, resolves and evaluates expressions as javac would, 
+ * and leaves what it cannot type to the compiler.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>com.heliosapm.utils.jmx.builtins.ExpressionTest</code></p>
+ */
+
+public class ExpressionTest {
+	/** The connection expressions are evaluated against */
+	static MBeanServerConnection conn = null;
+	/** An attribute of type int, returned as Object by getAttribute */
+	static final String THREAD_COUNT = "conn.getAttribute(on(\"java.lang:type=Threading\"), \"ThreadCount\")";
+	
+	@BeforeClass
+	public static void setUp() {
+		System.setProperty(CompiledClassCache.DISK_PROP, "false");
+		conn = ManagementFactory.getPlatformMBeanServer();
+	}
+	
+	/**
+	 * Parses and evaluates an expression that must be within the grammar
+	 * @param text The expression text
+	 * @return the value
+	 * @throws Exception thrown on any error evaluating the expression
+	 */
+	static Object eval(final String text) throws Exception {
+		final Expression expr = Expression.parse(text);
+		assertNotNull("Not interpreted: " + text, expr);
+		return expr.evaluate(conn);
+	}
+	
+	/**
+	 * Asserts that an expression is left to the compiler
+	 * @param text The expression text
+	 */
+	static void assertCompiled(final String text) {
+		assertNull("Interpreted: " + text, Expression.parse(text));
+	}
+	
+	@Test
+	public void testLiterals() throws Exception {
+		assertEquals("a\tb", eval("\"a\\tb\""));
+		assertEquals(42, eval("42"));
+		assertEquals(42L, eval("42L"));
+		assertEquals(1.5f, eval("1.5f"));
+		assertEquals(1.5d, eval("1.5"));
+		assertEquals(Boolean.TRUE, eval("true"));
+		assertNull(eval("null"));
+		assertEquals(int.class, Expression.parse("42").getType());
+		assertEquals(Expression.NULL_TYPE, Expression.parse("null").getType());
+	}
+	
+	@Test
+	public void testArithmetic() throws Exception {
+		assertEquals(7, eval("1 + 2 * 3"));
+		assertEquals(9, eval("(1 + 2) * 3"));
+		assertEquals(-1, eval("-(1)"));
+		assertEquals(3L, eval("1 + 2L"));
+		assertEquals(2.5d, eval("5 / 2.0"));
+		assertEquals(2, eval("5 / 2"));
+		assertEquals(1, eval("5 % 2"));
+		assertEquals(int.class, Expression.parse("+(byte)1").getType());
+		try {
+			eval("1 / 0");
+			fail("Expected ArithmeticException");
+		} catch (ArithmeticException expected) {/* No Op */}
+	}
+	
+	@Test
+	public void testConcatenation() throws Exception {
+		assertEquals("a12", eval("\"a\" + 1 + 2"));
+		assertEquals("3a", eval("1 + 2 + \"a\""));
+		assertEquals("anull", eval("\"a\" + null"));
+		assertEquals(String.class, Expression.parse("\"a\" + 1").getType());
+	}
+	
+	@Test
+	public void testUnparseable() {
+		assertCompiled("1 +");
+		assertCompiled("foo(1)");
+		assertCompiled("0x10");
+		assertCompiled("conn.");
+		assertCompiled("\"a\" - 1");
+		assertCompiled("-\"a\"");
+		assertCompiled("+\"a\"");
+		assertCompiled("null + 1");
+		assertCompiled("on(1)");
+		assertCompiled("true + 1");
+	}
+	
+	@Test
+	public void testCalls() throws Exception {
+		assertTrue(eval("conn.getMBeanCount()") instanceof Integer);
+		assertEquals(Integer.class, Expression.parse("conn.getMBeanCount()").getType());
+		assertEquals(int.class, Expression.parse("conn.getMBeanCount() + 1").getType());
+		assertEquals(Boolean.TRUE, eval("conn.isRegistered(on(\"java.lang:type=Runtime\"))"));
+		assertEquals(3, eval("\"abc\".length()"));
+		assertEquals("bc", eval("\"abc\".substring(1)"));
+		assertEquals("ABC", eval("\"abc\".toUpperCase()"));
+		// methods of Object are members of interface types
+		assertEquals(String.class, Expression.parse("conn.toString()").getType());
+		try {
+			eval("conn.getAttribute(on(\"java.lang:type=NoSuchType\"), \"Foo\")");
+			fail("Expected InstanceNotFoundException");
+		} catch (javax.management.InstanceNotFoundException expected) {/* No Op */}
+	}
+	
+	@Test
+	public void testOverloadResolution() throws Exception {
+		// indexOf(String) and indexOf(int)
+		assertEquals(1, eval("\"abc\".indexOf(\"b\")"));
+		assertEquals(1, eval("\"abc\".indexOf(98)"));
+		// the strict phase selects valueOf(int), valueOf(long) and valueOf(float) over valueOf(Object), which needs boxing
+		assertEquals("1", eval("\"\".valueOf(1)"));
+		assertEquals("1", eval("\"\".valueOf(1L)"));
+		assertEquals("1.5", eval("\"\".valueOf(1.5f)"));
+		// the most specific of valueOf(int), valueOf(long), valueOf(float) and valueOf(double) for a byte
+		assertEquals("1", eval("\"\".valueOf((byte)1)"));
+		// the loose phase unboxes an Integer to valueOf(int)
+		assertEquals(String.valueOf(conn.getMBeanCount()), eval("\"\".valueOf(conn.getMBeanCount())"));
+		// valueOf(char[]) and valueOf(Object) both accept null, and valueOf(char[]), which throws a NullPointerException, is more specific
+		try {
+			eval("\"\".valueOf(null)");
+			fail("Expected NullPointerException");
+		} catch (NullPointerException expected) {/* No Op */}
+	}
+	
+	@Test
+	public void testCasts() throws Exception {
+		assertEquals(1L, eval("(long)1"));
+		assertEquals(2, eval("(int)2.7"));
+		assertEquals((byte)-56, eval("(byte)200"));
+		assertEquals("a", eval("(String)\"a\""));
+		assertEquals(1, eval("(Object)1"));
+		// unboxing followed by widening
+		assertTrue(eval("(long)conn.getMBeanCount()") instanceof Long);
+		// a checked cast to the wrapper, then unboxing
+		assertTrue(eval("(int)" + THREAD_COUNT) instanceof Integer);
+		try {
+			eval("(long)" + THREAD_COUNT);
+			fail("Expected ClassCastException");
+		} catch (ClassCastException expected) {/* No Op */}
+		try {
+			eval("(String)" + THREAD_COUNT);
+			fail("Expected ClassCastException");
+		} catch (ClassCastException expected) {/* No Op */}
+		try {
+			eval("(int)(Integer)null");
+			fail("Expected NullPointerException");
+		} catch (NullPointerException expected) {/* No Op */}
+		// casts javac rejects
+		assertCompiled("(short)conn.getMBeanCount()");
+		assertCompiled("(String)1");
+		assertCompiled("(Integer)\"a\"");
+		assertCompiled("(Long)1");
+		assertCompiled("(int)null");
+		assertCompiled("(boolean)1");
+	}
+	
+	@Test
+	public void testStaticTyping() {
+		// getAttribute returns Object, so only the members of Object can be called on its value
+		assertCompiled(THREAD_COUNT + ".intValue()");
+		assertCompiled("conn.getAttribute(on(\"java.lang:type=Memory\"), \"HeapMemoryUsage\").get(\"used\")");
+		assertNotNull(Expression.parse(THREAD_COUNT + ".toString()"));
+		assertNotNull(Expression.parse("((Integer)" + THREAD_COUNT + ").intValue()"));
+		assertCompiled(THREAD_COUNT + " + 1");
+		assertCompiled("null.toString()");
+	}
+	
+	@Test
+	public void testVariableArity() {
+		// getMethod(String, Class...) is only applicable by variable arity invocation
+		assertCompiled("conn.getClass().getMethod(\"toString\")");
+	}
+	
+	@Test
+	public void testCompilerFallback() throws Exception {
+		final DynamicBuiltIn builtIn = new DynamicBuiltIn();
+		assertEquals("toString", builtIn.execute(conn, "conn.getClass().getMethod(\"toString\").getName()"));
+		assertEquals(Integer.class, builtIn.execute(conn, "(Integer)" + THREAD_COUNT).getClass());
+		final Object used = builtIn.execute(conn, "path(conn.getAttribute(on(\"java.lang:type=Memory\"), \"HeapMemoryUsage\"), \"used\")");
+		assertTrue(used instanceof Long);
+		try {
+			builtIn.execute(conn, "conn.getAttribute(on(\"java.lang:type=Memory\"), \"HeapMemoryUsage\").get(\"used\")");
+			fail("Expected a compilation failure");
+		} catch (Exception expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().startsWith("Failed to compile code"));
+		}
+	}
+}